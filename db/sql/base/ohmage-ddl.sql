@@ -297,6 +297,8 @@ CREATE TABLE survey_response (
   PRIMARY KEY (id),
   KEY key_user_id (user_id),
   KEY key_campaign_id (campaign_id),
+  KEY key_campaign_id_epoch_millis_uuid (campaign_id, epoch_millis, uuid), -- survey response paging
+  KEY key_campaign_id_last_modified_timestamp (campaign_id, last_modified_timestamp), -- visualization cache
   CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,    
   CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
@@ -392,6 +394,32 @@ CREATE TABLE mobility_extended (
   CONSTRAINT FOREIGN KEY (mobility_id) REFERENCES mobility (id) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+-- --------------------------------------------------------------------
+-- A summary of a user's Mobility points with the same mode and time zone
+-- within one minute. The Mobility reads are answered from these instead of
+-- from the points. When points are uploaded, the rollups around them are
+-- rebuilt from the stored points, both those in this table and those in the
+-- Mobility observer's streams.
+-- --------------------------------------------------------------------
+CREATE TABLE mobility_rollup (
+  user_id int unsigned NOT NULL,
+  epoch_millis bigint NOT NULL, -- the start of the minute
+  phone_timezone varchar(32) NOT NULL,
+  mode varchar(30) NOT NULL,
+  point_count int unsigned NOT NULL,
+  duration bigint NOT NULL,
+  first_epoch_millis bigint NOT NULL,
+  first_duration bigint NOT NULL,
+  first_location_status tinytext NOT NULL,
+  first_location text,
+  last_epoch_millis bigint NOT NULL,
+  PRIMARY KEY (user_id, epoch_millis, phone_timezone, mode),
+  CONSTRAINT mobility_rollup_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 -- --------------------------------------------------------------------
 -- Preferences table to hold key-value pairs of items that need to be
 -- stored but we don't want to store in configuration files.
@@ -651,6 +679,11 @@ CREATE TABLE observer_stream_data (
   KEY observer_stream_data_key_observer_stream_link_id (observer_stream_link_id),
   KEY observer_stream_data_key_user_id (user_id),
   INDEX observer_stream_data_index_time_adjusted (time_adjusted),
+  -- Data is read a page at a time in the order of its adjusted time and then
+  -- its ID. This key allows a continuation token to seek directly to the
+  -- next page.
+  KEY observer_stream_data_key_user_link_time_adjusted
+    (user_id, observer_stream_link_id, time_adjusted, id),
   CONSTRAINT observer_stream_data_foreign_key_user_id 
     FOREIGN KEY (user_id) 
     REFERENCES user (id) 
@@ -660,3 +693,21 @@ CREATE TABLE observer_stream_data (
     REFERENCES observer_stream_link (id) 
     ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- --------------------------------------------------------------------
+-- The authentication tokens that have been issued to users. This is only
+-- used when the server is configured to share its tokens with other 
+-- instances, see the 'tokenStore' bean.
+-- --------------------------------------------------------------------
+CREATE TABLE user_auth_token (
+  token char(36) NOT NULL,
+  user_id int unsigned NOT NULL,
+  last_access_millis bigint NOT NULL,
+  PRIMARY KEY (token),
+  UNIQUE KEY user_auth_token_unique_key_user_id (user_id),
+  KEY user_auth_token_key_last_access_millis (last_access_millis),
+  CONSTRAINT user_auth_token_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
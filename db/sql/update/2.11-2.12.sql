@@ -123,6 +123,11 @@ CREATE TABLE observer_stream_data (
   KEY observer_stream_data_key_observer_stream_link_id (observer_stream_link_id),
   KEY observer_stream_data_key_user_id (user_id),
   INDEX observer_stream_data_index_time_adjusted (time_adjusted),
+  -- Data is read a page at a time in the order of its adjusted time and then
+  -- its ID. This key allows a continuation token to seek directly to the
+  -- next page.
+  KEY observer_stream_data_key_user_link_time_adjusted
+    (user_id, observer_stream_link_id, time_adjusted, id),
   CONSTRAINT observer_stream_data_foreign_key_user_id 
     FOREIGN KEY (user_id) 
     REFERENCES user (id) 
@@ -136,4 +141,105 @@ CREATE TABLE observer_stream_data (
 -- Add the new preference key.
 INSERT INTO preference 
     VALUES ('audit_log_location', '/opt/ohmage/logs/audits/'),
-           ('fully_qualified_domain_name', 'http://localhost/');
\ No newline at end of file
+           ('fully_qualified_domain_name', 'http://localhost/');
+
+-- --------------------------------------------------------------------
+-- The authentication tokens that have been issued to users. This is only
+-- used when the server is configured to share its tokens with other 
+-- instances, see the 'tokenStore' bean.
+-- --------------------------------------------------------------------
+CREATE TABLE user_auth_token (
+  token char(36) NOT NULL,
+  user_id int unsigned NOT NULL,
+  last_access_millis bigint NOT NULL,
+  PRIMARY KEY (token),
+  UNIQUE KEY user_auth_token_unique_key_user_id (user_id),
+  KEY user_auth_token_key_last_access_millis (last_access_millis),
+  CONSTRAINT user_auth_token_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Survey responses are read a page at a time in the order of their time and
+-- then their UUID. This key allows a continuation token to seek directly to
+-- the next page.
+ALTER TABLE survey_response 
+    ADD KEY key_campaign_id_epoch_millis_uuid (campaign_id, epoch_millis, uuid);
+
+-- The cached visualizations for a campaign are used until its survey
+-- responses change, which is checked with the number of them and the last
+-- time any of them was modified. This key answers that from the index alone.
+ALTER TABLE survey_response 
+    ADD KEY key_campaign_id_last_modified_timestamp 
+        (campaign_id, last_modified_timestamp);
+
+-- --------------------------------------------------------------------
+-- A summary of a user's Mobility points with the same mode and time zone
+-- within one minute. The Mobility reads are answered from these instead of
+-- from the points. When points are uploaded, the rollups around them are
+-- rebuilt from the stored points, both those in the mobility table and those
+-- in the Mobility observer's streams.
+-- --------------------------------------------------------------------
+CREATE TABLE mobility_rollup (
+  user_id int unsigned NOT NULL,
+  epoch_millis bigint NOT NULL, -- the start of the minute
+  phone_timezone varchar(32) NOT NULL,
+  mode varchar(30) NOT NULL,
+  point_count int unsigned NOT NULL,
+  duration bigint NOT NULL,
+  first_epoch_millis bigint NOT NULL,
+  first_duration bigint NOT NULL,
+  first_location_status tinytext NOT NULL,
+  first_location text,
+  last_epoch_millis bigint NOT NULL,
+  PRIMARY KEY (user_id, epoch_millis, phone_timezone, mode),
+  CONSTRAINT mobility_rollup_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Roll up the existing Mobility points, which are all in the mobility table
+-- because the observer tables were only just created. Each point is credited
+-- with the time since the user's previous point if that was at most an hour
+-- before it, otherwise with one minute.
+CREATE TEMPORARY TABLE mobility_rollup_point AS
+    SELECT m.user_id, m.epoch_millis, m.phone_timezone, m.mode,
+        m.location_status, m.location,
+        IFNULL(
+            (SELECT m.epoch_millis - MAX(p.epoch_millis)
+             FROM mobility p
+             WHERE p.user_id = m.user_id
+             AND p.epoch_millis >= m.epoch_millis - 3600000
+             AND (p.epoch_millis < m.epoch_millis
+                OR (p.epoch_millis = m.epoch_millis AND p.id < m.id))),
+            60000) AS duration
+    FROM mobility m;
+
+INSERT INTO mobility_rollup (
+        user_id, epoch_millis, phone_timezone, mode, 
+        point_count, duration, 
+        first_epoch_millis, first_duration, 
+        first_location_status, first_location, 
+        last_epoch_millis)
+    SELECT user_id, (epoch_millis DIV 60000) * 60000 AS minute, 
+        phone_timezone, mode, 
+        COUNT(*), SUM(duration), 
+        MIN(epoch_millis), 0, 
+        'unavailable', NULL, 
+        MAX(epoch_millis)
+    FROM mobility_rollup_point
+    GROUP BY user_id, minute, phone_timezone, mode;
+
+-- Copy the first point of each rollup.
+UPDATE mobility_rollup mr, mobility_rollup_point p
+    SET mr.first_duration = p.duration,
+        mr.first_location_status = p.location_status,
+        mr.first_location = p.location
+    WHERE p.user_id = mr.user_id
+    AND p.epoch_millis = mr.first_epoch_millis
+    AND p.phone_timezone = mr.phone_timezone
+    AND p.mode = mr.mode;
+
+DROP TEMPORARY TABLE mobility_rollup_point;
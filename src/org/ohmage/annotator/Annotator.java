@@ -61,6 +61,7 @@ public class Annotator {
 		SERVER_INVALID_NUM_TO_RETURN ("0309"),
 		SERVER_INVALID_CAPTCHA ("0310"),
 		SERVER_SELF_REGISTRATION_NOT_ALLOWED ("0311"),
+		SERVER_INVALID_CONTINUATION_TOKEN ("0312"),
 
 		MOBILITY_INVALID_SUBTYPE ("0500"),
 		MOBILITY_INVALID_MODE ("0501"),
@@ -193,6 +194,7 @@ public class Annotator {
 		OBSERVER_INVALID_STREAM_DEFINITION ("1512"),
 		OBSERVER_INVALID_STREAM_DATA ("1513"),
 		OBSERVER_INVALID_COLUMN_LIST ("1514"),
+		OBSERVER_INVALID_OUTPUT_FORMAT ("1515"),
 		
 		VIDEO_INVALID_ID("1600"),
 
@@ -203,7 +205,8 @@ public class Annotator {
 		OMH_INVALID_SUMMARIZE ("1704"),
 		OMH_INVALID_NUM_TO_SKIP ("1705"),
 		OMH_INVALID_NUM_TO_RETURN ("1706"),
-		OMH_INVALID_REQUESTER ("1707");
+		OMH_INVALID_REQUESTER ("1707"),
+		OMH_INVALID_OUTPUT_FORMAT ("1708");
 		
 		private final String value;
 		
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.Campaign.PrivacyState;
+import org.ohmage.domain.campaign.Campaign.RunningState;
+import org.ohmage.exception.DomainException;
+
+/**
+ * A bounded cache of campaigns that have already been parsed from their XML.
+ * Parsing a campaign's XML is expensive, and the XML rarely changes, so each
+ * campaign is parsed once and then copied for each request.<br />
+ * <br />
+ * Entries are keyed by the campaign's unique identifier and are only used if
+ * the creation timestamp and the XML are the same as those that were given
+ * when the entry was created. This means that a campaign whose XML was
+ * changed by another instance of ohmage is never served stale, but the
+ * entries should still be invalidated whenever a campaign is updated or
+ * deleted so that they do not take up space.
+ * 
+ * @see Campaign#Campaign(Campaign, String, RunningState, PrivacyState)
+ */
+public final class CampaignCache {
+	private static final Logger LOGGER = Logger.getLogger(CampaignCache.class);
+	
+	/**
+	 * The maximum number of campaigns to keep in the cache.
+	 */
+	public static final int MAX_NUM_CAMPAIGNS = 256;
+	
+	/**
+	 * A parsed campaign and the values that were used to parse it.
+	 */
+	private static final class CachedCampaign {
+		private final long creationTimestamp;
+		private final String xml;
+		private final Campaign campaign;
+		
+		/**
+		 * Creates a new cache entry.
+		 * 
+		 * @param creationTimestamp The campaign's creation timestamp.
+		 * 
+		 * @param xml The campaign's XML.
+		 * 
+		 * @param campaign The campaign that was parsed from the XML.
+		 */
+		private CachedCampaign(
+				final long creationTimestamp,
+				final String xml,
+				final Campaign campaign) {
+			
+			this.creationTimestamp = creationTimestamp;
+			this.xml = xml;
+			this.campaign = campaign;
+		}
+		
+		/**
+		 * Returns whether or not this entry was created from the same values.
+		 * 
+		 * @param creationTimestamp The campaign's creation timestamp.
+		 * 
+		 * @param xml The campaign's XML.
+		 * 
+		 * @return True if the values are the same; false, otherwise.
+		 */
+		private boolean matches(
+				final long creationTimestamp,
+				final String xml) {
+			
+			return
+				(this.creationTimestamp == creationTimestamp) &&
+				this.xml.equals(xml);
+		}
+	}
+	
+	// The least recently used campaigns are evicted first. All access must be
+	// synchronized on the map, but the lock is never held while parsing.
+	private static final Map<String, CachedCampaign> CAMPAIGNS =
+		new LinkedHashMap<String, CachedCampaign>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Evicts the least recently used campaign once the cache is
+			 * full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, CachedCampaign> eldest) {
+				
+				return size() > MAX_NUM_CAMPAIGNS;
+			}
+		};
+	
+	// The statistics for the cache.
+	private static final AtomicLong HITS = new AtomicLong(0);
+	private static final AtomicLong MISSES = new AtomicLong(0);
+	
+	/**
+	 * Default constructor, made private because this class should be
+	 * referenced statically.
+	 */
+	private CampaignCache() {};
+	
+	/**
+	 * Returns a campaign built from its XML. If the same XML has already been
+	 * parsed, the parsed campaign is copied; otherwise, the XML is parsed and
+	 * the result is cached.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param description The optional description of the configuration.
+	 * 
+	 * @param runningState The configuration's current running state.
+	 * 
+	 * @param privacyState The configuration's current privacy state.
+	 * 
+	 * @param creationTimestamp The configuration's creation date and time.
+	 * 
+	 * @param xml The configuration defining XML.
+	 * 
+	 * @return A campaign that belongs only to the caller.
+	 * 
+	 * @throws DomainException If any of the parameters are invalid.
+	 */
+	public static Campaign getCampaign(
+			final String campaignId,
+			final String description,
+			final RunningState runningState,
+			final PrivacyState privacyState,
+			final Date creationTimestamp,
+			final String xml)
+			throws DomainException {
+		
+		if((campaignId == null) || (creationTimestamp == null) || (xml == null)) {
+			// Let the campaign decide how to report the invalid parameters.
+			return
+				new Campaign(
+					description,
+					runningState,
+					privacyState,
+					creationTimestamp,
+					xml);
+		}
+		
+		CachedCampaign entry;
+		synchronized(CAMPAIGNS) {
+			entry = CAMPAIGNS.get(campaignId);
+		}
+		
+		if((entry != null) && entry.matches(creationTimestamp.getTime(), xml)) {
+			HITS.incrementAndGet();
+		}
+		else {
+			MISSES.incrementAndGet();
+			
+			if(LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Parsing the XML for campaign: " + campaignId);
+			}
+			
+			// Two requests may parse the same campaign at the same time, but
+			// that is cheaper than making every request wait on the parse.
+			entry =
+				new CachedCampaign(
+					creationTimestamp.getTime(),
+					xml,
+					new Campaign(
+						description,
+						runningState,
+						privacyState,
+						creationTimestamp,
+						xml));
+			
+			synchronized(CAMPAIGNS) {
+				CAMPAIGNS.put(campaignId, entry);
+			}
+		}
+		
+		return
+			new Campaign(entry.campaign, description, runningState, privacyState);
+	}
+	
+	/**
+	 * Removes a campaign from the cache. This should be called whenever a
+	 * campaign is updated or deleted.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 */
+	public static void invalidate(final String campaignId) {
+		synchronized(CAMPAIGNS) {
+			CAMPAIGNS.remove(campaignId);
+		}
+	}
+	
+	/**
+	 * Returns the number of campaigns that are currently cached.
+	 * 
+	 * @return The number of cached campaigns.
+	 */
+	public static int size() {
+		synchronized(CAMPAIGNS) {
+			return CAMPAIGNS.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of times a campaign was found in the cache.
+	 * 
+	 * @return The number of cache hits.
+	 */
+	public static long getHitCount() {
+		return HITS.get();
+	}
+	
+	/**
+	 * Returns the number of times a campaign had to be parsed because it was
+	 * not in the cache or its XML had changed.
+	 * 
+	 * @return The number of cache misses.
+	 */
+	public static long getMissCount() {
+		return MISSES.get();
+	}
+}
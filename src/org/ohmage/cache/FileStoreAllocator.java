@@ -0,0 +1,577 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Hands out the directories to which new documents, images, and videos are
+ * written. Each kind of file is stored in its own tree of numbered
+ * directories whose depth is given by the
+ * {@value PreferenceCache#KEY_FILE_HIERARCHY_DEPTH} preference and where every
+ * directory holds at most as many entries as given by the
+ * {@value PreferenceCache#KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY}
+ * preference.
+ * <br />
+ * <br />
+ * The files are always written to the most recent leaf directory. The number
+ * of files in it is counted once, when it is first used, and is then kept in
+ * memory, so the directory is never listed again while files are being
+ * written. Only when the leaf directory is full are the other directories
+ * examined, under a lock, to create the next leaf directory.<br />
+ * <br />
+ * Every allocation is expected to be followed by writing that many files,
+ * but a file that is never written, or that is later deleted, only means
+ * that its directory holds fewer files than it could.<br />
+ * <br />
+ * The count is only kept per server. When several servers share the same
+ * directories, each counts only its own files, so a leaf directory that they
+ * write to at the same time may hold up to that many times the maximum
+ * number of files. When a server's leaf directory is full, it lists the
+ * directories again and moves to the newest leaf directory if another
+ * server has already created it, so the servers do not spread out over
+ * different leaf directories.
+ */
+public final class FileStoreAllocator {
+	private static final Logger LOGGER =
+		Logger.getLogger(FileStoreAllocator.class);
+	
+	/**
+	 * The allocators for each of the directory keys.
+	 */
+	private static final ConcurrentMap<String, FileStoreAllocator> ALLOCATORS =
+		new ConcurrentHashMap<String, FileStoreAllocator>();
+	
+	/**
+	 * Filters the sub-directories in a directory to only return those that
+	 * match the regular expression matcher for directories.
+	 * 
+	 * @author Joshua Selsky
+	 */
+	private static final class DirectoryFilter implements FilenameFilter {
+		private static final Pattern DIRECTORY_PATTERN =
+			Pattern.compile("[0-9]+");
+		
+		/**
+		 * Returns true iff the filename is appropriate for the regular
+		 * expression.
+		 */
+		public boolean accept(File f, String name) {
+			return DIRECTORY_PATTERN.matcher(name).matches();
+		}
+	}
+	
+	/**
+	 * A leaf directory and the number of files that have been allocated in
+	 * it.
+	 */
+	private static final class Leaf {
+		private final File directory;
+		private final AtomicInteger numFiles;
+		
+		/**
+		 * Creates a leaf directory.
+		 * 
+		 * @param directory The directory.
+		 * 
+		 * @param numFiles The number of files already in the directory.
+		 */
+		private Leaf(final File directory, final int numFiles) {
+			this.directory = directory;
+			this.numFiles = new AtomicInteger(numFiles);
+		}
+	}
+	
+	private final String directoryKey;
+	
+	// These are set by the constructor or, if they are read from the
+	// preferences, before the first leaf directory is set.
+	private boolean configured;
+	private File rootDirectory;
+	private int fileDepth;
+	private int numFilesPerDirectory;
+	
+	// The leaf directory to which the next file should be written. This is
+	// only changed while holding this object's lock, but it may be read
+	// without it.
+	private volatile Leaf currLeaf = null;
+	
+	/**
+	 * Creates an allocator for one kind of file.
+	 * 
+	 * @param directoryKey The preference key of the root directory.
+	 */
+	private FileStoreAllocator(final String directoryKey) {
+		this.directoryKey = directoryKey;
+		configured = false;
+	}
+	
+	/**
+	 * Creates an allocator whose settings are given rather than read from
+	 * the preferences.
+	 * 
+	 * @param rootDirectory The root directory.
+	 * 
+	 * @param fileDepth The number of directories between the root directory
+	 * 					and the files.
+	 * 
+	 * @param numFilesPerDirectory The maximum number of entries in each
+	 * 							   directory.
+	 */
+	FileStoreAllocator(
+			final File rootDirectory,
+			final int fileDepth,
+			final int numFilesPerDirectory) {
+		
+		directoryKey = rootDirectory.getPath();
+		
+		this.rootDirectory = rootDirectory.getAbsoluteFile();
+		this.fileDepth = fileDepth;
+		this.numFilesPerDirectory = numFilesPerDirectory;
+		configured = true;
+	}
+	
+	/**
+	 * Returns the allocator for the files stored under a root directory.
+	 * 
+	 * @param directoryKey The {@link PreferenceCache} key whose value is the
+	 * 					   root directory, e.g.
+	 * 					   {@link PreferenceCache#KEY_DOCUMENT_DIRECTORY}.
+	 * 
+	 * @return The allocator for the root directory.
+	 */
+	public static FileStoreAllocator instance(final String directoryKey) {
+		FileStoreAllocator result = ALLOCATORS.get(directoryKey);
+		if(result == null) {
+			FileStoreAllocator newAllocator =
+				new FileStoreAllocator(directoryKey);
+			
+			result = ALLOCATORS.putIfAbsent(directoryKey, newAllocator);
+			if(result == null) {
+				result = newAllocator;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Retrieves the directory to which one new file should be written.
+	 * 
+	 * @return The directory to which the file should be written.
+	 * 
+	 * @throws DomainException The directory structure is full or could not be
+	 * 						   read or created.
+	 * 
+	 * @see #allocate(int)
+	 */
+	public File allocate() throws DomainException {
+		return allocate(1);
+	}
+	
+	/**
+	 * Retrieves the directory to which some new files should be written. All
+	 * of the files will be written to the same directory.
+	 * 
+	 * @param numFiles The number of files that will be written.
+	 * 
+	 * @return The directory to which the files should be written.
+	 * 
+	 * @throws DomainException The directory structure is full or could not be
+	 * 						   read or created.
+	 */
+	public File allocate(final int numFiles) throws DomainException {
+		if(numFiles < 1) {
+			throw new DomainException(
+				"The number of files must be positive.");
+		}
+		
+		Leaf leaf = currLeaf;
+		if(leaf == null) {
+			leaf = init();
+		}
+		
+		while(true) {
+			int allocated = leaf.numFiles.addAndGet(numFiles);
+			
+			// If the files fit, or if they are the first files in the
+			// directory and would never fit in any directory, use it.
+			if((allocated <= numFilesPerDirectory) || (allocated == numFiles)) {
+				return leaf.directory;
+			}
+			
+			leaf = getNewLeaf(leaf);
+		}
+	}
+	
+	/**
+	 * Reads the settings, if necessary, and finds the current leaf
+	 * directory. The directory may already be full, in which case a new one
+	 * is created by the first allocation.
+	 * 
+	 * @return The current leaf directory.
+	 */
+	private synchronized Leaf init() throws DomainException {
+		// If the current leaf directory has been set, we weren't the first to
+		// call init(), so we can just back out.
+		if(currLeaf != null) {
+			return currLeaf;
+		}
+		
+		if(! configured) {
+			readPreferences();
+			configured = true;
+		}
+		
+		if(! rootDirectory.exists()) {
+			throw new DomainException(
+				"The root file doesn't exist suggesting an incomplete installation: " +
+					rootDirectory.getPath());
+		}
+		else if(! rootDirectory.isDirectory()) {
+			throw new DomainException("The root file isn't a directory.");
+		}
+		
+		currLeaf = findLeaf();
+		
+		LOGGER.info(
+			"Writing the files for '" + directoryKey + "' to: " +
+				currLeaf.directory.getAbsolutePath() + " (" +
+				currLeaf.numFiles.get() + " files)");
+		
+		return currLeaf;
+	}
+	
+	/**
+	 * Reads the root directory, the depth of the directories, and the
+	 * maximum number of files per directory from the preferences.
+	 * 
+	 * @throws DomainException A preference is missing or invalid.
+	 */
+	private void readPreferences() throws DomainException {
+		// Get the maximum number of items in a directory.
+		try {
+			numFilesPerDirectory =
+				Integer.decode(
+					PreferenceCache.instance().lookup(
+						PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY));
+		}
+		catch(CacheMissException e) {
+			throw new DomainException(
+				"Preference cache doesn't know about 'known' key: " +
+					PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY,
+				e);
+		}
+		catch(NumberFormatException e) {
+			throw new DomainException(
+				"Stored value for key '" +
+					PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY +
+					"' is not decodable as a number.",
+				e);
+		}
+		
+		// Get the root directory from the preference cache based on the
+		// key.
+		String rootFile;
+		try {
+			rootFile = PreferenceCache.instance().lookup(directoryKey);
+		}
+		catch(CacheMissException e) {
+			throw new DomainException(
+				"Preference cache doesn't know about 'known' key: " +
+					directoryKey,
+				e);
+		}
+		rootDirectory = new File(rootFile).getAbsoluteFile();
+		
+		// Get the number of folders deep that files are stored.
+		try {
+			fileDepth =
+				Integer.decode(
+					PreferenceCache.instance().lookup(
+						PreferenceCache.KEY_FILE_HIERARCHY_DEPTH));
+		}
+		catch(CacheMissException e) {
+			throw new DomainException(
+				"Preference cache doesn't know about 'known' key: " +
+					PreferenceCache.KEY_FILE_HIERARCHY_DEPTH,
+				e);
+		}
+		catch(NumberFormatException e) {
+			throw new DomainException(
+				"Stored value for key '" +
+					PreferenceCache.KEY_FILE_HIERARCHY_DEPTH +
+					"' is not decodable as a number.",
+				e);
+		}
+	}
+	
+	/**
+	 * Drills down to the leaf directory by choosing the directory with the
+	 * largest integer value at each step, creating the first directory where
+	 * there are none, and then counts the files in that directory.
+	 * 
+	 * @return The leaf directory with the number of files in it.
+	 * 
+	 * @throws DomainException A directory could not be read or created.
+	 */
+	private Leaf findLeaf() throws DomainException {
+		try {
+			DirectoryFilter directoryFilter = new DirectoryFilter();
+			File currDirectory = rootDirectory;
+			for(int currDepth = 0; currDepth < fileDepth; currDepth++) {
+				// Get the list of directories in the current directory.
+				File[] currDirectories =
+					listFiles(currDirectory, directoryFilter);
+				
+				// If there aren't any, create the first sub-directory in this
+				// directory.
+				if(currDirectories.length == 0) {
+					currDirectory =
+						new File(currDirectory, directoryNameBuilder(0));
+					makeDirectory(currDirectory);
+				}
+				// Drill down to the directory with the largest, numeric value.
+				else {
+					currDirectory = getLargestSubfolder(currDirectories);
+				}
+			}
+			
+			return 
+				new Leaf(currDirectory, listFiles(currDirectory, null).length);
+		}
+		catch(SecurityException e) {
+			throw new DomainException(
+				"The current process doesn't have sufficient permiossions to create new directories.",
+				e);
+		}
+	}
+	
+	/**
+	 * Checks again that the current leaf directory is the one that was full.
+	 * If it is not, then it will just return the current one under the
+	 * impression someone else made the change. If it is, it lists the
+	 * directories again to find the newest leaf directory. If another server
+	 * created it and it has room, it is used. Otherwise, it will go up and
+	 * down the directory tree structure to create a new leaf directory in
+	 * which to store new files.
+	 * 
+	 * @param fullLeaf The leaf directory that was full.
+	 * 
+	 * @return The current leaf directory.
+	 */
+	private synchronized Leaf getNewLeaf(
+			final Leaf fullLeaf)
+			throws DomainException {
+		
+		// Make sure that this hasn't changed because another thread may have
+		// preempted us and already changed the current leaf directory.
+		if(currLeaf != fullLeaf) {
+			return currLeaf;
+		}
+		
+		// Another server may have already moved on to a newer leaf directory.
+		Leaf latestLeaf = findLeaf();
+		if((! latestLeaf.directory.equals(fullLeaf.directory)) &&
+			(latestLeaf.numFiles.get() < numFilesPerDirectory)) {
+			
+			currLeaf = latestLeaf;
+			
+			LOGGER.info(
+				"Writing the files for '" + directoryKey + "' to: " +
+					latestLeaf.directory.getAbsolutePath() + " (" +
+					latestLeaf.numFiles.get() + " files)");
+			
+			return currLeaf;
+		}
+		
+		try {
+			// A filter when listing a set of directories for a file.
+			DirectoryFilter directoryFilter = new DirectoryFilter();
+			
+			// A local File to use while we are searching.
+			File newDirectory = latestLeaf.directory;
+			
+			// The number of times we stepped up in the hierarchy.
+			int depth = 0;
+			
+			while(true) {
+				// If we have backed out to the root directory, every
+				// directory is full.
+				if(newDirectory.equals(rootDirectory)) {
+					throw new DomainException(
+						"The directory structure is full: " +
+							rootDirectory.getAbsolutePath());
+				}
+				
+				// Get the current directory's name which should be a Long
+				// value.
+				long currDirectoryName;
+				try {
+					currDirectoryName = Long.parseLong(newDirectory.getName());
+				}
+				catch(NumberFormatException e) {
+					throw new DomainException(
+						"Potential breach of directory structure: " +
+							newDirectory.getAbsolutePath(),
+						e);
+				}
+				
+				// Move the pointer up a directory.
+				newDirectory = newDirectory.getParentFile();
+				
+				// If this directory has room for a new subdirectory,
+				if(listFiles(newDirectory, directoryFilter).length < numFilesPerDirectory) {
+					// Create the next subfolder.
+					newDirectory =
+						new File(
+							newDirectory,
+							directoryNameBuilder(currDirectoryName + 1));
+					makeDirectory(newDirectory);
+					
+					// Continue drilling down to reach an appropriate leaf
+					// node.
+					for(; depth > 0; depth--) {
+						newDirectory =
+							new File(newDirectory, directoryNameBuilder(0));
+						makeDirectory(newDirectory);
+					}
+					
+					break;
+				}
+				// If the parent is full as well, step up again.
+				else {
+					depth++;
+				}
+			}
+			
+			currLeaf =
+				new Leaf(newDirectory, listFiles(newDirectory, null).length);
+			
+			LOGGER.info(
+				"Writing the files for '" + directoryKey + "' to: " +
+					newDirectory.getAbsolutePath());
+			
+			return currLeaf;
+		}
+		catch(SecurityException e) {
+			throw new DomainException(
+				"The current process doesn't have sufficient permiossions to create new directories.",
+				e);
+		}
+	}
+	
+	/**
+	 * Lists the files in a directory.
+	 * 
+	 * @param directory The directory.
+	 * 
+	 * @param filter The filter for the files or null for all files.
+	 * 
+	 * @return The files in the directory.
+	 * 
+	 * @throws DomainException The directory could not be read.
+	 */
+	private static File[] listFiles(
+			final File directory,
+			final FilenameFilter filter)
+			throws DomainException {
+		
+		File[] result = directory.listFiles(filter);
+		if(result == null) {
+			throw new DomainException(
+				"The directory could not be read: " +
+					directory.getAbsolutePath());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Creates a directory unless it already exists.
+	 * 
+	 * @param directory The directory.
+	 * 
+	 * @throws DomainException The directory could not be created.
+	 */
+	private static void makeDirectory(
+			final File directory)
+			throws DomainException {
+		
+		if((! directory.mkdir()) && (! directory.isDirectory())) {
+			throw new DomainException(
+				"The directory could not be created: " +
+					directory.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Builds the name of a folder by prepending zeroes where necessary and
+	 * converting the name into a String.
+	 * 
+	 * @param name The name of the file as an integer.
+	 * 
+	 * @return A String representing the directory name based on the
+	 * 		   parameters.
+	 */
+	private String directoryNameBuilder(final long name) {
+		int nameLength = String.valueOf(name).length();
+		int maxLength = new Double(Math.log10(numFilesPerDirectory)).intValue();
+		int numberOfZeros = maxLength - nameLength;
+		
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < numberOfZeros; i++) {
+			builder.append("0");
+		}
+		builder.append(String.valueOf(name));
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Returns the directory whose name has the largest numeric value. The
+	 * names are compared as numbers because they are only padded to the
+	 * number of digits in the maximum number of files per directory, which
+	 * may be one digit short, e.g. "9" and "10" when the maximum is 20.
+	 * 
+	 * @param directories The list of directories whose names are numbers as
+	 * 					  accepted by the {@link DirectoryFilter}.
+	 * 
+	 * @return Returns the File whose name has the largest numeric value.
+	 */
+	private static File getLargestSubfolder(final File[] directories) {
+		File result = null;
+		long largest = -1;
+		for(File directory : directories) {
+			long value = Long.parseLong(directory.getName());
+			if(value > largest) {
+				result = directory;
+				largest = value;
+			}
+		}
+		
+		return result;
+	}
+}
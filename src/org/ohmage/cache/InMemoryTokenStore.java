@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.User;
+
+/**
+ * A token store that lives entirely in this JVM. Reads never lock. A
+ * secondary index from the user to their token makes replacing a user's
+ * token O(1), and expiration is driven by a time wheel so that each call to
+ * {@link #expire(long)} only visits the tokens that may have expired since
+ * the previous call.
+ */
+public class InMemoryTokenStore implements TokenStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(InMemoryTokenStore.class);
+	
+	/**
+	 * The number of milliseconds covered by each slot in the time wheel.
+	 */
+	private static final long TICK_MILLIS = 60000;
+	
+	/**
+	 * The number of slots in the time wheel. This must cover an entire
+	 * lifetime plus the slot that is currently being processed and the slot
+	 * to which a token may be rounded up.
+	 */
+	private static final int NUM_WHEEL_SLOTS =
+		(int) (UserBin.LIFETIME / TICK_MILLIS) + 2;
+	
+	/**
+	 * An immutable snapshot of the parts of a user that make it equal to
+	 * another user. The User object itself is mutable, so it cannot be used
+	 * as a key in the secondary index.
+	 */
+	private static final class UserKey {
+		private final String username;
+		private final String password;
+		private final boolean loggedIn;
+		private final int hashCode;
+		
+		/**
+		 * Creates a snapshot of the user.
+		 * 
+		 * @param user The user.
+		 */
+		private UserKey(final User user) {
+			username = user.getUsername();
+			password = user.getPassword();
+			loggedIn = user.isLoggedIn();
+			hashCode = user.hashCode();
+		}
+		
+		/**
+		 * Returns the hash code of the user at the time this key was made.
+		 */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		/**
+		 * Compares the username, password, and logged in status, the same as
+		 * {@link User#equals(Object)}.
+		 */
+		@Override
+		public boolean equals(final Object object) {
+			if(this == object) {
+				return true;
+			}
+			if(! (object instanceof UserKey)) {
+				return false;
+			}
+			
+			UserKey other = (UserKey) object;
+			return
+				(loggedIn == other.loggedIn) &&
+				((username == null) ?
+					(other.username == null) :
+					username.equals(other.username)) &&
+				((password == null) ?
+					(other.password == null) :
+					password.equals(other.password));
+		}
+	}
+	
+	/**
+	 * A class for associating users to the time their token expires.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static final class UserTime {
+		private final User user;
+		private final UserKey key;
+		private volatile long time;
+		
+		/**
+		 * Convenience constructor.
+		 * 
+		 * @param user The user that is being stored in the cache.
+		 * 
+		 * @param time The last time this user was accessed in the cache.
+		 */
+		private UserTime(User user, long time) {
+			this.user = user;
+			this.key = new UserKey(user);
+			this.time = time;
+		}
+		
+		/**
+		 * Returns whether or not this user's token has expired.
+		 * 
+		 * @param currentTime The current time in milliseconds.
+		 * 
+		 * @return True if the token has expired; false, otherwise.
+		 */
+		private boolean isExpired(final long currentTime) {
+			return (currentTime - time) > UserBin.LIFETIME;
+		}
+	}
+	
+	// A map of tokens to users and the time that their token expires.
+	private final ConcurrentMap<String, UserTime> users =
+		new ConcurrentHashMap<String, UserTime>();
+	// A secondary index of users to their current token.
+	private final ConcurrentMap<UserKey, String> tokens =
+		new ConcurrentHashMap<UserKey, String>();
+	
+	// The time wheel. Each slot contains the tokens that may expire during
+	// the tick that maps to that slot.
+	private final List<Queue<String>> wheel;
+	// The last tick that was processed.
+	private final AtomicLong lastTick;
+	
+	/**
+	 * Creates an empty token store.
+	 */
+	public InMemoryTokenStore() {
+		wheel = new ArrayList<Queue<String>>(NUM_WHEEL_SLOTS);
+		for(int i = 0; i < NUM_WHEEL_SLOTS; i++) {
+			wheel.add(new ConcurrentLinkedQueue<String>());
+		}
+		
+		lastTick = new AtomicLong(getTick(System.currentTimeMillis()));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#put(java.lang.String, org.ohmage.domain.User, long)
+	 */
+	@Override
+	public void put(final String token, final User user, final long time) {
+		UserTime ut = new UserTime(user, time);
+		
+		String id = tokens.get(ut.key);
+		if(null != id) { // user already exists in the bin
+			
+			if(LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Removing a user that already existed in the bin before adding them in again (login attempt for an "
+					+ "already logged in user)");
+			}
+			
+			users.remove(id);
+		}
+		
+		users.put(token, ut);
+		tokens.put(ut.key, token);
+		
+		schedule(token, time);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#get(java.lang.String, long)
+	 */
+	@Override
+	public User get(final String token, final long time) {
+		UserTime ut = users.get(token);
+		if(ut == null) {
+			return null;
+		}
+		
+		// The time wheel may not have reached this token yet.
+		if(ut.isExpired(time)) {
+			remove(token, ut);
+			return null;
+		}
+		
+		ut.time = time; // refresh the time
+		return ut.user;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#getLastAccessTime(java.lang.String)
+	 */
+	@Override
+	public long getLastAccessTime(final String token) {
+		UserTime ut = users.get(token);
+		if(ut == null) {
+			return -1;
+		}
+		
+		return ut.time;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String token) {
+		UserTime ut = users.remove(token);
+		if(ut != null) {
+			tokens.remove(ut.key, token);
+		}
+	}
+	
+	/**
+	 * Advances the time wheel to the current time and checks only the tokens
+	 * in the slots that were passed. Tokens that were refreshed since they
+	 * were scheduled are rescheduled instead of being removed.
+	 */
+	@Override
+	public void expire(final long time) {
+		long currentTick = getTick(time);
+		
+		long tick = lastTick.get();
+		while(tick < currentTick) {
+			if(! lastTick.compareAndSet(tick, tick + 1)) {
+				tick = lastTick.get();
+				continue;
+			}
+			
+			Queue<String> slot = wheel.get(getSlot(tick));
+			// Only drain what is in the slot right now, as rescheduled
+			// tokens may land back in this slot for a future revolution.
+			int numTokens = slot.size();
+			for(int i = 0; i < numTokens; i++) {
+				String token = slot.poll();
+				if(token == null) {
+					break;
+				}
+				
+				UserTime ut = users.get(token);
+				if(ut == null) {
+					continue;
+				}
+				else if(ut.isExpired(time)) {
+					if(LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Removing user with Id " + token);
+					}
+					
+					remove(token, ut);
+				}
+				else {
+					schedule(token, ut.time);
+				}
+			}
+			
+			tick++;
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#size()
+	 */
+	@Override
+	public int size() {
+		return users.size();
+	}
+	
+	/**
+	 * Removes a token from the store as long as it is still bound to the
+	 * given user.
+	 * 
+	 * @param token The token.
+	 * 
+	 * @param ut The user and time bound to the token.
+	 */
+	private void remove(final String token, final UserTime ut) {
+		if(users.remove(token, ut)) {
+			tokens.remove(ut.key, token);
+		}
+	}
+	
+	/**
+	 * Places a token into the time wheel at the slot for when it would
+	 * expire given the last time it was accessed.
+	 * 
+	 * @param token The token.
+	 * 
+	 * @param time The last time the token was accessed.
+	 */
+	private void schedule(final String token, final long time) {
+		// Round up to the tick after the expiration time.
+		long tick = getTick(time + UserBin.LIFETIME) + 1;
+		
+		// If the wheel has already passed that tick, put it in the next one
+		// to be processed.
+		long currentTick = lastTick.get();
+		if(tick < currentTick) {
+			tick = currentTick;
+		}
+		
+		wheel.get(getSlot(tick)).add(token);
+	}
+	
+	/**
+	 * Converts a time into a tick of the time wheel.
+	 * 
+	 * @param time The time in milliseconds.
+	 * 
+	 * @return The tick.
+	 */
+	private static long getTick(final long time) {
+		return time / TICK_MILLIS;
+	}
+	
+	/**
+	 * Converts a tick into its slot in the time wheel.
+	 * 
+	 * @param tick The tick.
+	 * 
+	 * @return The index of the slot in the time wheel.
+	 */
+	private static int getSlot(final long tick) {
+		return (int) (tick % NUM_WHEEL_SLOTS);
+	}
+}
@@ -0,0 +1,448 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * A token store that persists the tokens in the database so that every
+ * ohmage instance that shares the database can validate tokens issued by any
+ * other instance and tokens survive a restart.<br />
+ * <br />
+ * Each instance keeps a near-cache of the tokens it has seen recently. A
+ * cached token is trusted for the near-cache lifetime before it is
+ * revalidated against the database, at which point its last access time is
+ * also written back. This keeps the database off of the hot path, but it
+ * means that a token that is removed by one instance may still be accepted
+ * by another instance for up to the near-cache lifetime.
+ */
+public class JdbcTokenStore implements TokenStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(JdbcTokenStore.class);
+	
+	// Creates or replaces the user's token. The user may only have one token
+	// at a time, which is enforced by a unique key on the user's ID.
+	private static final String SQL_REPLACE_TOKEN =
+		"REPLACE INTO user_auth_token(token, user_id, last_access_millis) " +
+		"VALUES (" +
+			"?, " +
+			"(SELECT id FROM user WHERE username = ?), " +
+			"?" +
+		")";
+	
+	// Retrieves the user and their last access time for a token.
+	private static final String SQL_GET_TOKEN =
+		"SELECT u.username, u.password, uat.last_access_millis " +
+		"FROM user u, user_auth_token uat " +
+		"WHERE uat.token = ? " +
+		"AND uat.user_id = u.id";
+	
+	// Updates the last access time of a token. This never moves the last
+	// access time backwards in case another instance saw a more recent use.
+	private static final String SQL_UPDATE_LAST_ACCESS =
+		"UPDATE user_auth_token " +
+		"SET last_access_millis = GREATEST(last_access_millis, ?) " +
+		"WHERE token = ?";
+	
+	// Deletes a token.
+	private static final String SQL_DELETE_TOKEN =
+		"DELETE FROM user_auth_token " +
+		"WHERE token = ?";
+	
+	// Deletes all tokens that have not been used since some time.
+	private static final String SQL_DELETE_EXPIRED_TOKENS =
+		"DELETE FROM user_auth_token " +
+		"WHERE last_access_millis < ?";
+	
+	// Counts the tokens.
+	private static final String SQL_COUNT_TOKENS =
+		"SELECT COUNT(token) FROM user_auth_token";
+	
+	/**
+	 * A token that has been seen by this instance.
+	 */
+	private static final class CachedToken {
+		private final User user;
+		private volatile long lastAccess;
+		private volatile long lastValidated;
+		
+		/**
+		 * Creates a cached token.
+		 * 
+		 * @param user The user that owns the token.
+		 * 
+		 * @param lastAccess The last time the token was used.
+		 * 
+		 * @param lastValidated The last time the token was known to be in
+		 * 						the database.
+		 */
+		private CachedToken(
+				final User user,
+				final long lastAccess,
+				final long lastValidated) {
+			
+			this.user = user;
+			this.lastAccess = lastAccess;
+			this.lastValidated = lastValidated;
+		}
+	}
+	
+	private final JdbcTemplate jdbcTemplate;
+	private final PlatformTransactionManager transactionManager;
+	private final long nearCacheLifetime;
+	
+	// The tokens that this instance has seen recently.
+	private final ConcurrentMap<String, CachedToken> nearCache =
+		new ConcurrentHashMap<String, CachedToken>();
+	// An index of the usernames in the near-cache to their token.
+	private final ConcurrentMap<String, String> userTokens =
+		new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Creates a token store backed by the database.
+	 * 
+	 * @param dataSource The DataSource to use when querying the database.
+	 * 
+	 * @param nearCacheLifetime The number of milliseconds that a token may be
+	 * 							used on this instance before it is
+	 * 							revalidated against the database.
+	 * 
+	 * @throws IllegalArgumentException The data source is null or the
+	 * 									near-cache lifetime is negative.
+	 */
+	public JdbcTokenStore(
+			final DataSource dataSource,
+			final long nearCacheLifetime) {
+		
+		if(dataSource == null) {
+			throw new IllegalArgumentException(
+				"The data source cannot be null.");
+		}
+		else if(nearCacheLifetime < 0) {
+			throw new IllegalArgumentException(
+				"The near-cache lifetime cannot be negative.");
+		}
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		transactionManager = new DataSourceTransactionManager(dataSource);
+		this.nearCacheLifetime = nearCacheLifetime;
+	}
+	
+	/**
+	 * Stores the token in the near-cache and the database. If the database
+	 * cannot be updated, the token will only be valid on this instance.
+	 */
+	@Override
+	public void put(final String token, final User user, final long time) {
+		// Remove the user's previous token from this instance. Other
+		// instances will notice when they revalidate it.
+		nearCache.put(token, new CachedToken(user, time, time));
+		String previousToken = userTokens.put(user.getUsername(), token);
+		if(previousToken != null) {
+			nearCache.remove(previousToken);
+		}
+		
+		update(
+			SQL_REPLACE_TOKEN,
+			new Object[] { token, user.getUsername(), time },
+			"(token omitted), " + user.getUsername() + ", " + time);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#get(java.lang.String, long)
+	 */
+	@Override
+	public User get(final String token, final long time) {
+		CachedToken cachedToken = nearCache.get(token);
+		boolean fromDatabase = false;
+		
+		// If the token isn't cached, go to the database.
+		if(cachedToken == null) {
+			cachedToken = getFromDatabase(token, time);
+			if(cachedToken == null) {
+				return null;
+			}
+			fromDatabase = true;
+		}
+		
+		if((time - cachedToken.lastAccess) > UserBin.LIFETIME) {
+			// Another instance may have used the token since this one last
+			// did, so only the database can say that it has expired. Drop
+			// the stale copy and read the token again.
+			if(! fromDatabase) {
+				evict(token);
+				
+				cachedToken = getFromDatabase(token, time);
+				if(cachedToken == null) {
+					return null;
+				}
+			}
+			
+			// The token hasn't been used by any instance, so it has expired
+			// everywhere.
+			if((time - cachedToken.lastAccess) > UserBin.LIFETIME) {
+				remove(token);
+				return null;
+			}
+		}
+		cachedToken.lastAccess = time;
+		
+		// If the token hasn't been validated recently, make sure it still
+		// exists and write back its last access time.
+		if((time - cachedToken.lastValidated) > nearCacheLifetime) {
+			int updated =
+				update(
+					SQL_UPDATE_LAST_ACCESS,
+					new Object[] { time, token },
+					time + ", (token omitted)");
+			
+			// If the token is no longer in the database, another instance
+			// removed or replaced it.
+			if(updated == 0) {
+				evict(token);
+				return null;
+			}
+			// If the database could be reached, the token is valid.
+			// Otherwise, keep using the cached value until it is back.
+			else if(updated > 0) {
+				cachedToken.lastValidated = time;
+			}
+		}
+		
+		return cachedToken.user;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#getLastAccessTime(java.lang.String)
+	 */
+	@Override
+	public long getLastAccessTime(final String token) {
+		CachedToken cachedToken = nearCache.get(token);
+		if(cachedToken == null) {
+			cachedToken = getFromDatabase(token, System.currentTimeMillis());
+			if(cachedToken == null) {
+				return -1;
+			}
+		}
+		
+		return cachedToken.lastAccess;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String token) {
+		evict(token);
+		
+		update(SQL_DELETE_TOKEN, new Object[] { token }, "(token omitted)");
+	}
+	
+	/**
+	 * Evicts the expired tokens from the near-cache and deletes them from the
+	 * database. Every instance does this, but it is idempotent.
+	 */
+	@Override
+	public void expire(final long time) {
+		long oldest = time - UserBin.LIFETIME;
+		
+		for(Map.Entry<String, CachedToken> entry : nearCache.entrySet()) {
+			if(entry.getValue().lastAccess < oldest) {
+				evict(entry.getKey());
+			}
+		}
+		
+		update(
+			SQL_DELETE_EXPIRED_TOKENS,
+			new Object[] { oldest },
+			String.valueOf(oldest));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#size()
+	 */
+	@Override
+	public int size() {
+		try {
+			return jdbcTemplate.queryForInt(SQL_COUNT_TOKENS);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error("Error executing SQL '" + SQL_COUNT_TOKENS + "'.", e);
+			return nearCache.size();
+		}
+	}
+	
+	/**
+	 * Executes an update in its own transaction. Failures are logged but not
+	 * propagated, as the near-cache can continue on its own.
+	 * 
+	 * @param sql The SQL to execute.
+	 * 
+	 * @param parameters The parameters for the SQL.
+	 * 
+	 * @param parametersForLog The parameters as they should be logged.
+	 * 
+	 * @return The number of rows matched by the update or -1 if the update
+	 * 		   failed.
+	 */
+	private int update(
+			final String sql,
+			final Object[] parameters,
+			final String parametersForLog) {
+		
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Updating the authentication tokens.");
+		
+		try {
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			int result;
+			try {
+				result = jdbcTemplate.update(sql, parameters);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				LOGGER.error(
+					"Error executing SQL '" + sql + "' with parameters: " +
+						parametersForLog,
+					e);
+				return -1;
+			}
+			
+			transactionManager.commit(status);
+			return result;
+		}
+		catch(TransactionException e) {
+			LOGGER.error("Error while managing the transaction.", e);
+			return -1;
+		}
+	}
+	
+	/**
+	 * Removes a token from the near-cache.
+	 * 
+	 * @param token The token.
+	 */
+	private void evict(final String token) {
+		CachedToken cachedToken = nearCache.remove(token);
+		if(cachedToken != null) {
+			userTokens.remove(cachedToken.user.getUsername(), token);
+		}
+	}
+	
+	/**
+	 * Reads a token from the database and, if it exists, adds it to the
+	 * near-cache.
+	 * 
+	 * @param token The token.
+	 * 
+	 * @param time The current time in milliseconds.
+	 * 
+	 * @return The cached token or null if the token is unknown or the
+	 * 		   database could not be read.
+	 */
+	private CachedToken getFromDatabase(final String token, final long time) {
+		List<CachedToken> result;
+		try {
+			result =
+				jdbcTemplate.query(
+					SQL_GET_TOKEN,
+					new Object[] { token },
+					new RowMapper<CachedToken>() {
+						/**
+						 * Rebuilds the user as it was when it was added to
+						 * the bin.
+						 */
+						@Override
+						public CachedToken mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+							
+							User user;
+							try {
+								user =
+									new User(
+										rs.getString("username"),
+										rs.getString("password"),
+										false);
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"The user is invalid.",
+									e);
+							}
+							user.isLoggedIn(true);
+							user.setToken(token);
+							
+							return
+								new CachedToken(
+									user,
+									rs.getLong("last_access_millis"),
+									time);
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error(
+				"Error executing SQL '" + SQL_GET_TOKEN +
+					"' with parameter: (token omitted)",
+				e);
+			return null;
+		}
+		
+		if(result.isEmpty()) {
+			return null;
+		}
+		
+		CachedToken cachedToken = result.get(0);
+		CachedToken existing = nearCache.putIfAbsent(token, cachedToken);
+		if(existing != null) {
+			return existing;
+		}
+		
+		// If this instance knew of an older token for the user, it has been
+		// replaced by another instance.
+		String previousToken =
+			userTokens.put(cachedToken.user.getUsername(), token);
+		if((previousToken != null) && (! previousToken.equals(token))) {
+			nearCache.remove(previousToken);
+		}
+		return cachedToken;
+	}
+}
@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.Observer.Stream;
+
+/**
+ * A bounded cache of observer and stream definitions, along with their parsed
+ * Avro schemas and the readers and writers for them.<br />
+ * <br />
+ * A version of an observer or a stream never changes once it has been
+ * created; updating an observer creates a new version. Therefore, entries for
+ * a specific version are never stale. The only thing that changes is which
+ * version is the latest, so the latest version of each observer is only
+ * trusted for {@value #LATEST_VERSION_LIFETIME} milliseconds before it is
+ * looked up again. This bounds how long an update from another instance of
+ * ohmage may go unnoticed. An observer's entries should still be invalidated
+ * whenever it is created or updated through this instance.
+ */
+public final class ObserverCache {
+	/**
+	 * The maximum number of observer versions to keep in the cache.
+	 */
+	public static final int MAX_NUM_OBSERVERS = 256;
+	
+	/**
+	 * The maximum number of stream versions to keep in the cache.
+	 */
+	public static final int MAX_NUM_STREAMS = 1024;
+	
+	/**
+	 * The maximum number of stream links to keep in the cache.
+	 */
+	public static final int MAX_NUM_STREAM_LINKS = 1024;
+	
+	/**
+	 * The number of milliseconds that the latest version of an observer is
+	 * trusted.
+	 */
+	public static final long LATEST_VERSION_LIFETIME = 60000;
+	
+	/**
+	 * The latest version of an observer and when it was looked up.
+	 */
+	private static final class LatestVersion {
+		private final long version;
+		private final long expiration;
+		
+		/**
+		 * Creates a new latest version entry.
+		 * 
+		 * @param version The latest version.
+		 * 
+		 * @param expiration The time after which the version must be looked
+		 * 					 up again.
+		 */
+		private LatestVersion(final long version, final long expiration) {
+			this.version = version;
+			this.expiration = expiration;
+		}
+	}
+	
+	// The least recently used observers and streams are evicted first. All
+	// access must be synchronized on OBSERVERS.
+	private static final Map<String, Observer> OBSERVERS =
+		new LinkedHashMap<String, Observer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Evicts the least recently used observer once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Observer> eldest) {
+				
+				return size() > MAX_NUM_OBSERVERS;
+			}
+		};
+	private static final Map<String, Stream> STREAMS =
+		new LinkedHashMap<String, Stream>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Evicts the least recently used stream once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Stream> eldest) {
+				
+				return size() > MAX_NUM_STREAMS;
+			}
+		};
+	// The database IDs of the links between a version of an observer and a
+	// version of one of its streams, which never change once they have been
+	// created.
+	private static final Map<String, Long> STREAM_LINK_IDS =
+		new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Evicts the least recently used link once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Long> eldest) {
+				
+				return size() > MAX_NUM_STREAM_LINKS;
+			}
+		};
+	private static final Map<String, LatestVersion> LATEST_VERSIONS =
+		new LinkedHashMap<String, LatestVersion>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Evicts the least recently used observer once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, LatestVersion> eldest) {
+				
+				return size() > MAX_NUM_OBSERVERS;
+			}
+		};
+	
+	// The statistics for the cache.
+	private static final AtomicLong HITS = new AtomicLong(0);
+	private static final AtomicLong MISSES = new AtomicLong(0);
+	
+	/**
+	 * Default constructor, made private because this class should be
+	 * referenced statically.
+	 */
+	private ObserverCache() {};
+	
+	/**
+	 * Returns an observer from the cache.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version or null for the latest
+	 * 						  version.
+	 * 
+	 * @return The observer or null if it is not in the cache.
+	 */
+	public static Observer getObserver(
+			final String observerId,
+			final Long observerVersion) {
+		
+		Observer result = null;
+		synchronized(OBSERVERS) {
+			Long version = observerVersion;
+			if(version == null) {
+				LatestVersion latest = LATEST_VERSIONS.get(observerId);
+				if(
+					(latest != null) &&
+					(latest.expiration > System.currentTimeMillis())) {
+					
+					version = latest.version;
+				}
+			}
+			
+			if(version != null) {
+				result = OBSERVERS.get(getKey(observerId, version));
+			}
+		}
+		
+		if(result == null) {
+			MISSES.incrementAndGet();
+		}
+		else {
+			HITS.incrementAndGet();
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds an observer and all of its streams to the cache.
+	 * 
+	 * @param observer The observer.
+	 * 
+	 * @param latest Whether or not the observer was looked up as the latest
+	 * 				 version.
+	 */
+	public static void putObserver(
+			final Observer observer,
+			final boolean latest) {
+		
+		String observerId = observer.getId();
+		synchronized(OBSERVERS) {
+			OBSERVERS.put(
+				getKey(observerId, observer.getVersion()),
+				observer);
+			
+			for(Stream stream : observer.getStreams().values()) {
+				STREAMS.put(
+					getKey(observerId, stream.getId(), stream.getVersion()),
+					stream);
+			}
+			
+			if(latest) {
+				LATEST_VERSIONS.put(
+					observerId,
+					new LatestVersion(
+						observer.getVersion(),
+						System.currentTimeMillis() +
+							LATEST_VERSION_LIFETIME));
+			}
+		}
+	}
+	
+	/**
+	 * Returns a specific version of a stream from the cache.
+	 * 
+	 * @param observerId The unique identifier of the observer to which the
+	 * 					 stream belongs.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @return The stream or null if it is not in the cache.
+	 */
+	public static Stream getStream(
+			final String observerId,
+			final String streamId,
+			final long streamVersion) {
+		
+		Stream result;
+		synchronized(OBSERVERS) {
+			result = STREAMS.get(getKey(observerId, streamId, streamVersion));
+		}
+		
+		if(result == null) {
+			MISSES.incrementAndGet();
+		}
+		else {
+			HITS.incrementAndGet();
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds a stream to the cache.
+	 * 
+	 * @param observerId The unique identifier of the observer to which the
+	 * 					 stream belongs.
+	 * 
+	 * @param stream The stream.
+	 */
+	public static void putStream(
+			final String observerId,
+			final Stream stream) {
+		
+		synchronized(OBSERVERS) {
+			STREAMS.put(
+				getKey(observerId, stream.getId(), stream.getVersion()),
+				stream);
+		}
+	}
+	
+	/**
+	 * Returns the database ID of the link between a version of an observer
+	 * and a version of one of its streams.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @return The link's database ID or null if it is not in the cache.
+	 */
+	public static Long getStreamLinkId(
+			final String observerId,
+			final long observerVersion,
+			final String streamId,
+			final long streamVersion) {
+		
+		Long result;
+		synchronized(OBSERVERS) {
+			result = 
+				STREAM_LINK_IDS.get(
+					getKey(observerId, observerVersion, streamId, streamVersion));
+		}
+		
+		if(result == null) {
+			MISSES.incrementAndGet();
+		}
+		else {
+			HITS.incrementAndGet();
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds the database ID of the link between a version of an observer and
+	 * a version of one of its streams to the cache.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @param linkId The link's database ID.
+	 */
+	public static void putStreamLinkId(
+			final String observerId,
+			final long observerVersion,
+			final String streamId,
+			final long streamVersion,
+			final long linkId) {
+		
+		synchronized(OBSERVERS) {
+			STREAM_LINK_IDS.put(
+				getKey(observerId, observerVersion, streamId, streamVersion),
+				linkId);
+		}
+	}
+	
+	/**
+	 * Removes all versions of an observer and its streams from the cache.
+	 * This should be called whenever an observer is created or updated.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 */
+	public static void invalidate(final String observerId) {
+		String prefix = observerId + '\n';
+		synchronized(OBSERVERS) {
+			LATEST_VERSIONS.remove(observerId);
+			
+			Iterator<String> observerIter = OBSERVERS.keySet().iterator();
+			while(observerIter.hasNext()) {
+				if(observerIter.next().startsWith(prefix)) {
+					observerIter.remove();
+				}
+			}
+			
+			Iterator<String> streamIter = STREAMS.keySet().iterator();
+			while(streamIter.hasNext()) {
+				if(streamIter.next().startsWith(prefix)) {
+					streamIter.remove();
+				}
+			}
+			
+			Iterator<String> linkIter = STREAM_LINK_IDS.keySet().iterator();
+			while(linkIter.hasNext()) {
+				if(linkIter.next().startsWith(prefix)) {
+					linkIter.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of observer and stream versions that are currently
+	 * cached.
+	 * 
+	 * @return The number of cached observers and streams.
+	 */
+	public static int size() {
+		synchronized(OBSERVERS) {
+			return OBSERVERS.size() + STREAMS.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of times an observer or stream was found in the
+	 * cache.
+	 * 
+	 * @return The number of cache hits.
+	 */
+	public static long getHitCount() {
+		return HITS.get();
+	}
+	
+	/**
+	 * Returns the number of times an observer or stream had to be read from
+	 * the database.
+	 * 
+	 * @return The number of cache misses.
+	 */
+	public static long getMissCount() {
+		return MISSES.get();
+	}
+	
+	/**
+	 * Returns the key for an observer version.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version.
+	 * 
+	 * @return The key.
+	 */
+	private static String getKey(
+			final String observerId,
+			final long observerVersion) {
+		
+		return observerId + '\n' + observerVersion;
+	}
+	
+	/**
+	 * Returns the key for a stream version.
+	 * 
+	 * @param observerId The unique identifier of the observer to which the
+	 * 					 stream belongs.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @return The key.
+	 */
+	private static String getKey(
+			final String observerId,
+			final String streamId,
+			final long streamVersion) {
+		
+		return observerId + '\n' + streamId + '\n' + streamVersion;
+	}
+	
+	/**
+	 * Returns the key for the link between an observer version and a stream
+	 * version.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @return The key.
+	 */
+	private static String getKey(
+			final String observerId,
+			final long observerVersion,
+			final String streamId,
+			final long streamVersion) {
+		
+		return 
+			observerId + '\n' + 
+				observerVersion + '\n' + 
+				streamId + '\n' + 
+				streamVersion;
+	}
+}
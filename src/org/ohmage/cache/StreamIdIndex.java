@@ -0,0 +1,762 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * An in-memory index of the IDs of the data points that have been stored for
+ * each user's observer stream, which lets an upload skip the database when
+ * checking for duplicates.<br />
+ * <br />
+ * Each (user, observer, stream) has a Bloom filter that is built the first
+ * time the stream is uploaded to and then updated as points are stored. An ID
+ * that the filter has not seen has definitely not been stored, so only the
+ * IDs that the filter has seen, the probable duplicates, need to be checked
+ * against the database. The filters are sized for a false-positive rate and
+ * the least recently used are dropped to stay within a memory limit.<br />
+ * <br />
+ * The index only sees the points stored by this instance. If more than one
+ * ohmage instance writes to the same database, this index must not be used.
+ */
+public final class StreamIdIndex {
+	private static final Logger LOGGER = Logger.getLogger(StreamIdIndex.class);
+	
+	// Counts the IDs that have been stored for a stream.
+	private static final String SQL_COUNT_IDS =
+		"SELECT COUNT(osd.uid) " +
+		"FROM " +
+			"user u, " +
+			"observer o, " +
+			"observer_stream os, " +
+			"observer_stream_link osl, " +
+			"observer_stream_data osd " +
+		"WHERE u.username = ? " +
+		"AND o.observer_id = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND osl.observer_stream_id = os.id " +
+		"AND os.stream_id = ? " +
+		"AND u.id = osd.user_id " +
+		"AND osl.id = osd.observer_stream_link_id";
+	
+	// Retrieves the IDs that have been stored for a stream.
+	private static final String SQL_GET_IDS =
+		"SELECT osd.uid " +
+		"FROM " +
+			"user u, " +
+			"observer o, " +
+			"observer_stream os, " +
+			"observer_stream_link osl, " +
+			"observer_stream_data osd " +
+		"WHERE u.username = ? " +
+		"AND o.observer_id = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND osl.observer_stream_id = os.id " +
+		"AND os.stream_id = ? " +
+		"AND u.id = osd.user_id " +
+		"AND osl.id = osd.observer_stream_link_id " +
+		"AND osd.uid IS NOT NULL";
+	
+	// A new filter has room for this many times the IDs that are already
+	// stored, so that it is not immediately rebuilt as new points arrive.
+	private static final int GROWTH_FACTOR = 2;
+	
+	// The smallest number of IDs for which a filter is built.
+	private static final int MIN_CAPACITY = 1024;
+	
+	private static volatile StreamIdIndex instance = null;
+	
+	/**
+	 * A Bloom filter of the IDs for one stream.
+	 */
+	private static final class Filter {
+		private final long[] bits;
+		private final long numBits;
+		private final int numHashes;
+		private final long capacity;
+		
+		// Set once the stored IDs have been added. Until then, every ID is a
+		// probable duplicate.
+		private volatile boolean loaded = false;
+		
+		// The sequence number of the last writer that began before this
+		// filter was added to the index.
+		private long lastWriterBefore = 0;
+		
+		private long numIds = 0;
+		
+		/**
+		 * Creates an empty filter.
+		 * 
+		 * @param capacity The number of IDs this filter should hold.
+		 * 
+		 * @param falsePositiveRate The false-positive rate once the filter
+		 * 							holds its capacity.
+		 */
+		private Filter(
+				final long capacity,
+				final double falsePositiveRate) {
+			
+			long optimalBits =
+				(long) Math.ceil(
+					(-capacity * Math.log(falsePositiveRate)) /
+					(Math.log(2) * Math.log(2)));
+			bits = new long[(int) ((optimalBits + 63) / 64)];
+			numBits = bits.length * 64L;
+			numHashes =
+				Math.max(
+					1,
+					(int) Math.round(((double) numBits / capacity) * Math.log(2)));
+			this.capacity = capacity;
+		}
+		
+		/**
+		 * Returns the number of bytes used by the filter's bits.
+		 * 
+		 * @return The size of the filter in bytes.
+		 */
+		private long getSizeInBytes() {
+			return bits.length * 8L;
+		}
+		
+		/**
+		 * Adds an ID to the filter.
+		 * 
+		 * @param id The ID.
+		 * 
+		 * @return False if the filter now holds more than its capacity and
+		 * 		   should be rebuilt; true, otherwise.
+		 */
+		private synchronized boolean add(final String id) {
+			long hash = hash(id);
+			long hash1 = hash & 0xFFFFFFFFL;
+			long hash2 = hash >>> 32;
+			for(int i = 0; i < numHashes; i++) {
+				long bit = ((hash1 + (i * hash2)) & Long.MAX_VALUE) % numBits;
+				bits[(int) (bit >>> 6)] |= (1L << bit);
+			}
+			
+			return (++numIds <= capacity);
+		}
+		
+		/**
+		 * Returns whether or not an ID may have been added to the filter.
+		 * 
+		 * @param id The ID.
+		 * 
+		 * @return False if the ID was definitely never added; true, otherwise.
+		 */
+		private synchronized boolean mightContain(final String id) {
+			long hash = hash(id);
+			long hash1 = hash & 0xFFFFFFFFL;
+			long hash2 = hash >>> 32;
+			for(int i = 0; i < numHashes; i++) {
+				long bit = ((hash1 + (i * hash2)) & Long.MAX_VALUE) % numBits;
+				if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Hashes an ID into 64 bits, which are split into the two hashes
+		 * that are combined to derive each of the filter's hash functions.
+		 * This is FNV-1a followed by the MurmurHash3 finalizer so that both
+		 * halves are well mixed.
+		 * 
+		 * @param id The ID.
+		 * 
+		 * @return The hash.
+		 */
+		private static long hash(final String id) {
+			long result = 0xcbf29ce484222325L;
+			int length = id.length();
+			for(int i = 0; i < length; i++) {
+				result ^= id.charAt(i);
+				result *= 0x100000001b3L;
+			}
+			
+			result ^= result >>> 33;
+			result *= 0xff51afd7ed558ccdL;
+			result ^= result >>> 33;
+			result *= 0xc4ceb9fe1a85ec53L;
+			result ^= result >>> 33;
+			return result;
+		}
+	}
+	
+	private final DataSource dataSource;
+	private final long maxBytes;
+	private final double falsePositiveRate;
+	
+	// The filters, from least to most recently used. Access to this map and
+	// to the total size must be synchronized on the map.
+	private final LinkedHashMap<String, Filter> filters =
+		new LinkedHashMap<String, Filter>(16, 0.75f, true);
+	private long totalBytes = 0;
+	
+	// The uploads that are in progress and the streams to which each has
+	// added IDs, keyed by a sequence number that orders when they began.
+	private final ConcurrentSkipListMap<Long, Set<String>> writers =
+		new ConcurrentSkipListMap<Long, Set<String>>();
+	private final AtomicLong writerSequence = new AtomicLong(0);
+	
+	// The statistics for the index.
+	private final AtomicLong numChecked = new AtomicLong(0);
+	private final AtomicLong numAbsent = new AtomicLong(0);
+	private final AtomicLong numProbable = new AtomicLong(0);
+	private final AtomicLong numFalsePositives = new AtomicLong(0);
+	private final AtomicLong numUnavailable = new AtomicLong(0);
+	private final AtomicLong numLoads = new AtomicLong(0);
+	
+	/**
+	 * Creates the index. Privately instantiated via dependency injection
+	 * (reflection).
+	 * 
+	 * @param dataSource The DataSource from which the stored IDs are read.
+	 * 
+	 * @param maxBytes The maximum number of bytes used by all of the filters.
+	 * 
+	 * @param falsePositiveRate The rate at which an ID that has not been
+	 * 							stored should be a probable duplicate,
+	 * 							between 0 and 1 exclusive.
+	 * 
+	 * @throws IllegalStateException An instance of this class already
+	 * 								 exists.
+	 * 
+	 * @throws IllegalArgumentException Any of the parameters are invalid.
+	 */
+	private StreamIdIndex(
+			final DataSource dataSource,
+			final long maxBytes,
+			final double falsePositiveRate) {
+		
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+		
+		if(dataSource == null) {
+			throw new IllegalArgumentException(
+				"The data source cannot be null.");
+		}
+		else if(maxBytes < 1) {
+			throw new IllegalArgumentException(
+				"The maximum number of bytes must be positive.");
+		}
+		else if((falsePositiveRate <= 0) || (falsePositiveRate >= 1)) {
+			throw new IllegalArgumentException(
+				"The false-positive rate must be between 0 and 1.");
+		}
+		
+		this.dataSource = dataSource;
+		this.maxBytes = maxBytes;
+		this.falsePositiveRate = falsePositiveRate;
+		
+		instance = this;
+	}
+	
+	/**
+	 * Returns the instance of this class.
+	 * 
+	 * @return The instance of this class or null if the index is not being
+	 * 		   used.
+	 */
+	public static StreamIdIndex instance() {
+		return instance;
+	}
+	
+	/**
+	 * Records that an upload has begun. Every call to this must be followed
+	 * by a call to {@link #endWrite(long)} once the upload's transaction has
+	 * finished.
+	 * 
+	 * @return The upload's sequence number.
+	 */
+	public long beginWrite() {
+		long writer = writerSequence.incrementAndGet();
+		writers.put(writer, new HashSet<String>());
+		return writer;
+	}
+	
+	/**
+	 * Records that an upload has finished.
+	 * 
+	 * @param writer The upload's sequence number.
+	 */
+	public void endWrite(final long writer) {
+		writers.remove(writer);
+	}
+	
+	/**
+	 * Returns the IDs that may have already been stored for a stream. Any ID
+	 * that is not returned has definitely not been stored.
+	 * 
+	 * @param writer The sequence number of the upload that is checking.
+	 * 
+	 * @param username The user who owns the data.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param ids The IDs to check.
+	 * 
+	 * @return The probable duplicates or null if the stream's filter is not
+	 * 		   available and all of the IDs must be checked.
+	 */
+	public Collection<String> getProbableDuplicates(
+			final long writer,
+			final String username,
+			final String observerId,
+			final String streamId,
+			final Collection<String> ids) {
+		
+		numChecked.addAndGet(ids.size());
+		
+		String key = getKey(username, observerId, streamId);
+		Filter filter = getFilter(writer, key, username, observerId, streamId);
+		if((filter == null) || (! filter.loaded)) {
+			numUnavailable.addAndGet(ids.size());
+			return null;
+		}
+		
+		Collection<String> result = new ArrayList<String>();
+		for(String id : ids) {
+			if(filter.mightContain(id)) {
+				result.add(id);
+			}
+		}
+		
+		numProbable.addAndGet(result.size());
+		numAbsent.addAndGet(ids.size() - result.size());
+		return result;
+	}
+	
+	/**
+	 * Records that some of the probable duplicates were not actually stored.
+	 * 
+	 * @param count The number of false positives.
+	 */
+	public void recordFalsePositives(final long count) {
+		numFalsePositives.addAndGet(count);
+	}
+	
+	/**
+	 * Adds the IDs of the points that are about to be stored for a stream. If
+	 * the points are not stored after all, their IDs remain as false
+	 * positives.
+	 * 
+	 * @param writer The sequence number of the upload that is storing the
+	 * 				 points.
+	 * 
+	 * @param username The user who owns the data.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param ids The IDs of the points.
+	 */
+	public void add(
+			final long writer,
+			final String username,
+			final String observerId,
+			final String streamId,
+			final Collection<String> ids) {
+		
+		String key = getKey(username, observerId, streamId);
+		
+		// Remember that this upload has uncommitted points for this stream
+		// so that it will never build a filter for the stream that would not
+		// see them.
+		Set<String> writtenKeys = writers.get(writer);
+		if(writtenKeys != null) {
+			writtenKeys.add(key);
+		}
+		
+		Filter filter;
+		synchronized(filters) {
+			filter = filters.get(key);
+		}
+		if(filter == null) {
+			return;
+		}
+		
+		for(String id : ids) {
+			if(! filter.add(id)) {
+				// The filter is full, so its false-positive rate is now
+				// higher than intended. It will be rebuilt with more room the
+				// next time it is needed.
+				remove(key, filter);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of filters in the index.
+	 * 
+	 * @return The number of filters.
+	 */
+	public int getFilterCount() {
+		synchronized(filters) {
+			return filters.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes used by the filters.
+	 * 
+	 * @return The memory footprint in bytes.
+	 */
+	public long getSizeInBytes() {
+		synchronized(filters) {
+			return totalBytes;
+		}
+	}
+	
+	/**
+	 * Returns the number of IDs that have been checked.
+	 * 
+	 * @return The number of IDs that have been checked.
+	 */
+	public long getCheckedCount() {
+		return numChecked.get();
+	}
+	
+	/**
+	 * Returns the number of IDs that were definitely not duplicates and did
+	 * not need to be checked against the database.
+	 * 
+	 * @return The number of IDs that were definitely not duplicates.
+	 */
+	public long getAbsentCount() {
+		return numAbsent.get();
+	}
+	
+	/**
+	 * Returns the number of IDs that were probable duplicates.
+	 * 
+	 * @return The number of probable duplicates.
+	 */
+	public long getProbableCount() {
+		return numProbable.get();
+	}
+	
+	/**
+	 * Returns the number of probable duplicates that had not actually been
+	 * stored.
+	 * 
+	 * @return The number of false positives.
+	 */
+	public long getFalsePositiveCount() {
+		return numFalsePositives.get();
+	}
+	
+	/**
+	 * Returns the number of IDs that were checked against the database
+	 * because their stream's filter was not available.
+	 * 
+	 * @return The number of IDs checked without a filter.
+	 */
+	public long getUnavailableCount() {
+		return numUnavailable.get();
+	}
+	
+	/**
+	 * Returns the number of times a filter has been built from the database.
+	 * 
+	 * @return The number of filters that have been built.
+	 */
+	public long getLoadCount() {
+		return numLoads.get();
+	}
+	
+	/**
+	 * Returns the observed false-positive rate, which is the fraction of the
+	 * IDs that had not been stored that were probable duplicates anyway.
+	 * 
+	 * @return The false-positive rate or 0 if nothing has been checked.
+	 */
+	public double getFalsePositiveRate() {
+		long falsePositives = numFalsePositives.get();
+		long negatives = falsePositives + numAbsent.get();
+		if(negatives == 0) {
+			return 0;
+		}
+		
+		return ((double) falsePositives) / negatives;
+	}
+	
+	/**
+	 * Returns the filter for a stream, building it if it does not exist and
+	 * it is safe to do so.
+	 * 
+	 * @param writer The sequence number of the upload that needs the filter.
+	 * 
+	 * @param key The stream's key.
+	 * 
+	 * @param username The user who owns the data.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @return The filter, which may not yet be loaded, or null if there is
+	 * 		   none.
+	 */
+	private Filter getFilter(
+			final long writer,
+			final String key,
+			final String username,
+			final String observerId,
+			final String streamId) {
+		
+		synchronized(filters) {
+			Filter filter = filters.get(key);
+			if(filter != null) {
+				return filter;
+			}
+		}
+		
+		// The stored IDs are read on their own connection so that they
+		// include everything that has been committed, but they will not
+		// include the points of any upload that is still in progress. If
+		// this upload has already stored points for the stream or if an
+		// upload that began earlier is still in progress, the filter would
+		// be missing points, so it cannot be built yet.
+		Set<String> writtenKeys = writers.get(writer);
+		if((writtenKeys != null) && writtenKeys.contains(key)) {
+			return null;
+		}
+		if(hasOtherWriter(writer, writer)) {
+			return null;
+		}
+		
+		Connection connection = null;
+		Filter filter = null;
+		try {
+			connection = dataSource.getConnection();
+			JdbcTemplate jdbcTemplate =
+				new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+			
+			long numIds =
+				jdbcTemplate.queryForLong(
+					SQL_COUNT_IDS,
+					new Object[] { username, observerId, streamId });
+			
+			// Register the filter before reading the IDs so that the uploads
+			// that begin while it is being loaded add their IDs to it. Every
+			// upload that began before it was registered must have finished
+			// so that the IDs that are read include their points.
+			filter =
+				new Filter(
+					Math.max(MIN_CAPACITY, numIds * GROWTH_FACTOR),
+					falsePositiveRate);
+			if(! register(key, filter)) {
+				return null;
+			}
+			if(hasOtherWriter(writer, filter.lastWriterBefore)) {
+				remove(key, filter);
+				return null;
+			}
+			
+			final Filter loadingFilter = filter;
+			jdbcTemplate.query(
+				new PreparedStatementCreator() {
+					/**
+					 * Creates a forward-only, read-only statement whose fetch
+					 * size tells the MySQL driver to stream the rows instead
+					 * of reading all of the IDs into memory first.
+					 */
+					@Override
+					public PreparedStatement createPreparedStatement(
+							final Connection connection)
+							throws SQLException {
+						
+						PreparedStatement statement =
+							connection.prepareStatement(
+								SQL_GET_IDS,
+								ResultSet.TYPE_FORWARD_ONLY,
+								ResultSet.CONCUR_READ_ONLY);
+						statement.setFetchSize(Integer.MIN_VALUE);
+						statement.setString(1, username);
+						statement.setString(2, observerId);
+						statement.setString(3, streamId);
+						return statement;
+					}
+				},
+				new RowCallbackHandler() {
+					/**
+					 * Adds each stored ID to the filter.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						loadingFilter.add(rs.getString(1));
+					}
+				});
+			
+			filter.loaded = true;
+			numLoads.incrementAndGet();
+			return filter;
+		}
+		catch(SQLException e) {
+			LOGGER.warn(
+				"Could not load the IDs for the stream: " + key,
+				e);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.warn(
+				"Could not load the IDs for the stream: " + key,
+				e);
+		}
+		finally {
+			if(connection != null) {
+				try {
+					connection.close();
+				}
+				catch(SQLException e) {
+					LOGGER.warn("Could not close the connection.", e);
+				}
+			}
+		}
+		
+		if(filter != null) {
+			remove(key, filter);
+		}
+		return null;
+	}
+	
+	/**
+	 * Adds a new filter to the index and drops the least recently used
+	 * filters until the index fits within its memory limit.
+	 * 
+	 * @param key The stream's key.
+	 * 
+	 * @param filter The new filter.
+	 * 
+	 * @return True if the filter was added; false if another filter was
+	 * 		   added for the stream first or the filter is larger than the
+	 * 		   memory limit.
+	 */
+	private boolean register(final String key, final Filter filter) {
+		long filterBytes = filter.getSizeInBytes();
+		if(filterBytes > maxBytes) {
+			LOGGER.warn(
+				"The filter for the stream is larger than the limit: " + key);
+			return false;
+		}
+		
+		synchronized(filters) {
+			if(filters.containsKey(key)) {
+				return false;
+			}
+			
+			Iterator<Map.Entry<String, Filter>> iter =
+				filters.entrySet().iterator();
+			while(((totalBytes + filterBytes) > maxBytes) && iter.hasNext()) {
+				totalBytes -= iter.next().getValue().getSizeInBytes();
+				iter.remove();
+			}
+			
+			filters.put(key, filter);
+			totalBytes += filterBytes;
+			filter.lastWriterBefore = writerSequence.get();
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns whether or not an upload other than the given one that began
+	 * at or before some point is still in progress.
+	 * 
+	 * @param writer The sequence number of the upload that is asking.
+	 * 
+	 * @param lastWriter The sequence number of the last upload to consider.
+	 * 
+	 * @return True if such an upload is still in progress; false, otherwise.
+	 */
+	private boolean hasOtherWriter(final long writer, final long lastWriter) {
+		for(Long otherWriter : writers.headMap(lastWriter, true).keySet()) {
+			if(otherWriter.longValue() != writer) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Removes a filter from the index if it has not already been replaced.
+	 * 
+	 * @param key The stream's key.
+	 * 
+	 * @param filter The filter to remove.
+	 */
+	private void remove(final String key, final Filter filter) {
+		synchronized(filters) {
+			if(filters.get(key) == filter) {
+				filters.remove(key);
+				totalBytes -= filter.getSizeInBytes();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the key for a stream.
+	 * 
+	 * @param username The user who owns the data.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @return The key.
+	 */
+	private static String getKey(
+			final String username,
+			final String observerId,
+			final String streamId) {
+		
+		return username + '\n' + observerId + '\n' + streamId;
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import org.ohmage.domain.User;
+
+/**
+ * The storage behind the {@link UserBin}. Implementations map authentication
+ * tokens to the users that own them and the last time the token was used.
+ * Implementations must be thread-safe. The {@link UserBin} guarantees that
+ * two calls to {@link #put(String, User, long)} for the same user are never
+ * made concurrently.
+ * 
+ * @see InMemoryTokenStore
+ * @see JdbcTokenStore
+ */
+public interface TokenStore {
+	/**
+	 * Stores a new token for a user. If the user already has a token, that
+	 * token is removed.
+	 * 
+	 * @param token The new token.
+	 * 
+	 * @param user The user that owns the token.
+	 * 
+	 * @param time The time the token was created in milliseconds.
+	 */
+	void put(String token, User user, long time);
+	
+	/**
+	 * Retrieves the user that owns a token and marks the token as having
+	 * been used at the given time.
+	 * 
+	 * @param token The token.
+	 * 
+	 * @param time The current time in milliseconds.
+	 * 
+	 * @return The user that owns the token or null if the token is unknown or
+	 * 		   has expired. Callers must not modify this object.
+	 */
+	User get(String token, long time);
+	
+	/**
+	 * Returns the last time a token was used.
+	 * 
+	 * @param token The token.
+	 * 
+	 * @return The last time the token was used in milliseconds or -1 if the
+	 * 		   token is unknown.
+	 */
+	long getLastAccessTime(String token);
+	
+	/**
+	 * Removes a token.
+	 * 
+	 * @param token The token to remove.
+	 */
+	void remove(String token);
+	
+	/**
+	 * Removes all tokens that have not been used within the last
+	 * {@link UserBin#LIFETIME} milliseconds.
+	 * 
+	 * @param time The current time in milliseconds.
+	 */
+	void expire(long time);
+	
+	/**
+	 * Returns the number of tokens in the store. This may include tokens that
+	 * have expired but have not yet been removed.
+	 * 
+	 * @return The number of tokens in the store.
+	 */
+	int size();
+}
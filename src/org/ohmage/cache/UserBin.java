@@ -15,13 +15,11 @@
  ******************************************************************************/
 package org.ohmage.cache;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.ohmage.domain.User;
@@ -30,7 +28,12 @@ import org.springframework.beans.factory.DisposableBean;
 
 /**
  * User storage. User objects are mapped to unique ids. Avoids dependencies on JEE session management. The lifetime param set on 
- * construction controls how long User objects stay active.
+ * construction controls how long User objects stay active.<br />
+ * <br />
+ * The tokens themselves are kept in a {@link TokenStore}, which defaults to
+ * an {@link InMemoryTokenStore}. Reads never lock. The only lock is a striped
+ * lock taken when a user logs in so that two concurrent logins for the same
+ * user cannot both leave a live token behind.
  * 
  * @author Joshua Selsky
  */
@@ -44,50 +47,53 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	private static final int EXECUTION_PERIOD = 60000;
 	
 	/**
-	 * A class for associating users to the time their token expires.
-	 * 
-	 * @author John Jenkins
+	 * The number of lock stripes used when adding users.
 	 */
-	private static final class UserTime {
-		private final User user;
-		private long time;
-		
-		/**
-		 * Convenience constructor.
-		 * 
-		 * @param user The user that is being stored in the cache.
-		 * 
-		 * @param time The last time this user was accessed in the cache.
-		 */
-		private UserTime(User user, long time) {
-			this.user = user;
-			this.time = time;
-		}
-	}
+	private static final int NUM_LOCK_STRIPES = 32;
+	
+	// The storage for the tokens.
+	private static volatile TokenStore store = null;
+	
+	// The locks that guard adding a user. A user always maps to the same
+	// stripe.
+	private static final ReentrantLock[] LOCKS = createLocks();
+	
+	// The statistics for the locks.
+	private static final AtomicLong LOCK_WAIT_NANOS = new AtomicLong(0);
+	private static final AtomicLong LOCK_CONTENTIONS = new AtomicLong(0);
 	
-	// A map of tokens to USERS and the time that their token expires.
-	private static final Map<String, UserTime> USERS = new ConcurrentHashMap<String, UserTime>();
 	// An EXECUTIONER thread to purge those whose tokens have expired.
 	private static final Timer EXECUTIONER = new Timer("UserBin - User expiration process.", true);
 	
-	// Whether or not the constructor has run which will bootstrap this 
-	// Singleton class.
-	private static boolean initialized = false;
-		
 	/**
-	 * @param lifetime controls the number of milliseconds a User object will be permitted to be resident in the bin
-	 * @param executionPeriod controls how often the bin is checked for expired USERS
+	 * Creates the bin with the default, in-memory token store.
+	 */
+	private UserBin() {
+		this(new InMemoryTokenStore());
+	}
+	
+	/**
+	 * Creates the bin with a specific token store.
+	 * 
+	 * @param tokenStore The storage for the tokens.
+	 * 
+	 * @throws IllegalArgumentException The token store is null.
 	 * 
 	 * TODO Enforce a max lifetime?
 	 * TODO Enforce period relative to lifetime?
 	 */
-	private UserBin() {
+	private UserBin(final TokenStore tokenStore) {
+		if(tokenStore == null) {
+			throw new IllegalArgumentException(
+				"The token store cannot be null.");
+		}
+		
 		LOGGER.info("Users will live for " + LIFETIME + " milliseconds and the executioner will run every " + EXECUTION_PERIOD 
-			+ " milliseconds");
+			+ " milliseconds in a " + tokenStore.getClass().getSimpleName());
 
 		EXECUTIONER.schedule(this, EXECUTION_PERIOD * 2, EXECUTION_PERIOD);
 		
-		initialized = true;
+		store = tokenStore;
 	}
 	
 	@Override
@@ -99,30 +105,24 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * Adds a user to the bin and returns an Id (token) representing that user. If the user is already resident in the bin, their
 	 * old token is removed and a new one is generated and returned. 
 	 */
-	public static synchronized String addUser(User user) {
-		if(! initialized) {
-			new UserBin();
-		}
+	public static String addUser(User user) {
+		TokenStore tokenStore = getStore();
 		
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("adding user to bin");
 		}
 		
-		String id = findIdForUser(user); 
-		if(null != id) { // user already exists in the bin
-			
-			if(LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Removing a user that already existed in the bin before adding them in again (login attempt for an "
-					+ "already logged in user)");
-			}
-			
-			USERS.remove(id);
-		}
-		
 		String uuid = UUID.randomUUID().toString();
-		UserTime ut = new UserTime(user, System.currentTimeMillis());
-		user.setToken(uuid);
-		USERS.put(uuid, ut);
+		
+		ReentrantLock lock = getLock(user);
+		acquire(lock);
+		try {
+			user.setToken(uuid);
+			tokenStore.put(uuid, user, System.currentTimeMillis());
+		}
+		finally {
+			lock.unlock();
+		}
 		
 		return uuid;
 	}
@@ -132,10 +132,8 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * 
 	 * @param authToken The authentication token to remove from the user bin.
 	 */
-	public static synchronized void expireUser(String authToken) {
-		if(! initialized) {
-			new UserBin();
-		}
+	public static void expireUser(String authToken) {
+		TokenStore tokenStore = getStore();
 		
 		if(authToken == null) {
 			throw new IllegalArgumentException("The token cannot be null.");
@@ -145,24 +143,24 @@ public final class UserBin extends TimerTask implements DisposableBean {
 			LOGGER.debug("Removing user from bin.");
 		}
 		
-		USERS.remove(authToken);
+		tokenStore.remove(authToken);
 	}
 	
 	/**
 	 * Returns the User bound to the provided Id or null if Id does not exist in the bin. 
 	 */
-	public static synchronized User getUser(String id) {
-		UserTime ut = USERS.get(id);
-		if(null != ut) { 
-			User u = ut.user;
-			if(null != u) {
-				ut.time = System.currentTimeMillis(); // refresh the time 
-				try {
-					return new User(u);
-				} catch (DomainException e) {
-					LOGGER.error("Error duplicating the user.", e);
-					return null;
-				}
+	public static User getUser(String id) {
+		if(id == null) {
+			return null;
+		}
+		
+		User u = getStore().get(id, System.currentTimeMillis());
+		if(null != u) {
+			try {
+				return new User(u);
+			} catch (DomainException e) {
+				LOGGER.error("Error duplicating the user.", e);
+				return null;
 			}
 		}
 		return null;
@@ -175,69 +173,122 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * 
 	 * @return The number of milliseconds until 'Id' expires.
 	 */
-	public static synchronized long getTokenRemainingLifetimeInMillis(String id) {
-		UserTime ut = USERS.get(id);
-		if(ut == null) {
+	public static long getTokenRemainingLifetimeInMillis(String id) {
+		long time = getStore().getLastAccessTime(id);
+		if(time < 0) {
 			return 0;
 		}
 		else {
-			return Math.max((System.currentTimeMillis() + LIFETIME - ut.time), 0);
+			return Math.max((System.currentTimeMillis() + LIFETIME - time), 0);
 		}
 	}
 	
 	/**
-	 * Background thread for purging expired Users.
+	 * Returns the number of tokens that are currently in the bin. This may
+	 * include tokens that have expired but have not yet been purged.
+	 * 
+	 * @return The number of live tokens.
 	 */
-	@Override
-	public void run() {
-		expire();
+	public static int getTokenCount() {
+		return getStore().size();
+	}
+	
+	/**
+	 * Returns the total amount of time, in milliseconds, that threads have
+	 * spent waiting for another thread to release a lock in the bin.
+	 * 
+	 * @return The total lock wait time in milliseconds.
+	 */
+	public static long getLockWaitTimeInMillis() {
+		return LOCK_WAIT_NANOS.get() / 1000000;
 	}
 	
 	/**
-	 * Checks every bin location and removes Users whose tokens have expired.
+	 * Returns the number of times a thread had to wait for another thread to
+	 * release a lock in the bin.
+	 * 
+	 * @return The number of contended lock acquisitions.
+	 */
+	public static long getLockContentionCount() {
+		return LOCK_CONTENTIONS.get();
+	}
+	
+	/**
+	 * Background thread for purging expired Users.
 	 */
-	private static synchronized void expire() {
+	@Override
+	public void run() {
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("Beginning user expiration process");
+			LOGGER.debug("Number of users before expiration: " + store.size());
 		}
 		
-		Set<String> keySet = USERS.keySet();
+		store.expire(System.currentTimeMillis());
 		
 		if(LOGGER.isDebugEnabled()) {
-			LOGGER.debug("Number of users before expiration: " + keySet.size());
+			LOGGER.debug("Number of users after expiration: " + store.size());
 		}
-		
-		long currentTime = System.currentTimeMillis();
-		
-		for(String key : keySet) {
-			UserTime ut = USERS.get(key);
-			if(currentTime - ut.time > LIFETIME) {
-			    	
-				if(LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Removing user with Id " + key);
+	}
+	
+	/**
+	 * Returns the token store, bootstrapping the Singleton with the default
+	 * store if Spring has not already done so.
+	 * 
+	 * @return The token store.
+	 */
+	private static TokenStore getStore() {
+		TokenStore result = store;
+		if(result == null) {
+			synchronized(UserBin.class) {
+				if(store == null) {
+					new UserBin();
 				}
-				
-				USERS.remove(key);
+				result = store;
 			}
 		}
-		
-		if(LOGGER.isDebugEnabled()) {
-			LOGGER.debug("Number of users after expiration: " + USERS.size());
+		return result;
+	}
+	
+	/**
+	 * Returns the lock stripe for a user.
+	 * 
+	 * @param user The user.
+	 * 
+	 * @return The lock for that user.
+	 */
+	private static ReentrantLock getLock(final User user) {
+		int hash = user.hashCode();
+		hash ^= (hash >>> 16);
+		return LOCKS[(hash & 0x7fffffff) % NUM_LOCK_STRIPES];
+	}
+	
+	/**
+	 * Acquires a lock and records how long it took if the lock was held by
+	 * another thread.
+	 * 
+	 * @param lock The lock to acquire.
+	 */
+	private static void acquire(final ReentrantLock lock) {
+		if(lock.tryLock()) {
+			return;
 		}
+		
+		long start = System.nanoTime();
+		lock.lock();
+		LOCK_WAIT_NANOS.addAndGet(System.nanoTime() - start);
+		LOCK_CONTENTIONS.incrementAndGet();
 	}
 	
 	/**
-	 * Returns the Id for the provided user.
+	 * Creates the lock stripes.
+	 * 
+	 * @return The lock stripes.
 	 */
-	private static synchronized String findIdForUser(User user) {
-		Iterator<String> iterator = USERS.keySet().iterator();
-		while(iterator.hasNext()) {
-			String key = iterator.next();
-			UserTime userTime = USERS.get(key);
-			if(userTime.user.equals(user)) {
-				return key;
-			}
+	private static ReentrantLock[] createLocks() {
+		ReentrantLock[] result = new ReentrantLock[NUM_LOCK_STRIPES];
+		for(int i = 0; i < NUM_LOCK_STRIPES; i++) {
+			result[i] = new ReentrantLock();
 		}
-		return null;
+		return result;
 	}
 }
@@ -17,9 +17,13 @@ package org.ohmage.config.grammar.custom;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ohmage.config.grammar.parser.ConditionParser;
 import org.ohmage.config.grammar.parser.ParseException;
@@ -27,12 +31,35 @@ import org.ohmage.config.grammar.syntaxtree.Start;
 
 /**
  * A validator for conditions that relies on classes generated from JavaCC and JTB to parse and retrieve data from Condition
- * sentences.  
+ * sentences.<br />
+ * <br />
+ * The parser is not static, so each thread keeps its own instance and 
+ * re-initializes it for each sentence. The results of successfully parsing a
+ * sentence are cached as the same conditions are validated every time a 
+ * campaign is parsed.
  * 
  * @author selsky
  */
 public final class ConditionValidator {
-	private static boolean first = true;
+	/**
+	 * The maximum number of parsed sentences to keep in the cache. If the 
+	 * cache grows beyond this, it is emptied and rebuilt as sentences are 
+	 * parsed again.
+	 */
+	private static final int MAX_CACHED_SENTENCES = 4096;
+	
+	/**
+	 * The parsed sentences keyed by the sentence itself.
+	 */
+	private static final ConcurrentMap<String, Map<String, List<ConditionValuePair>>> CACHE = 
+		new ConcurrentHashMap<String, Map<String, List<ConditionValuePair>>>();
+	
+	/**
+	 * Each thread's parser. The parser is created lazily with the first 
+	 * sentence and re-initialized for each subsequent sentence.
+	 */
+	private static final ThreadLocal<ConditionParser> PARSER = 
+		new ThreadLocal<ConditionParser>();
 	
 	/**
 	 * Prevent instantiation.
@@ -51,44 +78,64 @@ public final class ConditionValidator {
 	}
 	
 	/**
-	 * Validates the provided Condition Sentence.
+	 * Validates the provided Condition Sentence. This is thread-safe.
 	 * 
 	 * @param conditionSentence
-	 * @return Map of Id-Value list pairs for each Id-operation-Value in the provided Sentence
+	 * @return Map of Id-Value list pairs for each Id-operation-Value in the provided Sentence. This map and its lists are 
+	 * 		   shared between callers and cannot be modified.
 	 * @throws ConditionParseException if the Sentence does not conform to our grammar (see spec/Condition-grammar.jj) 
 	 */
-	@SuppressWarnings("static-access")
 	public static Map<String, List<ConditionValuePair>> validate(String conditionSentence) {
+		Map<String, List<ConditionValuePair>> result = 
+			CACHE.get(conditionSentence);
+		if(result != null) {
+			return result;
+		}
+		
 		Start s = null;
 		
 		try {
-			
-			// TODO - fix the ConditionParser instantiation logic by rebuilding the parser and setting the JavaCC parameter STATIC
-			// to false. Without the false setting, the weird ReInit logic below must occur.
-			
-			if(first) {
-				
-				first = false;
-				s = new ConditionParser(new StringReader(conditionSentence)).start();
-				
-			} else {
-				ConditionParser.ReInit(new StringReader(conditionSentence)); // ReInit must be called for a multiple parse scenario
-				                                                             // i.e., when this method is called from a loop
-				s = ConditionParser.start();
+			ConditionParser parser = PARSER.get();
+			if(parser == null) {
+				parser = new ConditionParser(new StringReader(conditionSentence));
+				PARSER.set(parser);
 			}
+			else {
+				parser.ReInit(new StringReader(conditionSentence));
+			}
+			s = parser.start();
 			
 			ConditionDepthFirst<Map<String, List<ConditionValuePair>>> visitor 
 				= new ConditionDepthFirst<Map<String, List<ConditionValuePair>>>();
 			Map<String, List<ConditionValuePair>>map = new HashMap<String, List<ConditionValuePair>>(); 
 			visitor.visit(s, map);
-			return map;
 			
+			result = 
+				new HashMap<String, List<ConditionValuePair>>(map.size());
+			for(String id : map.keySet()) {
+				result.put(
+					id, 
+					Collections.unmodifiableList(
+						new ArrayList<ConditionValuePair>(map.get(id))));
+			}
+			result = Collections.unmodifiableMap(result);
 		} catch (ParseException pe) {
 			
 			throw new ConditionParseException("Condition parse failed for Condition Sentence: " + conditionSentence, pe);
 		}
 		catch(Throwable e) {
+			// If the parser failed in an unexpected way, don't trust its 
+			// state for the next sentence.
+			PARSER.remove();
+			
 			throw new ConditionParseException("The Condition Sentence is not well-formed: " + conditionSentence, e);
 		}
+		
+		if(CACHE.size() >= MAX_CACHED_SENTENCES) {
+			CACHE.clear();
+		}
+		CACHE.put(conditionSentence, result);
+		
+		return result;
 	}
 }
@@ -7,8 +7,6 @@ import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.AvroTypeException;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericContainer;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
@@ -257,6 +255,172 @@ public class DataStream {
 	}
 	private final MetaData metaData;
 	
+	/**
+	 * A position in the ordering of a stream's stored data, which is by the
+	 * points' adjusted time and then by the order in which they were stored.
+	 * Points without a time come first. Reading data from a continuation
+	 * token returns only those points that come after it or, if it points
+	 * backwards, only those that come before it. This allows the database to
+	 * seek directly to the page instead of reading and discarding all of the
+	 * points on the pages before it.<br />
+	 * <br />
+	 * The string representation of the token is opaque to the requester.
+	 */
+	public static final class ContinuationToken {
+		private static final char SEPARATOR = '.';
+		private static final char BACKWARDS = '~';
+		
+		private final Long timeAdjusted;
+		private final long databaseId;
+		private final boolean backwards;
+		
+		/**
+		 * Creates a continuation token that points just after a stored point.
+		 * 
+		 * @param timeAdjusted The point's adjusted time, which may be null.
+		 * 
+		 * @param databaseId The database's identifier for the point.
+		 */
+		public ContinuationToken(
+				final Long timeAdjusted, 
+				final long databaseId) {
+			
+			this(timeAdjusted, databaseId, false);
+		}
+		
+		/**
+		 * Creates a continuation token from its parts.
+		 * 
+		 * @param timeAdjusted The point's adjusted time, which may be null.
+		 * 
+		 * @param databaseId The database's identifier for the point.
+		 * 
+		 * @param backwards Whether the token points before the point instead
+		 * 					of after it.
+		 */
+		private ContinuationToken(
+				final Long timeAdjusted, 
+				final long databaseId,
+				final boolean backwards) {
+			
+			this.timeAdjusted = timeAdjusted;
+			this.databaseId = databaseId;
+			this.backwards = backwards;
+		}
+		
+		/**
+		 * Creates a continuation token from its string representation.
+		 * 
+		 * @param token The string representation of the token.
+		 * 
+		 * @return The continuation token.
+		 * 
+		 * @throws IllegalArgumentException The token is null or is not a valid
+		 * 									continuation token.
+		 * 
+		 * @see #toString()
+		 */
+		public static ContinuationToken getValue(final String token) {
+			if(token == null) {
+				throw new IllegalArgumentException("The token is null.");
+			}
+			
+			boolean backwards = 
+				(token.length() > 0) && (token.charAt(0) == BACKWARDS);
+			int start = (backwards) ? 1 : 0;
+			
+			int separatorIndex = token.indexOf(SEPARATOR, start);
+			if(separatorIndex == -1) {
+				throw new IllegalArgumentException(
+					"The token is malformed.");
+			}
+			
+			// These throw IllegalArgumentExceptions if they are invalid.
+			Long timeAdjusted = null;
+			if(separatorIndex > start) {
+				timeAdjusted = 
+					Long.parseLong(
+						token.substring(start, separatorIndex), 
+						36);
+			}
+			long databaseId = 
+				Long.parseLong(token.substring(separatorIndex + 1), 36);
+			if(databaseId < 0) {
+				throw new IllegalArgumentException(
+					"The token is malformed.");
+			}
+			
+			return new ContinuationToken(timeAdjusted, databaseId, backwards);
+		}
+		
+		/**
+		 * Returns a token for the same point that points just before it
+		 * instead of just after it.
+		 * 
+		 * @return The backwards continuation token.
+		 */
+		public ContinuationToken reverse() {
+			return new ContinuationToken(timeAdjusted, databaseId, true);
+		}
+		
+		/**
+		 * Returns the adjusted time of the point.
+		 * 
+		 * @return The adjusted time of the point, which may be null.
+		 */
+		public Long getTimeAdjusted() {
+			return timeAdjusted;
+		}
+		
+		/**
+		 * Returns the database's identifier for the point.
+		 * 
+		 * @return The database's identifier for the point.
+		 */
+		public long getDatabaseId() {
+			return databaseId;
+		}
+		
+		/**
+		 * Returns whether this token points before its point, in which case
+		 * the points before it should be read, or after it.
+		 * 
+		 * @return True if the token points backwards; false, otherwise.
+		 */
+		public boolean isBackwards() {
+			return backwards;
+		}
+		
+		/**
+		 * Returns the string representation of this token.
+		 * 
+		 * @return The string representation of this token.
+		 * 
+		 * @see #getValue(String)
+		 */
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			if(backwards) {
+				builder.append(BACKWARDS);
+			}
+			if(timeAdjusted != null) {
+				builder.append(Long.toString(timeAdjusted, 36));
+			}
+			return 
+				builder
+					.append(SEPARATOR)
+					.append(Long.toString(databaseId, 36))
+					.toString();
+		}
+	}
+	
+	/**
+	 * The token that points just after this point in its stream's stored 
+	 * data or null if this point was not read from the database.
+	 */
+	private final ContinuationToken continuationToken;
+	
 	/**
 	 * The stream that defines how this data is represented.
 	 */
@@ -267,12 +431,20 @@ public class DataStream {
 	 */
 	private BinaryEncoder binaryEncoder = null;
 	/**
-	 * The data in its Avro object representation.
+	 * The data in its Avro binary representation or null if it has not yet
+	 * been encoded.
 	 */
-	private final GenericContainer dataContainer;
+	private byte[] binaryData;
+	/**
+	 * The data in its Avro object representation or null if it has not yet
+	 * been decoded.
+	 */
+	private GenericContainer dataContainer;
 
 	/**
-	 * Creates a new DataStream from binary data generated by Avro.
+	 * Creates a new DataStream from binary data generated by Avro. The data
+	 * is not decoded until it is needed, so the binary data can be passed on
+	 * as-is without ever being decoded.
 	 * 
 	 * @param stream The stream that contains the definition on how to decode
 	 *				 the data.
@@ -281,13 +453,42 @@ public class DataStream {
 	 * 
 	 * @param data The data.
 	 * 
-	 * @throws DomainException One of the parameters is invalid or null.
+	 * @throws DomainException One of the parameters is null or the data is
+	 * 						   empty.
 	 */
 	public DataStream(
 			final Stream stream,
 			final MetaData metaData,
 			final byte[] data) 
 			throws DomainException {
+		
+		this(stream, metaData, data, null);
+	}
+	
+	/**
+	 * Creates a new DataStream from binary data that was read from the 
+	 * database. The data is not decoded until it is needed, so the binary
+	 * data can be passed on as-is without ever being decoded.
+	 * 
+	 * @param stream The stream that contains the definition on how to decode
+	 *				 the data.
+	 * 
+	 * @param metaData The meta-data.
+	 * 
+	 * @param data The data.
+	 * 
+	 * @param continuationToken The token that points just after this point
+	 * 							in the stored data. Optional.
+	 * 
+	 * @throws DomainException One of the required parameters is null or the
+	 * 						   data is empty.
+	 */
+	public DataStream(
+			final Stream stream,
+			final MetaData metaData,
+			final byte[] data,
+			final ContinuationToken continuationToken) 
+			throws DomainException {
 
 		if(stream == null) {
 			throw new DomainException("The stream is null.");
@@ -305,21 +506,11 @@ public class DataStream {
 		// Save the meta-data.
 		this.metaData = metaData;
 		
-		// Decode the data from the stream.
-		GenericDatumReader<GenericContainer> genericReader =
-			new GenericDatumReader<GenericContainer>(stream.getSchema());
-		try {
-			dataContainer =
-				genericReader.read(
-					null, 
-					DECODER_FACTORY.binaryDecoder(data, null));
-		}
-		catch(IOException e) {
-			throw new DomainException(e);
-		}
-		catch(AvroRuntimeException e) {
-			throw new DomainException("The data is invalid.", e);
-		}
+		// Save the data to be decoded when it is needed.
+		binaryData = data;
+		
+		// Save where this point was read from.
+		this.continuationToken = continuationToken;
 	}
 	
 	/**
@@ -353,23 +544,22 @@ public class DataStream {
 		// Save the meta-data.
 		this.metaData = metaData;
 		
+		// This point did not come from the database.
+		continuationToken = null;
+		
 		// Decode the data.
 		Schema schema = stream.getSchema();
 		Decoder decoder;
 		try {
-			decoder = (new DecoderFactory()).jsonDecoder(schema, data);
+			decoder = DECODER_FACTORY.jsonDecoder(schema, data);
 		}
 		catch(IOException e) {
 			throw new DomainException("Could not read the data.", e);
 		}
 		
-		// Create the JSON reader.
-		GenericDatumReader<GenericContainer> reader =
-			new GenericDatumReader<GenericContainer>(schema);
-		
 		// Read into the container.
 		try {
-			dataContainer = reader.read(null, decoder);
+			dataContainer = stream.getDatumReader().read(null, decoder);
 		}
 		catch(AvroTypeException e) {
 			throw new DomainException(
@@ -402,24 +592,39 @@ public class DataStream {
 	}
 	
 	/**
-	 * Returns the binary data as a byte array.
+	 * Returns the token that points just after this point in its stream's
+	 * stored data.
+	 * 
+	 * @return The continuation token or null if this point was not read from
+	 * 		   the database.
+	 */
+	public ContinuationToken getContinuationToken() {
+		return continuationToken;
+	}
+	
+	/**
+	 * Returns the binary data as a byte array. If this data stream was 
+	 * created from binary data, that data is returned as-is; the array must
+	 * not be modified.
 	 * 
 	 * @return The binary data as a byte array.
+	 * 
+	 * @throws DomainException The data could not be encoded.
 	 */
 	public byte[] getBinaryData() throws DomainException {
+		if(binaryData != null) {
+			return binaryData;
+		}
+		
 		// Create the output stream.
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		
 		// Create or reinitialize the binary encoder.
 		binaryEncoder = ENCODER_FACTORY.binaryEncoder(out, binaryEncoder);
 		
-		// Create a writer.
-		GenericDatumWriter<GenericContainer> writer =
-			new GenericDatumWriter<GenericContainer>(stream.getSchema());
-		
 		// Write the data and flush the encoder.
 		try {
-			writer.write(dataContainer, binaryEncoder);
+			stream.getDatumWriter().write(dataContainer, binaryEncoder);
 			binaryEncoder.flush();
 		}
 		catch(IOException e) {
@@ -428,16 +633,34 @@ public class DataStream {
 				e);
 		}
 		
-		// Return the result.
-		return out.toByteArray();
+		// Save and return the result.
+		binaryData = out.toByteArray();
+		return binaryData;
 	}
 	
 	/**
-	 * Returns a generic container for the data.
+	 * Returns a generic container for the data, decoding it if necessary.
 	 * 
 	 * @return A generic container for the data.
+	 * 
+	 * @throws DomainException The binary data could not be decoded.
 	 */
-	public GenericContainer getData() {
+	public GenericContainer getData() throws DomainException {
+		if(dataContainer == null) {
+			try {
+				dataContainer =
+					stream.getDatumReader().read(
+						null, 
+						DECODER_FACTORY.binaryDecoder(binaryData, null));
+			}
+			catch(IOException e) {
+				throw new DomainException(e);
+			}
+			catch(AvroRuntimeException e) {
+				throw new DomainException("The data is invalid.", e);
+			}
+		}
+		
 		return dataContainer;
 	}
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -62,6 +63,17 @@ public class Image {
 		}
 	};
 	
+	/**
+	 * The content type of an image whose type cannot be determined. Images
+	 * were once always stored as PNGs.
+	 */
+	public static final String DEFAULT_CONTENT_TYPE = "image/png";
+	
+	// Every JPEG starts with these bytes. The byte after them varies with the
+	// first marker in the file, and the JDK only recognizes a few of them.
+	private static final byte[] JPEG_SIGNATURE = 
+		new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+	
 	private final UUID id;
 	
 	// For this image, this maps the different sized images to their unique,
@@ -190,4 +202,59 @@ public class Image {
 			throw new DomainException("Error opening stream.", e);
 		}
 	}
+	
+	/**
+	 * Determines the content type of an image from its first few bytes.
+	 * Images are stored as they were uploaded, so they may be in any format.
+	 * 
+	 * @param imageStream A stream to the image that supports 
+	 * 					  {@link InputStream#mark(int)}. It is reset before
+	 * 					  this returns.
+	 * 
+	 * @return The image's content type, e.g. "image/jpeg", or
+	 * 		   {@link #DEFAULT_CONTENT_TYPE} if it cannot be determined.
+	 * 
+	 * @throws IOException There was an error reading from the stream.
+	 */
+	public static String getContentType(
+			final InputStream imageStream) 
+			throws IOException {
+		
+		imageStream.mark(JPEG_SIGNATURE.length);
+		byte[] header = new byte[JPEG_SIGNATURE.length];
+		int numRead = 0;
+		while(numRead < header.length) {
+			int read = 
+				imageStream.read(header, numRead, header.length - numRead);
+			if(read == -1) {
+				break;
+			}
+			numRead += read;
+		}
+		imageStream.reset();
+		
+		if((numRead == header.length) && 
+			Arrays.equals(header, JPEG_SIGNATURE)) {
+			
+			return "image/jpeg";
+		}
+		
+		String result = URLConnection.guessContentTypeFromStream(imageStream);
+		if((result == null) || (! result.startsWith("image/"))) {
+			return DEFAULT_CONTENT_TYPE;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the file extension for an image's content type.
+	 * 
+	 * @param contentType The image's content type, e.g. "image/jpeg".
+	 * 
+	 * @return The extension without a period, e.g. "jpeg".
+	 */
+	public static String getExtension(final String contentType) {
+		return contentType.substring(contentType.indexOf('/') + 1);
+	}
 }
\ No newline at end of file
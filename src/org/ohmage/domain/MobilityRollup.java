@@ -0,0 +1,555 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTimeZone;
+import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * A summary of a user's Mobility points with the same mode and time zone
+ * within one minute. The Mobility reads are answered from these summaries
+ * instead of from the points themselves.<br />
+ * <br />
+ * Each point is credited with a duration: the time since the user's previous
+ * point if that was no more than {@value #MAX_MILLIS_BETWEEN_POINTS}
+ * milliseconds before it, otherwise {@value #DEFAULT_MILLIS_PER_POINT}
+ * milliseconds. The first point's own duration and the last point's time are
+ * kept separately so that a reader can credit the first point differently
+ * when it only considers some of the rollups, see 
+ * {@link #getModeDurations(List)}.
+ */
+public class MobilityRollup {
+	/**
+	 * The number of milliseconds summarized by each rollup. Every rollup
+	 * begins at a multiple of this from the epoch.
+	 */
+	public static final long MILLIS_PER_ROLLUP = 1000 * 60;
+	
+	/**
+	 * The longest time between two points for which the later point is
+	 * credited with the time between them.
+	 */
+	public static final long MAX_MILLIS_BETWEEN_POINTS = 1000 * 60 * 60;
+	
+	/**
+	 * The duration credited to a point that has no recent previous point.
+	 */
+	public static final long DEFAULT_MILLIS_PER_POINT = 1000 * 60;
+	
+	/**
+	 * The parts of a Mobility point that are rolled up.
+	 */
+	public static final class Point implements Comparable<Point> {
+		private final long time;
+		private final DateTimeZone timezone;
+		private final Mode mode;
+		private final LocationStatus locationStatus;
+		private final Location location;
+		
+		/**
+		 * Creates a point.
+		 * 
+		 * @param time The point's time in milliseconds since the epoch.
+		 * 
+		 * @param timezone The point's time zone.
+		 * 
+		 * @param mode The point's mode.
+		 * 
+		 * @param locationStatus The point's location status.
+		 * 
+		 * @param location The point's location, which may be null.
+		 * 
+		 * @throws DomainException The time zone, mode, or location status is
+		 * 						   null.
+		 */
+		public Point(
+				final long time,
+				final DateTimeZone timezone,
+				final Mode mode,
+				final LocationStatus locationStatus,
+				final Location location)
+				throws DomainException {
+			
+			if(timezone == null) {
+				throw new DomainException("The time zone is null.");
+			}
+			if(mode == null) {
+				throw new DomainException("The mode is null.");
+			}
+			if(locationStatus == null) {
+				throw new DomainException("The location status is null.");
+			}
+			
+			this.time = time;
+			this.timezone = timezone;
+			this.mode = mode;
+			this.locationStatus = locationStatus;
+			this.location = location;
+		}
+		
+		/**
+		 * Returns the point's time.
+		 * 
+		 * @return The point's time in milliseconds since the epoch.
+		 */
+		public long getTime() {
+			return time;
+		}
+		
+		/**
+		 * Returns the point's time zone.
+		 * 
+		 * @return The point's time zone.
+		 */
+		public DateTimeZone getTimezone() {
+			return timezone;
+		}
+		
+		/**
+		 * Returns the point's mode.
+		 * 
+		 * @return The point's mode.
+		 */
+		public Mode getMode() {
+			return mode;
+		}
+		
+		/**
+		 * Returns the point's location status.
+		 * 
+		 * @return The point's location status.
+		 */
+		public LocationStatus getLocationStatus() {
+			return locationStatus;
+		}
+		
+		/**
+		 * Returns the point's location.
+		 * 
+		 * @return The point's location, which may be null.
+		 */
+		public Location getLocation() {
+			return location;
+		}
+		
+		/**
+		 * Orders the points by their times.
+		 */
+		@Override
+		public int compareTo(final Point other) {
+			return (time < other.time) ? -1 : ((time > other.time) ? 1 : 0);
+		}
+	}
+	
+	private final long time;
+	private final DateTimeZone timezone;
+	private final Mode mode;
+	
+	private long count;
+	private long duration;
+	
+	private final long firstTime;
+	private final long firstDuration;
+	private final LocationStatus firstLocationStatus;
+	private final Location firstLocation;
+	
+	private long lastTime;
+	
+	/**
+	 * Creates a rollup from its first point.
+	 * 
+	 * @param point The first point.
+	 * 
+	 * @param duration The duration credited to the point.
+	 * 
+	 * @throws DomainException The point is null.
+	 */
+	public MobilityRollup(
+			final Point point,
+			final long duration)
+			throws DomainException {
+		
+		if(point == null) {
+			throw new DomainException("The point is null.");
+		}
+		
+		time = getRollupTime(point.getTime());
+		timezone = point.getTimezone();
+		mode = point.getMode();
+		
+		count = 1;
+		this.duration = duration;
+		
+		firstTime = point.getTime();
+		firstDuration = duration;
+		firstLocationStatus = point.getLocationStatus();
+		firstLocation = point.getLocation();
+		
+		lastTime = point.getTime();
+	}
+	
+	/**
+	 * Creates a rollup from its stored values.
+	 * 
+	 * @param time The start of the rollup's minute in milliseconds since the
+	 * 			   epoch.
+	 * 
+	 * @param timezone The time zone of the points.
+	 * 
+	 * @param mode The mode of the points.
+	 * 
+	 * @param count The number of points.
+	 * 
+	 * @param duration The total duration credited to the points.
+	 * 
+	 * @param firstTime The time of the first point.
+	 * 
+	 * @param firstDuration The duration credited to the first point.
+	 * 
+	 * @param firstLocationStatus The location status of the first point.
+	 * 
+	 * @param firstLocation The location of the first point, which may be
+	 * 						null.
+	 * 
+	 * @param lastTime The time of the last point.
+	 * 
+	 * @throws DomainException One of the parameters is invalid.
+	 */
+	public MobilityRollup(
+			final long time,
+			final DateTimeZone timezone,
+			final Mode mode,
+			final long count,
+			final long duration,
+			final long firstTime,
+			final long firstDuration,
+			final LocationStatus firstLocationStatus,
+			final Location firstLocation,
+			final long lastTime)
+			throws DomainException {
+		
+		if(timezone == null) {
+			throw new DomainException("The time zone is null.");
+		}
+		if(mode == null) {
+			throw new DomainException("The mode is null.");
+		}
+		if(firstLocationStatus == null) {
+			throw new DomainException("The location status is null.");
+		}
+		if(count < 1) {
+			throw new DomainException("The count must be positive.");
+		}
+		if(getRollupTime(firstTime) != time) {
+			throw new DomainException(
+				"The first point is not within the rollup's minute.");
+		}
+		if((getRollupTime(lastTime) != time) || (lastTime < firstTime)) {
+			throw new DomainException(
+				"The last point is not within the rollup's minute or is before the first point.");
+		}
+		
+		this.time = time;
+		this.timezone = timezone;
+		this.mode = mode;
+		
+		this.count = count;
+		this.duration = duration;
+		
+		this.firstTime = firstTime;
+		this.firstDuration = firstDuration;
+		this.firstLocationStatus = firstLocationStatus;
+		this.firstLocation = firstLocation;
+		
+		this.lastTime = lastTime;
+	}
+	
+	/**
+	 * Returns the start of the minute to which a time belongs.
+	 * 
+	 * @param time The time in milliseconds since the epoch.
+	 * 
+	 * @return The start of the time's minute in milliseconds since the
+	 * 		   epoch.
+	 */
+	public static long getRollupTime(final long time) {
+		long remainder = time % MILLIS_PER_ROLLUP;
+		
+		// The remainder of a time before the epoch is negative.
+		return time - ((remainder < 0) ? remainder + MILLIS_PER_ROLLUP : remainder);
+	}
+	
+	/**
+	 * Returns the duration to credit to a point.
+	 * 
+	 * @param time The point's time.
+	 * 
+	 * @param previousTime The time of the user's previous point or null if
+	 * 					   there is none.
+	 * 
+	 * @return The point's duration.
+	 */
+	public static long getDuration(final long time, final Long previousTime) {
+		if(previousTime == null) {
+			return DEFAULT_MILLIS_PER_POINT;
+		}
+		
+		long difference = time - previousTime;
+		return
+			(difference <= MAX_MILLIS_BETWEEN_POINTS) ?
+				difference :
+				DEFAULT_MILLIS_PER_POINT;
+	}
+	
+	/**
+	 * Returns whether a point belongs in this rollup.
+	 * 
+	 * @param point The point.
+	 * 
+	 * @return Whether the point has this rollup's minute, time zone, and
+	 * 		   mode.
+	 */
+	public boolean contains(final Point point) {
+		return
+			(getRollupTime(point.getTime()) == time) &&
+			timezone.equals(point.getTimezone()) &&
+			mode.equals(point.getMode());
+	}
+	
+	/**
+	 * Adds a point that came after the first point to this rollup.
+	 * 
+	 * @param point The point, which must belong in this rollup.
+	 * 
+	 * @param duration The duration credited to the point.
+	 */
+	public void add(final Point point, final long duration) {
+		count++;
+		this.duration += duration;
+		lastTime = Math.max(lastTime, point.getTime());
+	}
+	
+	/**
+	 * Summarizes points into rollups.
+	 * 
+	 * @param points The points in time order.
+	 * 
+	 * @param startTime The points before this time are not summarized, but
+	 * 					they determine the durations of the points after them.
+	 * 
+	 * @return The rollups in the order of their first points.
+	 * 
+	 * @throws DomainException A point was invalid.
+	 */
+	public static List<MobilityRollup> rollUp(
+			final List<Point> points,
+			final long startTime)
+			throws DomainException {
+		
+		List<MobilityRollup> result = new ArrayList<MobilityRollup>();
+		
+		// The points are in time order, so only the rollups for the current
+		// minute need to be searched.
+		List<MobilityRollup> minute = new LinkedList<MobilityRollup>();
+		Long previousTime = null;
+		for(Point point : points) {
+			long duration = getDuration(point.getTime(), previousTime);
+			previousTime = point.getTime();
+			
+			if(point.getTime() < startTime) {
+				continue;
+			}
+			
+			if((! minute.isEmpty()) && 
+				(minute.get(0).getTime() != getRollupTime(point.getTime()))) {
+				
+				result.addAll(minute);
+				minute.clear();
+			}
+			
+			MobilityRollup rollup = null;
+			for(MobilityRollup currRollup : minute) {
+				if(currRollup.contains(point)) {
+					rollup = currRollup;
+					break;
+				}
+			}
+			
+			if(rollup == null) {
+				minute.add(new MobilityRollup(point, duration));
+			}
+			else {
+				rollup.add(point, duration);
+			}
+		}
+		result.addAll(minute);
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the time spent in each mode by the points of some of a user's
+	 * rollups, as if they were the user's only points. Each point is
+	 * credited with the time since the previous point among them, and the
+	 * first point with {@value #DEFAULT_MILLIS_PER_POINT} milliseconds.<br />
+	 * <br />
+	 * Only the first point of each rollup can have a different previous
+	 * point among these rollups than among all of the user's points, so
+	 * only its duration is recomputed. The previous point is the latest last
+	 * point of the rollups before it unless one of those rollups has points
+	 * on both sides of it, in which case the previous point is within the
+	 * same minute and already was the previous point. This is exact unless
+	 * the user's time zone changed away from and back to a time zone within
+	 * one minute.
+	 * 
+	 * @param rollups The rollups in the order of their first points.
+	 * 
+	 * @return The total duration of each mode in milliseconds, in the order
+	 * 		   in which the modes first appear.
+	 */
+	public static Map<Mode, Long> getModeDurations(
+			final List<MobilityRollup> rollups) {
+		
+		Map<Mode, Long> result = new LinkedHashMap<Mode, Long>();
+		
+		Long previousTime = null;
+		for(MobilityRollup rollup : rollups) {
+			long firstDuration;
+			if(previousTime == null) {
+				firstDuration = DEFAULT_MILLIS_PER_POINT;
+			}
+			else if(previousTime > rollup.firstTime) {
+				firstDuration = rollup.firstDuration;
+			}
+			else {
+				firstDuration = getDuration(rollup.firstTime, previousTime);
+			}
+			
+			Long modeDuration = result.get(rollup.mode);
+			result.put(
+				rollup.mode,
+				((modeDuration == null) ? 0 : modeDuration) + 
+					rollup.duration - 
+					rollup.firstDuration + 
+					firstDuration);
+			
+			previousTime = 
+				(previousTime == null) ? 
+					rollup.lastTime : 
+					Math.max(previousTime, rollup.lastTime);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the start of this rollup's minute.
+	 * 
+	 * @return The start of the minute in milliseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns the time zone of the points.
+	 * 
+	 * @return The time zone of the points.
+	 */
+	public DateTimeZone getTimezone() {
+		return timezone;
+	}
+	
+	/**
+	 * Returns the mode of the points.
+	 * 
+	 * @return The mode of the points.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * Returns the number of points.
+	 * 
+	 * @return The number of points.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the total duration credited to the points.
+	 * 
+	 * @return The total duration in milliseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+	
+	/**
+	 * Returns the time of the first point.
+	 * 
+	 * @return The time of the first point in milliseconds since the epoch.
+	 */
+	public long getFirstTime() {
+		return firstTime;
+	}
+	
+	/**
+	 * Returns the duration credited to the first point.
+	 * 
+	 * @return The first point's duration in milliseconds.
+	 */
+	public long getFirstDuration() {
+		return firstDuration;
+	}
+	
+	/**
+	 * Returns the location status of the first point.
+	 * 
+	 * @return The first point's location status.
+	 */
+	public LocationStatus getFirstLocationStatus() {
+		return firstLocationStatus;
+	}
+	
+	/**
+	 * Returns the location of the first point.
+	 * 
+	 * @return The first point's location, which may be null.
+	 */
+	public Location getFirstLocation() {
+		return firstLocation;
+	}
+	
+	/**
+	 * Returns the time of the last point.
+	 * 
+	 * @return The time of the last point in milliseconds since the epoch.
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+}
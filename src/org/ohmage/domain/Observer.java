@@ -20,6 +20,9 @@ import nu.xom.XPathException;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
 import org.apache.avro.SchemaParseException;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
 import org.codehaus.jackson.JsonNode;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.DataStream.MetaData;
@@ -68,6 +71,11 @@ public class Observer {
 		private final boolean withLocation;
 
 		private final Schema schema;
+		
+		// The reader and writer for the schema, which are thread-safe and
+		// are built once so that every data point does not rebuild them.
+		private final GenericDatumReader<GenericContainer> datumReader;
+		private final GenericDatumWriter<GenericContainer> datumWriter;
 
 		/**
 		 * Creates a new stream definition.
@@ -135,6 +143,9 @@ public class Observer {
 			catch(SchemaParseException e) {
 				throw new DomainException("The schema was invalid.", e);
 			}
+			
+			datumReader = new GenericDatumReader<GenericContainer>(this.schema);
+			datumWriter = new GenericDatumWriter<GenericContainer>(this.schema);
 		}
 		
 		/**
@@ -308,6 +319,9 @@ public class Observer {
 					"The schema was invalid: " + e.getMessage(),
 					e);
 			}
+			
+			datumReader = new GenericDatumReader<GenericContainer>(schema);
+			datumWriter = new GenericDatumWriter<GenericContainer>(schema);
 		}
 
 		/**
@@ -382,6 +396,26 @@ public class Observer {
 			return schema;
 		}
 		
+		/**
+		 * Returns the reader for data that conforms to the schema. It may be
+		 * shared between threads.
+		 * 
+		 * @return The reader for the schema.
+		 */
+		public GenericDatumReader<GenericContainer> getDatumReader() {
+			return datumReader;
+		}
+		
+		/**
+		 * Returns the writer for data that conforms to the schema. It may be
+		 * shared between threads.
+		 * 
+		 * @return The writer for the schema.
+		 */
+		public GenericDatumWriter<GenericContainer> getDatumWriter() {
+			return datumWriter;
+		}
+		
 		/**
 		 * Sanitizes the stream ID and returns it.
 		 * 
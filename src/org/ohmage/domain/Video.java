@@ -1,6 +1,7 @@
 package org.ohmage.domain;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -22,6 +23,7 @@ public class Video {
 	public final String type;
 	public final int size;
 	public final InputStream content; 
+	private final File file;
 	
 	/**
 	 * Constructs a new video object.
@@ -37,6 +39,26 @@ public class Video {
 		this.type = type;
 		this.size = content.length;
 		this.content = new ByteArrayInputStream(content);
+		this.file = null;
+	}
+	
+	/**
+	 * Constructs a new video object whose contents have already been written
+	 * to a file. The contents are never read into memory; when the video is
+	 * stored, the file is moved into place.
+	 * 
+	 * @param id The video's unique identifier.
+	 * 
+	 * @param type The video's extension.
+	 * 
+	 * @param file The file containing the video.
+	 */
+	public Video(final UUID id, final String type, final File file) {
+		this.id = id;
+		this.type = type;
+		this.size = (int) file.length();
+		this.content = null;
+		this.file = file;
 	}
 	
 	/**
@@ -83,6 +105,8 @@ public class Video {
 				"The video file does not exist.",
 				e);
 		}
+		
+		this.file = null;
 	}
 	
 	/**
@@ -106,12 +130,25 @@ public class Video {
 	/**
 	 * Returns the content of the video.
 	 * 
-	 * @return The content of the video.
+	 * @return The content of the video or null if the video is backed by a
+	 * 		   file.
+	 * 
+	 * @see #getFile()
 	 */
 	public InputStream getContentStream() {
 		return content;
 	}
 	
+	/**
+	 * Returns the file that contains the video, if the video was spooled to
+	 * disk when it was uploaded.
+	 * 
+	 * @return The video's file or null if the video is not backed by a file.
+	 */
+	public File getFile() {
+		return file;
+	}
+	
 	/**
 	 * Creates a filename for this video based on its ID and type.
 	 * 
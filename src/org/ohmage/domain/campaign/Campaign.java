@@ -30,8 +30,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import nu.xom.Builder;
@@ -79,6 +77,11 @@ import org.ohmage.util.TimeUtils;
  * @author John Jenkins
  */
 public class Campaign {
+	/**
+	 * The maximum number of campaigns to return in a campaign search.
+	 */
+	public static final int MAX_NUM_TO_RETURN = Integer.MAX_VALUE;
+	
 	private static final String XML_ID = "/campaign/campaignUrn";
 	private static final String XML_NAME = "/campaign/campaignName";
 	
@@ -716,6 +719,66 @@ public class Campaign {
 		classes = new LinkedList<String>();
 	}
 	
+	/**
+	 * Creates a copy of a campaign that was created from its XML but with a
+	 * new description, running state, and privacy state, none of which are
+	 * part of the XML. The copy shares all of the immutable parts of the
+	 * original campaign, so the XML is not parsed again, but it has its own
+	 * copy of any survey that may be changed and its own users and classes.
+	 * 
+	 * @param campaign The campaign to copy.
+	 * 
+	 * @param description The optional description of the configuration.
+	 * 
+	 * @param runningState The configuration's current running state.
+	 * 
+	 * @param privacyState The configuration's current privacy state.
+	 * 
+	 * @throws DomainException If any of the parameters are invalid.
+	 * 
+	 * @see Survey#copy()
+	 */
+	public Campaign(
+			final Campaign campaign,
+			final String description,
+			final RunningState runningState,
+			final PrivacyState privacyState)
+			throws DomainException {
+		
+		if(campaign == null) {
+			throw new DomainException("The campaign is null.");
+		}
+		else if(runningState == null) {
+			throw new DomainException("The running state is null.");
+		}
+		else if(privacyState == null) {
+			throw new DomainException("The privacy state is null.");
+		}
+		
+		id = campaign.id;
+		name = campaign.name;
+		this.description = description;
+		
+		serverUrl = campaign.serverUrl;
+		iconUrl = campaign.iconUrl;
+		authoredBy = campaign.authoredBy;
+		
+		surveyMap = new HashMap<String, Survey>(campaign.surveyMap.size());
+		for(Survey survey : campaign.surveyMap.values()) {
+			surveyMap.put(survey.getId(), survey.copy());
+		}
+		
+		this.runningState = runningState;
+		this.privacyState = privacyState;
+		
+		creationTimestamp = campaign.creationTimestamp;
+		
+		xml = campaign.xml;
+		
+		userRoles = new HashMap<String, Collection<Role>>();
+		classes = new LinkedList<String>();
+	}
+	
 	/**
 	 * Validates that some XML contains all required components of an ohmage
 	 * XML document and that all values, even optional ones that are given, are
@@ -2716,11 +2779,6 @@ public class Campaign {
 				promptMap, index);
 	}
 	
-	// FIXME: Hackalicious. This is a hot-fix so that concurrency won't break 
-	// condition parsing. We need to fix the condition parser to not be static
-	// as soon as possible!
-	private static final Lock parserLock = new ReentrantLock();
-	
 	/**
 	 * Creates a Prompt object based on the XML prompt Node.
 	 * 
@@ -3058,16 +3116,12 @@ public class Campaign {
 		
 		Map<String, List<ConditionValuePair>> promptIdAndConditionValues;
 		try {
-			parserLock.lock();
 			promptIdAndConditionValues = 
 					ConditionValidator.validate(condition);
 		}
 		catch(ConditionParseException e) {
 			throw new DomainException(e.getMessage(), e);
 		}
-		finally {
-			parserLock.unlock();
-		}
 		
 		for(String promptId : promptIdAndConditionValues.keySet()) {
 			// Validate that the prompt exists and comes before this prompt. 
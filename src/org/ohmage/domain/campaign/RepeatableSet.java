@@ -48,7 +48,7 @@ public class RepeatableSet extends SurveyItem {
 	private final boolean terminationSkipEnabled;
 	private final String terminationSkipLabel;
 	
-	private final Map<Integer, SurveyItem> surveyItems;
+	private Map<Integer, SurveyItem> surveyItems;
 	
 	/**
 	 * Creates a new repeatable set.
@@ -193,6 +193,44 @@ public class RepeatableSet extends SurveyItem {
 		return Collections.unmodifiableMap(surveyItems);
 	}
 	
+	/**
+	 * Returns true if any of the survey items in this repeatable set are
+	 * mutable.
+	 * 
+	 * @return True if any of the survey items in this repeatable set are 
+	 * 		   mutable; false, otherwise.
+	 */
+	@Override
+	public boolean isMutable() {
+		for(SurveyItem surveyItem : surveyItems.values()) {
+			if(surveyItem.isMutable()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Creates a copy of this repeatable set and of each of its survey items.
+	 * 
+	 * @return A copy of this repeatable set.
+	 */
+	@Override
+	public RepeatableSet copy() {
+		RepeatableSet result = (RepeatableSet) super.copy();
+		
+		result.surveyItems = 
+				new HashMap<Integer, SurveyItem>(surveyItems.size());
+		for(SurveyItem surveyItem : surveyItems.values()) {
+			SurveyItem surveyItemCopy = surveyItem.copy();
+			surveyItemCopy.setParent(result);
+			result.surveyItems.put(surveyItemCopy.getIndex(), surveyItemCopy);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Returns a prompt from this repeatable set or from any sub repeatable 
 	 * sets.
@@ -399,6 +399,54 @@ public class Survey {
 		return result;
 	}
 	
+	/**
+	 * Returns a copy of this survey that may be safely used by a single 
+	 * request. If none of the survey items are mutable, this survey is 
+	 * returned as it is; otherwise, a new survey is created with copies of 
+	 * all of the survey items.
+	 * 
+	 * @return This survey or a copy of it.
+	 * 
+	 * @see SurveyItem#isMutable()
+	 */
+	public Survey copy() {
+		boolean mutable = false;
+		for(SurveyItem surveyItem : surveyItems.values()) {
+			if(surveyItem.isMutable()) {
+				mutable = true;
+				break;
+			}
+		}
+		if(! mutable) {
+			return this;
+		}
+		
+		Map<Integer, SurveyItem> surveyItemsCopy = 
+				new HashMap<Integer, SurveyItem>(surveyItems.size());
+		for(Map.Entry<Integer, SurveyItem> entry : surveyItems.entrySet()) {
+			surveyItemsCopy.put(entry.getKey(), entry.getValue().copy());
+		}
+		
+		try {
+			return new Survey(
+					id, 
+					title, 
+					description, 
+					introText, 
+					submitText, 
+					showSummary, 
+					editSummary, 
+					summaryText, 
+					anytime, 
+					surveyItemsCopy);
+		}
+		catch(DomainException e) {
+			throw new IllegalStateException(
+					"A copy of a valid survey was invalid.",
+					e);
+		}
+	}
+	
 	/**
 	 * Creates a JSONObject that represents this survey.
 	 * 
@@ -25,7 +25,7 @@ import org.ohmage.exception.DomainException;
  * 
  * @author John Jenkins
  */
-public abstract class SurveyItem {
+public abstract class SurveyItem implements Cloneable {
 	private static final String JSON_KEY_ID = "id";
 	private static final String JSON_KEY_CONDITION = "condition";
 	private static final String JSON_KEY_INDEX = "index";
@@ -248,6 +248,39 @@ public abstract class SurveyItem {
 		return true;
 	}
 	
+	/**
+	 * Returns whether or not this survey item, or any survey item that it
+	 * contains, may be changed after it has been created. Survey items that
+	 * may be changed cannot be shared between requests.
+	 * 
+	 * @return True if this survey item may be changed; false, otherwise.
+	 */
+	public boolean isMutable() {
+		return false;
+	}
+	
+	/**
+	 * Creates a copy of this survey item that does not belong to any
+	 * repeatable set. The copy shares all of the immutable state of this
+	 * survey item. Subclasses with mutable state must copy that state.
+	 * 
+	 * @return A copy of this survey item.
+	 */
+	public SurveyItem copy() {
+		SurveyItem result;
+		try {
+			result = (SurveyItem) clone();
+		}
+		catch(CloneNotSupportedException e) {
+			throw new IllegalStateException(
+					"Survey items are always cloneable.",
+					e);
+		}
+		
+		result.parent = null;
+		return result;
+	}
+	
 	/**
 	 * Sets the parent of this survey item which must be a repeatable set.
 	 * 
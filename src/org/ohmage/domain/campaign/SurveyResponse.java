@@ -29,6 +29,7 @@ import java.util.UUID;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -755,6 +756,217 @@ public class SurveyResponse {
 		}
 	}
 	
+	/**
+	 * A position in the default ordering of survey responses, which is by 
+	 * their time descending and then by their unique identifier ascending.
+	 * Reading survey responses from a continuation token returns only those
+	 * that come after it in that ordering, which allows the database to seek
+	 * directly to the next page instead of reading and discarding all of the
+	 * survey responses on the previous pages.<br />
+	 * <br />
+	 * The string representation of the token is opaque to the requester.
+	 */
+	public static final class ContinuationToken {
+		private static final char SEPARATOR = '.';
+		
+		private final long time;
+		private final UUID surveyResponseId;
+		
+		/**
+		 * Creates a continuation token that points just after the given
+		 * survey response.
+		 * 
+		 * @param surveyResponse The last survey response that was read.
+		 * 
+		 * @throws IllegalArgumentException The survey response is null.
+		 */
+		public ContinuationToken(final SurveyResponse surveyResponse) {
+			if(surveyResponse == null) {
+				throw new IllegalArgumentException(
+						"The survey response is null.");
+			}
+			
+			time = surveyResponse.getTime();
+			surveyResponseId = surveyResponse.getSurveyResponseId();
+		}
+		
+		/**
+		 * Creates a continuation token from its string representation.
+		 * 
+		 * @param token The string representation of the token.
+		 * 
+		 * @return The continuation token.
+		 * 
+		 * @throws IllegalArgumentException The token is null or is not a valid
+		 * 									continuation token.
+		 * 
+		 * @see #toString()
+		 */
+		public static ContinuationToken getValue(final String token) {
+			if(token == null) {
+				throw new IllegalArgumentException("The token is null.");
+			}
+			
+			int separatorIndex = token.indexOf(SEPARATOR);
+			if(separatorIndex == -1) {
+				throw new IllegalArgumentException(
+						"The token is malformed.");
+			}
+			
+			// Both of these throw IllegalArgumentExceptions if they are
+			// invalid.
+			return new ContinuationToken(
+					Long.parseLong(token.substring(0, separatorIndex), 36),
+					UUID.fromString(token.substring(separatorIndex + 1)));
+		}
+		
+		/**
+		 * Creates a continuation token from its parts.
+		 * 
+		 * @param time The time of the last survey response that was read.
+		 * 
+		 * @param surveyResponseId The unique identifier of the last survey 
+		 * 						   response that was read.
+		 */
+		private ContinuationToken(
+				final long time, 
+				final UUID surveyResponseId) {
+			
+			this.time = time;
+			this.surveyResponseId = surveyResponseId;
+		}
+		
+		/**
+		 * Returns the time of the last survey response that was read.
+		 * 
+		 * @return The number of milliseconds since the epoch.
+		 */
+		public long getTime() {
+			return time;
+		}
+		
+		/**
+		 * Returns the unique identifier of the last survey response that was
+		 * read.
+		 * 
+		 * @return The survey response's unique identifier.
+		 */
+		public UUID getSurveyResponseId() {
+			return surveyResponseId;
+		}
+		
+		/**
+		 * Returns the string representation of this token.
+		 * 
+		 * @return The string representation of this token.
+		 * 
+		 * @see #getValue(String)
+		 */
+		@Override
+		public String toString() {
+			return 
+				Long.toString(time, 36) + 
+				SEPARATOR + 
+				surveyResponseId.toString();
+		}
+	}
+	
+	/**
+	 * The number of survey responses with the same privacy state and,
+	 * optionally, the same survey and/or date. These are the buckets of the
+	 * privacy state function in survey_response/function/read.
+	 * 
+	 * @see Function#PRIVACY_STATE
+	 * @see FunctionPrivacyStateItem
+	 */
+	public static final class PrivacyStateCount {
+		private final PrivacyState privacyState;
+		private final String surveyId;
+		private final LocalDate date;
+		
+		private long count;
+		
+		/**
+		 * Creates a new bucket.
+		 * 
+		 * @param privacyState The privacy state of the survey responses.
+		 * 
+		 * @param surveyId The survey ID of the survey responses or null if
+		 * 				   they are not grouped by survey.
+		 * 
+		 * @param date The date on which the survey responses were taken in
+		 * 			   the time zone of the phone that took them or null if
+		 * 			   they are not grouped by date.
+		 * 
+		 * @param count The number of survey responses.
+		 * 
+		 * @throws DomainException The privacy state is null.
+		 */
+		public PrivacyStateCount(
+				final PrivacyState privacyState,
+				final String surveyId,
+				final LocalDate date,
+				final long count)
+				throws DomainException {
+			
+			if(privacyState == null) {
+				throw new DomainException("The privacy state is null.");
+			}
+			
+			this.privacyState = privacyState;
+			this.surveyId = surveyId;
+			this.date = date;
+			this.count = count;
+		}
+		
+		/**
+		 * Adds more survey responses to this bucket.
+		 * 
+		 * @param count The number of survey responses to add.
+		 */
+		public void add(final long count) {
+			this.count += count;
+		}
+		
+		/**
+		 * Returns the privacy state of the survey responses.
+		 * 
+		 * @return The privacy state of the survey responses.
+		 */
+		public PrivacyState getPrivacyState() {
+			return privacyState;
+		}
+		
+		/**
+		 * Returns the survey ID of the survey responses.
+		 * 
+		 * @return The survey ID of the survey responses or null if they are
+		 * 		   not grouped by survey.
+		 */
+		public String getSurveyId() {
+			return surveyId;
+		}
+		
+		/**
+		 * Returns the date on which the survey responses were taken.
+		 * 
+		 * @return The date in the time zone of the phone that took them or
+		 * 		   null if they are not grouped by date.
+		 */
+		public LocalDate getDate() {
+			return date;
+		}
+		
+		/**
+		 * Returns the number of survey responses.
+		 * 
+		 * @return The number of survey responses.
+		 */
+		public long getCount() {
+			return count;
+		}
+	}
+	
 	/**
 	 * Creates a new survey response information object based on the 
 	 * parameters. All parameters are required unless otherwise specified.
@@ -42,7 +42,7 @@ public abstract class CustomChoicePrompt extends ChoicePrompt {
 	 */
 	public static final String JSON_KEY_FIXED_CHOICES = "fixed_choices";
 	
-	private final Map<Integer, LabelValuePair> customChoices;
+	private Map<Integer, LabelValuePair> customChoices;
 	
 	/**
 	 * Creates a custom choice prompt.
@@ -205,6 +205,30 @@ public abstract class CustomChoicePrompt extends ChoicePrompt {
 		customChoices.put(key, labelValuePair);
 	}
 	
+	/**
+	 * Custom choices may be added and removed, so this prompt is always
+	 * mutable.
+	 * 
+	 * @return Always true.
+	 */
+	@Override
+	public boolean isMutable() {
+		return true;
+	}
+	
+	/**
+	 * Creates a copy of this prompt with its own copy of the custom choices.
+	 * 
+	 * @return A copy of this prompt.
+	 */
+	@Override
+	public CustomChoicePrompt copy() {
+		CustomChoicePrompt result = (CustomChoicePrompt) super.copy();
+		result.customChoices = 
+				new HashMap<Integer, LabelValuePair>(customChoices);
+		return result;
+	}
+	
 	/**
 	 * Returns the key for some label.
 	 * 
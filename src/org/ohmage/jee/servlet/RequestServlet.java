@@ -30,13 +30,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.exception.InvalidRequestException;
-import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IAuditQueries.NewAudit;
+import org.ohmage.reporting.AuditWriter;
+import org.ohmage.request.Endpoint;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
 import org.ohmage.request.RequestBuilder;
 import org.ohmage.request.UserRequest;
-import org.ohmage.service.AuditServices;
 
 /**
  * Handler for all incoming HTTP requests.
@@ -75,151 +77,13 @@ public class RequestServlet extends HttpServlet {
 	public static enum RequestType { POST, GET, OPTIONS, HEAD, PUT, DELETE, TRACE, UNKNOWN };
 	
 	/**
-	 * This will simply insert the audit information as gathered by the 
-	 * constructor into the database. This is being done in a thread to not
-	 * delay the response to the client.
-	 * 
-	 * @author John Jenkins
+	 * Warns, once, if there is no audit writer. Requests are still serviced
+	 * but are not audited.
 	 */
-	private final class AuditThread extends Thread {
-		private final Request request;
-		
-		private final RequestType requestType;
-		private final String uri;
-		
-		private final Map<String, String[]> parameterMap;
-		private final Map<String, String[]> headerMap;
-
-		private final long receivedTimestamp;
-		private final long respondTimestamp;
-		
-		/**
-		 * Creates an object to hold the information necessary to create an
-		 * audit entry.
-		 * 
-		 * @param requestType The RequestType for the request being audited.
-		 * 
-		 * @param uri The URI of the request being audited.
-		 * 
-		 * @param parameterMap A map of parameter keys to all values given for
-		 * 					   all of the parameters passed into this request.
-		 * 
-		 * @param headerMap A map of all header keys to all values given for
-		 * 					all of the headers passed into this request.
-		 * 
-		 * @param receivedTimestamp The timestamp at which the request was 
-		 * 							received by the same measure as 
-		 * 							'respondTimestamp'.
-		 * 
-		 * @param respondTimestamp The timestamp at which the request was fully
-		 * 						   responded to by the same measure as
-		 * 						   'receivedTimestamp'.
-		 */
-		public AuditThread(
-				final Request request,
-				final RequestType requestType,
-				final String uri,
-				final Map<String, String[]> parameterMap,
-				final Map<String, String[]> headerMap,
-				final long receivedTimestamp, 
-				final long respondTimestamp) {
-			
-			this.request = request;
-			
-			this.requestType = requestType;
-			this.uri = uri;
-			
-			this.parameterMap = parameterMap;
-			this.headerMap = headerMap;
-			
-			this.receivedTimestamp = receivedTimestamp;
-			this.respondTimestamp = respondTimestamp;
-		}
-		
-		/**
-		 * Creates the entry in the audit table.
-		 */
-		@Override
-		public void run() {
-			try {
-				// We remove any uploaded to data to avoid storing personal or
-				// sensitive data in the audit table.
-				parameterMap.remove(InputKeys.DATA);
-				parameterMap.remove(InputKeys.SURVEYS);
-				
-				// Go through the parameters and remove all values that are
-				// greater than 64kB because the database will reject it.
-				for(String key : parameterMap.keySet()) {
-					String[] values = parameterMap.get(key);
-					
-					// If it is a password or new_password, we mask it to avoid
-					// accidentally storing any passwords in the database,
-					// except in the user table.
-					if(key.equals(InputKeys.PASSWORD) || 
-							key.equals(InputKeys.NEW_PASSWORD)) {
-						for(int i = 0; i < values.length; i++) {
-							values[i] = PASSWORD_OMITTED;
-						}
-					}
-					else {
-						for(int i = 0; i < values.length; i++) {
-							if(values[i].length() > MAX_DATABASE_LENGTH) {
-								values[i] = LONG_VALUE_OMITTED;
-							}
-						}
-					}
-				}
-				
-				// Retrieve the device ID. If any number of device IDs exist,
-				// the first one reported will be used.
-				String deviceId = null;
-				String[] deviceIds = parameterMap.get(KEY_DEVICE_ID);
-				if((deviceIds != null) && (deviceIds.length == 1)) {
-					deviceId = deviceIds[0];
-				}
-				
-				// Create a result object based on whether or not the request
-				// succeeded.
-				String responseString = Request.RESPONSE_SUCCESS_JSON_TEXT;
-				if(request == null) {
-					responseString = Request.RESPONSE_ERROR_JSON_TEXT;
-				}
-				else if(request.isFailed()) {
-					responseString = request.getFailureMessage();
-					
-					if(responseString.length() > MAX_DATABASE_LENGTH) {
-						responseString = responseString.substring(0, MAX_DATABASE_LENGTH - 3) + ELLIPSE;
-					}
-				}
-				
-				// Generate an 'extras' Map based on the HTTP headers.
-				Map<String, String[]> extras = headerMap;
-				
-				// Get any extras from the request.
-				String client = null;
-				if(request != null) {
-					Map<String, String[]> requestExtras = request.getAuditInformation();
-					if(requestExtras != null) {
-						extras.putAll(requestExtras);
-					}
-					
-					if(request instanceof UserRequest) {
-						client = ((UserRequest) request).getClient();
-					}
-				}
-				
-				// Create the audit report.
-				AuditServices.instance().createAudit(requestType, uri, client, deviceId, responseString, parameterMap, extras, receivedTimestamp, respondTimestamp);
-			}
-			catch(IllegalArgumentException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
-			catch(IllegalStateException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
-			catch(ServiceException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
+	@Override
+	public void init() throws ServletException {
+		if(AuditWriter.instance() == null) {
+			LOGGER.warn("There is no audit writer, so requests will not be audited.");
 		}
 	}
 	
@@ -232,11 +96,36 @@ public class RequestServlet extends HttpServlet {
 		// Get the moment we received the request.
 		long receivedTimestamp = System.currentTimeMillis();
 		
-		// Service the request by calling the appropriate getXXX() method.
-		super.service(httpRequest, httpResponse);
+		// Note that the request is in flight for its endpoint.
+		Endpoint endpoint = 
+			RequestBuilder.getInstance().getEndpoint(httpRequest.getRequestURI());
+		if(endpoint != null) {
+			endpoint.begin();
+		}
 		
-		// Get the moment we have completed 
-		long respondedTimestamp = System.currentTimeMillis();
+		// Service the request by calling the appropriate getXXX() method.
+		long respondedTimestamp;
+		try {
+			super.service(httpRequest, httpResponse);
+		}
+		finally {
+			// Get the moment we have completed 
+			respondedTimestamp = System.currentTimeMillis();
+			
+			// Record the request against its endpoint.
+			if(endpoint != null) {
+				ErrorCode errorCode = null;
+				Object requestObject = httpRequest.getAttribute(KEY_ATTRIBUTE);
+				if(requestObject == null) {
+					errorCode = ErrorCode.SYSTEM_GENERAL_ERROR;
+				}
+				else if(((Request) requestObject).isFailed()) {
+					errorCode = ((Request) requestObject).getFailureCode();
+				}
+				
+				endpoint.end(respondedTimestamp - receivedTimestamp, errorCode);
+			}
+		}
 		
 		// Report how long the request took.
 		LOGGER.info("Time to process '" + httpRequest.getRequestURI() + "':"+ (respondedTimestamp - receivedTimestamp));
@@ -286,27 +175,151 @@ public class RequestServlet extends HttpServlet {
 			parameterMap = new HashMap<String, String[]>(httpRequest.getParameterMap());
 		}
 
-		// Create a separate thread with the parameters and start that thread.
-		AuditThread auditThread = new AuditThread(request, requestType, uri, parameterMap, extras, receivedTimestamp, respondedTimestamp);
-		auditThread.start();
+		// Queue the audit to be written by the audit writer, so as not to
+		// delay the response to the client.
+		AuditWriter auditWriter = AuditWriter.instance();
+		if(auditWriter == null) {
+			return;
+		}
+		
+		try {
+			auditWriter.submit(
+				createAudit(
+					request, 
+					requestType, 
+					uri, 
+					parameterMap, 
+					extras, 
+					receivedTimestamp, 
+					respondedTimestamp));
+		}
+		catch(IllegalArgumentException e) {
+			LOGGER.error("Error while auditing the request.", e);
+		}
+	}
+	
+	/**
+	 * Gathers the information necessary to create an audit entry. Uploaded
+	 * data and passwords are removed and overly long values are truncated
+	 * before anything is stored.
+	 * 
+	 * @param request The request being audited or null if one was never
+	 * 				  built.
+	 * 
+	 * @param requestType The RequestType for the request being audited.
+	 * 
+	 * @param uri The URI of the request being audited.
+	 * 
+	 * @param parameterMap A map of parameter keys to all values given for all
+	 * 					   of the parameters passed into this request. This
+	 * 					   will be modified.
+	 * 
+	 * @param headerMap A map of all header keys to all values given for all 
+	 * 					of the headers passed into this request. This will be
+	 * 					modified.
+	 * 
+	 * @param receivedTimestamp The timestamp at which the request was 
+	 * 							received by the same measure as 
+	 * 							'respondTimestamp'.
+	 * 
+	 * @param respondTimestamp The timestamp at which the request was fully
+	 * 						   responded to by the same measure as
+	 * 						   'receivedTimestamp'.
+	 * 
+	 * @return The audit.
+	 * 
+	 * @throws IllegalArgumentException A required value was missing.
+	 */
+	private NewAudit createAudit(
+			final Request request,
+			final RequestType requestType,
+			final String uri,
+			final Map<String, String[]> parameterMap,
+			final Map<String, String[]> headerMap,
+			final long receivedTimestamp, 
+			final long respondTimestamp) {
+		
+		// We remove any uploaded to data to avoid storing personal or
+		// sensitive data in the audit table.
+		parameterMap.remove(InputKeys.DATA);
+		parameterMap.remove(InputKeys.SURVEYS);
+		
+		// Go through the parameters and remove all values that are
+		// greater than 64kB because the database will reject it.
+		for(String key : parameterMap.keySet()) {
+			String[] values = parameterMap.get(key);
+			
+			// If it is a password or new_password, we mask it to avoid
+			// accidentally storing any passwords in the database,
+			// except in the user table.
+			if(key.equals(InputKeys.PASSWORD) || 
+					key.equals(InputKeys.NEW_PASSWORD)) {
+				for(int i = 0; i < values.length; i++) {
+					values[i] = PASSWORD_OMITTED;
+				}
+			}
+			else {
+				for(int i = 0; i < values.length; i++) {
+					if(values[i].length() > MAX_DATABASE_LENGTH) {
+						values[i] = LONG_VALUE_OMITTED;
+					}
+				}
+			}
+		}
+		
+		// Retrieve the device ID. If any number of device IDs exist,
+		// the first one reported will be used.
+		String deviceId = null;
+		String[] deviceIds = parameterMap.get(KEY_DEVICE_ID);
+		if((deviceIds != null) && (deviceIds.length == 1)) {
+			deviceId = deviceIds[0];
+		}
+		
+		// Create a result object based on whether or not the request
+		// succeeded.
+		String responseString = Request.RESPONSE_SUCCESS_JSON_TEXT;
+		if(request == null) {
+			responseString = Request.RESPONSE_ERROR_JSON_TEXT;
+		}
+		else if(request.isFailed()) {
+			responseString = request.getFailureMessage();
+			
+			if(responseString.length() > MAX_DATABASE_LENGTH) {
+				responseString = responseString.substring(0, MAX_DATABASE_LENGTH - 3) + ELLIPSE;
+			}
+		}
+		
+		// Generate an 'extras' Map based on the HTTP headers.
+		Map<String, String[]> extras = headerMap;
+		
+		// Get any extras from the request.
+		String client = null;
+		if(request != null) {
+			Map<String, String[]> requestExtras = request.getAuditInformation();
+			if(requestExtras != null) {
+				extras.putAll(requestExtras);
+			}
+			
+			if(request instanceof UserRequest) {
+				client = ((UserRequest) request).getClient();
+			}
+		}
+		
+		return new NewAudit(requestType, uri, client, deviceId, parameterMap, extras, responseString, receivedTimestamp, respondTimestamp);
 	}
 	
 	/**
-	 * Processes a GET request. Only certain APIs may make a GET request. This
-	 * should be handled in a different way than hard-coding the allowed GET
-	 * APIs. 
+	 * Processes a GET request. Only the APIs whose endpoint allows it may make
+	 * a GET request.
+	 * 
+	 * @see org.ohmage.request.Endpoint#isAllowed(RequestType)
 	 */
 	@Override
 	protected final void doGet(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		if(RequestBuilder.getInstance().getApiConfigRead().equals(httpRequest.getRequestURI()) ||
-			RequestBuilder.getInstance().getApiImageRead().equals(httpRequest.getRequestURI()) ||
-			RequestBuilder.getInstance().getApiImageBatchZipRead().equals(httpRequest.getRequestURI()) ||
-			RequestBuilder.getInstance().getApiDocumentReadContents().equals(httpRequest.getRequestURI()) ||
-			httpRequest.getRequestURI().startsWith(RequestBuilder.getInstance().getApiVisualization()) ||
-			RequestBuilder.getInstance().getApiUserActivate().equals(httpRequest.getRequestURI()) ||
-			RequestBuilder.getInstance().getApiRegistrationRead().equals(httpRequest.getRequestURI()) ||
-			RequestBuilder.getInstance().getApiStreamRead().equals(httpRequest.getRequestURI())) {
-			
+		Endpoint endpoint = 
+			RequestBuilder.getInstance().getEndpoint(httpRequest.getRequestURI());
+		
+		if((endpoint != null) && endpoint.isAllowed(RequestType.GET)) {
 			processRequest(httpRequest, httpResponse);
 		}
 		else {
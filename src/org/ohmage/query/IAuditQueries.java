@@ -16,6 +16,7 @@
 package org.ohmage.query;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +34,126 @@ import org.ohmage.validator.AuditValidators.ResponseType;
  * @author Joshua Selsky
  */
 public interface IAuditQueries {
+	/**
+	 * The information needed to create an audit entry.
+	 * 
+	 * @see IAuditQueries#createAudit(org.ohmage.jee.servlet.RequestServlet.RequestType, String, String, String, Map, Map, String, long, long)
+	 */
+	public static final class NewAudit {
+		private final RequestServlet.RequestType requestType;
+		private final String uri;
+		private final String client;
+		private final String deviceId;
+		private final Map<String, String[]> parameters;
+		private final Map<String, String[]> extras;
+		private final String response;
+		private final long receivedMillis;
+		private final long respondMillis;
+		
+		/**
+		 * Creates the information for a new audit entry. The parameters are
+		 * the same as those for 
+		 * {@link IAuditQueries#createAudit(org.ohmage.jee.servlet.RequestServlet.RequestType, String, String, String, Map, Map, String, long, long)}.
+		 * 
+		 * @throws IllegalArgumentException Thrown if any of the required 
+		 * 									parameters are null.
+		 */
+		public NewAudit(
+				final RequestServlet.RequestType requestType, 
+				final String uri, 
+				final String client, 
+				final String deviceId,
+				final Map<String, String[]> parameters, 
+				final Map<String, String[]> extras, 
+				final String response, 
+				final long receivedMillis, 
+				final long respondMillis) {
+			
+			if(requestType == null) {
+				throw new IllegalArgumentException("The request type is required and cannot be null.");
+			}
+			else if(uri == null) {
+				throw new IllegalArgumentException("The request URI is required and cannot be null.");
+			}
+			else if(response == null) {
+				throw new IllegalArgumentException("The response is required and cannot be null.");
+			}
+			
+			this.requestType = requestType;
+			this.uri = uri;
+			this.client = client;
+			this.deviceId = deviceId;
+			this.parameters = parameters;
+			this.extras = extras;
+			this.response = response;
+			this.receivedMillis = receivedMillis;
+			this.respondMillis = respondMillis;
+		}
+		
+		/**
+		 * @return The request type.
+		 */
+		public RequestServlet.RequestType getRequestType() {
+			return requestType;
+		}
+		
+		/**
+		 * @return The request's URI.
+		 */
+		public String getUri() {
+			return uri;
+		}
+		
+		/**
+		 * @return The client parameter, which may be null.
+		 */
+		public String getClient() {
+			return client;
+		}
+		
+		/**
+		 * @return The device's ID, which may be null.
+		 */
+		public String getDeviceId() {
+			return deviceId;
+		}
+		
+		/**
+		 * @return The map of parameter keys to their values, which may be 
+		 * 		   null.
+		 */
+		public Map<String, String[]> getParameters() {
+			return parameters;
+		}
+		
+		/**
+		 * @return The map of extra keys to their values, which may be null.
+		 */
+		public Map<String, String[]> getExtras() {
+			return extras;
+		}
+		
+		/**
+		 * @return The response as a JSONObject string.
+		 */
+		public String getResponse() {
+			return response;
+		}
+		
+		/**
+		 * @return The time at which the request was received.
+		 */
+		public long getReceivedMillis() {
+			return receivedMillis;
+		}
+		
+		/**
+		 * @return The time at which the request was responded to.
+		 */
+		public long getRespondMillis() {
+			return respondMillis;
+		}
+	}
 
 	/**
 	 * Creates an audit entry with the parameterized information. Not all 
@@ -79,6 +200,18 @@ public interface IAuditQueries {
 			Map<String, String[]> extras, String response,
 			long receivedMillis, long respondMillis)
 			throws DataAccessException;
+	
+	/**
+	 * Creates many audit entries in one transaction. The parameters and
+	 * extras for all of the audits are inserted together, so this is much
+	 * cheaper than creating each audit on its own.
+	 * 
+	 * @param audits The audits to create.
+	 * 
+	 * @throws DataAccessException There was an error creating the audits, in
+	 * 							   which case none of them were created.
+	 */
+	void createAudits(Collection<NewAudit> audits) throws DataAccessException;
 
 	/**
 	 * Retrieves the unique ID for all audits.
@@ -15,7 +15,9 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.campaign.Campaign;
@@ -52,6 +54,19 @@ public interface ICampaignClassQueries {
 	 */
 	List<String> getClassesAssociatedWithCampaign(String campaignId)
 			throws DataAccessException;
+	
+	/**
+	 * Retrieves the list of unique identifiers for all of the classes that are
+	 * associated with each of the campaigns with one query.
+	 * 
+	 * @param campaignIds The campaigns' unique identifiers.
+	 * 
+	 * @return A map of each of the campaign IDs to a possibly empty list of 
+	 * 		   class IDs for all of the classes associated with that campaign.
+	 */
+	Map<String, List<String>> getClassesAssociatedWithCampaigns(
+			Collection<String> campaignIds)
+			throws DataAccessException;
 
 	/**
 	 * Retrieves the list of default campaign roles for a user in a class with
@@ -178,6 +178,23 @@ public interface ICampaignQueries {
 	 */
 	Campaign getCampaignInformation(final String campaignId)
 			throws DataAccessException;
+	
+	/**
+	 * Creates the Campaign objects for each of the campaigns with one query.
+	 * 
+	 * @param campaignIds
+	 *            The campaigns' unique identifiers.
+	 * 
+	 * @return A map of campaign IDs to Campaign objects with the required 
+	 *         information about the campaigns. Campaigns that don't exist are
+	 *         not in the map.
+	 * 
+	 * @throws DataAccessException
+	 *             Thrown if there is an error.
+	 */
+	Map<String, Campaign> getCampaignInformation(
+			final Collection<String> campaignIds)
+			throws DataAccessException;
 
 	/**
 	 * Retrieves the unique identifier for all of the campaigns in the system.
@@ -192,6 +209,10 @@ public interface ICampaignQueries {
 
 	/**
 	 * Retrieves the IDs for all campaigns whose ID contains the partial ID.
+	 * This, and the other partial searches, are answered from an in-memory
+	 * index of the words in the campaigns, so a campaign matches when each
+	 * word in the partial value is contained in one of its words, regardless
+	 * of case.
 	 * 
 	 * @param partialCampaignId
 	 *            The partial campaign ID.
@@ -205,7 +226,8 @@ public interface ICampaignQueries {
 			throws DataAccessException;
 
 	/**
-	 * Retrieves the IDs for all campaigns whose name contains the partial name.
+	 * Retrieves the IDs for all campaigns whose name contains the words in the
+	 * partial name.
 	 * 
 	 * @param partialCampaignName
 	 *            The partial campaign Name.
@@ -220,7 +242,7 @@ public interface ICampaignQueries {
 
 	/**
 	 * Retrieves the IDs for all campaigns whose description contains the
-	 * partial description.
+	 * words in the partial description.
 	 * 
 	 * @param partialCampaignDescription
 	 *            The partial campaign description.
@@ -234,7 +256,8 @@ public interface ICampaignQueries {
 			final String partialDescription) throws DataAccessException;
 
 	/**
-	 * Retrieves the IDs for all campaigns whose XML contains the partial XML.
+	 * Retrieves the IDs for all campaigns whose XML contains the words in the
+	 * partial XML.
 	 * 
 	 * @param partialCampaignXml
 	 *            The partial campaign XML.
@@ -249,7 +272,7 @@ public interface ICampaignQueries {
 
 	/**
 	 * Retrieves the IDs for all campaigns whose authored by value contains the
-	 * partial authored by value.
+	 * words in the partial authored by value.
 	 * 
 	 * @param partialCampaignId
 	 *            The partial authored by value.
@@ -47,6 +47,20 @@ public interface ICampaignSurveyResponseQueries {
 	long getNumberOfPromptResponsesForCampaign(String campaignId)
 			throws DataAccessException;
 
+	/**
+	 * Retrieves a value that changes whenever a survey response in a campaign
+	 * is uploaded, updated, or deleted. It is made from the number of survey
+	 * responses and the last time any of them was modified.
+	 * 
+	 * @param campaignId The unique identifier for the campaign.
+	 * 
+	 * @return The version of the campaign's survey responses.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	String getSurveyResponsesVersionForCampaign(String campaignId)
+			throws DataAccessException;
+	
 	/**
 	 * Retrieves the campaign ID for the campaign to which a survey belongs 
 	 * given a survey response.
@@ -12,6 +12,21 @@ import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
 
 public interface IObserverQueries {
+	/**
+	 * A source of uploaded data that is read a chunk at a time.
+	 */
+	public static interface DataStreamSource {
+		/**
+		 * Returns the next chunk of data.
+		 * 
+		 * @return The next chunk of data, which may be empty, or null if 
+		 * 		   there is no more data.
+		 * 
+		 * @throws DataAccessException The data could not be read.
+		 */
+		public Collection<DataStream> nextChunk() throws DataAccessException;
+	}
+	
 	/**
 	 * Creates a new observer in the system and associates it with a user.
 	 * 
@@ -154,18 +169,26 @@ public interface IObserverQueries {
 		throws DataAccessException;
 	
 	/**
-	 * Stores the data stream data.
+	 * Stores the data stream data. The data is read and stored a chunk at a
+	 * time, so it never needs to be held in memory all at once, but it is
+	 * all stored in a single transaction. If reading any chunk fails, none
+	 * of the data is stored.
 	 * 
 	 * @param username The user who is uploading the data.
 	 * 
-	 * @param data The data to be stored.
+	 * @param observer The observer to which the data belong.
 	 * 
-	 * @throws ServiceException There was an error.
+	 * @param data The source of the data to be stored.
+	 * 
+	 * @return The number of data points that were stored.
+	 * 
+	 * @throws DataAccessException There was an error reading or storing the
+	 * 							   data.
 	 */
-	public void storeData(
+	public long storeData(
 		final String username,
 		final Observer observer,
-		final Collection<DataStream> data)
+		final DataStreamSource data)
 		throws DataAccessException;
 
 	/**
@@ -185,11 +208,17 @@ public interface IObserverQueries {
 	 * 
 	 * @param endDate The latest point data point to return. Optional.
 	 * 
+	 * @param continuationToken Limits the results to only those that come
+	 * 							after, or before if it points backwards, this
+	 * 							token. Optional.
+	 * 
 	 * @param numToSkip The number of data points to skip. Optional.
 	 * 
 	 * @param numToReturn The number of data points to return. Optional.
 	 * 
-	 * @return A collection of data points that match the query.
+	 * @return A collection of data points that match the query, ordered by
+	 * 		   their adjusted time and then by the order in which they were
+	 * 		   stored.
 	 * 
 	 * @throws ServiceException There was an error.
 	 */
@@ -200,6 +229,7 @@ public interface IObserverQueries {
 		final Long observerVersion,
 		final DateTime startDate,
 		final DateTime endDate,
+		final DataStream.ContinuationToken continuationToken,
 		final long numToSkip,
 		final long numToReturn) 
 		throws DataAccessException;
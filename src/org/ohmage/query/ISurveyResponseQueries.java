@@ -24,10 +24,33 @@ import org.joda.time.DateTime;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
+import org.ohmage.domain.campaign.SurveyResponse.FunctionPrivacyStateItem;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
 import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.DomainException;
 
 public interface ISurveyResponseQueries {
+	/**
+	 * A callback that is given each survey response as soon as it has been
+	 * completely read from the database. This allows the caller to process
+	 * any number of survey responses without keeping them all in memory.
+	 */
+	public static interface SurveyResponseHandler {
+		/**
+		 * Processes a survey response. The survey response and all of its
+		 * prompt responses will no longer be referenced by the query once 
+		 * this returns.
+		 * 
+		 * @param surveyResponse The survey response.
+		 * 
+		 * @throws DomainException The survey response could not be processed,
+		 * 						   and no more survey responses should be read.
+		 */
+		public void handleSurveyResponse(
+				final SurveyResponse surveyResponse)
+				throws DomainException;
+	}
+	
 	/**
 	 * Retrieves the campaign id (URN) for the provided survey id. 
 	 * 
@@ -93,6 +116,11 @@ public interface ISurveyResponseQueries {
 	 * 
 	 * @param sortOrder The order in which to sort the responses.
 	 * 
+	 * @param continuationToken Limits the results to only those that come 
+	 * 							after this token in the default ordering. 
+	 * 							This should only be given if the sort order 
+	 * 							and columns are null. Optional.
+	 * 
 	 * @param surveyResponsesToSkip The number of survey responses to skip once
 	 * 								the result has been aggregated from the 
 	 * 								server.
@@ -124,10 +152,80 @@ public interface ISurveyResponseQueries {
 			final String promptType,
 			final Collection<ColumnKey> columns, 
 			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
 			final long surveyResponsesToSkip,
 			final long surveyResponsesToProcess,
 			List<SurveyResponse> result) 
 			throws DataAccessException;
+	
+	/**
+	 * Reads the survey responses that match the given criteria and passes
+	 * each of them to a handler as soon as it has been read. The criteria are
+	 * the same as
+	 * {@link #retrieveSurveyResponses(Campaign, String, Set, Collection, DateTime, DateTime, SurveyResponse.PrivacyState, Collection, Collection, String, Collection, List, SurveyResponse.ContinuationToken, long, long, List)}.
+	 * The rows are streamed from the database, so the database connection is
+	 * held until the handler has processed the last survey response.
+	 * 
+	 * @param handler The handler that is given each survey response, in
+	 * 				  order.
+	 * 
+	 * @return The total number of results that matched the given criteria,
+	 * 		   not the number that were given to the handler.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error reading the
+	 * 							   survey responses or if the handler threw an
+	 * 							   exception.
+	 */
+	int streamSurveyResponses(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final String promptType,
+			final Collection<ColumnKey> columns, 
+			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseHandler handler)
+			throws DataAccessException;
+	
+	/**
+	 * Counts the survey responses in a campaign that the requesting user may
+	 * see by their privacy state and, optionally, by their survey and/or the
+	 * date on which they were taken. The counting is done by the database
+	 * from the survey responses alone, so no prompt responses are read.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 
+	 * @param startDate Limits the results to only those survey responses that
+	 * 					occurred on or after this date. Optional.
+	 * 
+	 * @param endDate Limits the results to only those survey responses that
+	 * 				  occurred on or before this date. Optional.
+	 * 
+	 * @param groupItems The items, in addition to the privacy state, by which
+	 * 					 the survey responses are counted.
+	 * 
+	 * @return The number of survey responses in each non-empty group.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	List<SurveyResponse.PrivacyStateCount> retrievePrivacyStateCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<FunctionPrivacyStateItem> groupItems)
+			throws DataAccessException;
 
 	/**
 	 * Updates the privacy state on a survey response.
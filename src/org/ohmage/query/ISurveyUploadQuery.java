@@ -15,7 +15,6 @@
  ******************************************************************************/
 package org.ohmage.query;
 
-import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.Map;
 
@@ -35,7 +34,8 @@ public interface ISurveyUploadQuery {
 	 * @param client  The software client that performed the upload.
 	 * @param campaignUrn  The campaign for the survey upload.
 	 * @param surveyUploadList  The surveys to persist.
-	 * @param bufferedImageMap  The images to persist.
+	 * @param imageContentsMap  The images to persist. Their thumbnails are
+	 * created in the background once the transaction has committed.
 	 * @param videoContentsMap The videos to persist.
 	 * @return Returns a List of Integers representing the ids of duplicate
 	 * surveys.
@@ -46,7 +46,7 @@ public interface ISurveyUploadQuery {
 			final String client,
 			final String campaignUrn,
 			final List<SurveyResponse> surveyUploadList,
-			final Map<String, BufferedImage> bufferedImageMap,
+			final Map<String, byte[]> imageContentsMap,
 			final Map<String, Video> videoContentsMap)
 			throws DataAccessException;
 }
\ No newline at end of file
@@ -60,6 +60,24 @@ public interface IUserCampaignQueries {
 	List<Campaign.Role> getUserCampaignRoles(String username, String campaignId)
 			throws DataAccessException;
 	
+	/**
+	 * Returns the roles for this user in each of the campaigns with one query.
+	 * 
+	 * @param username The username of the user that whose roles are desired.
+	 * 
+	 * @param campaignIds The campaign IDs for the campaigns in which the 
+	 * 					  user's roles are being requested.
+	 * 
+	 * @return A map of each of the campaign IDs to a possibly empty List of
+	 * 		   roles for this user in that campaign.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	Map<String, List<Campaign.Role>> getUserCampaignRoles(
+			String username, 
+			Collection<String> campaignIds)
+			throws DataAccessException;
+	
 	/**
 	 * Retrieves all of the campaign IDs and a respective set of campaign roles
 	 * for a given user.
@@ -87,6 +105,21 @@ public interface IUserCampaignQueries {
 	Map<String, Collection<Campaign.Role>> getUsersAndRolesForCampaign(
 			String campaignId) 
 			throws DataAccessException;
+	
+	/**
+	 * Returns a map of usernames to a set of campaign roles for all of the 
+	 * users in each of the campaigns with one query.
+	 * 
+	 * @param campaignIds The campaigns' unique identifiers.
+	 * 
+	 * @return A map of each of the campaign IDs to a possibly empty map of 
+	 * 		   usernames to a set of campaign roles.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	Map<String, Map<String, Collection<Campaign.Role>>> getUsersAndRolesForCampaigns(
+			Collection<String> campaignIds) 
+			throws DataAccessException;
 
 	/**
 	 * Retrieves all of the campaign IDs and their respective names to which a
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -25,6 +26,8 @@ import org.ohmage.domain.MobilityAggregatePoint;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
 import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.domain.MobilityRollup;
+import org.ohmage.domain.Observer;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
 
@@ -186,4 +189,60 @@ public interface IUserMobilityQueries {
 			final UUID mobilityId, 
 			final MobilityPoint.PrivacyState privacyState) 
 			throws DataAccessException;
+	
+	/**
+	 * Retrieves the Mobility rollups for a user within a range in the order
+	 * of their first points.
+	 * 
+	 * @param username The user's username. Required.
+	 * 
+	 * @param startTime Limits the results to only those whose minute begins
+	 * 					on or after this time in milliseconds since the epoch.
+	 * 
+	 * @param endTime Limits the results to only those whose minute begins on
+	 * 				  or before this time in milliseconds since the epoch.
+	 * 
+	 * @return The rollups.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	List<MobilityRollup> getRollups(
+			final String username,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException;
+	
+	/**
+	 * Rebuilds all of a user's Mobility rollups within a range from the 
+	 * user's stored points, both those in the legacy Mobility table and those
+	 * in an observer's streams. The points in the 
+	 * {@value org.ohmage.domain.MobilityRollup#MAX_MILLIS_BETWEEN_POINTS}
+	 * milliseconds before the range are also read, because they determine
+	 * the durations of the first points in the range. The points are read
+	 * and the rollups are replaced in one transaction, and the rebuilds for
+	 * one user happen one at a time.
+	 * 
+	 * @param username The user's username. Required.
+	 * 
+	 * @param observerId The unique identifier of the observer whose streams
+	 * 					 have Mobility points. Required.
+	 * 
+	 * @param streams The streams that have Mobility points, each of whose
+	 * 				  data has a "mode" string. Required.
+	 * 
+	 * @param startTime The start of the range, inclusive, in milliseconds
+	 * 					since the epoch.
+	 * 
+	 * @param endTime The end of the range, exclusive, in milliseconds since
+	 * 				  the epoch.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	void rebuildRollups(
+			final String username,
+			final String observerId,
+			final Collection<Observer.Stream> streams,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException;
 }
@@ -180,6 +180,10 @@ public interface IUserQueries {
 	
 	/**
 	 * Retrieves all of the usernames that contain the parameterized username.
+	 * This, and the other partial searches, are answered from an in-memory
+	 * index of the words in the users' information, so a user matches when
+	 * each word in the partial value is contained in one of its words, 
+	 * regardless of case.
 	 * 
 	 * @param username The partial username.
 	 * 
@@ -193,7 +197,7 @@ public interface IUserQueries {
 	/**
 	 * Retrieves the usernames of all of the users that have personal  
 	 * information, have an email address, and whose email address contains the
-	 * given one.
+	 * words in the given one.
 	 * 
 	 * @param partialEmailAddress The partial email address to match.
 	 * 
@@ -260,7 +264,8 @@ public interface IUserQueries {
 	
 	/**
 	 * Retrieves the usernames of all of the users that have personal 
-	 * information and whose first name value contains the given one.
+	 * information and whose first name value contains the words in the 
+	 * given one.
 	 * 
 	 * @param partialFirstName The partial first name value to match.
 	 * 
@@ -273,7 +278,8 @@ public interface IUserQueries {
 	
 	/**
 	 * Retrieves the usernames of all of the users that have personal 
-	 * information and whose last name value contains the given one.
+	 * information and whose last name value contains the words in the 
+	 * given one.
 	 * 
 	 * @param partialLastName The partial last name value to match.
 	 * 
@@ -286,7 +292,8 @@ public interface IUserQueries {
 	
 	/**
 	 * Retrieves the usernames of all of the users that have personal 
-	 * information and whose organization value contains the given one.
+	 * information and whose organization value contains the words in the 
+	 * given one.
 	 * 
 	 * @param partialOrganization The partial organization value to match.
 	 * 
@@ -300,7 +307,8 @@ public interface IUserQueries {
 	
 	/**
 	 * Retrieves the usernames of all of the users that have personal 
-	 * information and whose personal ID value contains the given one.
+	 * information and whose personal ID value contains the words in the 
+	 * given one.
 	 * 
 	 * @param partialPersonalId The partial personal ID value to match.
 	 * 
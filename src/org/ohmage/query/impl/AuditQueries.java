@@ -21,6 +21,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +39,7 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.jee.servlet.RequestServlet;
 import org.ohmage.jee.servlet.RequestServlet.RequestType;
 import org.ohmage.query.IAuditQueries;
+import org.ohmage.query.IAuditQueries.NewAudit;
 import org.ohmage.validator.AuditValidators.ResponseType;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
@@ -151,23 +154,25 @@ public class AuditQueries extends Query implements IAuditQueries {
 			"WHERE request_type = ?" +
 		"), ?, ?, ?, ?, ?, ?)";
 	
-	// Adds a parameter to an audit.
-	private static final String SQL_INSERT_PARAMETER =
+	// Adds any number of parameters to audits. One SQL_KEY_VALUE_VALUES must
+	// be appended for each parameter, separated by commas.
+	private static final String SQL_INSERT_PARAMETERS =
 		"INSERT INTO audit_parameter(audit_id, param_key, param_value) " +
-		"VALUES ((" +
-			"SELECT id " +
-			"FROM audit " +
-			"WHERE id = ?" +
-		"), ?, ?)";
+		"VALUES ";
 	
-	// Adds an extra from the HTTP request's header to an audit.
-	private static final String SQL_INSERT_EXTRA =
+	// Adds any number of extras from the HTTP requests' headers to audits. 
+	// One SQL_KEY_VALUE_VALUES must be appended for each extra, separated by
+	// commas.
+	private static final String SQL_INSERT_EXTRAS =
 		"INSERT INTO audit_extra(audit_id, extra_key, extra_value) " +
-		"VALUES ((" +
-			"SELECT id " +
-			"FROM audit " +
-			"WHERE id = ?" +
-		"), ?, ?)";
+		"VALUES ";
+	
+	// The values for a single parameter or extra.
+	private static final String SQL_KEY_VALUE_VALUES = "(?,?,?)";
+	
+	// The maximum number of parameters or extras to insert with one 
+	// statement.
+	private static final int MAX_KEY_VALUES_PER_INSERT = 500;
 	
 	/**
 	 * Creates this object via dependency injection (reflection).
@@ -193,113 +198,125 @@ public class AuditQueries extends Query implements IAuditQueries {
 			final long receivedMillis, 
 			final long respondMillis) throws DataAccessException {
 		
-		if(requestType == null) {
-			throw new IllegalArgumentException("The request type is required and cannot be null.");
-		}
-		else if(uri == null) {
-			throw new IllegalArgumentException("The request URI is required and cannot be null.");
-		}
-		else if(response == null) {
-			throw new IllegalArgumentException("The response is required and cannot be null.");
+		createAudits(
+			Collections.singletonList(
+				new NewAudit(
+					requestType, 
+					uri, 
+					client, 
+					deviceId, 
+					parameters, 
+					extras, 
+					response, 
+					receivedMillis, 
+					respondMillis)));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IAuditQueries#createAudits(java.util.Collection)
+	 */
+	@Override
+	public void createAudits(
+			final Collection<NewAudit> audits) 
+			throws DataAccessException {
+		
+		if(audits.isEmpty()) {
+			return;
 		}
 		
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
-		def.setName("Creating a request audit.");
+		def.setName("Creating request audits.");
 		
 		try {
 			// Begin the transaction.
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			// Create a key holder that will be responsible for referencing 
-			// which row was just inserted.
-			KeyHolder keyHolder = new GeneratedKeyHolder();
+			// The parameters and extras for all of the audits, which are
+			// inserted once all of the audits have been inserted.
+			List<Object[]> parameterValues = new ArrayList<Object[]>();
+			List<Object[]> extraValues = new ArrayList<Object[]>();
+			
+			for(final NewAudit audit : audits) {
+				// Create a key holder that will be responsible for 
+				// referencing which row was just inserted.
+				KeyHolder keyHolder = new GeneratedKeyHolder();
+				
+				// Insert the audit entry.
+				try {
+					getJdbcTemplate().update(
+							new PreparedStatementCreator() {
+								@Override
+								public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+									PreparedStatement ps = connection.prepareStatement(
+										SQL_INSERT_AUDIT, 
+										new String[] {"id"}
+									);
+									
+									ps.setString(1, audit.getRequestType().name().toLowerCase());
+									ps.setString(2, audit.getUri());
+									ps.setString(3, audit.getClient());
+									ps.setString(4, audit.getDeviceId());
+									ps.setString(5, audit.getResponse());
+									ps.setLong(6, audit.getReceivedMillis());
+									ps.setLong(7, audit.getRespondMillis());
+									
+									return ps;
+								}
+							}, 
+							keyHolder);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+							"Error while executing SQL '" + SQL_INSERT_AUDIT + "' with parameters: " +
+								audit.getRequestType().name().toLowerCase() + ", " + 
+								audit.getUri() + ", " + 
+								audit.getClient() + ", " + 
+								audit.getDeviceId() + ", " + 
+								audit.getResponse() + ", " + 
+								audit.getReceivedMillis() + ", " + 
+								audit.getRespondMillis(), 
+							e);
+				}
+				
+				long auditId = keyHolder.getKey().longValue();
+				addKeyValues(auditId, audit.getParameters(), parameterValues);
+				addKeyValues(auditId, audit.getExtras(), extraValues);
+			}
 			
-			// Insert the audit entry.
+			// Add all of the parameters.
 			try {
-				getJdbcTemplate().update(
-						new PreparedStatementCreator() {
-							@Override
-							public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-								PreparedStatement ps = connection.prepareStatement(
-									SQL_INSERT_AUDIT, 
-									new String[] {"id"}
-								);
-								
-								ps.setString(1, requestType.name().toLowerCase());
-								ps.setString(2, uri);
-								ps.setString(3, client);
-								ps.setString(4, deviceId);
-								ps.setString(5, response);
-								ps.setLong(6, receivedMillis);
-								ps.setLong(7, respondMillis);
-								
-								return ps;
-							}
-						}, 
-						keyHolder);
+				insertRows(
+					SQL_INSERT_PARAMETERS, 
+					SQL_KEY_VALUE_VALUES, 
+					parameterValues, 
+					MAX_KEY_VALUES_PER_INSERT);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
 				throw new DataAccessException(
-						"Error while executing SQL '" + SQL_INSERT_AUDIT + "' with parameters: " +
-							requestType.name().toLowerCase() + ", " + 
-							uri + ", " + 
-							client + ", " + 
-							deviceId + ", " + 
-							response + ", " + 
-							receivedMillis + ", " + 
-							respondMillis, 
+						"Error while executing SQL '" + SQL_INSERT_PARAMETERS + "' for " +
+							parameterValues.size() + " parameters.", 
 						e);
 			}
 			
-			// Add all of the parameters.
-			if(parameters != null) {
-				for(String key : parameters.keySet()) {
-					for(String value : parameters.get(key)) {
-						try {
-								getJdbcTemplate().update(
-									SQL_INSERT_PARAMETER, 
-									keyHolder.getKey().longValue(), 
-									key, 
-									value);
-						}
-						catch(org.springframework.dao.DataAccessException e) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-									"Error while executing SQL '" + SQL_INSERT_PARAMETER + "' with parameters: " +
-										keyHolder.getKey().longValue() + ", " + 
-										key + ", " + 
-										value, 
-									e);
-						}
-					}
-				}
-			}
-			
 			// Add all of the extras.
-			if(extras != null) {
-				for(String key : extras.keySet()) {
-					for(String value : extras.get(key)) {
-						try {
-								getJdbcTemplate().update(
-									SQL_INSERT_EXTRA, 
-									keyHolder.getKey().longValue(), 
-									key, 
-									value);
-						}
-						catch(org.springframework.dao.DataAccessException e) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-									"Error while executing SQL '" + SQL_INSERT_EXTRA + "' with parameters: " +
-										keyHolder.getKey().longValue() + ", " + 
-										key + ", " + 
-										value, 
-									e);
-						}
-					}
-				}
+			try {
+				insertRows(
+					SQL_INSERT_EXTRAS, 
+					SQL_KEY_VALUE_VALUES, 
+					extraValues, 
+					MAX_KEY_VALUES_PER_INSERT);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+						"Error while executing SQL '" + SQL_INSERT_EXTRAS + "' for " +
+							extraValues.size() + " extras.", 
+						e);
 			}
 			
 			// Commit the transaction.
@@ -626,4 +643,30 @@ public class AuditQueries extends Query implements IAuditQueries {
 		
 		return result;
 	}
+	
+	/**
+	 * Adds a row for each value of each key in a map to a list of rows.
+	 * 
+	 * @param auditId The audit's database ID.
+	 * 
+	 * @param keyValues The map of keys to all of their values. This may be
+	 * 					null.
+	 * 
+	 * @param rows The list of rows to add to.
+	 */
+	private static void addKeyValues(
+			final long auditId, 
+			final Map<String, String[]> keyValues, 
+			final List<Object[]> rows) {
+		
+		if(keyValues == null) {
+			return;
+		}
+		
+		for(String key : keyValues.keySet()) {
+			for(String value : keyValues.get(key)) {
+				rows.add(new Object[] { auditId, key, value });
+			}
+		}
+	}
 }
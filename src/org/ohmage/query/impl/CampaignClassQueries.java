@@ -17,7 +17,11 @@ package org.ohmage.query.impl;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.sql.DataSource;
 
@@ -25,6 +29,7 @@ import org.ohmage.domain.Clazz;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.ICampaignClassQueries;
+import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 
@@ -51,6 +56,15 @@ public final class CampaignClassQueries extends Query implements ICampaignClassQ
 		"AND ca.id = cc.campaign_id " +
 		"AND cl.id = cc.class_id";
 	
+	// Retrieves the classes associated with each of a set of campaigns. The 
+	// list of campaign IDs must be appended.
+	private static final String SQL_GET_CLASSES_ASSOCIATED_WITH_CAMPAIGNS =
+		"SELECT ca.urn AS campaign_urn, cl.urn AS class_urn " +
+		"FROM campaign ca, class cl, campaign_class cc " +
+		"WHERE ca.id = cc.campaign_id " +
+		"AND cl.id = cc.class_id " +
+		"AND ca.urn IN ";
+	
 	// Retrieves all of the default roles for a campaign-class association 
 	// based on some class role.
 	private static final String SQL_GET_CAMPAIGN_CLASS_DEFAULT_ROLES =
@@ -106,6 +120,63 @@ public final class CampaignClassQueries extends Query implements ICampaignClassQ
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignClassQueries#getClassesAssociatedWithCampaigns(java.util.Collection)
+	 */
+	@Override
+	public Map<String, List<String>> getClassesAssociatedWithCampaigns(
+			final Collection<String> campaignIds)
+			throws DataAccessException {
+		
+		// The campaign IDs are compared without regard to case, as they are
+		// by the database.
+		final Map<String, List<String>> result = 
+				new TreeMap<String, List<String>>(
+						String.CASE_INSENSITIVE_ORDER);
+		for(String campaignId : campaignIds) {
+			result.put(campaignId, new ArrayList<String>());
+		}
+		
+		if(campaignIds.size() == 0) {
+			return result;
+		}
+		
+		String sql = 
+				SQL_GET_CLASSES_ASSOCIATED_WITH_CAMPAIGNS + 
+				StringUtils.generateStatementPList(campaignIds.size());
+		
+		try {
+			getJdbcTemplate().query(
+					sql,
+					campaignIds.toArray(),
+					new RowMapper<Object>() {
+						/**
+						 * Adds the class to the campaign's list.
+						 */
+						@Override
+						public Object mapRow(ResultSet rs, int rowNum)
+								throws SQLException {
+							
+							result.get(rs.getString("campaign_urn")).add(
+									rs.getString("class_urn"));
+							
+							return null;
+						}
+					});
+			
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+							sql + 
+						"' with parameters: " + 
+							campaignIds.toString(), 
+					e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ICampaignClassQueries#getDefaultCampaignRolesForCampaignClass(java.lang.String, java.lang.String, org.ohmage.domain.Clazz.Role)
 	 */
@@ -17,19 +17,25 @@ package org.ohmage.query.impl;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.ohmage.cache.CampaignCache;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Survey;
@@ -42,7 +48,9 @@ import org.ohmage.query.impl.QueryResultsList.QueryResultListBuilder;
 import org.ohmage.util.StringUtils;
 import org.ohmage.util.TimeUtils;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -63,9 +71,23 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author Joshua Selsky
  */
 public final class CampaignQueries extends Query implements ICampaignQueries {
+	// The fields of a campaign in the search index.
+	private static final int INDEX_FIELD_ID = 0;
+	private static final int INDEX_FIELD_NAME = 1;
+	private static final int INDEX_FIELD_DESCRIPTION = 2;
+	private static final int INDEX_FIELD_XML = 3;
+	private static final int INDEX_FIELD_AUTHORED_BY = 4;
+	private static final int NUM_INDEX_FIELDS = 5;
+	
+	// How often the search index is read again to see the changes made by
+	// other servers.
+	private static final long INDEX_LIFETIME_MILLIS = 1000 * 60 * 10;
+	
 	private IUserCampaignClassQueries userCampaignClassQueries;
 	private IUserClassQueries userClassQueries;
 	
+	private final TokenIndex index;
+	
 	// Returns a boolean value of whether or not the campaign exists.
 	private static final String SQL_EXISTS_CAMPAIGN = 
 		"SELECT EXISTS(" +
@@ -125,46 +147,30 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		"WHERE c.urn = ? " +
 		"AND c.running_state_id = crs.id " +
 		"AND c.privacy_state_id = cps.id";
+	
+	// Returns all of the information about each of a set of campaigns. The 
+	// list of campaign IDs must be appended.
+	private static final String SQL_GET_CAMPAIGN_INFORMATION_FOR_CAMPAIGNS =
+		"SELECT c.urn, c.name, c.description, c.icon_url, c.authored_by, c.xml, crs.running_state, cps.privacy_state, c.creation_timestamp " +
+		"FROM campaign c, campaign_running_state crs, campaign_privacy_state cps " +
+		"WHERE c.running_state_id = crs.id " +
+		"AND c.privacy_state_id = cps.id " +
+		"AND c.urn IN ";
 
 	// Returns the unique identifier for all of the campaigns in the system.
 	private static final String SQL_GET_ALL_IDS =
 		"SELECT urn " +
 		"FROM campaign";
 	
-	// Returns all campaign IDs that contain the parameterized value. Be sure
-	// to add the "%"s around the parameter before calling this.
-	private static final String SQL_GET_LIKE_ID =
-		"SELECT urn " +
-		"FROM campaign " +
-		"WHERE urn LIKE ?";
-	
-	// Returns all campaign IDs that contain the parameterized value. Be sure
-	// to add the "%"s around the parameter before calling this.
-	private static final String SQL_GET_LIKE_NAME =
-		"SELECT urn " +
-		"FROM campaign " +
-		"WHERE name LIKE ?";
-	
-	// Returns all campaign IDs that contain the parameterized value. Be sure
-	// to add the "%"s around the parameter before calling this.
-	private static final String SQL_GET_LIKE_DESCRIPTION =
-		"SELECT urn " +
-		"FROM campaign " +
-		"WHERE description LIKE ?";
-	
-	// Returns all campaign IDs that contain the parameterized value. Be sure
-	// to add the "%"s around the parameter before calling this.
-	private static final String SQL_GET_LIKE_XML =
-		"SELECT urn " +
-		"FROM campaign " +
-		"WHERE xml LIKE ?";
+	// Returns the text of every campaign for the search index.
+	private static final String SQL_GET_ALL_INDEX_TEXT =
+		"SELECT urn, name, description, xml, authored_by " +
+		"FROM campaign";
 	
-	// Returns all campaign IDs that contain the parameterized value. Be sure
-	// to add the "%"s around the parameter before calling this.
-	private static final String SQL_GET_LIKE_AUTHORED_BY =
-		"SELECT urn " +
-		"FROM campaign " +
-		"WHERE authored_by LIKE ?";
+	// Returns the text of a campaign for the search index.
+	private static final String SQL_GET_INDEX_TEXT =
+		SQL_GET_ALL_INDEX_TEXT + " " +
+		"WHERE urn = ?";
 	
 	// Returns all of the IDs for all of the campaigns whose creation timestamp
 	// was on or after some date.
@@ -375,6 +381,94 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		
 		userCampaignClassQueries = iUserCampaignClassQueries; 
 		userClassQueries = iUserClassQueries;
+		
+		index =
+			new TokenIndex(
+				NUM_INDEX_FIELDS, 
+				INDEX_LIFETIME_MILLIS, 
+				new IndexSource());
+	}
+	
+	/**
+	 * Reads the text of the campaigns for the search index. The rows are 
+	 * streamed from the database, so no more than one campaign's XML is held
+	 * in memory at once.
+	 */
+	private final class IndexSource implements TokenIndex.Source {
+		/**
+		 * Reads one or all of the campaigns.
+		 */
+		@Override
+		public void read(
+				final TokenIndex tokenIndex, 
+				final String campaignId) 
+				throws DataAccessException {
+			
+			final String sql;
+			final Object[] parameters;
+			if(campaignId == null) {
+				sql = SQL_GET_ALL_INDEX_TEXT;
+				parameters = new Object[0];
+			}
+			else {
+				sql = SQL_GET_INDEX_TEXT;
+				parameters = new Object[] { campaignId };
+			}
+			
+			try {
+				getJdbcTemplate().query(
+						new PreparedStatementCreator() {
+							/**
+							 * Streams the rows instead of reading them all
+							 * at once.
+							 */
+							@Override
+							public PreparedStatement createPreparedStatement(
+									final Connection connection)
+									throws SQLException {
+								
+								PreparedStatement statement = 
+									connection.prepareStatement(
+										sql,
+										ResultSet.TYPE_FORWARD_ONLY,
+										ResultSet.CONCUR_READ_ONLY);
+								statement.setFetchSize(Integer.MIN_VALUE);
+								
+								for(int i = 0; i < parameters.length; i++) {
+									statement.setObject(i + 1, parameters[i]);
+								}
+								
+								return statement;
+							}
+						},
+						new RowCallbackHandler() {
+							/**
+							 * Adds the campaign to the index.
+							 */
+							@Override
+							public void processRow(
+									final ResultSet rs) 
+									throws SQLException {
+								
+								tokenIndex.add(
+										rs.getString("urn"),
+										rs.getString("urn"),
+										rs.getString("name"),
+										rs.getString("description"),
+										rs.getString("xml"),
+										rs.getString("authored_by"));
+							}
+						});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" + sql + "' with parameters: " + 
+							StringUtils.collectionToStringList(
+								Arrays.asList(parameters), 
+								", "), 
+						e);
+			}
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -442,6 +536,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		index.refresh(campaignId);
 	}
 	
 	/* (non-Javadoc)
@@ -487,21 +583,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	@Override
 	public List<String> getCampaignsFromPartialId(String partialCampaignId)
 			throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_ID, 
-					new Object[] { "%" + partialCampaignId + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_ID + 
-						"' with parameter: " +
-						"%" + partialCampaignId + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_ID, partialCampaignId));
 	}
 
 	/*
@@ -511,21 +594,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	@Override
 	public List<String> getCampaignsFromPartialName(String partialCampaignName)
 			throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_NAME, 
-					new Object[] { "%" + partialCampaignName + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_NAME + 
-						"' with parameter: " +
-						"%" + partialCampaignName + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_NAME, partialCampaignName));
 	}
 
 	/*
@@ -535,21 +605,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	@Override
 	public List<String> getCampaignsFromPartialDescription(
 			String partialDescription) throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_DESCRIPTION, 
-					new Object[] { "%" + partialDescription + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_DESCRIPTION + 
-						"' with parameter: " +
-						"%" + partialDescription + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_DESCRIPTION, partialDescription));
 	}
 
 	/*
@@ -560,20 +617,7 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	public List<String> getCampaignsFromPartialXml(String partialXml)
 			throws DataAccessException {
 		
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_XML, 
-					new Object[] { "%" + partialXml + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_XML + 
-						"' with parameter: " +
-						"%" + partialXml + "%",
-					e);
-		}
+		return new ArrayList<String>(index.search(INDEX_FIELD_XML, partialXml));
 	}
 
 	/*
@@ -583,21 +627,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	@Override
 	public List<String> getCampaignsFromPartialAuthoredBy(
 			String partialAuthoredBy) throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_AUTHORED_BY, 
-					new Object[] { "%" + partialAuthoredBy + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_AUTHORED_BY + 
-						"' with parameter: " +
-						"%" + partialAuthoredBy + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_AUTHORED_BY, partialAuthoredBy));
 	}
 	
 	/* (non-Javadoc)
@@ -693,7 +724,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 								throws SQLException {
 						
 							try {
-								return new Campaign(
+								return CampaignCache.getCampaign(
+										campaignId,
 										rs.getString("description"),
 										Campaign.RunningState.getValue(
 												rs.getString("running_state")),
@@ -854,37 +886,7 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					new RowMapper<Campaign>() {
 						@Override
 						public Campaign mapRow(ResultSet rs, int rowNum) throws SQLException {
-							URL iconUrl = null;
-							String iconString = rs.getString("icon_url");
-							if(iconString != null) {
-								try {
-									iconUrl = new URL(iconString);
-								}
-								catch(MalformedURLException e) {
-									// This parameter is still experimental, so
-									// we will leave this alone for now.
-								}
-							}
-							
-							try {
-								return new Campaign(
-										campaignId,
-										rs.getString("name"),
-										rs.getString("description"),
-										null,
-										iconUrl,
-										rs.getString("authored_by"),
-										Campaign.RunningState.valueOf(rs.getString("running_state").toUpperCase()),
-										Campaign.PrivacyState.valueOf(rs.getString("privacy_state").toUpperCase()),
-										new DateTime(rs.getTimestamp("creation_timestamp").getTime()),
-										new HashMap<String, Survey>(0),
-										rs.getString("xml"));
-							} 
-							catch(DomainException e) {
-								throw new SQLException(
-										"There was a problem creating the campaign.",
-										e);
-							}
+							return mapCampaignInformation(campaignId, rs);
 						}
 					});
 		}
@@ -903,6 +905,111 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					e);
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignQueries#getCampaignInformation(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Campaign> getCampaignInformation(
+			final Collection<String> campaignIds)
+			throws DataAccessException {
+		
+		// The campaign IDs are compared without regard to case, as they are by
+		// the database.
+		final Map<String, Campaign> result =
+				new TreeMap<String, Campaign>(String.CASE_INSENSITIVE_ORDER);
+		
+		if(campaignIds.size() == 0) {
+			return result;
+		}
+		
+		String sql = 
+				SQL_GET_CAMPAIGN_INFORMATION_FOR_CAMPAIGNS + 
+				StringUtils.generateStatementPList(campaignIds.size());
+		
+		try {
+			getJdbcTemplate().query(
+					sql,
+					campaignIds.toArray(),
+					new RowMapper<Object>() {
+						/**
+						 * Adds the campaign to the map.
+						 */
+						@Override
+						public Object mapRow(ResultSet rs, int rowNum) 
+								throws SQLException {
+							
+							String campaignId = rs.getString("urn");
+							result.put(
+									campaignId, 
+									mapCampaignInformation(campaignId, rs));
+							
+							return null;
+						}
+					});
+			
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+							sql + 
+						"' with parameters: " + 
+							campaignIds.toString(), 
+					e);
+		}
+	}
+	
+	/**
+	 * Creates a Campaign object from a row of campaign information.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param rs The row.
+	 * 
+	 * @return The Campaign object, without its surveys.
+	 * 
+	 * @throws SQLException The row could not be read or did not describe a
+	 * 						valid campaign.
+	 */
+	private static Campaign mapCampaignInformation(
+			final String campaignId, 
+			final ResultSet rs) 
+			throws SQLException {
+		
+		URL iconUrl = null;
+		String iconString = rs.getString("icon_url");
+		if(iconString != null) {
+			try {
+				iconUrl = new URL(iconString);
+			}
+			catch(MalformedURLException e) {
+				// This parameter is still experimental, so
+				// we will leave this alone for now.
+			}
+		}
+		
+		try {
+			return new Campaign(
+					campaignId,
+					rs.getString("name"),
+					rs.getString("description"),
+					null,
+					iconUrl,
+					rs.getString("authored_by"),
+					Campaign.RunningState.valueOf(rs.getString("running_state").toUpperCase()),
+					Campaign.PrivacyState.valueOf(rs.getString("privacy_state").toUpperCase()),
+					new DateTime(rs.getTimestamp("creation_timestamp").getTime()),
+					new HashMap<String, Survey>(0),
+					rs.getString("xml"));
+		} 
+		catch(DomainException e) {
+			throw new SQLException(
+					"There was a problem creating the campaign.",
+					e);
+		}
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -1335,6 +1442,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		if((xml != null) || (description != null)) {
+			index.refresh(campaignId);
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -1370,6 +1481,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		index.refresh(campaignId);
 	}
 	
 	/**
@@ -15,12 +15,15 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.ICampaignSurveyResponseQueries;
+import org.springframework.jdbc.core.RowMapper;
 
 /**
  * This class contains all of the functionality for creating, reading, 
@@ -55,6 +58,17 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 			")" +
 		")";
 	
+	// Retrieves the number of survey responses for a campaign and the last
+	// time any of them was modified.
+	private static final String SQL_GET_SURVEY_RESPONSES_VERSION =
+		"SELECT COUNT(Id), UNIX_TIMESTAMP(MAX(last_modified_timestamp)) " +
+		"FROM survey_response " +
+		"WHERE campaign_id = (" +
+			"SELECT Id " +
+			"FROM campaign " +
+			"WHERE urn = ?" +
+		")";
+	
 	// Retrieves the campaign ID for the campaign to which the survey response
 	// belongs.
 	private static final String SQL_GET_CAMPAIGN_ID_FROM_SURVEY_RESPONSE_ID =
@@ -96,6 +110,26 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignSurveyResponseQueries#getSurveyResponsesVersionForCampaign(java.lang.String)
+	 */
+	public String getSurveyResponsesVersionForCampaign(String campaignId) throws DataAccessException {
+		try {
+			return getJdbcTemplate().queryForObject(
+					SQL_GET_SURVEY_RESPONSES_VERSION, 
+					new Object[] { campaignId }, 
+					new RowMapper<String>() {
+						@Override
+						public String mapRow(ResultSet rs, int rowNum) throws SQLException {
+							return rs.getLong(1) + ":" + rs.getLong(2);
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error running SQL '" + SQL_GET_SURVEY_RESPONSES_VERSION + "' with parameter: " + campaignId, e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ICampaignSurveyResponseQueries#getCampaignIdFromSurveyId(java.lang.Long)
 	 */
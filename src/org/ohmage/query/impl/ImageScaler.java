@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+import org.ohmage.request.LatencyHistogram;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Creates the scaled versions of uploaded images in the background. Images
+ * are stored exactly as they were uploaded, and the scaled version is
+ * decoded, drawn, and encoded here once the upload has been committed. Until
+ * it exists, readers fall back to the original image.<br />
+ * <br />
+ * The work waits on a bounded queue for a small, fixed number of threads.
+ * When the queue is full, the image is scaled by the thread that submitted
+ * it so that a burst of uploads slows down rather than losing thumbnails.
+ */
+public final class ImageScaler implements DisposableBean {
+	private static final Logger LOGGER = Logger.getLogger(ImageScaler.class);
+	
+	public static final String IMAGE_STORE_FORMAT = "png";
+	private static final double IMAGE_SCALED_MAX_DIMENSION = 150.0;
+	
+	// The scaled image is written under this name and then renamed so that
+	// a reader never sees a partially written file.
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	
+	// How long to wait for the queued images when shutting down.
+	private static final long SHUTDOWN_MILLIS = 30000;
+	
+	private static volatile ImageScaler instance = null;
+	
+	private final ThreadPoolExecutor executor;
+	
+	// The statistics for the pipeline.
+	private final AtomicLong numScaled = new AtomicLong(0);
+	private final AtomicLong numFailed = new AtomicLong(0);
+	private final AtomicLong numScaledInline = new AtomicLong(0);
+	// The time from when an image is submitted until its scaled version
+	// exists.
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	
+	/**
+	 * Scales one image and records how long it took.
+	 */
+	private final class Task implements Runnable {
+		private final File original;
+		private final File scaled;
+		private final long submittedMillis;
+		
+		/**
+		 * Creates the task.
+		 * 
+		 * @param original The original image.
+		 * 
+		 * @param scaled The file to which the scaled image will be written.
+		 */
+		private Task(final File original, final File scaled) {
+			this.original = original;
+			this.scaled = scaled;
+			submittedMillis = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Scales the image. Failures are logged and counted; the original
+		 * image will continue to be used in place of the scaled one.
+		 */
+		@Override
+		public void run() {
+			try {
+				scale(original, scaled);
+				numScaled.incrementAndGet();
+			}
+			catch(IOException e) {
+				numFailed.incrementAndGet();
+				LOGGER.error(
+					"Could not scale the image: " + original.getAbsolutePath(),
+					e);
+			}
+			// A bad image must not stop this thread.
+			catch(RuntimeException e) {
+				numFailed.incrementAndGet();
+				LOGGER.error(
+					"Could not scale the image: " + original.getAbsolutePath(),
+					e);
+			}
+			
+			latencies.record(System.currentTimeMillis() - submittedMillis);
+		}
+	}
+	
+	/**
+	 * Creates the scaler and starts its threads.
+	 * 
+	 * @param queueCapacity The maximum number of images that may be waiting
+	 * 						to be scaled.
+	 * 
+	 * @param numThreads The number of threads scaling images.
+	 * 
+	 * @throws IllegalStateException An instance of this class already
+	 * 								 exists.
+	 * 
+	 * @throws IllegalArgumentException Any of the parameters are invalid.
+	 */
+	private ImageScaler(final int queueCapacity, final int numThreads) {
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+		
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException(
+				"The queue capacity must be positive.");
+		}
+		else if(numThreads < 1) {
+			throw new IllegalArgumentException(
+				"The number of threads must be positive.");
+		}
+		
+		executor =
+			new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				0,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(0);
+					
+					/**
+					 * Creates daemon threads so that a stuck image cannot
+					 * keep the JVM alive.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"ImageScaler - " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		
+		LOGGER.info(
+			"Images will be scaled by " + numThreads +
+				" threads from a queue of " + queueCapacity + ".");
+		
+		instance = this;
+	}
+	
+	/**
+	 * Returns the instance of this class.
+	 * 
+	 * @return The instance of this class or null if it has not been created
+	 * 		   or has been shut down.
+	 */
+	public static ImageScaler instance() {
+		return instance;
+	}
+	
+	/**
+	 * Queues an image to be scaled. If the queue is full, the image is scaled
+	 * before this returns.
+	 * 
+	 * @param original The original image, which must already exist.
+	 * 
+	 * @param scaled The file to which the scaled image will be written.
+	 */
+	public void submit(final File original, final File scaled) {
+		Task task = new Task(original, scaled);
+		try {
+			executor.execute(task);
+		}
+		catch(RejectedExecutionException e) {
+			numScaledInline.incrementAndGet();
+			task.run();
+		}
+	}
+	
+	/**
+	 * Stops accepting new images and waits for the queued images to be
+	 * scaled.
+	 */
+	@Override
+	public void destroy() {
+		instance = null;
+		
+		executor.shutdown();
+		try {
+			if(! executor.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+				LOGGER.error(
+					"The image scaler did not finish; " +
+						executor.getQueue().size() +
+						" images were not scaled.");
+				executor.shutdownNow();
+			}
+		}
+		catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		
+		LOGGER.info(
+			"Image scaler stopped. Scaled: " + numScaled.get() +
+				", failed: " + numFailed.get() +
+				", scaled inline: " + numScaledInline.get());
+	}
+	
+	/**
+	 * Returns the number of images currently waiting to be scaled.
+	 * 
+	 * @return The number of images on the queue.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of images that have been scaled.
+	 * 
+	 * @return The number of images that have been scaled.
+	 */
+	public long getScaledCount() {
+		return numScaled.get();
+	}
+	
+	/**
+	 * Returns the number of images that could not be scaled.
+	 * 
+	 * @return The number of images that could not be scaled.
+	 */
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+	
+	/**
+	 * Returns the number of images that were scaled by the thread that
+	 * submitted them because the queue was full.
+	 * 
+	 * @return The number of images scaled inline.
+	 */
+	public long getScaledInlineCount() {
+		return numScaledInline.get();
+	}
+	
+	/**
+	 * Returns the time it took from when each image was submitted until its
+	 * scaled version was written.
+	 * 
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+	
+	/**
+	 * Creates a scaled version of an image whose longest side is
+	 * {@value #IMAGE_SCALED_MAX_DIMENSION} pixels and saves it as a
+	 * {@value #IMAGE_STORE_FORMAT}.
+	 * 
+	 * @param original The original image.
+	 * 
+	 * @param scaled The file to which the scaled image will be written.
+	 * 
+	 * @throws IOException The original could not be read or decoded or the
+	 * 					   scaled image could not be written.
+	 */
+	public static void scale(
+			final File original,
+			final File scaled)
+			throws IOException {
+		
+		BufferedImage imageContents = ImageIO.read(original);
+		if(imageContents == null) {
+			throw new IOException(
+				"The image could not be decoded: " +
+					original.getAbsolutePath());
+		}
+		
+		// Get the percentage to scale the image.
+		double scalePercentage;
+		if(imageContents.getWidth() > imageContents.getHeight()) {
+			scalePercentage = IMAGE_SCALED_MAX_DIMENSION / imageContents.getWidth();
+		}
+		else {
+			scalePercentage = IMAGE_SCALED_MAX_DIMENSION / imageContents.getHeight();
+		}
+		
+		// Calculate the scaled image's width and height, keeping at least
+		// one pixel for very narrow images.
+		int width = Math.max(1, (int) (imageContents.getWidth() * scalePercentage));
+		int height = Math.max(1, (int) (imageContents.getHeight() * scalePercentage));
+		
+		// Create the new image of the same type as the original and of the
+		// scaled dimensions. Custom types cannot be created directly.
+		int type = imageContents.getType();
+		if(type == BufferedImage.TYPE_CUSTOM) {
+			type = BufferedImage.TYPE_INT_ARGB;
+		}
+		BufferedImage scaledContents = new BufferedImage(width, height, type);
+		
+		// Paint the original image onto the scaled canvas.
+		Graphics2D graphics2d = scaledContents.createGraphics();
+		graphics2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics2d.drawImage(imageContents, 0, 0, width, height, null);
+		
+		// Cleanup.
+		graphics2d.dispose();
+		
+		// Write the scaled image and then move it into place.
+		File temporary =
+			new File(scaled.getAbsolutePath() + TEMPORARY_EXTENSION);
+		if(! ImageIO.write(scaledContents, IMAGE_STORE_FORMAT, temporary)) {
+			temporary.delete();
+			throw new IOException(
+				"No writer exists for the format: " + IMAGE_STORE_FORMAT);
+		}
+		if(! temporary.renameTo(scaled)) {
+			temporary.delete();
+			throw new IOException(
+				"The scaled image could not be moved into place: " +
+					scaled.getAbsolutePath());
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -17,6 +18,7 @@ import javax.sql.DataSource;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.ISODateTimeFormat;
+import org.ohmage.cache.ObserverCache;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Location;
@@ -29,6 +31,8 @@ import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -44,6 +48,56 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author John Jenkins
  */
 public class ObserverQueries extends Query implements IObserverQueries {
+	// Inserts any number of data points. One SQL_DATA_VALUES must be
+	// appended for each data point, separated by commas.
+	private static final String SQL_INSERT_DATA =
+		"INSERT INTO observer_stream_data (" +
+			"user_id, " +
+			"observer_stream_link_id, " +
+			"uid, " +
+			"time, " +
+			"time_offset, " +
+			"time_adjusted, " +
+			"time_zone, " +
+			"location_timestamp, " +
+			"location_latitude, " +
+			"location_longitude, " +
+			"location_accuracy, " +
+			"location_provider, " +
+			"data) " +
+		"VALUES ";
+	
+	// The values for a single data point.
+	private static final String SQL_DATA_VALUES = 
+		"(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	// The maximum number of data points to insert with one statement.
+	private static final int MAX_DATA_PER_INSERT = 500;
+	
+	// The maximum number of bytes of data to insert with one statement. 
+	// Together with MAX_DATA_PER_INSERT, this keeps each statement well below
+	// MySQL's max_allowed_packet.
+	private static final int MAX_DATA_BYTES_PER_INSERT = 512 * 1024;
+	
+	// Retrieves a user's database ID.
+	private static final String SQL_GET_USER_ID =
+		"SELECT id FROM user WHERE username = ?";
+	
+	// Retrieves the database ID of the link between a version of an observer
+	// and a version of one of its streams.
+	private static final String SQL_GET_STREAM_LINK_ID =
+		"SELECT osl.id " +
+		"FROM " +
+			"observer o, " +
+			"observer_stream os, " +
+			"observer_stream_link osl " +
+		"WHERE o.observer_id = ? " +
+		"AND o.version = ? " +
+		"AND os.stream_id = ? " +
+		"AND os.version = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND os.id = osl.observer_stream_id";
+	
 	/**
 	 * Creates this object via dependency injection (reflection).
 	 * 
@@ -804,105 +858,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.ohmage.query.IObserverQueries#storeData(java.lang.String, java.util.Collection)
+	 * @see org.ohmage.query.IObserverQueries#storeData(java.lang.String, org.ohmage.domain.Observer, org.ohmage.query.IObserverQueries.DataStreamSource)
 	 */
 	@Override
-	public void storeData(
+	public long storeData(
 			final String username,
 			final Observer observer,
-			final Collection<DataStream> data)
+			final DataStreamSource data)
 			throws DataAccessException {
 		
-		String sql =
-			"INSERT INTO observer_stream_data (" +
-				"user_id, " +
-				"observer_stream_link_id, " +
-				"uid, " +
-				"time, " +
-				"time_offset, " +
-				"time_adjusted, " +
-				"time_zone, " +
-				"location_timestamp, " +
-				"location_latitude, " +
-				"location_longitude, " +
-				"location_accuracy, " +
-				"location_provider, " +
-				"data) " +
-			"VALUES (" +
-				"(SELECT id FROM user WHERE username = ?), " +
-				"(" +
-					"SELECT osl.id " +
-					"FROM " +
-						"observer o, " +
-						"observer_stream os, " +
-						"observer_stream_link osl " +
-					"WHERE o.observer_id = ? " +
-					"AND o.version = ? " +
-					"AND os.stream_id = ? " +
-					"AND os.version = ? " +
-					"AND o.id = osl.observer_id " +
-					"AND os.id = osl.observer_stream_id" +
-				"), " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?)";
-		
-		List<Object[]> args = new ArrayList<Object[]>(data.size());
-		for(DataStream currData : data) {
-			MetaData metaData = currData.getMetaData();
-			String id = null;
-			DateTime timestamp = null;
-			Location location = null;
-			if(metaData != null) {
-				id = metaData.getId();
-				timestamp = metaData.getTimestamp();
-				location = metaData.getLocation();
-			}
-			
-			Long time = (timestamp == null) ? null : timestamp.getMillis();
-			Integer timeOffset = 
-				(timestamp == null) ? null : timestamp.getZone().getOffset(null);
-			Long timeAdjusted =
-				(timestamp == null) ? null : time + timeOffset;
-			String timeZoneId = 
-				(timestamp == null) ? null : timestamp.getZone().getID();
-			
-			try {
-				args.add(
-					new Object[] {
-						username,
-						observer.getId(),
-						observer.getVersion(),
-						currData.getStream().getId(),
-						currData.getStream().getVersion(),
-						id,
-						time,
-						timeOffset,
-						timeAdjusted,
-						timeZoneId,
-						(location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString(),
-						(location == null) ? null : location.getLatitude(),
-						(location == null) ? null : location.getLongitude(),
-						(location == null) ? null : location.getAccuracy(),
-						(location == null) ? null : location.getProvider(),
-						currData.getBinaryData()
-					}
-				);
-			}
-			catch(DomainException e) {
-				throw new DataAccessException(
-					"Could not get the binary data.",
-					e);
-			}
-		}
+		long numStored = 0;
 		
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
@@ -915,12 +880,47 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
 			try {
-				getJdbcTemplate().batchUpdate(sql, args);
+				// The user and the links are resolved once for the whole
+				// upload instead of with subqueries for every point.
+				long userId = getUserId(username);
+				Map<Stream, Long> linkIds = new HashMap<Stream, Long>();
+				
+				Collection<DataStream> chunk;
+				while((chunk = data.nextChunk()) != null) {
+					if(chunk.isEmpty()) {
+						continue;
+					}
+					
+					List<Object[]> args = 
+						new ArrayList<Object[]>(chunk.size());
+					for(DataStream currData : chunk) {
+						Stream stream = currData.getStream();
+						Long linkId = linkIds.get(stream);
+						if(linkId == null) {
+							linkId = getStreamLinkId(observer, stream);
+							linkIds.put(stream, linkId);
+						}
+						
+						args.add(getDataParameters(userId, linkId, currData));
+					}
+					
+					insertRows(
+						SQL_INSERT_DATA, 
+						SQL_DATA_VALUES, 
+						args, 
+						MAX_DATA_PER_INSERT, 
+						MAX_DATA_BYTES_PER_INSERT);
+					numStored += chunk.size();
+				}
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
 			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
 				throw new DataAccessException(
-					"Error executing SQL '" + sql +"'.", 
+					"Error executing SQL '" + SQL_INSERT_DATA +"'.", 
 					e);
 			}
 			
@@ -940,11 +940,178 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				"Error while attempting to rollback the transaction.", 
 				e);
 		}
+		
+		return numStored;
+	}
+	
+	/**
+	 * Retrieves a user's database ID.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The user's database ID.
+	 * 
+	 * @throws DataAccessException The user does not exist or there was an
+	 * 							   error.
+	 */
+	private long getUserId(final String username) throws DataAccessException {
+		try {
+			return 
+				getJdbcTemplate().queryForLong(
+					SQL_GET_USER_ID, 
+					new Object[] { username });
+		}
+		catch(org.springframework.dao.IncorrectResultSizeDataAccessException e) {
+			throw new DataAccessException(
+				"The user does not exist: " + username,
+				e);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					SQL_GET_USER_ID + 
+					"' with parameter: " + 
+					username,
+				e);
+		}
+	}
+	
+	/**
+	 * Retrieves the database ID of the link between an observer and one of
+	 * its streams, from the cache if possible.
+	 * 
+	 * @param observer The observer.
+	 * 
+	 * @param stream The stream.
+	 * 
+	 * @return The link's database ID.
+	 * 
+	 * @throws DataAccessException The stream does not belong to the observer
+	 * 							   or there was an error.
+	 */
+	private long getStreamLinkId(
+			final Observer observer,
+			final Stream stream)
+			throws DataAccessException {
+		
+		Long result = 
+			ObserverCache.getStreamLinkId(
+				observer.getId(), 
+				observer.getVersion(), 
+				stream.getId(), 
+				stream.getVersion());
+		if(result != null) {
+			return result;
+		}
+		
+		Object[] parameters = 
+			new Object[] {
+				observer.getId(),
+				observer.getVersion(),
+				stream.getId(),
+				stream.getVersion()
+			};
+		List<Long> linkIds;
+		try {
+			linkIds =
+				getJdbcTemplate().query(
+					SQL_GET_STREAM_LINK_ID,
+					parameters,
+					new SingleColumnRowMapper<Long>());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					SQL_GET_STREAM_LINK_ID + 
+					"' with parameters: " + 
+					Arrays.toString(parameters),
+				e);
+		}
+		
+		if(linkIds.isEmpty()) {
+			throw new DataAccessException(
+				"The stream does not belong to the observer: " + 
+					Arrays.toString(parameters));
+		}
+		
+		result = linkIds.get(0);
+		ObserverCache.putStreamLinkId(
+			observer.getId(), 
+			observer.getVersion(), 
+			stream.getId(), 
+			stream.getVersion(),
+			result);
+		return result;
+	}
+	
+	/**
+	 * Creates the parameters for {@link #SQL_DATA_VALUES} for one data 
+	 * point.
+	 * 
+	 * @param userId The database ID of the user who is uploading the data.
+	 * 
+	 * @param linkId The database ID of the link between the observer and the
+	 * 				 point's stream.
+	 * 
+	 * @param currData The data point.
+	 * 
+	 * @return The parameters.
+	 * 
+	 * @throws DataAccessException The data point's binary data could not be
+	 * 							   created.
+	 */
+	private Object[] getDataParameters(
+			final long userId,
+			final long linkId,
+			final DataStream currData)
+			throws DataAccessException {
+		
+		MetaData metaData = currData.getMetaData();
+		String id = null;
+		DateTime timestamp = null;
+		Location location = null;
+		if(metaData != null) {
+			id = metaData.getId();
+			timestamp = metaData.getTimestamp();
+			location = metaData.getLocation();
+		}
+		
+		Long time = (timestamp == null) ? null : timestamp.getMillis();
+		Integer timeOffset = 
+			(timestamp == null) ? null : timestamp.getZone().getOffset(null);
+		Long timeAdjusted =
+			(timestamp == null) ? null : time + timeOffset;
+		String timeZoneId = 
+			(timestamp == null) ? null : timestamp.getZone().getID();
+		
+		try {
+			return
+				new Object[] {
+					userId,
+					linkId,
+					id,
+					time,
+					timeOffset,
+					timeAdjusted,
+					timeZoneId,
+					(location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString(),
+					(location == null) ? null : location.getLatitude(),
+					(location == null) ? null : location.getLongitude(),
+					(location == null) ? null : location.getAccuracy(),
+					(location == null) ? null : location.getProvider(),
+					currData.getBinaryData()
+				};
+		}
+		catch(DomainException e) {
+			throw new DataAccessException(
+				"Could not get the binary data.",
+				e);
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.ohmage.query.IObserverQueries#readData(org.ohmage.domain.Observer.Stream, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime, long, long)
+	 * @see org.ohmage.query.IObserverQueries#readData(org.ohmage.domain.Observer.Stream, java.lang.String, java.lang.String, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.DataStream.ContinuationToken, long, long)
 	 */
 	@Override
 	public List<DataStream> readData(
@@ -954,6 +1121,7 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final Long observerVersion,
 			final DateTime startDate,
 			final DateTime endDate,
+			final DataStream.ContinuationToken continuationToken,
 			final long numToSkip,
 			final long numToReturn) 
 			throws DataAccessException {
@@ -961,6 +1129,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 		StringBuilder builder = 
 			new StringBuilder(
 				"SELECT " +
+					"osd.id, " +
+					"osd.time_adjusted, " +
 					"osd.uid, " +
 					"osd.time, " +
 					"osd.time_zone, " +
@@ -984,7 +1154,7 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"AND os.id = osl.observer_stream_id " +
 					"AND osl.id = osd.observer_stream_link_id " +
 					"AND u.id = osd.user_id");
-		List<Object> parameters = new LinkedList<Object>();
+		final List<Object> parameters = new LinkedList<Object>();
 		parameters.add(username);
 		parameters.add(observerId);
 		parameters.add(stream.getId());
@@ -1005,18 +1175,94 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			parameters.add(endDate.getMillis());
 		}
 		
-		builder.append(" ORDER BY osd.time");
+		// Seek to the continuation token. Points without a time are compared
+		// explicitly because they sort before all of the others.
+		boolean backwards = false;
+		if(continuationToken != null) {
+			backwards = continuationToken.isBackwards();
+			Long timeAdjusted = continuationToken.getTimeAdjusted();
+			
+			if(backwards) {
+				if(timeAdjusted == null) {
+					builder.append(
+						" AND osd.time_adjusted IS NULL AND osd.id < ?");
+				}
+				else {
+					builder.append(
+						" AND (" +
+							"osd.time_adjusted IS NULL " +
+							"OR osd.time_adjusted < ? " +
+							"OR (osd.time_adjusted = ? AND osd.id < ?))");
+					parameters.add(timeAdjusted);
+					parameters.add(timeAdjusted);
+				}
+			}
+			else {
+				if(timeAdjusted == null) {
+					builder.append(
+						" AND (osd.time_adjusted IS NOT NULL OR osd.id > ?)");
+				}
+				else {
+					builder.append(
+						" AND (" +
+							"osd.time_adjusted > ? " +
+							"OR (osd.time_adjusted = ? AND osd.id > ?))");
+					parameters.add(timeAdjusted);
+					parameters.add(timeAdjusted);
+				}
+			}
+			parameters.add(continuationToken.getDatabaseId());
+		}
+		
+		// The points before a backwards token are read in reverse so that the
+		// closest ones are returned.
+		if(backwards) {
+			builder.append(" ORDER BY osd.time_adjusted DESC, osd.id DESC");
+		}
+		else {
+			builder.append(" ORDER BY osd.time_adjusted, osd.id");
+		}
 		builder
 			.append(" LIMIT ")
 			.append(numToSkip)
 			.append(", ")
 			.append(numToReturn);
 		
+		final String sql = builder.toString();
 		try {
-			return
+			List<DataStream> result =
 				getJdbcTemplate().query(
-					builder.toString(),
-					parameters.toArray(),
+					new PreparedStatementCreator() {
+						/**
+						 * Creates a forward-only, read-only statement whose 
+						 * fetch size tells the MySQL driver to stream the rows
+						 * instead of reading the entire result into memory 
+						 * first.
+						 */
+						@Override
+						public PreparedStatement createPreparedStatement(
+								final Connection connection)
+								throws SQLException {
+							
+							PreparedStatement statement = 
+								connection.prepareStatement(
+									sql,
+									ResultSet.TYPE_FORWARD_ONLY,
+									ResultSet.CONCUR_READ_ONLY);
+							statement.setFetchSize(Integer.MIN_VALUE);
+							
+							int index = 1;
+							for(Object parameter : parameters) {
+								StatementCreatorUtils.setParameterValue(
+									statement, 
+									index++, 
+									SqlTypeValue.TYPE_UNKNOWN, 
+									parameter);
+							}
+							
+							return statement;
+						}
+					},
 					new RowMapper<DataStream>() {
 						/**
 						 * Decodes the resulting data into a data stream.
@@ -1080,11 +1326,18 @@ public class ObserverQueries extends Query implements IObserverQueries {
 								metaDataBuilder.setLocation(location);
 							}
 							
+							long timeAdjusted = rs.getLong("osd.time_adjusted");
+							DataStream.ContinuationToken continuationToken =
+								new DataStream.ContinuationToken(
+									(rs.wasNull()) ? null : timeAdjusted,
+									rs.getLong("osd.id"));
+							
 							try {
 								return new DataStream(
 									stream, 
 									metaDataBuilder.build(), 
-									rs.getBytes("osd.data"));
+									rs.getBytes("osd.data"),
+									continuationToken);
 							}
 							catch(DomainException e) {
 								throw new SQLException(
@@ -1093,6 +1346,12 @@ public class ObserverQueries extends Query implements IObserverQueries {
 							}
 						}
 					});
+			
+			// Put the points read backwards back in order.
+			if(backwards) {
+				Collections.reverse(result);
+			}
+			return result;
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			throw new DataAccessException(
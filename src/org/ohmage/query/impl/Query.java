@@ -15,6 +15,10 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.sql.DataSource;
 
 import org.ohmage.exception.DataAccessException;
@@ -110,4 +114,97 @@ public abstract class Query {
 	protected JdbcTemplate getJdbcTemplate() {
 		return jdbcTemplate;
 	}
+	
+	/**
+	 * Inserts rows using as few statements as possible. Each statement is the
+	 * INSERT followed by one VALUES group per row and inserts up to the 
+	 * maximum number of rows.
+	 * 
+	 * @param insertSql The INSERT statement up to and including "VALUES".
+	 * 
+	 * @param valuesSql The parameter group for one row, e.g. "(?,?,?)".
+	 * 
+	 * @param rows The parameters for each row.
+	 * 
+	 * @param maxRowsPerStatement The maximum number of rows to insert with
+	 * 							  each statement.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an error
+	 * 													   inserting the rows.
+	 */
+	protected void insertRows(
+			final String insertSql,
+			final String valuesSql,
+			final List<Object[]> rows,
+			final int maxRowsPerStatement) {
+		
+		insertRows(
+			insertSql, 
+			valuesSql, 
+			rows, 
+			maxRowsPerStatement, 
+			Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Inserts rows using as few statements as possible. Each statement is the
+	 * INSERT followed by one VALUES group per row and inserts up to the 
+	 * maximum number of rows and, unless a single row is larger, up to the
+	 * maximum number of bytes in the rows' byte array parameters.
+	 * 
+	 * @param insertSql The INSERT statement up to and including "VALUES".
+	 * 
+	 * @param valuesSql The parameter group for one row, e.g. "(?,?,?)".
+	 * 
+	 * @param rows The parameters for each row.
+	 * 
+	 * @param maxRowsPerStatement The maximum number of rows to insert with
+	 * 							  each statement.
+	 * 
+	 * @param maxBytesPerStatement The maximum number of bytes of byte array
+	 * 							   parameters to insert with each statement.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an error
+	 * 													   inserting the rows.
+	 */
+	protected void insertRows(
+			final String insertSql,
+			final String valuesSql,
+			final List<Object[]> rows,
+			final int maxRowsPerStatement,
+			final long maxBytesPerStatement) {
+		
+		int numRows = rows.size();
+		int start = 0;
+		while(start < numRows) {
+			StringBuilder sql = new StringBuilder(insertSql);
+			List<Object> parameters = new ArrayList<Object>();
+			
+			// Add the rows that fit in this statement.
+			int end = start;
+			long numBytes = 0;
+			while((end < numRows) && (end - start < maxRowsPerStatement)) {
+				Object[] row = rows.get(end);
+				
+				for(Object parameter : row) {
+					if(parameter instanceof byte[]) {
+						numBytes += ((byte[]) parameter).length;
+					}
+				}
+				if((end > start) && (numBytes > maxBytesPerStatement)) {
+					break;
+				}
+				
+				if(end != start) {
+					sql.append(',');
+				}
+				sql.append(valuesSql);
+				parameters.addAll(Arrays.asList(row));
+				end++;
+			}
+			
+			jdbcTemplate.update(sql.toString(), parameters.toArray());
+			start = end;
+		}
+	}
 }
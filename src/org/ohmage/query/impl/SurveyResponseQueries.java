@@ -15,12 +15,14 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,12 +32,14 @@ import java.util.UUID;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Prompt;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
+import org.ohmage.domain.campaign.SurveyResponse.FunctionPrivacyStateItem;
 import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
 import org.ohmage.exception.DataAccessException;
@@ -43,8 +47,11 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.query.ISurveyResponseQueries;
 import org.ohmage.util.StringUtils;
 import org.ohmage.util.TimeUtils;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionException;
@@ -367,6 +374,19 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	private static final String SQL_WHERE_PROMPT_TYPE =
 		" AND pr.prompt_type = ?";
 	
+	/**
+	 * Limit the responses to only those that come after a continuation token
+	 * in the default ordering, by time descending and then by UUID. The 
+	 * parameters are the token's time twice and then its UUID. The first
+	 * comparison is redundant, but it gives MySQL a range on the time that it
+	 * can use to seek into the campaign, time, and UUID key.
+	 * 
+	 * @see #SQL_GET_SURVEY_RESPONSES
+	 */
+	private static final String SQL_WHERE_AFTER_CONTINUATION_TOKEN =
+		" AND sr.epoch_millis <= ?" +
+		" AND ((sr.epoch_millis < ?) OR (sr.uuid > ?))";
+	
 	/**
 	 * Order the results first by the number of milliseconds since the epoch at
 	 * which time the survey was taken and then, if there is a collision, by
@@ -379,6 +399,45 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		" ORDER BY sr.epoch_millis DESC, sr.uuid";
 	*/
 	
+	/**
+	 * The length of the periods into which survey responses are grouped when
+	 * they are counted by date. Every time zone's offset is a multiple of
+	 * this, so all of the survey responses taken in the same time zone during
+	 * one period were taken on the same local date.
+	 */
+	private static final long MILLIS_PER_DATE_GROUP = 1000 * 60 * 15;
+	
+	/**
+	 * Counts the survey responses by their privacy state without reading any
+	 * of their prompt responses. The survey ID and, for counting by date, the
+	 * time zone and period columns are added to the SELECT and GROUP BY
+	 * clauses as needed. This must be used with the {@link #SQL_WHERE_ACL}.
+	 * 
+	 * @see #SQL_GROUP_BY_PRIVACY_STATE
+	 */
+	private static final String SQL_GET_PRIVACY_STATE_COUNTS =
+		"SELECT srps.privacy_state, COUNT(sr.id) AS count";
+	
+	/**
+	 * The tables and links for {@link #SQL_GET_PRIVACY_STATE_COUNTS}. This is
+	 * the same as for the individual survey responses but without the prompt
+	 * responses.
+	 */
+	private static final String SQL_FROM_PRIVACY_STATE_COUNTS =
+		" FROM user u, campaign c, " +
+			"survey_response sr, survey_response_privacy_state srps " +
+		"WHERE c.urn = ? " +
+		"AND c.id = sr.campaign_id " +
+		"AND u.id = sr.user_id " +
+		"AND srps.id = sr.privacy_state_id";
+	
+	/**
+	 * Groups the counts by privacy state. The other group items must be added
+	 * after this.
+	 */
+	private static final String SQL_GROUP_BY_PRIVACY_STATE =
+		" GROUP BY srps.privacy_state";
+	
 	// Updates a survey response's privacy state.
 	private static final String SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE = 
 		"UPDATE survey_response " +
@@ -474,9 +533,63 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			final String promptType,
 			final Collection<ColumnKey> columns,
 			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final List<SurveyResponse> result)
+			throws DataAccessException {
+		
+		return streamSurveyResponses(
+				campaign,
+				username,
+				surveyResponseIds,
+				usernames,
+				startDate,
+				endDate,
+				privacyState,
+				surveyIds,
+				promptIds,
+				promptType,
+				columns,
+				sortOrder,
+				continuationToken,
+				surveyResponsesToSkip,
+				surveyResponsesToProcess,
+				new SurveyResponseHandler() {
+					/**
+					 * Adds the survey response to the result list.
+					 */
+					@Override
+					public void handleSurveyResponse(
+							final SurveyResponse surveyResponse) {
+						
+						result.add(surveyResponse);
+					}
+				});
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#streamSurveyResponses(org.ohmage.domain.campaign.Campaign, java.lang.String, java.util.Set, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, java.util.Collection, java.util.Collection, java.lang.String, java.util.Collection, java.util.List, org.ohmage.domain.campaign.SurveyResponse.ContinuationToken, long, long, org.ohmage.query.ISurveyResponseQueries.SurveyResponseHandler)
+	 */
+	@Override
+	public int streamSurveyResponses(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames, 
+			final DateTime startDate,
+			final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final String promptType,
+			final Collection<ColumnKey> columns,
+			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
 			final long surveyResponsesToSkip,
 			final long surveyResponsesToProcess,
-			List<SurveyResponse> result)
+			final SurveyResponseHandler handler)
 			throws DataAccessException {
 		
 		if(
@@ -487,8 +600,8 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			return 0;
 		}
 		
-		List<Object> parameters = new LinkedList<Object>();
-		String sql = buildSqlAndParameters(
+		final List<Object> parameters = new LinkedList<Object>();
+		final String sql = buildSqlAndParameters(
 				campaign,
 				username,
 				surveyResponseIds,
@@ -501,26 +614,51 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 				promptType,
 				columns,
 				sortOrder,
+				continuationToken,
 				parameters);
 
 		// This is necessary to map tiny integers in SQL to Java's integer.
 		final Map<String, Class<?>> typeMapping = new HashMap<String, Class<?>>();
 		typeMapping.put("tinyint", Integer.class);
 		
-		// This is a silly, hacky way to get the total count, but it is the 
-		// only real way I have found thus far.
-		final Collection<Integer> totalCount = new ArrayList<Integer>(1);
-		
 		try {
-			result.addAll(getJdbcTemplate().query(
-				sql,
-				parameters.toArray(),
-				new ResultSetExtractor<List<SurveyResponse>>() {
+			return getJdbcTemplate().query(
+				new PreparedStatementCreator() {
+					/**
+					 * Creates a forward-only, read-only statement whose fetch
+					 * size tells the MySQL driver to stream the rows instead
+					 * of reading the entire result into memory first.
+					 */
+					@Override
+					public PreparedStatement createPreparedStatement(
+							final Connection connection)
+							throws SQLException {
+						
+						PreparedStatement statement = 
+								connection.prepareStatement(
+										sql,
+										ResultSet.TYPE_FORWARD_ONLY,
+										ResultSet.CONCUR_READ_ONLY);
+						statement.setFetchSize(Integer.MIN_VALUE);
+						
+						int index = 1;
+						for(Object parameter : parameters) {
+							StatementCreatorUtils.setParameterValue(
+									statement, 
+									index++, 
+									SqlTypeValue.TYPE_UNKNOWN, 
+									parameter);
+						}
+						
+						return statement;
+					}
+				},
+				new ResultSetExtractor<Integer>() {
 					/**
 					 * First, it skips a set of rows based on the parameterized
 					 * number of survey responses to skip. Then, it aggregates  
 					 * the information from the number of desired survey 
-					 * responses.
+					 * responses and passes each one to the handler.
 					 * 
 					 * There must be some ordering on the results in order for
 					 * subsequent results to skip / process the same rows. The
@@ -533,17 +671,18 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 					 * that you just saw on the previous page. It was decided
 					 * that this is a common and acceptable way to view live
 					 * data.
+					 * 
+					 * The total number of survey responses is returned.
 					 */
 					@Override
-					public List<SurveyResponse> extractData(ResultSet rs)
+					public Integer extractData(ResultSet rs)
 							throws SQLException,
 							org.springframework.dao.DataAccessException {
 						
-						// If the result set is empty, we can simply return an
-						// empty list.
+						// If the result set is empty, there is nothing to
+						// process.
 						if(! rs.next()) {
-							totalCount.add(0);
-							return Collections.emptyList();
+							return 0;
 						}
 						
 						// Keep track of the number of survey responses we have
@@ -563,18 +702,13 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 							while(surveyResponseId.equals(rs.getString("uuid"))) {
 								// We were skipping the last survey response,
 								// therefore, there are no survey responses to
-								// return and we can return an empty list.
+								// process.
 								if(! rs.next()) {
-									totalCount.add(surveyResponsesSkipped);
-									return Collections.emptyList();
+									return surveyResponsesSkipped;
 								}
 							}
 						}
 						
-						// Create a list of the results.
-						List<SurveyResponse> result =
-								new LinkedList<SurveyResponse>();
-						
 						// Cycle through the rows until the maximum number of
 						// rows has been processed or there are no more rows to
 						// process.
@@ -622,10 +756,8 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 								throw new SQLException("Error creating the survey response information object.", e);
 							}
 							
-							// Add the current survey response to the result
-							// list and increase the number of survey responses
+							// Increase the number of survey responses 
 							// processed.
-							result.add(surveyResponse);
 							surveyResponsesProcessed++;
 							
 							// Get a string representation of the survey
@@ -635,6 +767,7 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 							
 							// Now, process this prompt response and all 
 							// subsequent prompt responses.
+							boolean hasNext;
 							do {
 								try {
 									// Retrieve the corresponding prompt 
@@ -661,56 +794,55 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 											"The prompt response value from the database is not a valid response value for this prompt.", 
 											e);
 								}
+								
+								// Get the next prompt response unless we just
+								// read the last prompt response in the 
+								// result.
+								hasNext = rs.next();
 							} while(
-									// Get the next prompt response unless we
-									// just read the last prompt response in
-									// the result,
-									rs.next() && 
-									// and continue as long as that prompt 
-									// response pertains to this survey 
-									// response.
+									hasNext && 
+									// Continue as long as that prompt response
+									// pertains to this survey response.
 									surveyResponseId.equals(rs.getString("uuid")));
+							
+							// The survey response is complete, so hand it off.
+							try {
+								handler.handleSurveyResponse(surveyResponse);
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+										"The survey response could not be handled.",
+										e);
+							}
 									
 							// If we exited the loop because we passed the last
-							// record, break out of the survey response 
-							// processing loop.
-							if(rs.isAfterLast()) {
-								break;
+							// record, the total is the number skipped plus the
+							// number processed.
+							if(! hasNext) {
+								return 
+										surveyResponsesSkipped + 
+										surveyResponsesProcessed;
 							}
 						}
 						
-						// Now, if we are after the last row, we need to set 
-						// the total count to be the total number skipped plus
-						// the total number processed.
-						if(rs.isAfterLast()) {
-							totalCount.add(
-									surveyResponsesSkipped + 
-									surveyResponsesProcessed);
-						}
-						else {
-							int otherIds = 1;
-							String id = rs.getString("uuid");
-							
-							while(rs.next()) {
-								if(! rs.getString("uuid").equals(id)) {
-									otherIds++;
-									id = rs.getString("uuid");
-								}
+						// Otherwise, count the remaining survey responses.
+						int otherIds = 1;
+						String id = rs.getString("uuid");
+						
+						while(rs.next()) {
+							if(! rs.getString("uuid").equals(id)) {
+								otherIds++;
+								id = rs.getString("uuid");
 							}
-							
-							totalCount.add(
-									surveyResponsesSkipped + 
-									surveyResponsesProcessed +
-									otherIds);
 						}
 						
-						// Finally, return only the survey responses as a list.
-						return result;
+						return 
+								surveyResponsesSkipped + 
+								surveyResponsesProcessed +
+								otherIds;
 					}
 				}
-			));
-			
-			return totalCount.iterator().next();
+			);
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			throw new DataAccessException(
@@ -724,7 +856,162 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 						privacyState + " (privacy state), " + 
 						surveyIds + " (survey IDs), " +
 						promptIds + " (prompt IDs), " +
-						promptType + " (prompt type)",
+						promptType + " (prompt type), " +
+						continuationToken + " (continuation token)",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#retrievePrivacyStateCounts(org.ohmage.domain.campaign.Campaign, java.lang.String, org.joda.time.DateTime, org.joda.time.DateTime, java.util.Collection)
+	 */
+	@Override
+	public List<SurveyResponse.PrivacyStateCount> retrievePrivacyStateCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<FunctionPrivacyStateItem> groupItems)
+			throws DataAccessException {
+		
+		final boolean bySurvey =
+				groupItems.contains(FunctionPrivacyStateItem.SURVEY);
+		final boolean byDate =
+				groupItems.contains(FunctionPrivacyStateItem.DATE);
+		
+		StringBuilder sqlBuilder =
+				new StringBuilder(SQL_GET_PRIVACY_STATE_COUNTS);
+		if(bySurvey) {
+			sqlBuilder.append(", sr.survey_id");
+		}
+		// The local date can't be computed by the database without its time
+		// zone tables, which are often not loaded, so the survey responses are
+		// grouped into periods within each time zone instead, and the periods
+		// are converted to dates below.
+		if(byDate) {
+			sqlBuilder
+				.append(", sr.phone_timezone, ")
+				.append("(sr.epoch_millis DIV ")
+				.append(MILLIS_PER_DATE_GROUP)
+				.append(") AS period");
+		}
+		sqlBuilder.append(SQL_FROM_PRIVACY_STATE_COUNTS);
+		sqlBuilder.append(SQL_WHERE_ACL);
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(campaign.getId());
+		parameters.add(username);
+		
+		if(startDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_AFTER);
+			parameters.add(startDate.getMillis());
+		}
+		if(endDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_BEFORE);
+			parameters.add(endDate.getMillis());
+		}
+		
+		sqlBuilder.append(SQL_GROUP_BY_PRIVACY_STATE);
+		if(bySurvey) {
+			sqlBuilder.append(", sr.survey_id");
+		}
+		if(byDate) {
+			sqlBuilder.append(", sr.phone_timezone, period");
+		}
+		
+		final String sql = sqlBuilder.toString();
+		try {
+			return getJdbcTemplate().query(
+				sql,
+				parameters.toArray(),
+				new ResultSetExtractor<List<SurveyResponse.PrivacyStateCount>>() {
+					/**
+					 * Combines the rows that are in the same bucket, which
+					 * only happens when counting by date.
+					 */
+					@Override
+					public List<SurveyResponse.PrivacyStateCount> extractData(
+							final ResultSet rs)
+							throws SQLException,
+							org.springframework.dao.DataAccessException {
+						
+						Map<String, SurveyResponse.PrivacyStateCount> result =
+							new LinkedHashMap<String, SurveyResponse.PrivacyStateCount>();
+						
+						while(rs.next()) {
+							String privacyState = rs.getString("privacy_state");
+							
+							String surveyId = null;
+							if(bySurvey) {
+								surveyId = rs.getString("survey_id");
+							}
+							
+							LocalDate date = null;
+							if(byDate) {
+								try {
+									date =
+										new LocalDate(
+											rs.getLong("period") *
+												MILLIS_PER_DATE_GROUP,
+											TimeUtils.getDateTimeZoneFromString(
+												rs.getString("phone_timezone")));
+								}
+								catch(IllegalArgumentException e) {
+									throw new SQLException(
+										"The time zone is unknown.",
+										e);
+								}
+							}
+							
+							long count = rs.getLong("count");
+							
+							String key =
+								privacyState + '\n' + surveyId + '\n' + date;
+							SurveyResponse.PrivacyStateCount bucket =
+								result.get(key);
+							if(bucket == null) {
+								try {
+									result.put(
+										key,
+										new SurveyResponse.PrivacyStateCount(
+											PrivacyState.getValue(privacyState),
+											surveyId,
+											date,
+											count));
+								}
+								catch(IllegalArgumentException e) {
+									throw new SQLException(
+										"The privacy state is unknown.",
+										e);
+								}
+								catch(DomainException e) {
+									throw new SQLException(
+										"The bucket could not be created.",
+										e);
+								}
+							}
+							else {
+								bucket.add(count);
+							}
+						}
+						
+						return
+							new ArrayList<SurveyResponse.PrivacyStateCount>(
+								result.values());
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" +
+						sql +
+						"' with parameters: " +
+						campaign.getId() + " (campaign ID), " +
+						username + " (username), " +
+						startDate + " (start date), " +
+						endDate + " (end date)",
 					e);
 		}
 	}
@@ -869,6 +1156,12 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	 * 				  null, no aggregation is performed. If the list is empty,
 	 * 				  an empty list is returned.
 	 * 
+	 * @param sortOrder The order in which to sort the responses.
+	 * 
+	 * @param continuationToken Limits the results to only those survey 
+	 * 							responses that come after this token in the
+	 * 							default ordering.
+	 * 
 	 * @param parameters This is a list created by the caller to be populated
 	 * 					 with the parameters aggregated while generating this
 	 * 					 SQL.
@@ -888,6 +1181,7 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			final String promptType,
 			final Collection<ColumnKey> columns,
 			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
 			final Collection<Object> parameters) {
 		
 		// Begin with the SQL string which gets all results or the one that
@@ -942,6 +1236,12 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			sqlBuilder.append(SQL_WHERE_PROMPT_TYPE);
 			parameters.add(promptType);
 		}
+		if(continuationToken != null) {
+			sqlBuilder.append(SQL_WHERE_AFTER_CONTINUATION_TOKEN);
+			parameters.add(continuationToken.getTime());
+			parameters.add(continuationToken.getTime());
+			parameters.add(continuationToken.getSurveyResponseId().toString());
+		}
 		
 		// Now, collapse the columns if columns is non-null.
 		boolean onSurveyResponse = true;
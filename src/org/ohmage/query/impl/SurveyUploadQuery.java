@@ -15,12 +15,8 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
@@ -29,22 +25,21 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
 
-import javax.imageio.ImageIO;
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.ohmage.cache.FileStoreAllocator;
 import org.ohmage.cache.PreferenceCache;
-import org.ohmage.cache.VideoDirectoryCache;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
 import org.ohmage.domain.Video;
@@ -62,9 +57,11 @@ import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.ISurveyUploadQuery;
 import org.ohmage.request.JsonInputKeys;
+import org.ohmage.util.StringUtils;
 import org.ohmage.util.TimeUtils;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -79,32 +76,8 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author Joshua Selsky
  */
 public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUploadQuery {
-	// The current directory to which the next image should be saved.
-	private static File imageLeafDirectory;
-	
-	private static final Pattern IMAGE_DIRECTORY_PATTERN = 
-		Pattern.compile("[0-9]+");
-	
-	public static final String IMAGE_STORE_FORMAT = "png";
 	public static final String IMAGE_SCALED_EXTENSION = "-s";
-	private static final double IMAGE_SCALED_MAX_DIMENSION = 150.0;
 	
-	/**
-	 * Filters the sub-directories in a directory to only return those that
-	 * match the regular expression matcher for directories.
-	 * 
-	 * @author Joshua Selsky
-	 */
-	private static final class DirectoryFilter implements FilenameFilter {
-		/**
-		 * Returns true iff the filename is appropriate for the regular
-		 * expression. 
-		 */
-		public boolean accept(File f, String name) {
-			return IMAGE_DIRECTORY_PATTERN.matcher(name).matches();
-		}
-	}
-
 	private static final Logger LOGGER = 
 		Logger.getLogger(SurveyUploadQuery.class);
 	
@@ -124,11 +97,31 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		"launch_context = ?, " +
 		"privacy_state_id = (SELECT id FROM survey_response_privacy_state WHERE privacy_state = ?)";
 		
-	private static final String SQL_INSERT_PROMPT_RESPONSE =
+	// Inserts any number of prompt responses. One 
+	// SQL_PROMPT_RESPONSE_VALUES must be appended for each prompt response, 
+	// separated by commas.
+	private static final String SQL_INSERT_PROMPT_RESPONSES =
 		"INSERT into prompt_response " +
         "(survey_response_id, repeatable_set_id, repeatable_set_iteration," +
         "prompt_type, prompt_id, response) " +
-        "VALUES (?,?,?,?,?,?)";
+        "VALUES ";
+	
+	// The values for a single prompt response.
+	private static final String SQL_PROMPT_RESPONSE_VALUES = "(?,?,?,?,?,?)";
+	
+	// The number of parameters in SQL_PROMPT_RESPONSE_VALUES.
+	private static final int NUM_PROMPT_RESPONSE_PARAMETERS = 6;
+	
+	// The maximum number of prompt responses to insert with one statement. 
+	// This keeps each statement well below MySQL's max_allowed_packet.
+	private static final int MAX_PROMPT_RESPONSES_PER_INSERT = 500;
+	
+	// Retrieves the survey response IDs that already exist out of some list
+	// of survey response IDs. The parameter list must be appended.
+	private static final String SQL_GET_EXISTING_SURVEY_RESPONSE_IDS =
+		"SELECT uuid " +
+		"FROM survey_response " +
+		"WHERE uuid IN ";
 	
 	// Inserts an images information into the url_based_resource table.
 	private static final String SQL_INSERT_IMAGE = 
@@ -144,13 +137,38 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			"?" +	// url
 		")";
 	
+	// The maximum number of prompt responses this object inserts with one
+	// statement.
+	private final int maxPromptResponsesPerInsert;
+	
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource The DataSource to use when querying the database.
 	 */
 	private SurveyUploadQuery(DataSource dataSource) {
+		this(dataSource, MAX_PROMPT_RESPONSES_PER_INSERT);
+	}
+	
+	/**
+	 * Creates this object with a different maximum number of prompt 
+	 * responses per statement. With a maximum of one, each prompt response
+	 * is inserted with its own statement, as they used to be, which the 
+	 * survey upload benchmark compares with the default.
+	 * 
+	 * @param dataSource The DataSource to use when querying the database.
+	 * 
+	 * @param maxPromptResponsesPerInsert The maximum number of prompt 
+	 * 									  responses to insert with one 
+	 * 									  statement.
+	 */
+	private SurveyUploadQuery(
+			DataSource dataSource, 
+			int maxPromptResponsesPerInsert) {
+		
 		super(dataSource);
+		
+		this.maxPromptResponsesPerInsert = maxPromptResponsesPerInsert;
 	}
 	
 	/*
@@ -163,7 +181,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			final String client,
 			final String campaignUrn,
 			final List<SurveyResponse> surveyUploadList,
-			final Map<String, BufferedImage> bufferedImageMap,
+			final Map<String, byte[]> imageContentsMap,
 			final Map<String, Video> videoContentsMap)
 			throws DataAccessException {
 		
@@ -190,11 +208,38 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		
 		try { // handle TransactionExceptions
 			
+			// Find the survey responses that have already been uploaded with
+			// one query. The duplicate key check below remains for uploads 
+			// of the same survey response that are racing with this one.
+			Set<String> knownSurveyResponseIds;
+			try {
+				knownSurveyResponseIds = 
+					getExistingSurveyResponseIds(surveyUploadList);
+			}
+			catch(DataAccessException e) {
+				rollback(transactionManager, status);
+				throw e;
+			}
+			
+			// The prompt responses for the current survey response, which
+			// are inserted together once they have all been gathered.
+			List<Object[]> promptResponseParameters = new ArrayList<Object[]>();
+			
 			for(int surveyIndex = 0; surveyIndex < numberOfSurveys; surveyIndex++) { 
 				
+				final SurveyResponse surveyUpload = surveyUploadList.get(surveyIndex);
+				
+				// This also catches a survey response that was given more 
+				// than once in this upload.
+				if(! knownSurveyResponseIds.add(surveyUpload.getSurveyResponseId().toString())) {
+					LOGGER.debug("Found a duplicate survey upload message for user " + username);
+					
+					duplicateIndexList.add(surveyIndex);
+					continue;
+				}
+				 
 				 try { // handle DataAccessExceptions
 					
-					final SurveyResponse surveyUpload = surveyUploadList.get(surveyIndex);
 					currentSurveyResponse = surveyUpload; 
 					currentSql = SQL_INSERT_SURVEY_RESPONSE;
 			
@@ -270,17 +315,25 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					
 					final Number surveyResponseId = idKeyHolder.getKey(); // the primary key on the survey_response table for the 
 					                                                      // just-inserted survey
-					currentSql = SQL_INSERT_PROMPT_RESPONSE;
+					currentSql = SQL_INSERT_PROMPT_RESPONSES;
 					
-					// Now insert each prompt response from the survey
+					// Now gather each prompt response from the survey
 					Collection<Response> promptUploadList = surveyUpload.getResponses().values();
 					
+					promptResponseParameters.clear();
 					createPromptResponse(username, client, surveyResponseId, 
 							regularImageList, scaledImageList, videoList,
-							promptUploadList, null, bufferedImageMap, 
-							videoContentsMap,
+							promptUploadList, null, imageContentsMap, 
+							videoContentsMap, promptResponseParameters,
 							transactionManager, status);
 					
+					// and insert them together.
+					insertRows(
+						SQL_INSERT_PROMPT_RESPONSES, 
+						SQL_PROMPT_RESPONSE_VALUES, 
+						promptResponseParameters, 
+						maxPromptResponsesPerInsert);
+					
 				} catch (DataIntegrityViolationException dive) { // a unique index exists only on the survey_response table
 					
 					if(isDuplicate(dive)) {
@@ -300,19 +353,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 						
 						LOGGER.error("Caught DataAccessException", dive);
 						logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-						if(! regularImageList.isEmpty()) {
-							for(File f : regularImageList) {
-								f.delete();
-							}
-						}
-						if(! scaledImageList.isEmpty()) {
-							for(File f : scaledImageList) {
-								f.delete();
-							}
-						}
-						for(File f : videoList) {
-							f.delete();
-						}
+						deleteFiles(regularImageList, scaledImageList, videoList);
 						rollback(transactionManager, status);
 						throw new DataAccessException(dive);
 					}
@@ -324,19 +365,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					
 					LOGGER.error("caught DataAccessException", dae);
 					logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-					if(! regularImageList.isEmpty()) {
-						for(File f : regularImageList) {
-							f.delete();
-						}
-					}
-					if(! scaledImageList.isEmpty()) {
-						for(File f : scaledImageList) {
-							f.delete();
-						}
-					}
-					for(File f : videoList) {
-						f.delete();
-					}
+					deleteFiles(regularImageList, scaledImageList, videoList);
 					rollback(transactionManager, status);
 					throw new DataAccessException(dae);
 				} 
@@ -346,33 +375,75 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			// Finally, commit the transaction
 			transactionManager.commit(status);
 			LOGGER.info("Completed survey message persistence");
+			
+			// Now that the images are permanent, create their scaled 
+			// versions.
+			ImageScaler imageScaler = ImageScaler.instance();
+			for(int i = 0; i < regularImageList.size(); i++) {
+				File regularImage = regularImageList.get(i);
+				File scaledImage = scaledImageList.get(i);
+				if(imageScaler == null) {
+					try {
+						ImageScaler.scale(regularImage, scaledImage);
+					}
+					catch(IOException e) {
+						LOGGER.error(
+							"Could not scale the image: " + 
+								regularImage.getAbsolutePath(), 
+							e);
+					}
+				}
+				else {
+					imageScaler.submit(regularImage, scaledImage);
+				}
+			}
 		} 
 		
 		catch (TransactionException te) { 
 			
 			LOGGER.error("failed to commit survey upload transaction, attempting to rollback", te);
 			rollback(transactionManager, status);
-			if(! regularImageList.isEmpty()) {
-				for(File f : regularImageList) {
-					f.delete();
-				}
-			}
-			if(! scaledImageList.isEmpty()) {
-				for(File f : scaledImageList) {
-					f.delete();
-				}
-			}
-			for(File f : videoList) {
-				f.delete();
-			}
+			deleteFiles(regularImageList, scaledImageList, videoList);
 			logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
 			throw new DataAccessException(te);
 		}
+		// The transaction has already been rolled back, but any files that 
+		// were stored for it must be removed.
+		catch(DataAccessException e) {
+			deleteFiles(regularImageList, scaledImageList, videoList);
+			throw e;
+		}
 		
 		LOGGER.info("Finished inserting survey responses and any associated images into the database and the filesystem.");
 		return duplicateIndexList;
 	}
 	
+	/**
+	 * Deletes the files that were stored for a transaction that was rolled
+	 * back.
+	 * 
+	 * @param regularImageList The regular images that were stored.
+	 * 
+	 * @param scaledImageList The scaled images that were stored.
+	 * 
+	 * @param videoList The videos that were stored.
+	 */
+	private void deleteFiles(
+			final List<File> regularImageList,
+			final List<File> scaledImageList,
+			final List<File> videoList) {
+		
+		for(File f : regularImageList) {
+			f.delete();
+		}
+		for(File f : scaledImageList) {
+			f.delete();
+		}
+		for(File f : videoList) {
+			f.delete();
+		}
+	}
+	
 	/**
 	 * Attempts to rollback a transaction. 
 	 */
@@ -391,6 +462,53 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		}
 	}
 	
+	/**
+	 * Retrieves the IDs of the survey responses in a list that have already
+	 * been uploaded.
+	 * 
+	 * @param surveyResponses The survey responses to check.
+	 * 
+	 * @return A modifiable set of the survey response IDs that already exist.
+	 * 
+	 * @throws DataAccessException There was an error querying the database.
+	 */
+	private Set<String> getExistingSurveyResponseIds(
+			final List<SurveyResponse> surveyResponses)
+			throws DataAccessException {
+		
+		Set<String> result = new HashSet<String>();
+		if(surveyResponses.isEmpty()) {
+			return result;
+		}
+		
+		List<String> surveyResponseIds = 
+			new ArrayList<String>(surveyResponses.size());
+		for(SurveyResponse surveyResponse : surveyResponses) {
+			surveyResponseIds.add(
+				surveyResponse.getSurveyResponseId().toString());
+		}
+		
+		String sql = 
+			SQL_GET_EXISTING_SURVEY_RESPONSE_IDS + 
+			StringUtils.generateStatementPList(surveyResponseIds.size());
+		
+		try {
+			result.addAll(
+				getJdbcTemplate().query(
+					sql, 
+					surveyResponseIds.toArray(), 
+					new SingleColumnRowMapper<String>()));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "' with parameters: " +
+					surveyResponseIds,
+				e);
+		}
+		
+		return result;
+	}
+	
 	private void logErrorDetails(SurveyResponse surveyResponse, PromptResponse promptResponse, String sql, String username,
 			String campaignUrn) {
 	
@@ -411,8 +529,9 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	}
 	
 	/**
-	 * Creates the prompt response entry in the corresponding table and saves
-	 * any attached files, images, videos, etc..
+	 * Builds the parameters for the prompt response entries in the
+	 * corresponding table and saves any attached files, images, videos, etc..
+	 * The prompt responses themselves are inserted together by the caller.
 	 * 
 	 * @param username The username of the user saving this prompt response.
 	 * 
@@ -442,6 +561,9 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 * 
 	 * @param videoContentsMap The map of video IDs to their contents.
 	 * 
+	 * @param promptResponseParameters The list to which the parameters for
+	 * 								   each prompt response will be added.
+	 * 
 	 * @param transactionManager The manager for this transaction.
 	 * 
 	 * @param status The status of this transaction.
@@ -456,8 +578,9 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			final List<File> videoList,
 			final Collection<Response> promptUploadList,
 			final Integer repeatableSetIteration,
-            final Map<String, BufferedImage> bufferedImageMap,
+            final Map<String, byte[]> imageContentsMap,
             final Map<String, Video> videoContentsMap, 
+            final List<Object[]> promptResponseParameters,
             final DataSourceTransactionManager transactionManager,
             final TransactionStatus status) 
 			throws DataAccessException {
@@ -471,120 +594,88 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					createPromptResponse(username, client, surveyResponseId, 
 							regularImageList, scaledImageList, videoList,
 							iterationToResponse.get(iteration).values(), 
-							iteration, bufferedImageMap, videoContentsMap,
-							transactionManager, status
+							iteration, imageContentsMap, videoContentsMap,
+							promptResponseParameters, transactionManager, status
 						);
 				}
 				continue;
 			}
 			final PromptResponse promptResponse = (PromptResponse) response;
 			
-			getJdbcTemplate().update(
-				new PreparedStatementCreator() {
-					public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-						PreparedStatement ps 
-							= connection.prepareStatement(SQL_INSERT_PROMPT_RESPONSE);
-						ps.setLong(1, surveyResponseId.longValue());
-						
-						RepeatableSet parent = promptResponse.getPrompt().getParent();
-						if(parent == null) {
-							ps.setNull(2, java.sql.Types.NULL);
-							ps.setNull(3, java.sql.Types.NULL);
-						}
-						else {
-							ps.setString(2, parent.getId());
-							ps.setInt(3, repeatableSetIteration);
-						}
-						ps.setString(4, promptResponse.getPrompt().getType().toString());
-						ps.setString(5, promptResponse.getPrompt().getId());
-						
-						Object response = promptResponse.getResponse();
-						if(response instanceof DateTime) {
-							ps.setString(6, TimeUtils.getIso8601DateString((DateTime) response, true));
-						}
-						else if((promptResponse instanceof MultiChoiceCustomPromptResponse) && (response instanceof Collection)) {
-							JSONArray json = new JSONArray();
-							
-							for(Object currResponse : (Collection<?>) response) {
-								json.put(currResponse);
-							}
-							
-							ps.setString(6, json.toString());
-						}
-						else {
-							ps.setString(6, response.toString());
-						}
-						
-						return ps;
-					}
+			Object[] parameters = new Object[NUM_PROMPT_RESPONSE_PARAMETERS];
+			parameters[0] = surveyResponseId.longValue();
+			
+			RepeatableSet parent = promptResponse.getPrompt().getParent();
+			if(parent != null) {
+				parameters[1] = parent.getId();
+				parameters[2] = repeatableSetIteration;
+			}
+			parameters[3] = promptResponse.getPrompt().getType().toString();
+			parameters[4] = promptResponse.getPrompt().getId();
+			
+			Object value = promptResponse.getResponse();
+			if(value instanceof DateTime) {
+				parameters[5] = TimeUtils.getIso8601DateString((DateTime) value, true);
+			}
+			else if((promptResponse instanceof MultiChoiceCustomPromptResponse) && (value instanceof Collection)) {
+				JSONArray json = new JSONArray();
+				
+				for(Object currResponse : (Collection<?>) value) {
+					json.put(currResponse);
 				}
-			);
+				
+				parameters[5] = json.toString();
+			}
+			else {
+				parameters[5] = value.toString();
+			}
+			
+			promptResponseParameters.add(parameters);
 			
 			if(promptResponse instanceof PhotoPromptResponse) {
 				// Grab the associated image and save it
 				String imageId = promptResponse.getResponse().toString();
-				BufferedImage imageContents = bufferedImageMap.get(imageId);
+				byte[] imageContents = imageContentsMap.get(imageId);
 				
 				if(! JsonInputKeys.PROMPT_SKIPPED.equals(imageId) && 
 					! JsonInputKeys.PROMPT_NOT_DISPLAYED.equals(imageId)) {
 					
-					// getDirectory() is used as opposed to accessing the current leaf
-					// directory class variable as it will do sanitation in case it hasn't
-					// been initialized or is full.
-					File imageDirectory = getDirectory();
+					// Get the directory to which both the regular and the 
+					// scaled image will be written.
+					File imageDirectory;
+					try {
+						imageDirectory = 
+							FileStoreAllocator.instance(
+								PreferenceCache.KEY_IMAGE_DIRECTORY).allocate(2);
+					}
+					catch(DomainException e) {
+						rollback(transactionManager, status);
+						throw new DataAccessException("Could not get the image directory.", e);
+					}
 					File regularImage = new File(imageDirectory.getAbsolutePath() + "/" + imageId);
 					regularImageList.add(regularImage);
 					File scaledImage = new File(imageDirectory.getAbsolutePath() + "/" + imageId + IMAGE_SCALED_EXTENSION);
 					scaledImageList.add(scaledImage);
 					
-					// Write the original to the file system.
-					try {
-						ImageIO.write(imageContents, IMAGE_STORE_FORMAT, regularImage);
-					}
-					catch(IOException e) {
-						
-						rollback(transactionManager, status);
-						throw new DataAccessException("Error writing the regular image to the system.", e);
-					}
-					catch(IllegalArgumentException e) {
+					// Write the original to the file system as it was 
+					// uploaded. The scaled image is created once the 
+					// transaction has been committed.
+					if(imageContents == null) {
 						rollback(transactionManager, status);
-						throw new DataAccessException("The image contents are null.", e);
+						throw new DataAccessException("The image contents are null.");
 					}
-					
-					// Write the scaled image to the file system.
 					try {
-						// Get the percentage to scale the image.
-						Double scalePercentage;
-						if(imageContents.getWidth() > imageContents.getHeight()) {
-							scalePercentage = IMAGE_SCALED_MAX_DIMENSION / imageContents.getWidth();
+						FileOutputStream fos = new FileOutputStream(regularImage);
+						try {
+							fos.write(imageContents);
 						}
-						else {
-							scalePercentage = IMAGE_SCALED_MAX_DIMENSION / imageContents.getHeight();
+						finally {
+							fos.close();
 						}
-						
-						// Calculate the scaled image's width and height.
-						int width = (new Double(imageContents.getWidth() * scalePercentage)).intValue();
-						int height = (new Double(imageContents.getHeight() * scalePercentage)).intValue();
-						
-						// Create the new image of the same type as the original and of the
-						// scaled dimensions.
-						BufferedImage scaledContents = new BufferedImage(width, height, imageContents.getType());
-						
-						// Paint the original image onto the scaled canvas.
-						Graphics2D graphics2d = scaledContents.createGraphics();
-						graphics2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-						graphics2d.drawImage(imageContents, 0, 0, width, height, null);
-						
-						// Cleanup.
-						graphics2d.dispose();
-						
-						// Write the scaled image to the filesystem.
-						ImageIO.write(scaledContents, IMAGE_STORE_FORMAT, scaledImage);
 					}
 					catch(IOException e) {
-						regularImage.delete();
 						rollback(transactionManager, status);
-						throw new DataAccessException("Error writing the scaled image to the system.", e);
+						throw new DataAccessException("Error writing the regular image to the system.", e);
 					}
 					
 					// Get the image's URL.
@@ -612,10 +703,6 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 				if(! (responseValue instanceof NoResponse)) {
 					// Attempt to write it to the file system.
 					try {
-						// Get the current video directory.
-						File currVideoDirectory = 
-							VideoDirectoryCache.getDirectory();
-
 						// Get the video ID.
 						String responseValueString = responseValue.toString();
 						
@@ -623,31 +710,61 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 						Video video = 
 							videoContentsMap.get(responseValueString);
 						
-						// Get the file.
-						File videoFile = 
-							new File(
-								currVideoDirectory.getAbsolutePath() +
-								"/" +
-								responseValueString +
-								"." +
-								video.getType());
-						
-						// Get the video contents.
-						InputStream content = video.getContentStream();
-						if(content == null) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-								"The video contents did not exist in the map.");
+						File videoFile;
+						File uploadedFile = video.getFile();
+						// If the video was written to disk as it was 
+						// uploaded, it only needs to be renamed.
+						if(uploadedFile != null) {
+							videoFile = 
+								new File(
+									uploadedFile.getParentFile(),
+									responseValueString +
+									"." +
+									video.getType());
+							
+							if(! uploadedFile.renameTo(videoFile)) {
+								transactionManager.rollback(status);
+								throw new DataAccessException(
+									"Could not move the uploaded video into place: " + 
+										uploadedFile.getAbsolutePath());
+							}
 						}
-						
-						// Write the video contents to disk.
-						FileOutputStream fos = new FileOutputStream(videoFile);
-						
-						// Write the content to the output stream.
-						int bytesRead;
-						byte[] buffer = new byte[4096];
-						while((bytesRead = content.read(buffer)) != -1) {
-							fos.write(buffer, 0, bytesRead);
+						else {
+							// Get the current video directory.
+							File currVideoDirectory = 
+								FileStoreAllocator.instance(
+									PreferenceCache.KEY_VIDEO_DIRECTORY).allocate();
+							
+							// Get the file.
+							videoFile = 
+								new File(
+									currVideoDirectory.getAbsolutePath() +
+									"/" +
+									responseValueString +
+									"." +
+									video.getType());
+							
+							// Get the video contents.
+							InputStream content = video.getContentStream();
+							if(content == null) {
+								transactionManager.rollback(status);
+								throw new DataAccessException(
+									"The video contents did not exist in the map.");
+							}
+							
+							// Write the video contents to disk.
+							FileOutputStream fos = new FileOutputStream(videoFile);
+							try {
+								// Write the content to the output stream.
+								int bytesRead;
+								byte[] buffer = new byte[4096];
+								while((bytesRead = content.read(buffer)) != -1) {
+									fos.write(buffer, 0, bytesRead);
+								}
+							}
+							finally {
+								fos.close();
+							}
 						}
 
 						// Store the file reference in the video list.
@@ -698,326 +815,4 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			}
 		}
 	}
-	
-	/**
-	 * Copied directly from ImageQueries.
-	 * 
-	 * Gets the directory to which a image should be saved. This should be used
-	 * instead of accessing the class-level variable directly as it handles the
-	 * creation of new folders and the checking that the current
-	 * folder is not full.
-	 * 
-	 * @return A File object for where an image should be written.
-	 */
-	private File getDirectory() throws DataAccessException {
-		// Get the maximum number of items in a directory.
-		int numFilesPerDirectory;
-		try {
-			numFilesPerDirectory = 
-				Integer.decode(
-					PreferenceCache.instance().lookup(
-						PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY));
-		}
-		catch(CacheMissException e) {
-			throw new DataAccessException(
-				"Preference cache doesn't know about 'known' key: " + 
-					PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY,
-				e);
-		}
-		catch(NumberFormatException e) {
-			throw new DataAccessException(
-				"Stored value for key '" + 
-					PreferenceCache.KEY_MAXIMUM_NUMBER_OF_FILES_PER_DIRECTORY +
-					"' is not decodable as a number.",
-				e);
-		}
-		
-		// If the leaf directory was never initialized, then we should do
-		// that. Note that the initialization is dumb in that it will get to
-		// the end of the structure and not check to see if the leaf node is
-		// full.
-		if(imageLeafDirectory == null) {
-			init(numFilesPerDirectory);
-		}
-		
-		File[] documents = imageLeafDirectory.listFiles();
-		// If the 'imageLeafDirectory' directory is full, traverse the tree and
-		// find a new directory.
-		if(documents.length >= numFilesPerDirectory) {
-			getNewDirectory(numFilesPerDirectory);
-		}
-		
-		return imageLeafDirectory;
-	}
-	
-	/**
-	 * Initializes the directory structure by drilling down to the leaf
-	 * directory with each step choosing the directory with the largest
-	 * integer value.
-	 */
-	private synchronized void init(int numFilesPerDirectory) throws DataAccessException {
-		try {
-			// If the current leaf directory has been set, we weren't the
-			// first to call init(), so we can just back out.
-			if(imageLeafDirectory != null) {
-				return;
-			}
-			
-			// Get the root directory from the preference cache based on the
-			// key.
-			String rootFile;
-			try {
-				rootFile = PreferenceCache.instance().lookup(PreferenceCache.KEY_IMAGE_DIRECTORY);
-			}
-			catch(CacheMissException e) {
-				throw new DataAccessException("Preference cache doesn't know about 'known' key: " + PreferenceCache.KEY_IMAGE_DIRECTORY, e);
-			}
-			File rootDirectory = new File(rootFile);
-			if(! rootDirectory.exists()) {
-				throw new DataAccessException("The root file doesn't exist suggesting an incomplete installation: " + rootFile);
-			}
-			else if(! rootDirectory.isDirectory()) {
-				throw new DataAccessException("The root file isn't a directory.");
-			}
-			
-			// Get the number of folders deep that documents are stored.
-			int fileDepth;
-			try {
-				fileDepth = Integer.decode(PreferenceCache.instance().lookup(PreferenceCache.KEY_FILE_HIERARCHY_DEPTH));
-			}
-			catch(CacheMissException e) {
-				throw new DataAccessException("Preference cache doesn't know about 'known' key: " + PreferenceCache.KEY_FILE_HIERARCHY_DEPTH, e);
-			}
-			catch(NumberFormatException e) {
-				throw new DataAccessException("Stored value for key '" + PreferenceCache.KEY_FILE_HIERARCHY_DEPTH + "' is not decodable as a number.", e);
-			}
-			
-			DirectoryFilter directoryFilter = new DirectoryFilter();
-			File currDirectory = rootDirectory;
-			for(int currDepth = 0; currDepth < fileDepth; currDepth++) {
-				// Get the list of directories in the current directory.
-				File[] currDirectories = currDirectory.listFiles(directoryFilter);
-				
-				// If there aren't any, create the first subdirectory in this
-				// directory.
-				if(currDirectories.length == 0) {
-					String newFolderName = directoryNameBuilder(0, numFilesPerDirectory);
-					currDirectory = new File(currDirectory.getAbsolutePath() + "/" + newFolderName);
-					currDirectory.mkdir();
-				}
-				// If the directory is overly full, step back up in the
-				// structure. This should never happen, as it indicates that
-				// there is an overflow in the structure.
-				else if(currDirectories.length > numFilesPerDirectory) {
-					LOGGER.warn("Too many subdirectories in: " + currDirectory.getAbsolutePath());
-					
-					// Take a step back in our depth.
-					currDepth--;
-					
-					// If, while backing up the tree, we back out of the root
-					// directory, we have filled up the space.
-					if(currDepth < 0) {
-						LOGGER.error("Image directory structure full!");
-						throw new DataAccessException("Image directory structure full!");
-					}
-
-					// Get the next parent and the current directory to it.
-					int nextDirectoryNumber = Integer.decode(currDirectory.getName()) + 1;
-					currDirectory = new File(currDirectory.getParent() + "/" + nextDirectoryNumber);
-					
-					// If the directory already exists, then there is either a
-					// concurrency issue or someone else is adding files.
-					// Either way, this shouldn't happen.
-					if(currDirectory.exists()) {
-						LOGGER.error("Somehow the 'new' directory already exists. This should be looked into: " + currDirectory.getAbsolutePath());
-					}
-					// Otherwise, create the directory.
-					else {
-						currDirectory.mkdir();
-					}
-				}
-				// Drill down to the directory with the largest, numeric value.
-				else {
-					currDirectory = getLargestSubfolder(currDirectories);
-				}
-			}
-			
-			// After we have found a suitable directory, set it.
-			imageLeafDirectory = currDirectory;
-		}
-		catch(SecurityException e) {
-			throw new DataAccessException("The current process doesn't have sufficient permiossions to create new directories.", e);
-		}
-	}
-	
-	/**
-	 * Checks again that the current leaf directory is full. If it is not, then
-	 * it will just back out under the impression someone else made the change.
-	 * If it is, it will go up and down the directory tree structure to find a
-	 * new leaf node in which to store new files.
-	 * 
-	 * @param numFilesPerDirectory The maximum allowed number of files in a
-	 * 							   leaf directory and the maximum allowed
-	 * 							   number of directories in the branches.
-	 */
-	private synchronized void getNewDirectory(int numFilesPerDirectory) throws DataAccessException {
-		try {
-			// Make sure that this hasn't changed because another thread may
-			// have preempted us and already changed the current leaf
-			// directory.
-			File[] files = imageLeafDirectory.listFiles();
-			if(files.length < numFilesPerDirectory) {
-				return;
-			}
-			
-			// Get the root directory from the preference cache based on the
-			// key.
-			String rootFile;
-			try {
-				rootFile = PreferenceCache.instance().lookup(PreferenceCache.KEY_IMAGE_DIRECTORY);
-			}
-			catch(CacheMissException e) {
-				throw new DataAccessException("Preference cache doesn't know about 'known' key: " + PreferenceCache.KEY_IMAGE_DIRECTORY, e);
-			}
-			File rootDirectory = new File(rootFile);
-			if(! rootDirectory.exists()) {
-				throw new DataAccessException("The root file doesn't exist suggesting an incomplete installation: " + rootFile);
-			}
-			else if(! rootDirectory.isDirectory()) {
-				throw new DataAccessException("The root file isn't a directory.");
-			}
-			String absoluteRootDirectory = rootDirectory.getAbsolutePath();
-			
-			// A filter when listing a set of directories for a file.
-			DirectoryFilter directoryFilter = new DirectoryFilter();
-			
-			// A local File to use while we are searching to not confuse other
-			// threads.
-			File newDirectory = imageLeafDirectory;
-			
-			// A flag to indicate when we are done looking for a directory.
-			boolean lookingForDirectory = true;
-			
-			// The number of times we stepped up in the hierarchy.
-			int depth = 0;
-			
-			// While we are still looking for a suitable directory,
-			while(lookingForDirectory) {
-				// Get the current directory's name which should be a Long
-				// value.
-				long currDirectoryName;
-				try {
-					String dirName = newDirectory.getName();
-					while(dirName.startsWith("0")) {
-						dirName = dirName.substring(1);
-					}
-					if("".equals(dirName)) {
-						currDirectoryName = 0;
-					}
-					else {
-						currDirectoryName = Long.decode(dirName);
-					}
-				}
-				catch(NumberFormatException e) {
-					if(newDirectory.getAbsolutePath().equals(absoluteRootDirectory)) {
-						throw new DataAccessException("Document structure full!", e);
-					}
-					else {
-						throw new DataAccessException("Potential breach of document structure.", e);
-					}
-				}
-				
-				// Move the pointer up a directory.
-				newDirectory = new File(newDirectory.getParent());
-				// Get the list of files in the parent.
-				File[] parentDirectoryFiles = newDirectory.listFiles(directoryFilter);
-				
-				// If this directory has room for a new subdirectory,
-				if(parentDirectoryFiles.length < numFilesPerDirectory) {
-					// Increment the name for the next subfolder.
-					currDirectoryName++;
-					
-					// Create the new subfolder.
-					newDirectory = new File(newDirectory.getAbsolutePath() + "/" + directoryNameBuilder(currDirectoryName, numFilesPerDirectory));
-					newDirectory.mkdir();
-					
-					// Continue drilling down to reach an appropriate leaf
-					// node.
-					while(depth > 0) {
-						newDirectory = new File(newDirectory.getAbsolutePath() + "/" + directoryNameBuilder(0, numFilesPerDirectory));
-						newDirectory.mkdir();
-						
-						depth--;
-					}
-					
-					lookingForDirectory = false;
-				}
-				// If the parent is full as well, increment the depth unless
-				// we are already at the parent. If we are at the parent, then
-				// we cannot go up any further and have exhausted the
-				// directory structure.
-				else
-				{
-					if(newDirectory.getAbsoluteFile().equals(absoluteRootDirectory)) {
-						throw new DataAccessException("Document structure full!");
-					}
-					else {
-						depth++;
-					}
-				}
-			}
-			
-			imageLeafDirectory = newDirectory;
-		}
-		catch(NumberFormatException e) {
-			throw new DataAccessException("Could not decode a directory name as an integer.", e);
-		}
-	}
-	
-	/**
-	 * Builds the name of a folder by prepending zeroes where necessary and
-	 * converting the name into a String.
-	 * 
-	 * @param name The name of the file as an integer.
-	 * 
-	 * @param numFilesPerDirectory The maximum number of files allowed in the
-	 * 							   directory used to determine how many zeroes
-	 * 							   to prepend.
-	 * 
-	 * @return A String representing the directory name based on the
-	 * 		   parameters.
-	 */
-	private String directoryNameBuilder(long name, int numFilesPerDirectory) {
-		int nameLength = String.valueOf(name).length();
-		int maxLength = new Double(Math.log10(numFilesPerDirectory)).intValue();
-		int numberOfZeros = maxLength - nameLength;
-		
-		StringBuilder builder = new StringBuilder();
-		for(int i = 0; i < numberOfZeros; i++) {
-			builder.append("0");
-		}
-		builder.append(String.valueOf(name));
-		
-		return builder.toString();
-	}
-	
-	/**
-	 * Sorts the directories and returns the one whose alphanumeric value is
-	 * the greatest.
-	 * 
-	 * This will work with any naming for directories, so it is the caller's
-	 * responsibility to ensure that the list of directories are what they
-	 * want them to be.
-	 *  
-	 * @param directories The list of directories whose largest alphanumeric
-	 * 					  value is desired.
-	 * 
-	 * @return Returns the File whose path and name has the largest
-	 * 		   alphanumeric value.
-	 */
-	private File getLargestSubfolder(File[] directories) {
-		Arrays.sort(directories);
-		
-		return directories[directories.length - 1];
-	}
 }
\ No newline at end of file
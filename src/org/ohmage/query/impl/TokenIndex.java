@@ -0,0 +1,597 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.DataAccessException;
+
+/**
+ * An in-memory inverted index from the words in some text fields of an
+ * entity, e.g. a campaign's name and XML, to the entity's unique identifier.
+ * <br />
+ * <br />
+ * A word is a run of letters and digits, and words are compared without
+ * regard to case. A search matches an entity when every word in the search
+ * text is contained in some word of the entity's field, so "obs mob"
+ * matches "Mobility Observations" but also "observing mobile users". The
+ * words that contain a search word are found through an index of the short
+ * substrings, the n-grams, of every word rather than by checking each word.
+ * <br />
+ * <br />
+ * The index is read from the database the first time it is searched. The
+ * query that owns it must call {@link #refresh(String)} whenever it has
+ * committed a change to an entity's fields. Because other servers may share
+ * the database, the whole index is also read again by the first search after
+ * its lifetime has passed. That search reads the new index while the other
+ * searches continue to use the old one. If the read fails, the old index
+ * continues to be used until the lifetime passes again.
+ */
+final class TokenIndex {
+	private static final Logger LOGGER = Logger.getLogger(TokenIndex.class);
+	
+	// The length of the longest n-grams in the index. Search words up to
+	// this long are looked up directly; longer ones are looked up by each of
+	// their n-grams of this length.
+	private static final int GRAM_LENGTH = 3;
+	
+	/**
+	 * Reads entities from the database and adds them to the index.
+	 */
+	static interface Source {
+		/**
+		 * Reads entities and adds each one to the index with
+		 * {@link TokenIndex#add(String, String...)}.
+		 * 
+		 * @param index The index to which the entities are added.
+		 * 
+		 * @param id The unique identifier of the only entity to read, or null
+		 * 			 to read all of them. If it no longer exists, nothing is
+		 * 			 added.
+		 * 
+		 * @throws DataAccessException There was an error reading the
+		 * 							   entities.
+		 */
+		void read(TokenIndex index, String id) throws DataAccessException;
+	}
+	
+	/**
+	 * The words of every entity. Once they replace the index's contents,
+	 * they are only read while holding the read lock and only modified while
+	 * holding the write lock.
+	 */
+	private static final class Contents {
+		// For each field, the entities that have each word.
+		private final List<Map<String, Set<String>>> postings;
+		// For each field, the words that contain each n-gram.
+		private final List<Map<String, Set<String>>> grams;
+		// For each field, the entities that have a value.
+		private final List<Set<String>> entities;
+		// For each entity, the words in each of its fields.
+		private final Map<String, String[][]> entityWords =
+			new HashMap<String, String[][]>();
+		
+		/**
+		 * Creates empty contents.
+		 * 
+		 * @param numFields The number of text fields of each entity.
+		 */
+		private Contents(final int numFields) {
+			postings = new ArrayList<Map<String, Set<String>>>(numFields);
+			grams = new ArrayList<Map<String, Set<String>>>(numFields);
+			entities = new ArrayList<Set<String>>(numFields);
+			for(int i = 0; i < numFields; i++) {
+				postings.add(new HashMap<String, Set<String>>());
+				grams.add(new HashMap<String, Set<String>>());
+				entities.add(new HashSet<String>());
+			}
+		}
+		
+		/**
+		 * Returns the entities whose field contains every word.
+		 * 
+		 * @param field The index of the field.
+		 * 
+		 * @param queryWords The words to search for.
+		 * 
+		 * @return The unique identifiers of the matching entities.
+		 */
+		private Set<String> search(
+				final int field, 
+				final Set<String> queryWords) {
+			
+			if(queryWords.isEmpty()) {
+				return new HashSet<String>(entities.get(field));
+			}
+			
+			Map<String, Set<String>> fieldPostings = postings.get(field);
+			Set<String> result = null;
+			for(String queryWord : queryWords) {
+				Set<String> matches = new HashSet<String>();
+				for(String word : getMatchingWords(field, queryWord)) {
+					matches.addAll(fieldPostings.get(word));
+				}
+				
+				if(result == null) {
+					result = matches;
+				}
+				else {
+					result.retainAll(matches);
+				}
+				
+				if(result.isEmpty()) {
+					break;
+				}
+			}
+			return result;
+		}
+		
+		/**
+		 * Adds an entity.
+		 * 
+		 * @param id The entity's unique identifier.
+		 * 
+		 * @param values The value of each field, which may be null.
+		 */
+		private void add(final String id, final String[] values) {
+			remove(id);
+			
+			String[][] words = new String[values.length][];
+			for(int i = 0; i < values.length; i++) {
+				if(values[i] == null) {
+					continue;
+				}
+				
+				Set<String> fieldWords = getWords(values[i]);
+				words[i] = fieldWords.toArray(new String[fieldWords.size()]);
+				
+				Map<String, Set<String>> fieldPostings = postings.get(i);
+				for(String word : words[i]) {
+					Set<String> ids = fieldPostings.get(word);
+					if(ids == null) {
+						ids = new HashSet<String>();
+						fieldPostings.put(word, ids);
+						
+						for(String gram : getGrams(word)) {
+							Set<String> gramWords = grams.get(i).get(gram);
+							if(gramWords == null) {
+								gramWords = new HashSet<String>();
+								grams.get(i).put(gram, gramWords);
+							}
+							gramWords.add(word);
+						}
+					}
+					ids.add(id);
+				}
+				entities.get(i).add(id);
+			}
+			entityWords.put(id, words);
+		}
+		
+		/**
+		 * Removes an entity.
+		 * 
+		 * @param id The entity's unique identifier.
+		 */
+		private void remove(final String id) {
+			String[][] words = entityWords.remove(id);
+			if(words == null) {
+				return;
+			}
+			
+			for(int i = 0; i < words.length; i++) {
+				if(words[i] == null) {
+					continue;
+				}
+				
+				Map<String, Set<String>> fieldPostings = postings.get(i);
+				for(String word : words[i]) {
+					Set<String> ids = fieldPostings.get(word);
+					ids.remove(id);
+					if(ids.isEmpty()) {
+						fieldPostings.remove(word);
+						
+						for(String gram : getGrams(word)) {
+							Set<String> gramWords = grams.get(i).get(gram);
+							gramWords.remove(word);
+							if(gramWords.isEmpty()) {
+								grams.get(i).remove(gram);
+							}
+						}
+					}
+				}
+				entities.get(i).remove(id);
+			}
+		}
+		
+		/**
+		 * Returns the words of a field that contain a search word.
+		 * 
+		 * @param field The index of the field.
+		 * 
+		 * @param queryWord The search word.
+		 * 
+		 * @return The words that contain the search word.
+		 */
+		private Set<String> getMatchingWords(
+				final int field, 
+				final String queryWord) {
+			
+			Map<String, Set<String>> fieldGrams = grams.get(field);
+			
+			// Every word that contains a short search word has it as one of
+			// its n-grams.
+			if(queryWord.length() <= GRAM_LENGTH) {
+				Set<String> result = fieldGrams.get(queryWord);
+				return (result == null) ? Collections.<String>emptySet() : result;
+			}
+			
+			// Otherwise, the words must have all of its n-grams. Start with
+			// the rarest n-gram and check each of its words.
+			Set<String> candidates = null;
+			for(int i = 0; i + GRAM_LENGTH <= queryWord.length(); i++) {
+				Set<String> gramWords = 
+					fieldGrams.get(queryWord.substring(i, i + GRAM_LENGTH));
+				if(gramWords == null) {
+					return Collections.emptySet();
+				}
+				else if((candidates == null) || 
+						(gramWords.size() < candidates.size())) {
+					
+					candidates = gramWords;
+				}
+			}
+			
+			Set<String> result = new HashSet<String>();
+			for(String word : candidates) {
+				if(word.contains(queryWord)) {
+					result.add(word);
+				}
+			}
+			return result;
+		}
+	}
+	
+	private final int numFields;
+	private final long lifetimeMillis;
+	private final Source source;
+	
+	// Guards the contents, the time they were read, and the entities
+	// refreshed during a reload.
+	private final ReentrantReadWriteLock lock =
+		new ReentrantReadWriteLock();
+	
+	// Held by the one thread that is reading the whole index.
+	private final ReentrantLock reloadLock = new ReentrantLock();
+	
+	// The index or null if it hasn't been read or has been discarded.
+	private Contents contents = null;
+	private long loadedMillis = 0;
+	
+	// While the whole index is being read, the entities that have been
+	// refreshed since the read began. Otherwise, null.
+	private Set<String> reloadRefreshes = null;
+	
+	// The contents to which the source is currently adding entities on each
+	// thread.
+	private final ThreadLocal<Contents> target = new ThreadLocal<Contents>();
+	
+	/**
+	 * Creates an empty index.
+	 * 
+	 * @param numFields The number of text fields of each entity.
+	 * 
+	 * @param lifetimeMillis The number of milliseconds after which the whole
+	 * 						 index is read again.
+	 * 
+	 * @param source Reads the entities from the database.
+	 */
+	TokenIndex(
+			final int numFields, 
+			final long lifetimeMillis, 
+			final Source source) {
+		
+		this.numFields = numFields;
+		this.lifetimeMillis = lifetimeMillis;
+		this.source = source;
+	}
+	
+	/**
+	 * Returns the entities whose field contains every word in the text. If
+	 * the text has no words, every entity with a value for the field is
+	 * returned.
+	 * 
+	 * @param field The index of the field.
+	 * 
+	 * @param text The text to search for.
+	 * 
+	 * @return The unique identifiers of the matching entities. The caller
+	 * 		   may modify it.
+	 * 
+	 * @throws DataAccessException The index could not be read from the
+	 * 							   database.
+	 */
+	Set<String> search(
+			final int field,
+			final String text)
+			throws DataAccessException {
+		
+		Contents currContents = load();
+		
+		Set<String> queryWords = getWords(text);
+		
+		lock.readLock().lock();
+		try {
+			return currContents.search(field, queryWords);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Re-reads an entity from the database after it has been created,
+	 * updated, or deleted. If the index has not been read yet, this does
+	 * nothing because the change will be read with everything else. If the
+	 * entity cannot be read, the whole index is discarded and read again by
+	 * the next search, so that the change, which has already been committed,
+	 * is not lost. If the whole index is being read again, the entity is
+	 * also re-read into the new index once that read has finished.
+	 * 
+	 * @param id The entity's unique identifier.
+	 */
+	void refresh(final String id) {
+		lock.writeLock().lock();
+		try {
+			if(reloadRefreshes != null) {
+				reloadRefreshes.add(id);
+			}
+			
+			if(contents == null) {
+				return;
+			}
+			
+			target.set(contents);
+			contents.remove(id);
+			source.read(this, id);
+		}
+		catch(DataAccessException e) {
+			LOGGER.error("Could not refresh the index; discarding it.", e);
+			contents = null;
+		}
+		finally {
+			target.remove();
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds an entity to the index. This may only be called by the
+	 * {@link Source}.
+	 * 
+	 * @param id The entity's unique identifier.
+	 * 
+	 * @param values The value of each field, which may be null.
+	 * 
+	 * @throws IllegalStateException This was not called by the
+	 * 								 {@link Source}.
+	 * 
+	 * @throws IllegalArgumentException The number of values is wrong.
+	 */
+	void add(final String id, final String... values) {
+		Contents currTarget = target.get();
+		if(currTarget == null) {
+			throw new IllegalStateException(
+				"Entities may only be added by the source.");
+		}
+		else if(values.length != numFields) {
+			throw new IllegalArgumentException(
+				"The entity has " + values.length + " fields instead of " +
+					numFields + ".");
+		}
+		
+		currTarget.add(id, values);
+	}
+	
+	/**
+	 * Reads the whole index from the database if it hasn't been yet or if
+	 * its lifetime has passed.<br />
+	 * <br />
+	 * Only one thread reads the index, and it does so without holding the
+	 * lock. Meanwhile, the other threads continue to search and refresh the
+	 * old index, if there is one, or wait for the read to finish, if there
+	 * isn't. The entities that are refreshed during the read are re-read
+	 * into the new index before it replaces the old one.
+	 * 
+	 * @return The index.
+	 * 
+	 * @throws DataAccessException The index has never been read and could
+	 * 							   not be read now.
+	 */
+	private Contents load() throws DataAccessException {
+		lock.readLock().lock();
+		try {
+			if((contents != null) && (! isExpired())) {
+				return contents;
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		
+		// If another thread is already reading the index, use the old one
+		// or, if there isn't one, wait for it.
+		if(! reloadLock.tryLock()) {
+			lock.readLock().lock();
+			try {
+				if(contents != null) {
+					return contents;
+				}
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+			
+			reloadLock.lock();
+		}
+		
+		try {
+			lock.writeLock().lock();
+			try {
+				// Another thread may have read it while this one waited.
+				if((contents != null) && (! isExpired())) {
+					return contents;
+				}
+				
+				reloadRefreshes = new HashSet<String>();
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			
+			// No other thread can see the new contents yet, so they are
+			// built without the lock.
+			Contents newContents = new Contents(numFields);
+			DataAccessException error = null;
+			target.set(newContents);
+			try {
+				source.read(this, null);
+			}
+			catch(DataAccessException e) {
+				error = e;
+			}
+			finally {
+				target.remove();
+			}
+			
+			lock.writeLock().lock();
+			try {
+				Set<String> refreshedIds = reloadRefreshes;
+				reloadRefreshes = null;
+				
+				if(error == null) {
+					// Catch up with the changes that were committed while the
+					// index was being read.
+					target.set(newContents);
+					try {
+						for(String id : refreshedIds) {
+							newContents.remove(id);
+							source.read(this, id);
+						}
+						contents = newContents;
+					}
+					catch(DataAccessException e) {
+						error = e;
+					}
+					finally {
+						target.remove();
+					}
+				}
+				loadedMillis = System.currentTimeMillis();
+				
+				if(error != null) {
+					if(contents == null) {
+						throw error;
+					}
+					
+					LOGGER.error(
+						"Could not read the index again; using the old one.", 
+						error);
+				}
+				
+				return contents;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+		finally {
+			reloadLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns whether the lifetime of the index has passed. The lock must be
+	 * held.
+	 * 
+	 * @return Whether the index should be read again.
+	 */
+	private boolean isExpired() {
+		return (System.currentTimeMillis() - loadedMillis) >= lifetimeMillis;
+	}
+	
+	/**
+	 * Returns the distinct n-grams of a word, from single characters up to
+	 * {@value #GRAM_LENGTH} characters.
+	 * 
+	 * @param word The word.
+	 * 
+	 * @return The n-grams.
+	 */
+	private static Set<String> getGrams(final String word) {
+		Set<String> result = new HashSet<String>();
+		
+		int length = word.length();
+		for(int gramLength = 1; gramLength <= GRAM_LENGTH; gramLength++) {
+			for(int i = 0; i + gramLength <= length; i++) {
+				result.add(word.substring(i, i + gramLength));
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Splits text into its distinct, lower-case words.
+	 * 
+	 * @param text The text.
+	 * 
+	 * @return The words.
+	 */
+	private static Set<String> getWords(final String text) {
+		Set<String> result = new HashSet<String>();
+		
+		String lowerCaseText = text.toLowerCase();
+		int length = lowerCaseText.length();
+		int start = -1;
+		for(int i = 0; i <= length; i++) {
+			if((i < length) &&
+				Character.isLetterOrDigit(lowerCaseText.charAt(i))) {
+				
+				if(start == -1) {
+					start = i;
+				}
+			}
+			else if(start != -1) {
+				// Copy the word so that it doesn't keep the whole text,
+				// e.g. a campaign's XML, in memory.
+				result.add(new String(lowerCaseText.substring(start, i)));
+				start = -1;
+			}
+		}
+		
+		return result;
+	}
+}
@@ -17,12 +17,14 @@ package org.ohmage.query.impl;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.sql.DataSource;
 
@@ -30,6 +32,7 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Campaign.Role;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.IUserCampaignQueries;
+import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
@@ -71,6 +74,17 @@ public final class UserCampaignQueries extends Query implements IUserCampaignQue
 		"AND c.id = urc.campaign_id " +
 		"AND urc.user_role_id = ur.id";
 	
+	// Retrieves the roles for a user in each of a set of campaigns. The list
+	// of campaign IDs must be appended.
+	private static final String SQL_GET_USER_CAMPAIGN_ROLES_FOR_CAMPAIGNS =
+		"SELECT c.urn, ur.role " +
+		"FROM user u, campaign c, user_role ur, user_role_campaign urc " +
+		"WHERE u.username = ? " +
+		"AND u.id = urc.user_id " +
+		"AND c.id = urc.campaign_id " +
+		"AND urc.user_role_id = ur.id " +
+		"AND c.urn IN ";
+	
 	// Retrieves all of the campaigns and respective roles for a user. Each row
 	// is a unique campaign-role combination.
 	private static final String SQL_GET_CAMPAIGNS_AND_ROLES_FOR_USER =
@@ -90,6 +104,16 @@ public final class UserCampaignQueries extends Query implements IUserCampaignQue
 			"AND c.id = urc.campaign_id " +
 			"AND u.id = urc.user_id " +
 			"AND ur.id = urc.user_role_id";
+	
+	// Retrieves the users and their roles in each of a set of campaigns. The
+	// list of campaign IDs must be appended.
+	private static final String SQL_GET_USERS_AND_CAMPAIGN_ROLES_FOR_CAMPAIGNS = 
+			"SELECT c.urn, u.username, ur.role " +
+			"FROM user u, campaign c, user_role ur, user_role_campaign urc " +
+			"WHERE c.id = urc.campaign_id " +
+			"AND u.id = urc.user_id " +
+			"AND ur.id = urc.user_role_id " +
+			"AND c.urn IN ";
 
 	// Retrieves the ID and name for all of the campaign to which the user is
 	// associated.
@@ -185,6 +209,70 @@ public final class UserCampaignQueries extends Query implements IUserCampaignQue
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserCampaignQueries#getUserCampaignRoles(java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public Map<String, List<Campaign.Role>> getUserCampaignRoles(
+			final String username, 
+			final Collection<String> campaignIds)
+			throws DataAccessException {
+		
+		// The campaign IDs are compared without regard to case, as they are
+		// by the database.
+		final Map<String, List<Campaign.Role>> result =
+				new TreeMap<String, List<Campaign.Role>>(
+						String.CASE_INSENSITIVE_ORDER);
+		for(String campaignId : campaignIds) {
+			result.put(campaignId, new ArrayList<Campaign.Role>());
+		}
+		
+		if(campaignIds.size() == 0) {
+			return result;
+		}
+		
+		String sql = 
+				SQL_GET_USER_CAMPAIGN_ROLES_FOR_CAMPAIGNS + 
+				StringUtils.generateStatementPList(campaignIds.size());
+		
+		List<Object> parameters = 
+				new ArrayList<Object>(campaignIds.size() + 1);
+		parameters.add(username);
+		parameters.addAll(campaignIds);
+		
+		try {
+			getJdbcTemplate().query(
+					sql,
+					parameters.toArray(),
+					new RowMapper<Object>() {
+						/**
+						 * Adds the user's role to the campaign's list.
+						 */
+						@Override
+						public Object mapRow(ResultSet rs, int rowNum)
+								throws SQLException {
+							
+							result.get(rs.getString("urn")).add(
+									Campaign.Role.getValue(
+											rs.getString("role")));
+							
+							return null;
+						}
+					});
+			
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+							sql + 
+						"' with parameters: " + 
+							parameters.toString(),
+					e);
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.IUserCampaignQueries#getUserCampaignRoles(java.lang.String)
@@ -299,6 +387,77 @@ public final class UserCampaignQueries extends Query implements IUserCampaignQue
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserCampaignQueries#getUsersAndRolesForCampaigns(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Map<String, Collection<Role>>> getUsersAndRolesForCampaigns(
+			final Collection<String> campaignIds)
+			throws DataAccessException {
+		
+		// The campaign IDs are compared without regard to case, as they are
+		// by the database.
+		final Map<String, Map<String, Collection<Campaign.Role>>> result =
+				new TreeMap<String, Map<String, Collection<Campaign.Role>>>(
+						String.CASE_INSENSITIVE_ORDER);
+		for(String campaignId : campaignIds) {
+			result.put(
+					campaignId, 
+					new HashMap<String, Collection<Campaign.Role>>());
+		}
+		
+		if(campaignIds.size() == 0) {
+			return result;
+		}
+		
+		String sql = 
+				SQL_GET_USERS_AND_CAMPAIGN_ROLES_FOR_CAMPAIGNS + 
+				StringUtils.generateStatementPList(campaignIds.size());
+		
+		try {
+			getJdbcTemplate().query(
+					sql,
+					campaignIds.toArray(),
+					new RowMapper<Object>() {
+						/**
+						 * Adds the user's role to the campaign's map.
+						 */
+						@Override
+						public Object mapRow(ResultSet rs, int rowNum)
+								throws SQLException {
+							
+							Map<String, Collection<Campaign.Role>> users =
+									result.get(rs.getString("urn"));
+							
+							String username = rs.getString("username");
+							Collection<Campaign.Role> roles = users.get(username);
+							
+							if(roles == null) {
+								roles = new HashSet<Campaign.Role>();
+								users.put(username, roles);
+							}
+							
+							roles.add(
+									Campaign.Role.getValue(
+											rs.getString("role")));
+							
+							return null;
+						}
+					});
+			
+			return result;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+							sql + 
+						"' with parameters: " + 
+							campaignIds.toString(), 
+					e);
+		}
+	}
+	
 	/**
 	 * Retrieves all of the campaign IDs and their respective names to which a
 	 * user is associated.
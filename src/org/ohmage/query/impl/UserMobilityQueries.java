@@ -15,24 +15,34 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.domain.Location;
@@ -42,10 +52,13 @@ import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.ClassifierData;
 import org.ohmage.domain.MobilityPoint.ClassifierData.ClassifierDataColumnKey;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.MobilityColumnKey;
 import org.ohmage.domain.MobilityPoint.Mode;
 import org.ohmage.domain.MobilityPoint.PrivacyState;
 import org.ohmage.domain.MobilityPoint.SensorData.SensorDataColumnKey;
 import org.ohmage.domain.MobilityPoint.SubType;
+import org.ohmage.domain.MobilityRollup;
+import org.ohmage.domain.Observer.Stream;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.IUserMobilityQueries;
@@ -173,6 +186,88 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 			"?" +		// classifier_version
 		")";
 	
+	// Retrieves a user's database ID and locks the user until the end of the
+	// transaction.
+	private static final String SQL_GET_USER_ID_FOR_UPDATE =
+		"SELECT id FROM user WHERE username = ? FOR UPDATE";
+	
+	// Retrieves the parts of a user's Mobility points in the legacy table
+	// that are rolled up, within a range.
+	private static final String SQL_GET_LEGACY_ROLLUP_POINTS =
+		"SELECT epoch_millis, phone_timezone, mode, " +
+			"location_status, location " +
+		"FROM mobility " +
+		"WHERE user_id = ? " +
+		"AND epoch_millis >= ? " +
+		"AND epoch_millis < ?";
+	
+	// Retrieves the parts of a user's Mobility points in an observer's 
+	// streams that are rolled up, within a range. The mode is part of the
+	// data. The range is also applied to the adjusted time, which is within
+	// a day of the time, so that the index on it can be used. One
+	// SQL_STREAM_VERSION must be appended for each stream, separated by
+	// " OR ", followed by ")".
+	private static final String SQL_GET_STREAM_ROLLUP_POINTS =
+		"SELECT os.stream_id, os.version, " +
+			"osd.time, osd.time_zone, " +
+			"osd.location_timestamp, osd.location_latitude, " +
+			"osd.location_longitude, osd.location_accuracy, " +
+			"osd.location_provider, osd.data " +
+		"FROM " +
+			"observer o, " +
+			"observer_stream os, " +
+			"observer_stream_link osl, " +
+			"observer_stream_data osd " +
+		"WHERE o.observer_id = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND os.id = osl.observer_stream_id " +
+		"AND osl.id = osd.observer_stream_link_id " +
+		"AND osd.user_id = ? " +
+		"AND osd.time_adjusted >= ? " +
+		"AND osd.time_adjusted < ? " +
+		"AND osd.time >= ? " +
+		"AND osd.time < ? " +
+		"AND (";
+	
+	// Limits the stream data to one version of a stream.
+	private static final String SQL_STREAM_VERSION =
+		"(os.stream_id = ? AND os.version = ?)";
+	
+	// The number of parameters in SQL_GET_STREAM_ROLLUP_POINTS.
+	private static final int NUM_STREAM_ROLLUP_POINTS_PARAMETERS = 6;
+	
+	// Retrieves a user's rollups whose minutes begin within a range in the
+	// order of their first points.
+	private static final String SQL_GET_ROLLUPS =
+		"SELECT mr.epoch_millis, mr.phone_timezone, mr.mode, " +
+			"mr.point_count, mr.duration, " +
+			"mr.first_epoch_millis, mr.first_duration, " +
+			"mr.first_location_status, mr.first_location, " +
+			"mr.last_epoch_millis " +
+		"FROM user u, mobility_rollup mr " +
+		"WHERE u.username = ? " +
+		"AND u.id = mr.user_id " +
+		"AND mr.epoch_millis >= ? " +
+		"AND mr.epoch_millis <= ? " +
+		"ORDER BY mr.first_epoch_millis";
+	
+	// Deletes a user's rollups whose minutes begin within a range.
+	private static final String SQL_DELETE_ROLLUPS =
+		"DELETE FROM mobility_rollup " +
+		"WHERE user_id = ? " +
+		"AND epoch_millis >= ? " +
+		"AND epoch_millis < ?";
+	
+	// Inserts a rollup.
+	private static final String SQL_INSERT_ROLLUP =
+		"INSERT INTO mobility_rollup(" +
+			"user_id, epoch_millis, phone_timezone, mode, " +
+			"point_count, duration, " +
+			"first_epoch_millis, first_duration, " +
+			"first_location_status, first_location, " +
+			"last_epoch_millis) " +
+		"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
 	/**
 	 * Creates this object.
 	 * 
@@ -841,4 +936,551 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 				e);
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#getRollups(java.lang.String, long, long)
+	 */
+	@Override
+	public List<MobilityRollup> getRollups(
+			final String username,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException {
+		
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_ROLLUPS,
+				new Object[] { username, startTime, endTime },
+				new RowMapper<MobilityRollup>() {
+					@Override
+					public MobilityRollup mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+						
+						try {
+							DateTimeZone timezone =
+								DateTimeZone.forID(
+									rs.getString("phone_timezone"));
+							
+							Location location = null;
+							String locationString =
+								rs.getString("first_location");
+							if(locationString != null) {
+								location =
+									new Location(
+										new JSONObject(locationString),
+										timezone);
+							}
+							
+							return new MobilityRollup(
+								rs.getLong("epoch_millis"),
+								timezone,
+								Mode.valueOf(
+									rs.getString("mode").toUpperCase()),
+								rs.getLong("point_count"),
+								rs.getLong("duration"),
+								rs.getLong("first_epoch_millis"),
+								rs.getLong("first_duration"),
+								LocationStatus.valueOf(
+									rs.getString("first_location_status")
+										.toUpperCase()),
+								location,
+								rs.getLong("last_epoch_millis"));
+						}
+						catch(JSONException e) {
+							throw new SQLException(
+								"Error building a JSONObject.",
+								e);
+						}
+						catch(DomainException e) {
+							throw new SQLException(
+								"Error building the MobilityRollup object. This suggests malformed data in the database.",
+								e);
+						}
+						catch(IllegalArgumentException e) {
+							throw new SQLException(
+								"Error building the MobilityRollup object. This suggests malformed data in the database.",
+								e);
+						}
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_ROLLUPS +
+					"' with parameters: " +
+					username + ", " +
+					startTime + ", " +
+					endTime,
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#rebuildRollups(java.lang.String, java.lang.String, java.util.Collection, long, long)
+	 */
+	@Override
+	public void rebuildRollups(
+			final String username,
+			final String observerId,
+			final Collection<Stream> streams,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException {
+		
+		// The durations of the first points depend on the points before
+		// them.
+		long readStart = startTime - MobilityRollup.MAX_MILLIS_BETWEEN_POINTS;
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Rebuilding Mobility rollups.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = 
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			// Lock the user so that the rebuilds for a user happen one at a
+			// time. The points are read after the lock is granted, so they
+			// include every point that was committed before this rebuild
+			// began, and a rebuild that read fewer points can't overwrite
+			// this one.
+			long userId;
+			try {
+				userId =
+					getJdbcTemplate().queryForLong(
+						SQL_GET_USER_ID_FOR_UPDATE,
+						new Object[] { username });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_USER_ID_FOR_UPDATE +
+						"' with parameter: " +
+						username,
+					e);
+			}
+			
+			List<MobilityRollup> rollups;
+			try {
+				List<MobilityRollup.Point> points = 
+					new ArrayList<MobilityRollup.Point>();
+				points.addAll(getLegacyRollupPoints(userId, readStart, endTime));
+				points.addAll(
+					getStreamRollupPoints(
+						userId, 
+						observerId, 
+						streams, 
+						readStart, 
+						endTime));
+				Collections.sort(points);
+				
+				rollups = MobilityRollup.rollUp(points, startTime);
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+			catch(DomainException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(e);
+			}
+			
+			try {
+				getJdbcTemplate().update(
+					SQL_DELETE_ROLLUPS,
+					new Object[] { userId, startTime, endTime });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_DELETE_ROLLUPS +
+						"' with parameters: " +
+						userId + ", " +
+						startTime + ", " +
+						endTime,
+					e);
+			}
+			
+			if(! rollups.isEmpty()) {
+				List<Object[]> args =
+					new ArrayList<Object[]>(rollups.size());
+				for(MobilityRollup rollup : rollups) {
+					Location location = rollup.getFirstLocation();
+					String locationString = null;
+					if(location != null) {
+						try {
+							locationString =
+								location
+									.toJson(
+										false,
+										LocationColumnKey.ALL_COLUMNS)
+									.toString();
+						}
+						catch(JSONException e) {
+							transactionManager.rollback(status);
+							throw new DataAccessException(e);
+						}
+						catch(DomainException e) {
+							transactionManager.rollback(status);
+							throw new DataAccessException(e);
+						}
+					}
+					
+					args.add(
+						new Object[] {
+							userId,
+							rollup.getTime(),
+							rollup.getTimezone().getID(),
+							rollup.getMode().toString().toLowerCase(),
+							rollup.getCount(),
+							rollup.getDuration(),
+							rollup.getFirstTime(),
+							rollup.getFirstDuration(),
+							rollup
+								.getFirstLocationStatus()
+								.toString()
+								.toLowerCase(),
+							locationString,
+							rollup.getLastTime() });
+				}
+				
+				try {
+					getJdbcTemplate().batchUpdate(SQL_INSERT_ROLLUP, args);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" + SQL_INSERT_ROLLUP + "'.",
+						e);
+				}
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.", 
+					e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.", 
+				e);
+		}
+	}
+	
+	/**
+	 * Reads the parts of a user's Mobility points in the legacy table that
+	 * are rolled up.
+	 * 
+	 * @param userId The user's database ID.
+	 * 
+	 * @param startTime The start of the range, inclusive, in milliseconds
+	 * 					since the epoch.
+	 * 
+	 * @param endTime The end of the range, exclusive, in milliseconds since
+	 * 				  the epoch.
+	 * 
+	 * @return The points in no particular order.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private List<MobilityRollup.Point> getLegacyRollupPoints(
+			final long userId,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException {
+		
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_LEGACY_ROLLUP_POINTS,
+				new Object[] { userId, startTime, endTime },
+				new RowMapper<MobilityRollup.Point>() {
+					@Override
+					public MobilityRollup.Point mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+						
+						try {
+							DateTimeZone timezone =
+								DateTimeZone.forID(
+									rs.getString("phone_timezone"));
+							
+							Location location = null;
+							String locationString = rs.getString("location");
+							if(locationString != null) {
+								location =
+									new Location(
+										new JSONObject(locationString),
+										timezone);
+							}
+							
+							return new MobilityRollup.Point(
+								rs.getLong("epoch_millis"),
+								timezone,
+								Mode.valueOf(
+									rs.getString("mode").toUpperCase()),
+								LocationStatus.valueOf(
+									rs.getString("location_status")
+										.toUpperCase()),
+								location);
+						}
+						catch(JSONException e) {
+							throw new SQLException(
+								"Error building a JSONObject.",
+								e);
+						}
+						catch(DomainException e) {
+							throw new SQLException(
+								"Error building the point. This suggests malformed data in the database.",
+								e);
+						}
+						catch(IllegalArgumentException e) {
+							throw new SQLException(
+								"Error building the point. This suggests malformed data in the database.",
+								e);
+						}
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_LEGACY_ROLLUP_POINTS +
+					"' with parameters: " +
+					userId + ", " +
+					startTime + ", " +
+					endTime,
+				e);
+		}
+	}
+	
+	/**
+	 * Reads the parts of a user's Mobility points in an observer's streams
+	 * that are rolled up. Only the mode is decoded from each point's data,
+	 * and the rest of the data, e.g. the sensor data, is skipped.
+	 * 
+	 * @param userId The user's database ID.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streams The streams, each of whose data has a "mode" string.
+	 * 
+	 * @param startTime The start of the range, inclusive, in milliseconds
+	 * 					since the epoch.
+	 * 
+	 * @param endTime The end of the range, exclusive, in milliseconds since
+	 * 				  the epoch.
+	 * 
+	 * @return The points in no particular order.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private List<MobilityRollup.Point> getStreamRollupPoints(
+			final long userId,
+			final String observerId,
+			final Collection<Stream> streams,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException {
+		
+		if(streams.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		final Map<String, GenericDatumReader<GenericRecord>> modeReaders =
+			new HashMap<String, GenericDatumReader<GenericRecord>>();
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add(observerId);
+		parameters.add(userId);
+		parameters.add(startTime - MILLIS_PER_DAY);
+		parameters.add(endTime + MILLIS_PER_DAY);
+		parameters.add(startTime);
+		parameters.add(endTime);
+		StringBuilder builder = 
+			new StringBuilder(SQL_GET_STREAM_ROLLUP_POINTS);
+		for(Stream stream : streams) {
+			modeReaders.put(
+				getStreamKey(stream.getId(), stream.getVersion()),
+				getModeReader(stream));
+			
+			if(parameters.size() > NUM_STREAM_ROLLUP_POINTS_PARAMETERS) {
+				builder.append(" OR ");
+			}
+			builder.append(SQL_STREAM_VERSION);
+			parameters.add(stream.getId());
+			parameters.add(stream.getVersion());
+		}
+		builder.append(')');
+		
+		String sql = builder.toString();
+		try {
+			return getJdbcTemplate().query(
+					sql,
+					parameters.toArray(),
+					new RowMapper<MobilityRollup.Point>() {
+						@Override
+						public MobilityRollup.Point mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+							
+							GenericDatumReader<GenericRecord> modeReader =
+								modeReaders.get(
+									getStreamKey(
+										rs.getString("os.stream_id"),
+										rs.getLong("os.version")));
+							if(modeReader == null) {
+								throw new SQLException(
+									"The point is from an unknown stream.");
+							}
+							
+							try {
+								Location location = null;
+								String locationTimestamp = 
+									rs.getString("osd.location_timestamp");
+								if(locationTimestamp != null) {
+									location =
+										new Location(
+											ISODateTimeFormat
+												.dateTime()
+												.parseDateTime(
+													locationTimestamp),
+											rs.getDouble("osd.location_latitude"),
+											rs.getDouble("osd.location_longitude"),
+											rs.getDouble("osd.location_accuracy"),
+											rs.getString("osd.location_provider"));
+								}
+								
+								GenericRecord data =
+									modeReader.read(
+										null,
+										DecoderFactory
+											.get()
+											.binaryDecoder(
+												rs.getBytes("osd.data"), 
+												null));
+								Object mode = 
+									data.get(
+										MobilityColumnKey.MODE.toString(false));
+								if(mode == null) {
+									throw new SQLException(
+										"The point has no mode.");
+								}
+								
+								return new MobilityRollup.Point(
+									rs.getLong("osd.time"),
+									DateTimeZone.forID(
+										rs.getString("osd.time_zone")),
+									Mode.valueOf(
+										mode.toString().toUpperCase()),
+									(location == null) ?
+										LocationStatus.UNAVAILABLE :
+										LocationStatus.VALID,
+									location);
+							}
+							catch(IOException e) {
+								throw new SQLException(
+									"The data could not be decoded.",
+									e);
+							}
+							catch(AvroRuntimeException e) {
+								throw new SQLException(
+									"The data could not be decoded.",
+									e);
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"Error building the point. This suggests malformed data in the database.",
+									e);
+							}
+							catch(IllegalArgumentException e) {
+								throw new SQLException(
+									"Error building the point. This suggests malformed data in the database.",
+									e);
+							}
+						}
+					}
+				);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					sql +
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+	}
+	
+	/**
+	 * Creates a reader for a stream's data that only decodes the mode. The
+	 * rest of the data is skipped.
+	 * 
+	 * @param stream The stream.
+	 * 
+	 * @return The reader, whose records only contain the mode.
+	 * 
+	 * @throws DataAccessException The stream's data has no mode.
+	 */
+	private static GenericDatumReader<GenericRecord> getModeReader(
+			final Stream stream)
+			throws DataAccessException {
+		
+		String modeKey = MobilityColumnKey.MODE.toString(false);
+		
+		Schema schema = stream.getSchema();
+		Schema.Field modeField = null;
+		if(Schema.Type.RECORD.equals(schema.getType())) {
+			modeField = schema.getField(modeKey);
+		}
+		if(modeField == null) {
+			throw new DataAccessException(
+				"The stream's data has no mode: " + stream.getId());
+		}
+		
+		Schema modeSchema =
+			Schema.createRecord(
+				schema.getName(), 
+				schema.getDoc(), 
+				schema.getNamespace(), 
+				false);
+		modeSchema.setFields(
+			Collections.singletonList(
+				new Schema.Field(modeKey, modeField.schema(), null, null)));
+		
+		return new GenericDatumReader<GenericRecord>(schema, modeSchema);
+	}
+	
+	/**
+	 * Returns the key for a version of a stream.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param version The stream's version.
+	 * 
+	 * @return The key.
+	 */
+	private static String getStreamKey(
+			final String streamId, 
+			final long version) {
+		
+		return streamId + '\n' + version;
+	}
 }
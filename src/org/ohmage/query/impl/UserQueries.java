@@ -15,9 +15,12 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
@@ -36,7 +39,9 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.query.IUserQueries;
 import org.ohmage.query.impl.QueryResultsList.QueryResultListBuilder;
 import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -54,6 +59,21 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author John Jenkins
  */
 public class UserQueries extends Query implements IUserQueries {
+	// The fields of a user in the search index.
+	private static final int INDEX_FIELD_USERNAME = 0;
+	private static final int INDEX_FIELD_EMAIL_ADDRESS = 1;
+	private static final int INDEX_FIELD_FIRST_NAME = 2;
+	private static final int INDEX_FIELD_LAST_NAME = 3;
+	private static final int INDEX_FIELD_ORGANIZATION = 4;
+	private static final int INDEX_FIELD_PERSONAL_ID = 5;
+	private static final int NUM_INDEX_FIELDS = 6;
+	
+	// How often the search index is read again to see the changes made by
+	// other servers.
+	private static final long INDEX_LIFETIME_MILLIS = 1000 * 60 * 10;
+	
+	private final TokenIndex index;
+	
 	// Returns a boolean representing whether or not a user exists
 	private static final String SQL_EXISTS_USER = 
 		"SELECT EXISTS(" +
@@ -118,10 +138,17 @@ public class UserQueries extends Query implements IUserQueries {
 		"SELECT username " +
 		"FROM user";
 	
-	private static final String SQL_GET_USERNAMES_LIKE_USERNAME =
-		"SELECT username " +
-		"FROM user " +
-		"WHERE username LIKE ?";
+	// Returns the text of every user for the search index.
+	private static final String SQL_GET_ALL_INDEX_TEXT =
+		"SELECT u.username, u.email_address, " +
+			"up.first_name, up.last_name, up.organization, up.personal_id " +
+		"FROM user u " +
+			"LEFT JOIN user_personal up ON u.id = up.user_id";
+	
+	// Returns the text of a user for the search index.
+	private static final String SQL_GET_INDEX_TEXT =
+		SQL_GET_ALL_INDEX_TEXT + " " +
+		"WHERE u.username = ?";
 	
 	private static final String SQL_GET_USERNAMES_WITH_ADMIN_VALUE =
 		"SELECT username " +
@@ -143,35 +170,6 @@ public class UserQueries extends Query implements IUserQueries {
 		"FROM user " +
 		"WHERE campaign_creation_privilege = ?";
 	
-	private static final String SQL_GET_USERNAMES_LIKE_FIRST_NAME =
-		"SELECT username " +
-		"FROM user, user_personal " +
-		"WHERE user.id = user_id " +
-		"AND first_name LIKE ?";
-	
-	private static final String SQL_GET_USERNAMES_LIKE_LAST_NAME =
-		"SELECT username " +
-		"FROM user, user_personal " +
-		"WHERE user.id = user_id " +
-		"AND last_name LIKE ?";
-	
-	private static final String SQL_GET_USERNAMES_LIKE_ORGANIZATION =
-		"SELECT username " +
-		"FROM user, user_personal " +
-		"WHERE user.id = user_id " +
-		"AND organization LIKE ?";
-	
-	private static final String SQL_GET_USERNAMES_LIKE_PERSONAL_ID =
-		"SELECT username " +
-		"FROM user, user_personal " +
-		"WHERE user.id = user_id " +
-		"AND personal_id LIKE ?";
-	
-	private static final String SQL_GET_USERNAMES_LIKE_EMAIL_ADDRESS =
-		"SELECT username " +
-		"FROM user " +
-		"WHERE email_address LIKE ?";
-	
 	// Retrieves the personal information about a user.
 	private static final String SQL_GET_USER_PERSONAL =
 		"SELECT up.first_name, up.last_name, up.organization, up.personal_id " +
@@ -343,6 +341,94 @@ public class UserQueries extends Query implements IUserQueries {
 	 */
 	private UserQueries(final DataSource dataSource) {
 		super(dataSource);
+		
+		index =
+			new TokenIndex(
+				NUM_INDEX_FIELDS, 
+				INDEX_LIFETIME_MILLIS, 
+				new IndexSource());
+	}
+	
+	/**
+	 * Reads the text of the users for the search index. The rows are 
+	 * streamed from the database instead of being read all at once.
+	 */
+	private final class IndexSource implements TokenIndex.Source {
+		/**
+		 * Reads one or all of the users.
+		 */
+		@Override
+		public void read(
+				final TokenIndex tokenIndex, 
+				final String username) 
+				throws DataAccessException {
+			
+			final String sql;
+			final Object[] parameters;
+			if(username == null) {
+				sql = SQL_GET_ALL_INDEX_TEXT;
+				parameters = new Object[0];
+			}
+			else {
+				sql = SQL_GET_INDEX_TEXT;
+				parameters = new Object[] { username };
+			}
+			
+			try {
+				getJdbcTemplate().query(
+						new PreparedStatementCreator() {
+							/**
+							 * Streams the rows instead of reading them all
+							 * at once.
+							 */
+							@Override
+							public PreparedStatement createPreparedStatement(
+									final Connection connection)
+									throws SQLException {
+								
+								PreparedStatement statement = 
+									connection.prepareStatement(
+										sql,
+										ResultSet.TYPE_FORWARD_ONLY,
+										ResultSet.CONCUR_READ_ONLY);
+								statement.setFetchSize(Integer.MIN_VALUE);
+								
+								for(int i = 0; i < parameters.length; i++) {
+									statement.setObject(i + 1, parameters[i]);
+								}
+								
+								return statement;
+							}
+						},
+						new RowCallbackHandler() {
+							/**
+							 * Adds the user to the index.
+							 */
+							@Override
+							public void processRow(
+									final ResultSet rs) 
+									throws SQLException {
+								
+								tokenIndex.add(
+										rs.getString("username"),
+										rs.getString("username"),
+										rs.getString("email_address"),
+										rs.getString("first_name"),
+										rs.getString("last_name"),
+										rs.getString("organization"),
+										rs.getString("personal_id"));
+							}
+						});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+						"Error executing SQL '" + sql + "' with parameters: " + 
+							StringUtils.collectionToStringList(
+								Arrays.asList(parameters), 
+								", "), 
+						e);
+			}
+		}
 	}
 	
 	/*
@@ -415,6 +501,8 @@ public class UserQueries extends Query implements IUserQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		index.refresh(username);
 	}
 	
 	/*
@@ -618,6 +706,8 @@ public class UserQueries extends Query implements IUserQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		index.refresh(username);
 	}
 	
 	/**
@@ -831,22 +921,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialUsername(String username)
 			throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_USERNAME, 
-					new Object[] { "%" + username + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_USERNAME +
-						"' with parameter: " +
-						"%" + username + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_USERNAME, username));
 	}
 
 	/*
@@ -956,22 +1032,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialFirstName(String partialFirstName)
 			throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_FIRST_NAME, 
-					new Object[] { "%" + partialFirstName + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_FIRST_NAME +
-						"' with parameter: " +
-						"%" + partialFirstName + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_FIRST_NAME, partialFirstName));
 	}
 
 	/*
@@ -981,22 +1043,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialLastName(String partialLastName)
 			throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_LAST_NAME, 
-					new Object[] { "%" + partialLastName + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_LAST_NAME +
-						"' with parameter: " +
-						"%" + partialLastName + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_LAST_NAME, partialLastName));
 	}
 
 	/*
@@ -1006,22 +1054,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialOrganization(
 			String partialOrganization) throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_ORGANIZATION, 
-					new Object[] { "%" + partialOrganization + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_ORGANIZATION +
-						"' with parameter: " +
-						"%" + partialOrganization + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_ORGANIZATION, partialOrganization));
 	}
 
 	/*
@@ -1031,22 +1065,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialPersonalId(
 			String partialPersonalId) throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_PERSONAL_ID, 
-					new Object[] { "%" + partialPersonalId + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_PERSONAL_ID +
-						"' with parameter: " +
-						"%" + partialPersonalId + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_PERSONAL_ID, partialPersonalId));
 	}
 
 	/*
@@ -1056,22 +1076,8 @@ public class UserQueries extends Query implements IUserQueries {
 	@Override
 	public List<String> getUsernamesFromPartialEmailAddress(
 			String partialEmailAddress) throws DataAccessException {
-
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_USERNAMES_LIKE_EMAIL_ADDRESS, 
-					new Object[] { "%" + partialEmailAddress + "%" }, 
-					new SingleColumnRowMapper<String>()
-				);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_USERNAMES_LIKE_EMAIL_ADDRESS +
-						"' with parameter: " +
-						"%" + partialEmailAddress + "%",
-					e);
-		}
+		
+		return new ArrayList<String>(index.search(INDEX_FIELD_EMAIL_ADDRESS, partialEmailAddress));
 	}
 	
 	/**
@@ -1861,6 +1867,8 @@ public class UserQueries extends Query implements IUserQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		index.refresh(username);
 	}
 	
 	/**
@@ -2021,5 +2029,9 @@ public class UserQueries extends Query implements IUserQueries {
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		for(String username : usernames) {
+			index.refresh(username);
+		}
 	}
 }
@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.reporting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IAuditQueries.NewAudit;
+import org.ohmage.service.AuditServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Writes request audits to the database in the background. Audits are placed
+ * on a bounded queue and a small, fixed number of writers take them off in
+ * batches and create them together.<br />
+ * <br />
+ * When the queue is full, the request waits up to a configurable amount of
+ * time for room before its audit is dropped. Dropped audits are counted and
+ * periodically logged. When the server shuts down, the writers finish
+ * writing everything that is already on the queue.
+ */
+public final class AuditWriter implements DisposableBean {
+	private static final Logger LOGGER = Logger.getLogger(AuditWriter.class);
+	
+	// How long a writer waits for an audit before checking if it should stop.
+	private static final long POLL_MILLIS = 1000;
+	
+	// How long to wait for the writers to finish when shutting down.
+	private static final long SHUTDOWN_MILLIS = 30000;
+	
+	// Only log every this many dropped audits to avoid flooding the log when
+	// the database is down.
+	private static final long DROP_LOG_INTERVAL = 1000;
+	
+	private static volatile AuditWriter instance = null;
+	
+	private final BlockingQueue<NewAudit> queue;
+	private final int batchSize;
+	private final long maxWaitMillis;
+	private final ExecutorService writers;
+	
+	private volatile boolean running = true;
+	
+	// The statistics for the pipeline.
+	private final AtomicLong numSubmitted = new AtomicLong(0);
+	private final AtomicLong numWritten = new AtomicLong(0);
+	private final AtomicLong numDropped = new AtomicLong(0);
+	private final AtomicLong numFailed = new AtomicLong(0);
+	
+	/**
+	 * A writer that creates audits until the pipeline is stopped and the
+	 * queue is empty.
+	 */
+	private final class Writer implements Runnable {
+		/**
+		 * Takes as many audits as are available, up to the batch size, and
+		 * creates them.
+		 */
+		@Override
+		public void run() {
+			List<NewAudit> batch = new ArrayList<NewAudit>(batchSize);
+			
+			while(true) {
+				NewAudit audit;
+				try {
+					audit = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException e) {
+					// Stop waiting and write whatever is left.
+					audit = queue.poll();
+				}
+				
+				if(audit == null) {
+					if(running) {
+						continue;
+					}
+					else {
+						return;
+					}
+				}
+				
+				batch.add(audit);
+				queue.drainTo(batch, batchSize - 1);
+				
+				if(! write(batch) && (batch.size() > 1)) {
+					// One bad audit fails the whole batch, so write them
+					// individually to save the rest.
+					LOGGER.warn(
+						"Writing the " + batch.size() + 
+							" audits in the failed batch one at a time.");
+					for(NewAudit single : batch) {
+						write(Collections.singletonList(single));
+					}
+				}
+				
+				batch.clear();
+			}
+		}
+		
+		/**
+		 * Creates the audits together and updates the statistics.
+		 * 
+		 * @param audits The audits to create.
+		 * 
+		 * @return True if the audits were created; false if none of them
+		 * 		   were.
+		 */
+		private boolean write(final List<NewAudit> audits) {
+			try {
+				AuditServices.instance().createAudits(audits);
+				numWritten.addAndGet(audits.size());
+				return true;
+			}
+			catch(ServiceException e) {
+				LOGGER.error(
+					"Error while writing " + audits.size() + " audits.",
+					e);
+			}
+			// A bad batch must not stop this writer.
+			catch(RuntimeException e) {
+				LOGGER.error(
+					"Error while writing " + audits.size() + " audits.",
+					e);
+			}
+			
+			// Only count the failures that won't be retried.
+			if(audits.size() == 1) {
+				numFailed.incrementAndGet();
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates the writer and starts its threads.
+	 * 
+	 * @param queueCapacity The maximum number of audits that may be waiting
+	 * 						to be written.
+	 * 
+	 * @param numWriters The number of threads writing audits.
+	 * 
+	 * @param batchSize The maximum number of audits to write at once.
+	 * 
+	 * @param maxWaitMillis The longest a request will wait for room on the
+	 * 						queue before its audit is dropped. If this is
+	 * 						zero, audits are dropped as soon as the queue is
+	 * 						full.
+	 * 
+	 * @throws IllegalStateException An instance of this class already
+	 * 								 exists.
+	 * 
+	 * @throws IllegalArgumentException Any of the parameters are invalid.
+	 */
+	private AuditWriter(
+			final int queueCapacity,
+			final int numWriters,
+			final int batchSize,
+			final long maxWaitMillis) {
+		
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+		
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException(
+				"The queue capacity must be positive.");
+		}
+		else if(numWriters < 1) {
+			throw new IllegalArgumentException(
+				"The number of writers must be positive.");
+		}
+		else if(batchSize < 1) {
+			throw new IllegalArgumentException(
+				"The batch size must be positive.");
+		}
+		else if(maxWaitMillis < 0) {
+			throw new IllegalArgumentException(
+				"The maximum wait cannot be negative.");
+		}
+		
+		queue = new ArrayBlockingQueue<NewAudit>(queueCapacity);
+		this.batchSize = batchSize;
+		this.maxWaitMillis = maxWaitMillis;
+		
+		writers =
+			Executors.newFixedThreadPool(
+				numWriters,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(0);
+					
+					/**
+					 * Creates daemon threads so that a hung database cannot
+					 * keep the JVM alive.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"AuditWriter - " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		for(int i = 0; i < numWriters; i++) {
+			writers.execute(new Writer());
+		}
+		
+		LOGGER.info(
+			"Audits will be written by " + numWriters +
+				" threads in batches of up to " + batchSize +
+				" from a queue of " + queueCapacity + ".");
+		
+		instance = this;
+	}
+	
+	/**
+	 * Returns the instance of this class.
+	 * 
+	 * @return The instance of this class or null if it has not been created
+	 * 		   or has been shut down.
+	 */
+	public static AuditWriter instance() {
+		return instance;
+	}
+	
+	/**
+	 * Queues an audit to be written. If the queue is full, this waits up to
+	 * the configured amount of time for room, after which the audit is
+	 * dropped.
+	 * 
+	 * @param audit The audit to write.
+	 * 
+	 * @return True if the audit was queued; false if it was dropped.
+	 */
+	public boolean submit(final NewAudit audit) {
+		boolean queued = false;
+		if(running) {
+			try {
+				queued = queue.offer(audit, maxWaitMillis, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		if(queued) {
+			numSubmitted.incrementAndGet();
+		}
+		else {
+			long dropped = numDropped.incrementAndGet();
+			if((dropped % DROP_LOG_INTERVAL) == 1) {
+				LOGGER.warn(
+					"The audit queue is full or shut down. " + dropped +
+						" audits have been dropped.");
+			}
+		}
+		
+		return queued;
+	}
+	
+	/**
+	 * Stops accepting new audits and waits for the writers to write all of
+	 * the audits that have already been queued.
+	 */
+	@Override
+	public void destroy() {
+		instance = null;
+		running = false;
+		
+		writers.shutdown();
+		try {
+			if(! writers.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+				LOGGER.error(
+					"The audit writers did not finish; " + queue.size() +
+						" audits were not written.");
+				writers.shutdownNow();
+			}
+		}
+		catch(InterruptedException e) {
+			writers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		
+		LOGGER.info(
+			"Audit writer stopped. Submitted: " + numSubmitted.get() +
+				", written: " + numWritten.get() +
+				", dropped: " + numDropped.get() +
+				", failed: " + numFailed.get());
+	}
+	
+	/**
+	 * Returns the number of audits currently waiting to be written.
+	 * 
+	 * @return The number of audits on the queue.
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+	
+	/**
+	 * Returns the number of audits that have been queued.
+	 * 
+	 * @return The number of audits that have been queued.
+	 */
+	public long getSubmittedCount() {
+		return numSubmitted.get();
+	}
+	
+	/**
+	 * Returns the number of audits that have been written.
+	 * 
+	 * @return The number of audits that have been written.
+	 */
+	public long getWrittenCount() {
+		return numWritten.get();
+	}
+	
+	/**
+	 * Returns the number of audits that were dropped because the queue was
+	 * full or the writer was shutting down.
+	 * 
+	 * @return The number of dropped audits.
+	 */
+	public long getDroppedCount() {
+		return numDropped.get();
+	}
+	
+	/**
+	 * Returns the number of audits that could not be written to the
+	 * database.
+	 * 
+	 * @return The number of failed audits.
+	 */
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.jee.servlet.RequestServlet.RequestType;
+
+/**
+ * A single URI that ohmage serves. It knows how to build the request for the
+ * URI, which HTTP methods may be used, and keeps statistics about how often
+ * it has been called and how long it took to respond.
+ * 
+ * @see RequestBuilder#getEndpoint(String)
+ */
+public final class Endpoint {
+	private final String uri;
+	private final Constructor<? extends Request> constructor;
+	private final Set<RequestType> allowedMethods;
+	
+	// The statistics for this endpoint.
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final AtomicInteger numInFlight = new AtomicInteger(0);
+	private final AtomicLong numFailures = new AtomicLong(0);
+	// The number of failures with each error code, indexed by ordinal.
+	private final AtomicLongArray errorCodeCounts =
+		new AtomicLongArray(ErrorCode.values().length);
+	
+	/**
+	 * Creates a new endpoint.
+	 * 
+	 * @param uri The URI of the endpoint.
+	 * 
+	 * @param requestClass The class of the request that services this
+	 * 					   endpoint. It must have a public constructor that
+	 * 					   takes only the HttpServletRequest.
+	 * 
+	 * @param allowedMethods The HTTP methods that may be used to call this
+	 * 						 endpoint.
+	 * 
+	 * @throws IllegalArgumentException The request class does not have the
+	 * 									required constructor.
+	 */
+	Endpoint(
+			final String uri,
+			final Class<? extends Request> requestClass,
+			final Set<RequestType> allowedMethods) {
+		
+		this.uri = uri;
+		try {
+			constructor = requestClass.getConstructor(HttpServletRequest.class);
+		}
+		catch(NoSuchMethodException e) {
+			throw new IllegalArgumentException(
+				"The request does not have a public constructor that takes an HttpServletRequest: " +
+					requestClass.getName(),
+				e);
+		}
+		this.allowedMethods =
+			Collections.unmodifiableSet(EnumSet.copyOf(allowedMethods));
+	}
+	
+	/**
+	 * Builds the request for this endpoint.
+	 * 
+	 * @param httpRequest The incoming HTTP request.
+	 * 
+	 * @return The new request.
+	 * 
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 * 
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public Request buildRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+		
+		try {
+			return constructor.newInstance(httpRequest);
+		}
+		catch(InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			else if(cause instanceof InvalidRequestException) {
+				throw (InvalidRequestException) cause;
+			}
+			else if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			else if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(
+				"The request could not be built: " + uri,
+				cause);
+		}
+		catch(InstantiationException e) {
+			throw new IllegalStateException(
+				"The request could not be built: " + uri,
+				e);
+		}
+		catch(IllegalAccessException e) {
+			throw new IllegalStateException(
+				"The request could not be built: " + uri,
+				e);
+		}
+	}
+	
+	/**
+	 * Records that a call to this endpoint has started. Every call to this
+	 * must be followed by a call to {@link #end(long, ErrorCode)}.
+	 */
+	public void begin() {
+		numInFlight.incrementAndGet();
+	}
+	
+	/**
+	 * Records that a call to this endpoint has finished.
+	 * 
+	 * @param millis The number of milliseconds it took to respond.
+	 * 
+	 * @param errorCode The error code with which the request failed or null
+	 * 					if it succeeded.
+	 */
+	public void end(final long millis, final ErrorCode errorCode) {
+		numInFlight.decrementAndGet();
+		latencies.record(millis);
+		
+		if(errorCode != null) {
+			numFailures.incrementAndGet();
+			errorCodeCounts.incrementAndGet(errorCode.ordinal());
+		}
+	}
+	
+	/**
+	 * Returns the URI of this endpoint.
+	 * 
+	 * @return The URI of this endpoint.
+	 */
+	public String getUri() {
+		return uri;
+	}
+	
+	/**
+	 * Returns whether or not an HTTP method may be used to call this
+	 * endpoint.
+	 * 
+	 * @param method The HTTP method.
+	 * 
+	 * @return True if the method is allowed; false, otherwise.
+	 */
+	public boolean isAllowed(final RequestType method) {
+		return allowedMethods.contains(method);
+	}
+	
+	/**
+	 * Returns the HTTP methods that may be used to call this endpoint.
+	 * 
+	 * @return An unmodifiable set of the allowed HTTP methods.
+	 */
+	public Set<RequestType> getAllowedMethods() {
+		return allowedMethods;
+	}
+	
+	/**
+	 * Returns the latencies of the calls to this endpoint.
+	 * 
+	 * @return The latency histogram.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+	
+	/**
+	 * Returns the number of calls to this endpoint that have not yet 
+	 * finished.
+	 * 
+	 * @return The number of calls in flight.
+	 */
+	public int getInFlightCount() {
+		return numInFlight.get();
+	}
+	
+	/**
+	 * Returns the number of times this endpoint has been called and the
+	 * request failed.
+	 * 
+	 * @return The number of failed requests.
+	 */
+	public long getFailureCount() {
+		return numFailures.get();
+	}
+	
+	/**
+	 * Returns the number of times this endpoint has been called and the
+	 * request failed with some error code.
+	 * 
+	 * @param errorCode The error code.
+	 * 
+	 * @return The number of failed requests with that error code.
+	 */
+	public long getFailureCount(final ErrorCode errorCode) {
+		return errorCodeCounts.get(errorCode.ordinal());
+	}
+}
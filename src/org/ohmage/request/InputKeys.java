@@ -162,6 +162,7 @@ public final class InputKeys {
 	public static final String DESCRIPTION = "description";
 	public static final String NUM_TO_SKIP = "num_to_skip";
 	public static final String NUM_TO_RETURN = "num_to_return";
+	public static final String CONTINUATION_TOKEN = "continuation_token";
 	public static final String CAPTCHA_CHALLENGE = "recaptcha_challenge_field";
 	public static final String CAPTCHA_RESPONSE = "recaptcha_response_field";
 	
@@ -213,6 +214,7 @@ public final class InputKeys {
 	public static final String OMH_SUMMARIZE = "summarize";
 	public static final String OMH_NUM_TO_SKIP = "num_to_skip";
 	public static final String OMH_NUM_TO_RETURN = "num_to_return";
+	public static final String OMH_OUTPUT_FORMAT = "output_format";
 	
 	// Separator Constants
 	public static final String LIST_ITEM_SEPARATOR = ",";
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in milliseconds. Like an HDR histogram,
+ * the buckets are log-linear: every power of two is split into
+ * {@value #SUB_BUCKETS} equal sub-buckets, so any percentile that is read
+ * from it is within 1/{@value #SUB_BUCKETS} of the true value while the
+ * histogram stays a fixed, small size. Latencies of more than about 35
+ * minutes are all counted in the last bucket.
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of sub-buckets for each power of two. This must be a power
+	 * of two.
+	 */
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BUCKET_BITS = 3;
+	
+	/**
+	 * The largest power of two that is tracked.
+	 */
+	private static final int MAX_EXPONENT = 20;
+	
+	private static final int NUM_BUCKETS =
+		SUB_BUCKETS + ((MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong total = new AtomicLong(0);
+	private final AtomicLong max = new AtomicLong(0);
+	
+	/**
+	 * Records one latency.
+	 * 
+	 * @param millis The latency in milliseconds. Negative values are treated
+	 * 				 as zero.
+	 */
+	public void record(final long millis) {
+		long value = (millis < 0) ? 0 : millis;
+		
+		counts.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		
+		long currentMax = max.get();
+		while((value > currentMax) && (! max.compareAndSet(currentMax, value))) {
+			currentMax = max.get();
+		}
+	}
+	
+	/**
+	 * Returns the number of latencies that have been recorded.
+	 * 
+	 * @return The number of latencies.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * Returns the sum of all of the latencies that have been recorded.
+	 * 
+	 * @return The total number of milliseconds.
+	 */
+	public long getTotalMillis() {
+		return total.get();
+	}
+	
+	/**
+	 * Returns the largest latency that has been recorded.
+	 * 
+	 * @return The maximum number of milliseconds.
+	 */
+	public long getMaxMillis() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns the mean of the latencies that have been recorded.
+	 * 
+	 * @return The mean number of milliseconds or 0 if nothing has been
+	 * 		   recorded.
+	 */
+	public double getMeanMillis() {
+		long currentCount = count.get();
+		if(currentCount == 0) {
+			return 0;
+		}
+		
+		return ((double) total.get()) / currentCount;
+	}
+	
+	/**
+	 * Returns the latency at or below which some percentage of the recorded
+	 * latencies fall.
+	 * 
+	 * @param percentile The percentile, from 0 to 100 exclusive.
+	 * 
+	 * @return The latency in milliseconds or 0 if nothing has been recorded.
+	 * 
+	 * @throws IllegalArgumentException The percentile is out of range.
+	 */
+	public long getPercentile(final double percentile) {
+		if((percentile <= 0) || (percentile >= 100)) {
+			throw new IllegalArgumentException(
+				"The percentile must be greater than 0 and less than 100.");
+		}
+		
+		// Take a snapshot so the counts are consistent with their total.
+		long[] snapshot = new long[NUM_BUCKETS];
+		long snapshotCount = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			snapshotCount += snapshot[i];
+		}
+		if(snapshotCount == 0) {
+			return 0;
+		}
+		
+		long rank = (long) Math.ceil((percentile / 100) * snapshotCount);
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank) {
+				return Math.min(getUpperBound(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	/**
+	 * Returns the bucket for a latency.
+	 * 
+	 * @param value The latency, which must not be negative.
+	 * 
+	 * @return The index of the bucket.
+	 */
+	private static int getBucket(final long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if(exponent > MAX_EXPONENT) {
+			return NUM_BUCKETS - 1;
+		}
+		
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) ((value >> shift) & (SUB_BUCKETS - 1));
+		return SUB_BUCKETS + (shift * SUB_BUCKETS) + subBucket;
+	}
+	
+	/**
+	 * Returns the largest latency that is counted in a bucket.
+	 * 
+	 * @param bucket The index of the bucket.
+	 * 
+	 * @return The largest latency in the bucket.
+	 */
+	private static long getUpperBound(final int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		else if(bucket == (NUM_BUCKETS - 1)) {
+			return Long.MAX_VALUE;
+		}
+		
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowerBound = ((long) (SUB_BUCKETS + subBucket)) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+}
@@ -17,11 +17,16 @@ package org.ohmage.request;
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -57,6 +62,9 @@ import org.ohmage.util.StringUtils;
 public abstract class Request {
 	private static final Logger LOGGER = Logger.getLogger(Request.class);
 	
+	// The most that is moved from a multipart value to a file at once.
+	private static final long MULTIPART_TRANSFER_SIZE = 1024 * 1024;
+	
 	/**
 	 * The key to use when responding with a JSONObject about whether the 
 	 * request was a success or failure.
@@ -97,6 +105,14 @@ public abstract class Request {
 	public static final String JSON_KEY_TOTAL_NUM_RESULTS = 
 			"total_num_results";
 	
+	/**
+	 * The JSON key for the metadata whose value is an opaque token that may 
+	 * be given with the next request to continue reading results from where
+	 * this response ended. It is only present if more results exist.
+	 */
+	public static final String JSON_KEY_CONTINUATION_TOKEN =
+			"continuation_token";
+	
 	/**
 	 * A hard-coded JSONObject which represents a successful result.
 	 */
@@ -210,6 +226,17 @@ public abstract class Request {
 		failed = true;
 	}
 	
+	/**
+	 * Returns the error code that would be returned to a user if this request
+	 * has failed. As with {@link #getFailureMessage()}, if the request has 
+	 * not yet failed, this result is meaningless.
+	 * 
+	 * @return The current error code for this request.
+	 */
+	public ErrorCode getFailureCode() {
+		return annotator.getErrorCode();
+	}
+	
 	/**
 	 * Returns a String representation of the failure message that would be
 	 * returned to a user if this request has failed. All requests have a 
@@ -746,6 +773,93 @@ public abstract class Request {
 		}
 	}
 	
+	/**
+	 * Writes the value of a multipart key directly to a file without reading
+	 * it into memory. This should be used for values that may be too large
+	 * to hold in memory, like videos. If the value could not be written, any
+	 * partially written file is deleted.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param key The key for the value we are after in the 'httpRequest'.
+	 * 
+	 * @param file The file to write the value to. It will be created or 
+	 * 			   overwritten.
+	 * 
+	 * @return Returns false if there is no such key in the request or if its
+	 * 		   value has a length of 0, in which case no file is created. 
+	 * 		   Otherwise, it returns true.
+	 * 
+	 * @throws ValidationException Thrown if the 'httpRequest' is not a 
+	 * 							   "multipart/form-data" request or if there
+	 * 							   is an error writing the value to the file.
+	 */
+	protected boolean writeMultipartValue(
+			final HttpServletRequest httpRequest, 
+			final String key,
+			final File file)
+			throws ValidationException {
+		
+		try {
+			Part part = httpRequest.getPart(key);
+			if((part == null) || (part.getSize() == 0)) {
+				return false;
+			}
+			
+			ReadableByteChannel input = 
+				Channels.newChannel(part.getInputStream());
+			FileOutputStream output = null;
+			boolean written = false;
+			try {
+				output = new FileOutputStream(file);
+				FileChannel outputChannel = output.getChannel();
+				
+				long position = 0;
+				long transferred;
+				while((transferred = 
+						outputChannel.transferFrom(
+							input, 
+							position, 
+							MULTIPART_TRANSFER_SIZE)) > 0) {
+					
+					position += transferred;
+				}
+				
+				output.close();
+				written = true;
+			}
+			finally {
+				if(! written) {
+					if(output != null) {
+						try {
+							output.close();
+						}
+						catch(IOException e) {
+							LOGGER.warn("Could not close the partial file.", e);
+						}
+					}
+					file.delete();
+				}
+				input.close();
+			}
+			
+			// The container no longer needs its copy.
+			part.delete();
+			
+			return true;
+		}
+		catch(ServletException e) {
+			LOGGER.error("This is not a multipart/form-data POST.", e);
+			setFailed(ErrorCode.SYSTEM_GENERAL_ERROR, "This is not a multipart/form-data POST which is what we expect for the current API call.");
+			throw new ValidationException(e);
+		}
+		catch(IOException e) {
+			LOGGER.error("There was an error writing the message to a file.", e);
+			setFailed();
+			throw new ValidationException(e);
+		}
+	}
+	
 	/**
 	 * Sets the response headers to disallow client caching.
 	 */
@@ -16,12 +16,19 @@
 package org.ohmage.request;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.log4j.Logger;
 import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.jee.servlet.RequestServlet.RequestType;
 import org.ohmage.request.audit.AuditReadRequest;
 import org.ohmage.request.auth.AuthRequest;
 import org.ohmage.request.auth.AuthTokenLogoutRequest;
@@ -45,6 +52,7 @@ import org.ohmage.request.document.DocumentReadRequest;
 import org.ohmage.request.document.DocumentUpdateRequest;
 import org.ohmage.request.image.ImageBatchZipReadRequest;
 import org.ohmage.request.image.ImageReadRequest;
+import org.ohmage.request.metrics.MetricsReadRequest;
 import org.ohmage.request.mobility.MobilityAggregateReadRequest;
 import org.ohmage.request.mobility.MobilityDatesReadRequest;
 import org.ohmage.request.mobility.MobilityReadChunkedRequest;
@@ -117,6 +125,9 @@ public final class RequestBuilder implements ServletContextAware {
 	// Audit
 	private String apiAuditRead;
 	
+	// Metrics
+	private String apiMetricsRead;
+	
 	// Authentication
 	private String apiUserAuth;
 	private String apiUserAuthToken;
@@ -209,6 +220,10 @@ public final class RequestBuilder implements ServletContextAware {
 	private String apiVisualizationSurveyResponsePrivacy;
 	private String apiVisualizationSurveyResponsePrivacyTimeseries;
 	
+	// The routing table of URIs to their endpoints.
+	private volatile Map<String, Endpoint> endpoints = 
+		Collections.<String, Endpoint>emptyMap();
+	
 	private static RequestBuilder singleton;
 
 	/**
@@ -248,6 +263,9 @@ public final class RequestBuilder implements ServletContextAware {
 		// Audit
 		apiAuditRead = apiRoot + "/audit/read";
 		
+		// Metrics
+		apiMetricsRead = apiRoot + "/metrics/read";
+		
 		// Authentication
 		apiUserAuth = apiRoot + "/user/auth";
 		apiUserAuthToken = apiRoot + "/user/auth_token";
@@ -339,6 +357,126 @@ public final class RequestBuilder implements ServletContextAware {
 		apiVisualization2dDensity = apiVisualization + "/2d_density/read";
 		apiVisualizationSurveyResponsePrivacy = apiVisualization + "/survey_responses_privacy_state/read";
 		apiVisualizationSurveyResponsePrivacyTimeseries = apiVisualization + "/survey_responses_privacy_state_time/read";
+		
+		// Map each URI to the request that services it. All of the URIs may
+		// be POSTed to, but only some of them may be retrieved with a GET.
+		Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+		// Config
+		register(endpoints, apiConfigRead, ConfigReadRequest.class, true);
+		// Authentication
+		register(endpoints, apiUserAuth, AuthRequest.class, false);
+		register(endpoints, apiUserAuthToken, AuthTokenRequest.class, false);
+		register(endpoints, apiUserLogout, AuthTokenLogoutRequest.class, false);
+		// Annotation
+		register(endpoints, apiAnnotationPromptResponseCreate, PromptResponseAnnotationCreationRequest.class, false);
+		register(endpoints, apiAnnotationPromptResponseRead, PromptResponseAnnotationReadRequest.class, false);
+		register(endpoints, apiAnnotationSurveyResponseCreate, SurveyResponseAnnotationCreationRequest.class, false);
+		register(endpoints, apiAnnotationSurveyResponseRead, SurveyResponseAnnotationReadRequest.class, false);
+		register(endpoints, apiAnnotationUpdate, AnnotationUpdateRequest.class, false);
+		register(endpoints, apiAnnotationDelete, AnnotationDeleteRequest.class, false);
+		// Audit
+		register(endpoints, apiAuditRead, AuditReadRequest.class, false);
+		// Metrics
+		register(endpoints, apiMetricsRead, MetricsReadRequest.class, true);
+		// Campaign
+		register(endpoints, apiCampaignCreate, CampaignCreationRequest.class, false);
+		register(endpoints, apiCampaignRead, CampaignReadRequest.class, false);
+		register(endpoints, apiCampaignSearch, CampaignSearchRequest.class, false);
+		register(endpoints, apiCampaignUpdate, CampaignUpdateRequest.class, false);
+		register(endpoints, apiCampaignDelete, CampaignDeletionRequest.class, false);
+		// Class
+		register(endpoints, apiClassCreate, ClassCreationRequest.class, false);
+		register(endpoints, apiClassRead, ClassReadRequest.class, false);
+		register(endpoints, apiClassRosterRead, ClassRosterReadRequest.class, false);
+		register(endpoints, apiClassSearch, ClassSearchRequest.class, false);
+		register(endpoints, apiClassUpdate, ClassUpdateRequest.class, false);
+		register(endpoints, apiClassRosterUpdate, ClassRosterUpdateRequest.class, false);
+		register(endpoints, apiClassDelete, ClassDeletionRequest.class, false);
+		// Document
+		register(endpoints, apiDocumentCreate, DocumentCreationRequest.class, false);
+		register(endpoints, apiDocumentRead, DocumentReadRequest.class, false);
+		register(endpoints, apiDocumentReadContents, DocumentReadContentsRequest.class, true);
+		register(endpoints, apiDocumentUpdate, DocumentUpdateRequest.class, false);
+		register(endpoints, apiDocumentDelete, DocumentDeletionRequest.class, false);
+		// Image
+		register(endpoints, apiImageRead, ImageReadRequest.class, true);
+		register(endpoints, apiImageBatchZipRead, ImageBatchZipReadRequest.class, true);
+		// Mobility
+		register(endpoints, apiMobilityUpload, MobilityUploadRequest.class, false);
+		register(endpoints, apiMobilityRead, MobilityReadRequest.class, false);
+		register(endpoints, apiMobilityReadChunked, MobilityReadChunkedRequest.class, false);
+		register(endpoints, apiMobilityAggregateRead, MobilityAggregateReadRequest.class, false);
+		register(endpoints, apiMobilityDatesRead, MobilityDatesReadRequest.class, false);
+		register(endpoints, apiMobilityReadCsv, MobilityReadCsvRequest.class, false);
+		register(endpoints, apiMobilityUpdate, MobilityUpdateRequest.class, false);
+		// Observer
+		register(endpoints, apiObserverCreate, ObserverCreationRequest.class, false);
+		register(endpoints, apiObserverUpdate, ObserverUpdateRequest.class, false);
+		register(endpoints, apiStreamUpload, StreamUploadRequest.class, false);
+		register(endpoints, apiStreamRead, StreamReadRequest.class, true);
+		// OMH
+		register(endpoints, apiOmhAuth, OmhAuthenticateRequest.class, false);
+		register(endpoints, apiOmhCatalog, OmhCatalogRequest.class, false);
+		register(endpoints, apiOmhRead, OmhReadRequest.class, false);
+		// Survey
+		register(endpoints, apiSurveyUpload, SurveyUploadRequest.class, false);
+		register(endpoints, apiSurveyResponseRead, SurveyResponseReadRequest.class, false);
+		register(endpoints, apiSurveyResponseUpdate, SurveyResponseUpdateRequest.class, false);
+		register(endpoints, apiSurveyResponseDelete, SurveyResponseDeleteRequest.class, false);
+		register(endpoints, apiSurveyResponseFunctionRead, SurveyResponseFunctionReadRequest.class, false);
+		// User
+		register(endpoints, apiUserCreate, UserCreationRequest.class, false);
+		register(endpoints, apiUserRegister, UserRegistrationRequest.class, false);
+		register(endpoints, apiUserActivate, UserActivationRequest.class, true);
+		register(endpoints, apiUserPasswordReset, UserPasswordResetRequest.class, false);
+		register(endpoints, apiUserRead, UserReadRequest.class, false);
+		register(endpoints, apiUserInfoRead, UserInfoReadRequest.class, false);
+		register(endpoints, apiUserStatsRead, UserStatsReadRequest.class, false);
+		register(endpoints, apiUserSearch, UserSearchRequest.class, false);
+		register(endpoints, apiUserUpdate, UserUpdateRequest.class, false);
+		register(endpoints, apiUserChangePassword, UserChangePasswordRequest.class, false);
+		register(endpoints, apiUserDelete, UserDeletionRequest.class, false);
+		// Registration
+		register(endpoints, apiRegistrationRead, RegistrationReadRequest.class, true);
+		// Video
+		register(endpoints, apiVideoRead, VideoReadRequest.class, false);
+		// Visualization
+		register(endpoints, apiVisualizationSurveyResponseCount, VizSurveyResponseCountRequest.class, true);
+		register(endpoints, apiVisualizationPromptDistribution, VizPromptDistributionRequest.class, true);
+		register(endpoints, apiVisualizationPromptTimeseries, VizPromptTimeseriesRequest.class, true);
+		register(endpoints, apiVisualizationUserTimeseries, VizUserTimeseriesRequest.class, true);
+		register(endpoints, apiVisualizationScatterPlot, VizScatterPlotRequest.class, true);
+		register(endpoints, apiVisualization2dDensity, VizTwoDDensityRequest.class, true);
+		register(endpoints, apiVisualizationSurveyResponsePrivacy, VizSurveyResponsePrivacyStateRequest.class, true);
+		register(endpoints, apiVisualizationSurveyResponsePrivacyTimeseries, VizSurveyResponsePrivacyStateTimeseriesRequest.class, true);
+		
+		this.endpoints = Collections.unmodifiableMap(endpoints);
+	}
+	
+	/**
+	 * Adds an endpoint to the routing table.
+	 * 
+	 * @param endpoints The routing table.
+	 * 
+	 * @param uri The endpoint's URI.
+	 * 
+	 * @param requestClass The request that services the endpoint.
+	 * 
+	 * @param allowGet Whether or not the endpoint may be retrieved with a 
+	 * 				   GET in addition to a POST.
+	 */
+	private static void register(
+			final Map<String, Endpoint> endpoints,
+			final String uri,
+			final Class<? extends Request> requestClass,
+			final boolean allowGet) {
+		
+		Set<RequestType> allowedMethods = EnumSet.of(RequestType.POST);
+		if(allowGet) {
+			allowedMethods.add(RequestType.GET);
+		}
+		
+		endpoints.put(uri, new Endpoint(uri, requestClass, allowedMethods));
 	}
 	
 	/**
@@ -363,230 +501,9 @@ public final class RequestBuilder implements ServletContextAware {
 		
 		LOGGER.debug(requestUri);
 		
-		// Config
-		if(apiConfigRead.equals(requestUri)) {
-			return new ConfigReadRequest(httpRequest);
-		}
-		// Authentication
-		else if(apiUserAuth.equals(requestUri)) {
-			return new AuthRequest(httpRequest);
-		}
-		else if(apiUserAuthToken.equals(requestUri)) {
-			return new AuthTokenRequest(httpRequest);
-		}
-		else if(apiUserLogout.equals(requestUri)) {
-			return new AuthTokenLogoutRequest(httpRequest);
-		}
-		// Annotation
-		else if(apiAnnotationPromptResponseCreate.equals(requestUri)) {
-			return new PromptResponseAnnotationCreationRequest(httpRequest);
-		}
-		else if(apiAnnotationPromptResponseRead.equals(requestUri)) {
-			return new PromptResponseAnnotationReadRequest(httpRequest);
-		}
-		else if(apiAnnotationSurveyResponseCreate.equals(requestUri)) {
-			return new SurveyResponseAnnotationCreationRequest(httpRequest);
-		}
-		else if(apiAnnotationSurveyResponseRead.equals(requestUri)) {
-			return new SurveyResponseAnnotationReadRequest(httpRequest);
-		}
-		else if(apiAnnotationUpdate.equals(requestUri)) {
-			return new AnnotationUpdateRequest(httpRequest);
-		}
-		else if(apiAnnotationDelete.equals(requestUri)) {
-			return new AnnotationDeleteRequest(httpRequest);
-		}		
-		// Audit
-		else if(apiAuditRead.equals(requestUri)) {
-			return new AuditReadRequest(httpRequest);
-		}
-		// Campaign
-		else if(apiCampaignCreate.equals(requestUri)) {
-			return new CampaignCreationRequest(httpRequest);
-		}
-		else if(apiCampaignRead.equals(requestUri)) {
-			return new CampaignReadRequest(httpRequest);
-		}
-		else if(apiCampaignSearch.equals(requestUri)) {
-			return new CampaignSearchRequest(httpRequest);
-		}
-		else if(apiCampaignUpdate.equals(requestUri)) {
-			return new CampaignUpdateRequest(httpRequest);
-		}
-		else if(apiCampaignDelete.equals(requestUri)) {
-			return new CampaignDeletionRequest(httpRequest);
-		}
-		// Class
-		else if(apiClassCreate.equals(requestUri)) {
-			return new ClassCreationRequest(httpRequest);
-		}
-		else if(apiClassRead.equals(requestUri)) {
-			return new ClassReadRequest(httpRequest);
-		}
-		else if(apiClassRosterRead.equals(requestUri)) {
-			return new ClassRosterReadRequest(httpRequest);
-		}
-		else if(apiClassSearch.equals(requestUri)) {
-			return new ClassSearchRequest(httpRequest);
-		}
-		else if(apiClassUpdate.equals(requestUri)) {
-			return new ClassUpdateRequest(httpRequest);
-		}
-		else if(apiClassRosterUpdate.equals(requestUri)) {
-			return new ClassRosterUpdateRequest(httpRequest);
-		}
-		else if(apiClassDelete.equals(requestUri)) {
-			return new ClassDeletionRequest(httpRequest);
-		}
-		// Document
-		else if(apiDocumentCreate.equals(requestUri)) {
-			return new DocumentCreationRequest(httpRequest);
-		}
-		else if(apiDocumentRead.equals(requestUri)) {
-			return new DocumentReadRequest(httpRequest);
-		}
-		else if(apiDocumentReadContents.equals(requestUri)) {
-			return new DocumentReadContentsRequest(httpRequest);
-		}
-		else if(apiDocumentUpdate.equals(requestUri)) {
-			return new DocumentUpdateRequest(httpRequest);
-		}
-		else if(apiDocumentDelete.equals(requestUri)) {
-			return new DocumentDeletionRequest(httpRequest);
-		}
-		// Image
-		else if(apiImageRead.equals(requestUri)) {
-			return new ImageReadRequest(httpRequest);
-		}
-		else if(apiImageBatchZipRead.equals(requestUri)) {
-			return new ImageBatchZipReadRequest(httpRequest);
-		}
-		// Mobility
-		else if(apiMobilityUpload.equals(requestUri)) {
-			return new MobilityUploadRequest(httpRequest);
-		}
-		else if(apiMobilityRead.equals(requestUri)) {
-			return new MobilityReadRequest(httpRequest);
-		}
-		else if(apiMobilityReadChunked.equals(requestUri)) {
-			return new MobilityReadChunkedRequest(httpRequest);
-		}
-		else if(apiMobilityAggregateRead.equals(requestUri)) {
-			return new MobilityAggregateReadRequest(httpRequest);
-		}
-		else if(apiMobilityDatesRead.equals(requestUri)) {
-			return new MobilityDatesReadRequest(httpRequest);
-		}
-		else if(apiMobilityReadCsv.equals(requestUri)) {
-			return new MobilityReadCsvRequest(httpRequest);
-		}
-		else if(apiMobilityUpdate.equals(requestUri)) {
-			return new MobilityUpdateRequest(httpRequest);
-		}
-		// Observer
-		else if(apiObserverCreate.equals(requestUri)) {
-			return new ObserverCreationRequest(httpRequest);
-		}
-		else if(apiObserverUpdate.equals(requestUri)) {
-			return new ObserverUpdateRequest(httpRequest);
-		}
-		else if(apiStreamUpload.equals(requestUri)) {
-			return new StreamUploadRequest(httpRequest);
-		}
-		else if(apiStreamRead.equals(requestUri)) {
-			return new StreamReadRequest(httpRequest);
-		}
-		// OMH
-		else if(apiOmhAuth.equals(requestUri)) {
-			return new OmhAuthenticateRequest(httpRequest);
-		}
-		else if(apiOmhCatalog.equals(requestUri)) {
-			return new OmhCatalogRequest(httpRequest);
-		}
-		else if(apiOmhRead.equals(requestUri)) {
-			return new OmhReadRequest(httpRequest);
-		}
-		// Survey
-		else if(apiSurveyUpload.equals(requestUri)) {
-			return new SurveyUploadRequest(httpRequest);
-		}
-		else if(apiSurveyResponseRead.equals(requestUri)) {
-			return new SurveyResponseReadRequest(httpRequest);
-		}
-		else if(apiSurveyResponseUpdate.equals(requestUri)) {
-			return new SurveyResponseUpdateRequest(httpRequest);
-		}
-		else if(apiSurveyResponseDelete.equals(requestUri)) {
-			return new SurveyResponseDeleteRequest(httpRequest);
-		}
-		else if(apiSurveyResponseFunctionRead.equals(requestUri)) {
-			return new SurveyResponseFunctionReadRequest(httpRequest);
-		}
-		// User
-		else if(apiUserCreate.equals(requestUri)) {
-			return new UserCreationRequest(httpRequest);
-		}
-		else if(apiUserRegister.equals(requestUri)) {
-			return new UserRegistrationRequest(httpRequest);
-		}
-		else if(apiUserActivate.equals(requestUri)) {
-			return new UserActivationRequest(httpRequest);
-		}
-		else if(apiUserPasswordReset.equals(requestUri)) {
-			return new UserPasswordResetRequest(httpRequest);
-		}
-		else if(apiUserRead.equals(requestUri)) {
-			return new UserReadRequest(httpRequest);
-		}
-		else if(apiUserInfoRead.equals(requestUri)) {
-			return new UserInfoReadRequest(httpRequest);
-		}
-		else if(apiUserStatsRead.equals(requestUri)) {
-			return new UserStatsReadRequest(httpRequest);
-		}
-		else if(apiUserSearch.equals(requestUri)) {
-			return new UserSearchRequest(httpRequest);
-		}
-		else if(apiUserUpdate.equals(requestUri)) {
-			return new UserUpdateRequest(httpRequest);
-		}
-		else if(apiUserChangePassword.equals(requestUri)) {
-			return new UserChangePasswordRequest(httpRequest);
-		}
-		else if(apiUserDelete.equals(requestUri)) {
-			return new UserDeletionRequest(httpRequest);
-		}
-		// Registration
-		else if(apiRegistrationRead.equals(requestUri)) {
-			return new RegistrationReadRequest(httpRequest);
-		}
-		else if(apiVideoRead.equals(requestUri)) {
-			return new VideoReadRequest(httpRequest);
-		}
-		// Visualization
-		else if(apiVisualizationSurveyResponseCount.equals(requestUri)) {
-			return new VizSurveyResponseCountRequest(httpRequest);
-		}
-		else if(apiVisualizationPromptDistribution.equals(requestUri)) {
-			return new VizPromptDistributionRequest(httpRequest);
-		}
-		else if(apiVisualizationPromptTimeseries.equals(requestUri)) {
-			return new VizPromptTimeseriesRequest(httpRequest);
-		}
-		else if(apiVisualizationUserTimeseries.equals(requestUri)) {
-			return new VizUserTimeseriesRequest(httpRequest);
-		}
-		else if(apiVisualizationScatterPlot.equals(requestUri)) {
-			return new VizScatterPlotRequest(httpRequest);
-		}
-		else if(apiVisualization2dDensity.equals(requestUri)) {
-			return new VizTwoDDensityRequest(httpRequest);
-		}
-		else if(apiVisualizationSurveyResponsePrivacy.equals(requestUri)) {
-			return new VizSurveyResponsePrivacyStateRequest(httpRequest);
-		}
-		else if(apiVisualizationSurveyResponsePrivacyTimeseries.equals(requestUri)) {
-			return new VizSurveyResponsePrivacyStateTimeseriesRequest(httpRequest);
+		Endpoint endpoint = endpoints.get(requestUri);
+		if(endpoint != null) {
+			return endpoint.buildRequest(httpRequest);
 		}
 		
 		// The URI is unknown.
@@ -601,96 +518,27 @@ public final class RequestBuilder implements ServletContextAware {
 	 * @return Returns true if the URI is known; false, otherwise.
 	 */
 	public boolean knownUri(String uri) {
-		if(
-				// Config
-				apiConfigRead.equals(uri) ||
-				// Annotation
-				apiAnnotationPromptResponseCreate.equals(uri) ||
-				apiAnnotationPromptResponseRead.equals(uri) ||
-				apiAnnotationSurveyResponseCreate.equals(uri) ||
-				apiAnnotationSurveyResponseRead.equals(uri) ||
-				// Authentication
-				apiUserAuth.equals(uri) ||
-				apiUserAuthToken.equals(uri) ||
-				apiUserLogout.equals(uri) ||
-				// Audit
-				apiAuditRead.equals(uri) ||
-				// Campaign
-				apiCampaignCreate.equals(uri) ||
-				apiCampaignRead.equals(uri) ||
-				apiCampaignSearch.equals(uri) ||
-				apiCampaignUpdate.equals(uri) ||
-				apiCampaignDelete.equals(uri) ||
-				// Class
-				apiClassCreate.equals(uri) ||
-				apiClassRead.equals(uri) ||
-				apiClassRosterRead.equals(uri) ||
-				apiClassSearch.equals(uri) ||
-				apiClassUpdate.equals(uri) ||
-				apiClassRosterUpdate.equals(uri) ||
-				apiClassDelete.equals(uri) ||
-				// Document
-				apiDocumentCreate.equals(uri) ||
-				apiDocumentRead.equals(uri) ||
-				apiDocumentReadContents.equals(uri) ||
-				apiDocumentUpdate.equals(uri) ||
-				apiDocumentDelete.equals(uri) ||
-				// Image
-				apiImageRead.equals(uri) ||
-				apiImageBatchZipRead.equals(uri) ||
-				// Mobility
-				apiMobilityUpload.equals(uri) ||
-				apiMobilityRead.equals(uri) ||
-				apiMobilityReadChunked.equals(uri) ||
-				apiMobilityAggregateRead.equals(uri) ||
-				apiMobilityDatesRead.equals(uri) ||
-				apiMobilityReadCsv.equals(uri) ||
-				apiMobilityUpdate.equals(uri) ||
-				// Observer
-				apiObserverCreate.equals(uri) ||
-				apiObserverUpdate.equals(uri) ||
-				apiStreamUpload.equals(uri) ||
-				apiStreamRead.equals(uri) ||
-				// OMH
-				apiOmhAuth.equals(uri) ||
-				apiOmhCatalog.equals(uri) ||
-				apiOmhRead.equals(uri) ||
-				// Survey
-				apiSurveyUpload.equals(uri) ||
-				apiSurveyResponseRead.equals(uri) ||
-				apiSurveyResponseUpdate.equals(uri) ||
-				apiSurveyResponseDelete.equals(uri) ||
-				apiSurveyResponseFunctionRead.equals(uri) ||
-				// User
-				apiUserCreate.equals(uri) ||
-				apiUserRegister.equals(uri) ||
-				apiUserActivate.equals(uri) ||
-				apiUserPasswordReset.equals(uri) ||
-				apiUserRead.equals(uri) ||
-				apiUserInfoRead.equals(uri) ||
-				apiUserStatsRead.equals(uri) ||
-				apiUserSearch.equals(uri) ||
-				apiUserUpdate.equals(uri) ||
-				apiUserChangePassword.equals(uri) ||
-				apiUserDelete.equals(uri) ||
-				// Registration
-				apiRegistrationRead.equals(uri) ||
-				// Video
-				apiVideoRead.equals(uri) ||
-				// Visualization
-				apiVisualizationSurveyResponseCount.equals(uri) ||
-				apiVisualizationPromptDistribution.equals(uri) ||
-				apiVisualizationPromptTimeseries.equals(uri) ||
-				apiVisualizationUserTimeseries.equals(uri) ||
-				apiVisualizationScatterPlot.equals(uri) ||
-				apiVisualization2dDensity.equals(uri) ||
-				apiVisualizationSurveyResponsePrivacy.equals(uri) ||
-				apiVisualizationSurveyResponsePrivacyTimeseries.equals(uri)) {
-			return true;
-		}
-		
-		// The URI is unknown.
-		return false;
+		return endpoints.containsKey(uri);
+	}
+	
+	/**
+	 * Returns the endpoint for some URI.
+	 * 
+	 * @param uri The URI.
+	 * 
+	 * @return The endpoint or null if the URI is unknown.
+	 */
+	public Endpoint getEndpoint(String uri) {
+		return endpoints.get(uri);
+	}
+	
+	/**
+	 * Returns all of the known endpoints.
+	 * 
+	 * @return An unmodifiable collection of the endpoints.
+	 */
+	public Collection<Endpoint> getEndpoints() {
+		return endpoints.values();
 	}
 
 	/**
@@ -765,6 +613,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiAuditRead;
 	}
 
+	/**
+	 * Returns apiMetricsRead.
+	 * 
+	 * @return The apiMetricsRead.
+	 */
+	public String getApiMetricsRead() {
+		return apiMetricsRead;
+	}
+	
 	/**
 	 * Returns apiUserAuth.
 	 *
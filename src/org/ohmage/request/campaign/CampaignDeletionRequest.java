@@ -22,6 +22,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.CampaignCache;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
@@ -121,6 +122,8 @@ public class CampaignDeletionRequest extends UserRequest {
 			
 			LOGGER.info("Deleting the campaign.");
 			CampaignServices.instance().deleteCampaign(campaignId);
+			
+			CampaignCache.invalidate(campaignId);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -16,8 +16,11 @@
 package org.ohmage.request.campaign;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
@@ -33,6 +36,7 @@ import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
+import org.ohmage.request.Request;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.CampaignServices;
 import org.ohmage.service.UserCampaignServices;
@@ -43,7 +47,10 @@ import org.ohmage.validator.CampaignValidators;
  * <p>Gathers all campaigns and then searches through them removing those that 
  * do not match the search criteria. A missing or empty string for a parameter 
  * means that it will not be used to filter the list. If no parameters are 
- * given, information about every campaign in the system will be returned.</p>
+ * given, information about every campaign in the system will be returned. The
+ * text parameters are split into words, and a campaign matches when each word
+ * is contained in one of the words of its corresponding value, regardless of
+ * case. The results are ordered by campaign ID so that they may be paged.</p>
  * <p>The requester must be an admin.</p>
  * <table border="1">
  *   <tr>
@@ -113,6 +120,18 @@ import org.ohmage.validator.CampaignValidators;
  *     <td>Limits the results to only those that have this running state.</td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_SKIP}</td>
+ *     <td>The number of campaigns to skip before processing to facilitate 
+ *       paging.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_RETURN}</td>
+ *     <td>The number of campaigns to return after skipping to facilitate 
+ *       paging.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author John Jenkins
@@ -130,7 +149,11 @@ public class CampaignSearchRequest extends UserRequest {
 	private final Campaign.PrivacyState privacyState;
 	private final Campaign.RunningState runningState;
 	
+	private final int numToSkip;
+	private final int numToReturn;
+	
 	private final Collection<Campaign> campaigns;
+	private int totalNumResults;
 	
 	/**
 	 * Builds this request based on the information in the HTTP request.
@@ -156,6 +179,9 @@ public class CampaignSearchRequest extends UserRequest {
 		Campaign.PrivacyState tPrivacyState = null;
 		Campaign.RunningState tRunningState = null;
 		
+		int tNumToSkip = 0;
+		int tNumToReturn = Campaign.MAX_NUM_TO_RETURN;
+		
 		if(! isFailed()) {
 			LOGGER.info("Creating a campaign search request.");
 			
@@ -259,6 +285,28 @@ public class CampaignSearchRequest extends UserRequest {
 				else if(t.length == 1) {
 					tRunningState = CampaignValidators.validateRunningState(t[0]);
 				}
+				
+				t = getParameterValues(InputKeys.NUM_TO_SKIP);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SERVER_INVALID_NUM_TO_SKIP,
+							"Multiple number to skip parameters were given: " + 
+								InputKeys.NUM_TO_SKIP);
+				}
+				else if(t.length == 1) {
+					tNumToSkip = CampaignValidators.validateNumToSkip(t[0]);
+				}
+				
+				t = getParameterValues(InputKeys.NUM_TO_RETURN);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+							"Multiple number to return parameters were given: " +
+								InputKeys.NUM_TO_RETURN);
+				}
+				else if(t.length == 1) {
+					tNumToReturn = CampaignValidators.validateNumToReturn(t[0]);
+				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -276,6 +324,9 @@ public class CampaignSearchRequest extends UserRequest {
 		privacyState = tPrivacyState;
 		runningState = tRunningState;
 		
+		numToSkip = tNumToSkip;
+		numToReturn = tNumToReturn;
+		
 		campaigns = new LinkedList<Campaign>();
 	}
 	
@@ -296,7 +347,7 @@ public class CampaignSearchRequest extends UserRequest {
 			UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
 
 			LOGGER.info("Searching for the campaigns that satisfy the parameters.");
-			Set<String> campaignIds =
+			Collection<String> campaignIds =
 				CampaignServices.instance().campaignIdSearch(
 						campaignId,
 						campaignName,
@@ -307,6 +358,23 @@ public class CampaignSearchRequest extends UserRequest {
 						endDate,
 						privacyState,
 						runningState);
+			totalNumResults = campaignIds.size();
+			
+			if(numToSkip >= totalNumResults) {
+				campaignIds.clear();
+			}
+			else {
+				List<String> sortedCampaignIds = 
+					new ArrayList<String>(campaignIds);
+				Collections.sort(sortedCampaignIds);
+				
+				int lastIndex = totalNumResults;
+				if(numToReturn < totalNumResults - numToSkip) {
+					lastIndex = numToSkip + numToReturn;
+				}
+				
+				campaignIds = sortedCampaignIds.subList(numToSkip, lastIndex);
+			}
 			
 			LOGGER.info("Gathering the information about each of the campaigns.");
 			campaigns.addAll(
@@ -334,11 +402,17 @@ public class CampaignSearchRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Responding to a campaign search request.");
 		JSONObject result = null;
+		JSONObject metadata = null;
 		
 		if(! isFailed()) {
+			metadata = new JSONObject();
 			result = new JSONObject();
 			
 			try {
+				metadata.put(
+						Request.JSON_KEY_TOTAL_NUM_RESULTS, 
+						totalNumResults);
+				
 				for(Campaign campaign : campaigns) {
 					result.put(
 							campaign.getId(), 
@@ -362,6 +436,6 @@ public class CampaignSearchRequest extends UserRequest {
 			}
 		}
 		
-		super.respond(httpRequest, httpResponse, result);
+		super.respond(httpRequest, httpResponse, metadata, result);
 	}
 }
@@ -25,6 +25,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.CampaignCache;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -338,6 +339,8 @@ public class CampaignUpdateRequest extends UserRequest {
 					classesToRemove, 
 					usersAndRolesToAdd, 
 					usersAndRolesToRemove);
+			
+			CampaignCache.invalidate(campaignId);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -1,5 +1,6 @@
 package org.ohmage.request.image;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -17,6 +18,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.ohmage.domain.Image;
 import org.ohmage.domain.campaign.PromptResponse;
 import org.ohmage.domain.campaign.RepeatableSetResponse;
 import org.ohmage.domain.campaign.Response;
@@ -138,6 +140,7 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 				promptResponseColumn, 
 				"photo",
 				null,
+				null,
 				false, 
 				0, 
 				Long.MAX_VALUE);
@@ -214,7 +217,7 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 			InputStream imageStream;
 			try {
 				URL imageUrl = imageUrls.get(imageId);
-				imageStream = imageUrl.openStream();
+				imageStream = new BufferedInputStream(imageUrl.openStream());
 			}
 			catch(IOException e) {
 				LOGGER.info(
@@ -224,9 +227,15 @@ public class ImageBatchZipReadRequest extends SurveyResponseRequest {
 				continue;
 			}
 			
-			// Next, we create a new entry in the ZIP file for this image.
+			// Next, we create a new entry in the ZIP file for this image, 
+			// named for the image's type.
 			try {
-				zipStream.putNextEntry(new ZipEntry(imageId.toString() + ".png"));
+				zipStream.putNextEntry(
+						new ZipEntry(
+							imageId.toString() + 
+								"." + 
+								Image.getExtension(
+									Image.getContentType(imageStream))));
 			}
 			catch(IOException e) {
 				LOGGER.error(
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.request.image;
 
+import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -205,7 +206,7 @@ public class ImageReadRequest extends UserRequest {
 		InputStream imageStream = null;
 		try {
 			if(image != null) {
-				imageStream = image.openStream(size);
+				imageStream = new BufferedInputStream(image.openStream(size));
 			}
 		}
 		catch(DomainException e) {
@@ -223,11 +224,9 @@ public class ImageReadRequest extends UserRequest {
 				super.respond(httpRequest, httpResponse, null);
 			}
 			else {
-				// Set the type of the value.
-				// FIXME: This isn't necessarily the case. We might want to do
-				// some sort of image inspection to figure out what this should
-				// be.
-				httpResponse.setContentType("image/png");
+				// Set the type of the value. Images are stored as they were
+				// uploaded, so inspect the image to determine its type.
+				httpResponse.setContentType(Image.getContentType(imageStream));
 				httpResponse.setHeader(
 						"Content-Length", 
 						new Long(image.getSizeBytes(size)).toString());
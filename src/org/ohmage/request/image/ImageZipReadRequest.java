@@ -57,6 +57,7 @@ public class ImageZipReadRequest extends SurveyResponseRequest {
 				promptResponseColumn, 
 				"photo",
 				null,
+				null,
 				false, 
 				0, 
 				Long.MAX_VALUE);
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.CampaignCache;
+import org.ohmage.cache.ObserverCache;
+import org.ohmage.cache.StreamIdIndex;
+import org.ohmage.cache.UserBin;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.impl.ImageScaler;
+import org.ohmage.reporting.AuditWriter;
+import org.ohmage.request.Endpoint;
+import org.ohmage.request.LatencyHistogram;
+import org.ohmage.request.RequestBuilder;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.MetricsServices;
+import org.ohmage.service.MobilityClassificationEngine;
+import org.ohmage.service.UserServices;
+
+/**
+ * <p>Reads the server's metrics: the number of calls, the calls in flight,
+ * latency percentiles, and failures by error code for each endpoint, as well
+ * as the state of the database connection pool, the caches, the stream data
+ * ID index, and the background audit, image, and Mobility classification
+ * pipelines. The counts are cumulative since the server started. In order to
+ * read the metrics the user must be an admin.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ * </table>
+ */
+public class MetricsReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(MetricsReadRequest.class);
+	
+	private static final String JSON_KEY_ENDPOINTS = "endpoints";
+	private static final String JSON_KEY_ERROR_CODES = "error_codes";
+	private static final String JSON_KEY_DATABASE = "database";
+	private static final String JSON_KEY_TOKEN_CACHE = "token_cache";
+	private static final String JSON_KEY_CAMPAIGN_CACHE = "campaign_cache";
+	private static final String JSON_KEY_OBSERVER_CACHE = "observer_cache";
+	private static final String JSON_KEY_AUDIT_WRITER = "audit_writer";
+	private static final String JSON_KEY_IMAGE_SCALER = "image_scaler";
+	private static final String JSON_KEY_STREAM_ID_INDEX = "stream_id_index";
+	private static final String JSON_KEY_MOBILITY_CLASSIFIER =
+		"mobility_classifier";
+	
+	private static final String JSON_KEY_COUNT = "count";
+	private static final String JSON_KEY_IN_FLIGHT = "in_flight";
+	private static final String JSON_KEY_FAILURES = "failures";
+	private static final String JSON_KEY_MEAN_MILLIS = "mean_millis";
+	private static final String JSON_KEY_MAX_MILLIS = "max_millis";
+	private static final String JSON_KEY_P50_MILLIS = "p50_millis";
+	private static final String JSON_KEY_P90_MILLIS = "p90_millis";
+	private static final String JSON_KEY_P99_MILLIS = "p99_millis";
+	private static final String JSON_KEY_P999_MILLIS = "p999_millis";
+	
+	private static final String JSON_KEY_ACTIVE = "active";
+	private static final String JSON_KEY_IDLE = "idle";
+	private static final String JSON_KEY_MAX_ACTIVE = "max_active";
+	
+	private static final String JSON_KEY_SIZE = "size";
+	private static final String JSON_KEY_HITS = "hits";
+	private static final String JSON_KEY_MISSES = "misses";
+	private static final String JSON_KEY_LOCK_CONTENTIONS = "lock_contentions";
+	private static final String JSON_KEY_LOCK_WAIT_MILLIS = "lock_wait_millis";
+	private static final String JSON_KEY_BYTES = "bytes";
+	private static final String JSON_KEY_LOADS = "loads";
+	private static final String JSON_KEY_CHECKED = "checked";
+	private static final String JSON_KEY_ABSENT = "absent";
+	private static final String JSON_KEY_PROBABLE = "probable";
+	private static final String JSON_KEY_FALSE_POSITIVES = "false_positives";
+	private static final String JSON_KEY_FALSE_POSITIVE_RATE = "false_positive_rate";
+	private static final String JSON_KEY_UNAVAILABLE = "unavailable";
+	
+	private static final String JSON_KEY_QUEUED = "queued";
+	private static final String JSON_KEY_SUBMITTED = "submitted";
+	private static final String JSON_KEY_WRITTEN = "written";
+	private static final String JSON_KEY_DROPPED = "dropped";
+	private static final String JSON_KEY_FAILED = "failed";
+	private static final String JSON_KEY_SCALED = "scaled";
+	private static final String JSON_KEY_SCALED_INLINE = "scaled_inline";
+	private static final String JSON_KEY_POINTS = "points";
+	private static final String JSON_KEY_WINDOWS = "windows";
+	private static final String JSON_KEY_WINDOWS_INLINE = "windows_inline";
+	
+	/**
+	 * Creates a metrics read request.
+	 * 
+	 * @param httpRequest The HttpServletRequest with the parameters.
+	 * 
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 * 
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public MetricsReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+		
+		super(httpRequest, null, TokenLocation.EITHER, null);
+		
+		LOGGER.info("Creating a metrics read request.");
+	}
+	
+	/**
+	 * Services the request.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the metrics read request.");
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+		
+		try {
+			LOGGER.info("Verifying the user is an admin.");
+			UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+	
+	/**
+	 * Replies to the request with a snapshot of the metrics.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+		
+		JSONObject result = new JSONObject();
+		
+		if(! isFailed()) {
+			try {
+				JSONObject endpoints = new JSONObject();
+				long[] errorCodeCounts = new long[ErrorCode.values().length];
+				for(Endpoint endpoint : RequestBuilder.getInstance().getEndpoints()) {
+					endpoints.put(
+						endpoint.getUri(),
+						endpointToJson(endpoint, errorCodeCounts));
+				}
+				result.put(JSON_KEY_ENDPOINTS, endpoints);
+				
+				JSONObject errorCodes = new JSONObject();
+				for(ErrorCode errorCode : ErrorCode.values()) {
+					long count = errorCodeCounts[errorCode.ordinal()];
+					if(count > 0) {
+						errorCodes.put(errorCode.toString(), count);
+					}
+				}
+				result.put(JSON_KEY_ERROR_CODES, errorCodes);
+				
+				MetricsServices metricsServices = MetricsServices.instance();
+				JSONObject database = new JSONObject();
+				database.put(JSON_KEY_ACTIVE, metricsServices.getNumActiveConnections());
+				database.put(JSON_KEY_IDLE, metricsServices.getNumIdleConnections());
+				database.put(JSON_KEY_MAX_ACTIVE, metricsServices.getMaxActiveConnections());
+				result.put(JSON_KEY_DATABASE, database);
+				
+				JSONObject tokenCache = new JSONObject();
+				tokenCache.put(JSON_KEY_SIZE, UserBin.getTokenCount());
+				tokenCache.put(JSON_KEY_LOCK_CONTENTIONS, UserBin.getLockContentionCount());
+				tokenCache.put(JSON_KEY_LOCK_WAIT_MILLIS, UserBin.getLockWaitTimeInMillis());
+				result.put(JSON_KEY_TOKEN_CACHE, tokenCache);
+				
+				JSONObject campaignCache = new JSONObject();
+				campaignCache.put(JSON_KEY_SIZE, CampaignCache.size());
+				campaignCache.put(JSON_KEY_HITS, CampaignCache.getHitCount());
+				campaignCache.put(JSON_KEY_MISSES, CampaignCache.getMissCount());
+				result.put(JSON_KEY_CAMPAIGN_CACHE, campaignCache);
+				
+				JSONObject observerCache = new JSONObject();
+				observerCache.put(JSON_KEY_SIZE, ObserverCache.size());
+				observerCache.put(JSON_KEY_HITS, ObserverCache.getHitCount());
+				observerCache.put(JSON_KEY_MISSES, ObserverCache.getMissCount());
+				result.put(JSON_KEY_OBSERVER_CACHE, observerCache);
+				
+				StreamIdIndex streamIdIndex = StreamIdIndex.instance();
+				if(streamIdIndex != null) {
+					JSONObject index = new JSONObject();
+					index.put(JSON_KEY_SIZE, streamIdIndex.getFilterCount());
+					index.put(JSON_KEY_BYTES, streamIdIndex.getSizeInBytes());
+					index.put(JSON_KEY_LOADS, streamIdIndex.getLoadCount());
+					index.put(JSON_KEY_CHECKED, streamIdIndex.getCheckedCount());
+					index.put(JSON_KEY_ABSENT, streamIdIndex.getAbsentCount());
+					index.put(JSON_KEY_PROBABLE, streamIdIndex.getProbableCount());
+					index.put(JSON_KEY_FALSE_POSITIVES, streamIdIndex.getFalsePositiveCount());
+					index.put(JSON_KEY_FALSE_POSITIVE_RATE, streamIdIndex.getFalsePositiveRate());
+					index.put(JSON_KEY_UNAVAILABLE, streamIdIndex.getUnavailableCount());
+					result.put(JSON_KEY_STREAM_ID_INDEX, index);
+				}
+				
+				AuditWriter auditWriter = AuditWriter.instance();
+				if(auditWriter != null) {
+					JSONObject audits = new JSONObject();
+					audits.put(JSON_KEY_QUEUED, auditWriter.getQueueSize());
+					audits.put(JSON_KEY_SUBMITTED, auditWriter.getSubmittedCount());
+					audits.put(JSON_KEY_WRITTEN, auditWriter.getWrittenCount());
+					audits.put(JSON_KEY_DROPPED, auditWriter.getDroppedCount());
+					audits.put(JSON_KEY_FAILED, auditWriter.getFailedCount());
+					result.put(JSON_KEY_AUDIT_WRITER, audits);
+				}
+				
+				ImageScaler imageScaler = ImageScaler.instance();
+				if(imageScaler != null) {
+					LatencyHistogram latencies = imageScaler.getLatencies();
+					JSONObject images = new JSONObject();
+					images.put(JSON_KEY_QUEUED, imageScaler.getQueueSize());
+					images.put(JSON_KEY_SCALED, imageScaler.getScaledCount());
+					images.put(JSON_KEY_FAILED, imageScaler.getFailedCount());
+					images.put(JSON_KEY_SCALED_INLINE, imageScaler.getScaledInlineCount());
+					images.put(JSON_KEY_MEAN_MILLIS, latencies.getMeanMillis());
+					images.put(JSON_KEY_MAX_MILLIS, latencies.getMaxMillis());
+					images.put(JSON_KEY_P50_MILLIS, latencies.getPercentile(50));
+					images.put(JSON_KEY_P99_MILLIS, latencies.getPercentile(99));
+					result.put(JSON_KEY_IMAGE_SCALER, images);
+				}
+				
+				MobilityClassificationEngine classifier =
+					MobilityClassificationEngine.instance();
+				if(classifier != null) {
+					JSONObject mobility = new JSONObject();
+					mobility.put(JSON_KEY_QUEUED, classifier.getQueueSize());
+					mobility.put(JSON_KEY_POINTS, classifier.getPointCount());
+					mobility.put(JSON_KEY_WINDOWS, classifier.getWindowCount());
+					mobility.put(JSON_KEY_WINDOWS_INLINE, classifier.getWindowInlineCount());
+					result.put(JSON_KEY_MOBILITY_CLASSIFIER, mobility);
+				}
+			}
+			catch(JSONException e) {
+				LOGGER.error("Error building the metrics.", e);
+				setFailed();
+			}
+		}
+		
+		super.respond(httpRequest, httpResponse, result);
+	}
+	
+	/**
+	 * Creates a JSONObject that describes an endpoint and adds its failures
+	 * to the totals for each error code.
+	 * 
+	 * @param endpoint The endpoint.
+	 * 
+	 * @param errorCodeCounts The total failures for each error code, indexed
+	 * 						  by ordinal.
+	 * 
+	 * @return The JSONObject describing the endpoint.
+	 * 
+	 * @throws JSONException There was an error building the JSONObject.
+	 */
+	private static JSONObject endpointToJson(
+			final Endpoint endpoint,
+			final long[] errorCodeCounts)
+			throws JSONException {
+		
+		LatencyHistogram latencies = endpoint.getLatencies();
+		
+		JSONObject result = new JSONObject();
+		result.put(JSON_KEY_COUNT, latencies.getCount());
+		result.put(JSON_KEY_IN_FLIGHT, endpoint.getInFlightCount());
+		result.put(JSON_KEY_MEAN_MILLIS, latencies.getMeanMillis());
+		result.put(JSON_KEY_MAX_MILLIS, latencies.getMaxMillis());
+		result.put(JSON_KEY_P50_MILLIS, latencies.getPercentile(50));
+		result.put(JSON_KEY_P90_MILLIS, latencies.getPercentile(90));
+		result.put(JSON_KEY_P99_MILLIS, latencies.getPercentile(99));
+		result.put(JSON_KEY_P999_MILLIS, latencies.getPercentile(99.9));
+		
+		JSONObject failures = new JSONObject();
+		for(ErrorCode errorCode : ErrorCode.values()) {
+			long count = endpoint.getFailureCount(errorCode);
+			if(count > 0) {
+				failures.put(errorCode.toString(), count);
+				errorCodeCounts[errorCode.ordinal()] += count;
+			}
+		}
+		result.put(JSON_KEY_FAILURES, failures);
+		
+		return result;
+	}
+}
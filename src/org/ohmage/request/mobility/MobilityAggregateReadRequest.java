@@ -1,8 +1,6 @@
 package org.ohmage.request.mobility;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -19,17 +17,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
-import org.ohmage.domain.DataStream;
 import org.ohmage.domain.MobilityPoint;
-import org.ohmage.domain.MobilityPoint.SubType;
+import org.ohmage.domain.MobilityRollup;
 import org.ohmage.exception.CacheMissException;
-import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
-import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.MobilityServices;
 import org.ohmage.service.UserClassServices;
 import org.ohmage.service.UserServices;
@@ -41,7 +36,9 @@ import org.ohmage.validator.UserValidators;
 /**
  * Gathers the Mobility information between the given dates and aggregates the
  * time for each mode in each chunk where a chunk's length is the given
- * duration.<br />
+ * duration. The time is aggregated from the user's Mobility rollups, which
+ * are kept up to date as points are uploaded, instead of from the points
+ * themselves.<br />
  * <br />
  * <table border="1">
  *   <tr>
@@ -89,14 +86,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 			Logger.getLogger(MobilityAggregateReadRequest.class);
 	
 	private final DateTime startDate;
-	//private final DateTime endDate;
+	private final DateTime endDate;
 	private final Long duration;
 	private final String username;
 	
-	private final StreamReadRequest regularReadRequest;
-	private final StreamReadRequest extendedReadRequest;
-	
-	private List<MobilityPoint> points;
+	private List<MobilityRollup> rollups;
 	
 	/**
 	 * Creates a new Mobility aggregate read request.
@@ -115,13 +109,10 @@ public class MobilityAggregateReadRequest extends UserRequest {
 		super(httpRequest, false, TokenLocation.EITHER, null);
 
 		DateTime tStartDate = null;
-		//DateTime tEndDate = null;
+		DateTime tEndDate = null;
 		Long tDuration = null;
 		String tUsername = null;
 		
-		StreamReadRequest tRegularReadRequest = null;
-		StreamReadRequest tExtendedReadRequest = null;
-		
 		if(! isFailed()) {
 			LOGGER.info("Creating a Mobility aggregate read request.");
 			String[] t;
@@ -146,7 +137,6 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				}
 				
 				// Get the end date.
-				DateTime endDate = null;
 				t = getParameterValues(InputKeys.END_DATE);
 				if(t.length == 0) {
 					throw new ValidationException(
@@ -155,9 +145,9 @@ public class MobilityAggregateReadRequest extends UserRequest {
 									InputKeys.END_DATE);
 				}
 				else if(t.length == 1) {
-					endDate = MobilityValidators.validateDate(t[0]);
+					tEndDate = MobilityValidators.validateDate(t[0]);
 				}
-				if(endDate == null) {
+				if(tEndDate == null) {
 					throw new ValidationException(
 							ErrorCode.SERVER_INVALID_DATE, 
 							"Multiple end dates were given: " + 
@@ -194,48 +184,6 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				else if(t.length == 1) {
 					tUsername = UserValidators.validateUsername(t[0]);
 				}
-				
-				// Always get all of the columns.
-				try {
-					tRegularReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"regular",
-							2012050700,
-							tStartDate,
-							endDate,
-							null,
-							0,
-							StreamReadRequest.MAX_NUMBER_TO_RETURN);
-					
-					tExtendedReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"extended",
-							2012050700,
-							tStartDate,
-							endDate,
-							null,
-							0,
-							StreamReadRequest.MAX_NUMBER_TO_RETURN);
-				}
-				catch(IllegalArgumentException e) {
-					throw new ValidationException(
-						"There was an error creating the request.",
-						e);
-				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -244,14 +192,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 		}
 		
 		startDate = tStartDate;
-		//endDate = tEndDate;
+		endDate = tEndDate;
 		duration = tDuration;
 		username = tUsername;
 		
-		regularReadRequest = tRegularReadRequest;
-		extendedReadRequest = tExtendedReadRequest;
-		
-		points = new ArrayList<MobilityPoint>(); 
+		rollups = Collections.emptyList();
 	}
 
 	/*
@@ -260,13 +205,12 @@ public class MobilityAggregateReadRequest extends UserRequest {
 	 */
 	@Override
 	public void service() {
-		// If any of the sub-requests have failed, then return.
-		if(regularReadRequest.isFailed() || extendedReadRequest.isFailed()) {
+		LOGGER.info("Servicing the Mobility aggregate read request.");
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
 			return;
 		}
 		
-		LOGGER.info("Servicing the Mobility read request.");
-		
 		try {
 			if((username != null) && (! username.equals(getUser().getUsername()))) {
 				try {
@@ -305,59 +249,15 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				}
 			}
 			
-			// Service the read requests.
-			regularReadRequest.service();
-			if(regularReadRequest.isFailed()) {
-				return;
-			}
-			extendedReadRequest.service();
-			if(extendedReadRequest.isFailed()) {
-				return;
-			}
-			
-			LOGGER.info("Aggregating the resulting points.");
-			Collection<DataStream> regularResults = 
-				regularReadRequest.getResults();
-			for(DataStream dataStream : regularResults) {
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.MODE_ONLY,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
-				}
-			}
-
-			Collection<DataStream> extendedResults = 
-				extendedReadRequest.getResults();
-			for(DataStream dataStream : extendedResults) {
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.SENSOR_DATA,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
-				}
-			}
-			
-			LOGGER.info("Sorting the aggregated points.");
-			Collections.sort(points);
-			
-			// Run them through the classifier.
-			LOGGER.info("Classifying the points.");
-			MobilityServices.instance().classifyData(
-				regularReadRequest.getUser().getUsername(),
-				points);
+			// The points were filtered by their local times, so the rollups
+			// are read with a day's margin on either side and filtered by
+			// their local times when the response is built.
+			LOGGER.info("Gathering the Mobility rollups.");
+			rollups =
+				MobilityServices.instance().retrieveMobilityRollups(
+					(username == null) ? getUser().getUsername() : username,
+					startDate.minusDays(1),
+					endDate.plusDays(1));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -386,13 +286,26 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				
 				// Bucket the data based on its duration. The first bucket begins at 
 				// the start date not at the earliest point.
-				Map<Long, List<MobilityPoint>> buckets = 
-						new HashMap<Long, List<MobilityPoint>>();
-				for(MobilityPoint mobilityPoint : points) {
-					// Get the point's date and time.
-					DateTime pointDateTime = mobilityPoint.getDate();
+				Map<Long, List<MobilityRollup>> buckets = 
+						new HashMap<Long, List<MobilityRollup>>();
+				for(MobilityRollup rollup : rollups) {
+					// Skip the rollups whose local time is outside of the
+					// range.
+					long localTime = 
+						rollup.getTime() + 
+						rollup.getTimezone().getOffset(rollup.getTime());
+					if((localTime < startDate.getMillis()) ||
+						(localTime > endDate.getMillis())) {
+						
+						continue;
+					}
+					
+					// Get the rollup's date and time in its points' time
+					// zone.
+					DateTime pointDateTime = 
+						new DateTime(rollup.getTime(), rollup.getTimezone());
 					
-					// Calculate this points "day value".
+					// Calculate this rollup's "day value".
 					int year = pointDateTime.getYear() - 1;
 					long bucketNum =
 						(year * 365) + (year / 4) - (year / 100) + (year / 400);
@@ -406,14 +319,14 @@ public class MobilityAggregateReadRequest extends UserRequest {
 					// duration.
 					bucketNum /= duration;
 					
-					// Add this point to its appropriate bucket.
-					List<MobilityPoint> bucket = 
+					// Add this rollup to its appropriate bucket.
+					List<MobilityRollup> bucket = 
 						buckets.get(bucketNum);
 					if(bucket == null) {
-						bucket = new LinkedList<MobilityPoint>();
+						bucket = new LinkedList<MobilityRollup>();
 						buckets.put(bucketNum, bucket);
 					}
-					bucket.add(mobilityPoint);
+					bucket.add(rollup);
 				}
 				
 				JSONArray result = new JSONArray();
@@ -421,7 +334,7 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				// Parse each bucket.
 				for(Long bucketNum : buckets.keySet()) {
 					// Get the buckets.
-					List<MobilityPoint> mobilityPoints = 
+					List<MobilityRollup> bucketRollups = 
 							buckets.get(bucketNum);
 					
 					// Create a map to hold the mode to duration times.
@@ -441,56 +354,20 @@ public class MobilityAggregateReadRequest extends UserRequest {
 					JSONArray data = new JSONArray();
 					currResult.put(JSON_KEY_DATA, data);
 					
-					Map<MobilityPoint.Mode, JSONObject> modeToObjectMap =
-							new HashMap<MobilityPoint.Mode, JSONObject>();
-					
-					// Go from point to point looking backwards to determine 
-					// how much time should be added to this mode.
-					MobilityPoint previousPoint = null;
-					for(MobilityPoint mobilityPoint : mobilityPoints) {
-						// Get this point's mode.
-						MobilityPoint.Mode mode = mobilityPoint.getMode();
-						
-						// Retrieve the mode/duration JSONObject for this chunk
-						// and mode or create it with an initial duration of 0 
-						// if it doesn't exist.
-						JSONObject modeDurationObject = 
-								modeToObjectMap.get(mode);
-						if(modeDurationObject == null) {
-							modeDurationObject = new JSONObject();
-							modeDurationObject.put(
-									JSON_KEY_MODE, 
-									mode.toString().toLowerCase());
-							modeDurationObject.put(JSON_KEY_DURATION, 0);
-							
-							data.put(modeDurationObject);
-							modeToObjectMap.put(mode, modeDurationObject);
-						}
-						
-						// Get the current duration.
-						long duration = 
-								modeDurationObject.getLong(JSON_KEY_DURATION);
-						
-						// Compute the additional duration for this mode.
-						long additionalDuration;
-						if(previousPoint == null) {
-							additionalDuration = 60000;
-						}
-						else {
-							long difference = 
-									mobilityPoint.getDate().getMillis() - 
-									previousPoint.getDate().getMillis();
-							
-							additionalDuration = 
-								(difference <= 3600000) ? difference : 60000;
-						}
-						
-						// Update the duration with the additional duration.
+					// Each point is credited with the time since the previous
+					// point in the same bucket.
+					Map<MobilityPoint.Mode, Long> modeDurations =
+						MobilityRollup.getModeDurations(bucketRollups);
+					for(MobilityPoint.Mode mode : modeDurations.keySet()) {
+						JSONObject modeDurationObject = new JSONObject();
+						modeDurationObject.put(
+								JSON_KEY_MODE, 
+								mode.toString().toLowerCase());
 						modeDurationObject.put(
 								JSON_KEY_DURATION, 
-								duration + additionalDuration);
+								modeDurations.get(mode));
 						
-						previousPoint = mobilityPoint;
+						data.put(modeDurationObject);
 					}
 				}
 				
@@ -21,21 +21,20 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
-import org.ohmage.domain.MobilityPoint;
-import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityRollup;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -48,7 +47,9 @@ import org.ohmage.validator.MobilityValidators;
 
 /**
  * Gathers the Mobility information about the user and the combines the 
- * information into chunks to reduce its size.<br />
+ * information into chunks to reduce its size. The chunks are built from the
+ * user's Mobility rollups, which are kept up to date as points are uploaded,
+ * instead of from the points themselves.<br />
  * <br />
  * <table border="1">
  *   <tr>
@@ -102,7 +103,7 @@ public class MobilityReadChunkedRequest extends UserRequest {
 	private final DateTime endDate;
 	private final long millisPerChunk;
 	
-	private List<MobilityPoint> result;
+	private List<MobilityRollup> result;
 	
 	/**
 	 * Creates a new Mobility read chunked request.
@@ -230,14 +231,11 @@ public class MobilityReadChunkedRequest extends UserRequest {
 		try {
 			LOGGER.info("Gathering the data.");
 			result =
-					MobilityServices.instance().retrieveMobilityData(
+					MobilityServices.instance().retrieveMobilityRollups(
 						getUser().getUsername(), 
 						startDate, 
-						endDate, 
-						null, 
-						null, 
-						null);
-			LOGGER.info("Found " + result.size() + " results.");
+						endDate);
+			LOGGER.info("Found " + result.size() + " rollups.");
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -252,71 +250,62 @@ public class MobilityReadChunkedRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Responding to the Mobility read chunked request.");
 		
-		Map<Long, List<MobilityPoint>> millisToPointMap =
-				new HashMap<Long, List<MobilityPoint>>();
-		
-		// Bucket the items preserving order in the bucket.
-		for(MobilityPoint mobilityPoint : result) {
-			long time = mobilityPoint.getTime();
-			
-			// Get this point's bucket.
-			time = (time / millisPerChunk) * millisPerChunk;
+		// Bucket the rollups. Each chunk is a whole number of minutes, so 
+		// every rollup belongs to exactly one chunk. The rollups are in the
+		// order of their first points, so the first rollup in a bucket has
+		// the chunk's first point.
+		Map<Long, List<MobilityRollup>> millisToRollupMap =
+				new TreeMap<Long, List<MobilityRollup>>();
+		for(MobilityRollup rollup : result) {
+			long time = 
+					(rollup.getTime() / millisPerChunk) * millisPerChunk;
 			
-			List<MobilityPoint> bucket = millisToPointMap.get(time);
+			List<MobilityRollup> bucket = millisToRollupMap.get(time);
 			
 			if(bucket == null) {
-				bucket = new LinkedList<MobilityPoint>();
-				millisToPointMap.put(time, bucket);
+				bucket = new LinkedList<MobilityRollup>();
+				millisToRollupMap.put(time, bucket);
 			}
 			
-			bucket.add(mobilityPoint);
+			bucket.add(rollup);
 		}
 
 		JSONArray outputArray = new JSONArray();
 		
 		// Process the buckets.
 		try {
-			for(Long time : millisToPointMap.keySet()) {
-				Map<String, Integer> modeCountMap =
-						new HashMap<String, Integer>();
-				String timestamp = null;
-				DateTimeZone timezone = null;
-				LocationStatus locationStatus = null;
-				Location location = null;
-				
-				for(MobilityPoint mobilityPoint : millisToPointMap.get(time)) {
-					// The first point sets the information.
-					if(timestamp == null) {
-						timestamp = 
-								TimeUtils.getIso8601DateString(
-									mobilityPoint.getDate(), 
-									true);
-						timezone = mobilityPoint.getTimezone();
-						
-						locationStatus = mobilityPoint.getLocationStatus();
-						location = mobilityPoint.getLocation();
-					}
-					
-					// For all points, get the mode.
-					String mode = mobilityPoint.getMode().toString().toLowerCase();
-					Integer count = modeCountMap.get(mode);
+			for(List<MobilityRollup> bucket : millisToRollupMap.values()) {
+				Map<String, Long> modeCountMap = new HashMap<String, Long>();
+				for(MobilityRollup rollup : bucket) {
+					String mode = rollup.getMode().toString().toLowerCase();
+					Long count = modeCountMap.get(mode);
 					
 					if(count == null) {
-						modeCountMap.put(mode, 1);
+						modeCountMap.put(mode, rollup.getCount());
 					}
 					else {
-						modeCountMap.put(mode, count + 1);
+						modeCountMap.put(mode, count + rollup.getCount());
 					}
 				}
 				
+				// The first point sets the information.
+				MobilityRollup first = bucket.get(0);
+				Location location = first.getFirstLocation();
+				
 				JSONObject currResult = new JSONObject();
 				currResult.put(JSON_KEY_MODE_COUNT, modeCountMap);
 				currResult.put(JSON_KEY_DURATION, millisPerChunk);
-				currResult.put(JSON_KEY_TIMESTAMP, timestamp);
-				currResult.put(JSON_KEY_TIMEZONE, timezone.getID());
+				currResult.put(
+						JSON_KEY_TIMESTAMP, 
+						TimeUtils.getIso8601DateString(
+							new DateTime(
+								first.getFirstTime(), 
+								first.getTimezone()), 
+							true));
+				currResult.put(JSON_KEY_TIMEZONE, first.getTimezone().getID());
 				currResult.put(
 						JSON_KEY_LOCATION_STATUS, 
-						locationStatus.toString().toLowerCase());
+						first.getFirstLocationStatus().toString().toLowerCase());
 				try {
 					currResult.put(
 							JSON_KEY_LOCATION, 
@@ -1,7 +1,11 @@
 package org.ohmage.request.observer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -13,8 +17,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericContainer;
 import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.util.Utf8;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonFactory;
@@ -111,6 +120,27 @@ import org.ohmage.validator.UserValidators;
  *       returned after skipping. This is used to facilitate paging.</td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CONTINUATION_TOKEN}</td>
+ *     <td>A token from the "previous" or "next" URL of an earlier response
+ *       that limits the results to only those that come before or after the
+ *       previous results. The number of data points to skip is applied after
+ *       the token. This is faster than skipping data points when paging 
+ *       through many of them.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#OUTPUT_FORMAT}</td>
+ *     <td>The format of the response, one of
+ *       {@link OutputFormat#JSON} (the default) or {@link OutputFormat#AVRO}.
+ *       An Avro response is an Avro object container file whose records 
+ *       contain each point's meta-data followed by its data exactly as it 
+ *       was stored, with the stream's schema nested in the file's schema. 
+ *       The column list is ignored, and the count and the URLs for the 
+ *       previous and next results are stored in the file's meta-data as 
+ *       "ohmage.count", "ohmage.previous", and "ohmage.next".</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author John Jenkins
@@ -130,6 +160,43 @@ public class StreamReadRequest extends UserRequest {
 	 */
 	public static final long MAX_NUMBER_TO_RETURN = 2000;
 	
+	/**
+	 * The content type of an Avro response.
+	 */
+	public static final String AVRO_CONTENT_TYPE = "avro/binary";
+	
+	/**
+	 * The keys of the Avro response's meta-data.
+	 */
+	public static final String AVRO_META_COUNT = "ohmage.count";
+	public static final String AVRO_META_PREVIOUS = "ohmage.previous";
+	public static final String AVRO_META_NEXT = "ohmage.next";
+	
+	/**
+	 * The factory for the encoders for the Avro response.
+	 */
+	private static final EncoderFactory ENCODER_FACTORY = new EncoderFactory();
+	
+	/**
+	 * The formats in which the data may be returned.
+	 * 
+	 * @author John Jenkins
+	 */
+	public static enum OutputFormat {
+		JSON,
+		AVRO;
+		
+		/**
+		 * Converts the output format to a nice, human-readable format.
+		 * 
+		 * @return The output format as a nice, human-readable format. 
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+	
 	/**
 	 * This is being used to facilitate an n-ary tree.
 	 *
@@ -289,6 +356,10 @@ public class StreamReadRequest extends UserRequest {
 	// Optional parameters, but they must be given a value.
 	private final long numToSkip;
 	private final long numToReturn;
+	private final OutputFormat outputFormat;
+	
+	// Optional.
+	private final DataStream.ContinuationToken continuationToken;
 	
 	// The stream created during the servicing of the request.
 	private Observer.Stream stream;
@@ -358,6 +429,95 @@ public class StreamReadRequest extends UserRequest {
 			final long numToReturn)
 			throws IOException, InvalidRequestException {
 		
+		this(
+			httpRequest,
+			parameters,
+			hashPassword,
+			tokenLocation,
+			username,
+			observerId,
+			observerVersion,
+			streamId,
+			streamVersion,
+			startDate,
+			endDate,
+			columns,
+			numToSkip,
+			numToReturn,
+			null,
+			OutputFormat.JSON);
+	}
+	
+	/**
+	 * Creates a stream read request from the given parameters.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param parameters The parameters from the HTTP request that have already
+	 * 					 been decoded.
+	 * 
+	 * @param hashPassword Whether or not to hash the user's password. If it is
+	 * 					   null, username/password combinations will not be
+	 * 					   allowed.
+	 * 
+	 * @param tokenLocation Where to look for the token. If it is null, the 
+	 * 						token for authentication will not be allowed.
+	 * 
+	 * @param observerId The observer's unique identifier. Required.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param streamId The stream's unique identifier. Required.
+	 * 
+	 * @param streamVersion The stream's version. Required.
+	 * 
+	 * @param startDate Limits the results to only those on or after this date.
+	 * 					Optional.
+	 * 
+	 * @param endDate Limits the results to only those on or before this date.
+	 * 				  Optional.
+	 * 
+	 * @param columns A string representing the columns to return or null if
+	 * 				  all columns should be returned. Optional.
+	 * 
+	 * @param numToSkip The number of entries to skip. Optional. Default is 0.
+	 * 
+	 * @param numToReturn The number of entries to return. Optional. Default is
+	 * 					  {@value #MAX_NUMBER_TO_RETURN}.
+	 * 
+	 * @param continuationToken Limits the results to only those that come 
+	 * 							after, or before if it points backwards, this
+	 * 							token. Optional.
+	 * 
+	 * @param outputFormat The format of the response. Required.
+	 * 
+	 * @throws InvalidRequestException Thrown if the parameters cannot be 
+	 * 								   parsed.
+	 * 
+	 * @throws IOException There was an error reading from the request.
+	 * 
+	 * @throws IllegalArgumentException Thrown if a required parameter is 
+	 * 									missing.
+	 */
+	public StreamReadRequest(
+			final HttpServletRequest httpRequest, 
+			final Map<String, String[]> parameters,
+			final Boolean hashPassword,
+			final TokenLocation tokenLocation,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final String streamId,
+			final long streamVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final ColumnNode<String> columns,
+			final long numToSkip,
+			final long numToReturn,
+			final DataStream.ContinuationToken continuationToken,
+			final OutputFormat outputFormat)
+			throws IOException, InvalidRequestException {
+		
 		super(httpRequest, hashPassword, tokenLocation, parameters);
 		
 		if(observerId == null) {
@@ -366,6 +526,9 @@ public class StreamReadRequest extends UserRequest {
 		else if(streamId == null) {
 			throw new IllegalArgumentException("The stream ID is null.");
 		}
+		else if(outputFormat == null) {
+			throw new IllegalArgumentException("The output format is null.");
+		}
 		
 		this.username = username;
 		this.observerId = observerId;
@@ -377,6 +540,8 @@ public class StreamReadRequest extends UserRequest {
 		this.columnsRoot = columns;
 		this.numToSkip = numToSkip;
 		this.numToReturn = numToReturn;
+		this.continuationToken = continuationToken;
+		this.outputFormat = outputFormat;
 		
 		results = new LinkedList<DataStream>();
 	}
@@ -407,6 +572,8 @@ public class StreamReadRequest extends UserRequest {
 		ColumnNode<String> tColumnsRoot = new ColumnNode<String>();
 		long tNumToSkip = 0;
 		long tNumToReturn = MAX_NUMBER_TO_RETURN;
+		DataStream.ContinuationToken tContinuationToken = null;
+		OutputFormat tOutputFormat = OutputFormat.JSON;
 		
 		if(! isFailed()) {
 			LOGGER.info("Creating a stream read request.");
@@ -545,6 +712,34 @@ public class StreamReadRequest extends UserRequest {
 					tNumToReturn = 
 						ObserverValidators.validateNumToReturn(t[0]);
 				}
+				
+				t = getParameterValues(InputKeys.CONTINUATION_TOKEN);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN,
+						"Multiple continuation tokens were given: " + 
+							InputKeys.CONTINUATION_TOKEN);
+				}
+				else if(t.length == 1) {
+					tContinuationToken = 
+						ObserverValidators.validateContinuationToken(t[0]);
+				}
+				
+				t = getParameterValues(InputKeys.OUTPUT_FORMAT);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_OUTPUT_FORMAT,
+						"Multiple output formats were given: " + 
+							InputKeys.OUTPUT_FORMAT);
+				}
+				else if(t.length == 1) {
+					OutputFormat outputFormat = 
+						ObserverValidators.validateOutputFormat(t[0]);
+					
+					if(outputFormat != null) {
+						tOutputFormat = outputFormat;
+					}
+				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -562,6 +757,8 @@ public class StreamReadRequest extends UserRequest {
 		columnsRoot = tColumnsRoot;
 		numToSkip = tNumToSkip;
 		numToReturn = tNumToReturn;
+		continuationToken = tContinuationToken;
+		outputFormat = tOutputFormat;
 		
 		results = new LinkedList<DataStream>();
 	}
@@ -611,6 +808,7 @@ public class StreamReadRequest extends UserRequest {
 					observerVersion,
 					startDate,
 					endDate,
+					continuationToken,
 					numToSkip,
 					numToReturn));
 			LOGGER.info("Returning " + results.size() + " points.");
@@ -645,6 +843,12 @@ public class StreamReadRequest extends UserRequest {
 		// Set the CORS headers.
 		handleCORS(httpRequest, httpResponse);
 		
+		// Write the stored data directly if it was requested.
+		if(OutputFormat.AVRO.equals(outputFormat)) {
+			respondAvro(httpRequest, httpResponse);
+			return;
+		}
+		
 		// Set the content type to JSON.
 		httpResponse.setContentType("application/json");
 		
@@ -712,66 +916,14 @@ public class StreamReadRequest extends UserRequest {
 			// Add the count to the meta-data.
 			generator.writeNumberField("count", results.size());
 
-			// Get the URL that will be the base for the "previous" and "next"
-			// URLs.
-			StringBuilder prevAndNextUrlBuilder = buildNextAndPrevUrl();
-			
-			// If the number of entries skipped was non-zero, add a previous
-			// pointer.
-			if(numToSkip != 0) {
-				// Create a copy of the existing string builder.
-				StringBuilder prevUrl = 
-					new StringBuilder(prevAndNextUrlBuilder);
-				
-				// Calculate the number of results to skip and return for the
-				// "previous" URL.
-				long prevNumToSkip = numToSkip - numToReturn - 1;
-				boolean returnNumToSkipAsNumToReturn = false;
-				if(prevNumToSkip < 0) {
-					returnNumToSkipAsNumToReturn = true;
-					prevNumToSkip = 0;
-				}
-				
-				// Add the number of results to skip and return.
-				prevUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_SKIP)
-					.append('=')
-					.append(prevNumToSkip);
-				prevUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_RETURN)
-					.append('=')
-					.append((returnNumToSkipAsNumToReturn) ? numToSkip - 1 : numToReturn);
-				
-				// Add the "previous" URL to the meta-data.
-				generator.writeStringField("previous", prevUrl.toString());
+			// Add the URLs for the previous and next results, if any.
+			String previousUrl = buildPreviousUrl();
+			if(previousUrl != null) {
+				generator.writeStringField("previous", previousUrl);
 			}
-			
-			// Generate and add the "next" URL if the number of results is 
-			// to the number requested. The only reason it would be less is if
-			// there weren't that many to return. If there were more than that
-			if(numToReturn == results.size()) {
-				StringBuilder nextUrl = prevAndNextUrlBuilder;
-				
-				// Calculate the number to skip.
-				long nextNumToSkip = numToSkip + numToReturn;
-				
-				// Add the number of results to skip and return to the "next"
-				// URL.
-				nextUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_SKIP)
-					.append('=')
-					.append(nextNumToSkip);
-				nextUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_RETURN)
-					.append('=')
-					.append(numToReturn);
-				
-				// Add the "next" URL to the meta-data.
-				generator.writeStringField("next", nextUrl.toString());
+			String nextUrl = buildNextUrl();
+			if(nextUrl != null) {
+				generator.writeStringField("next", nextUrl);
 			}
 			
 			// End the meta-data.
@@ -859,6 +1011,401 @@ public class StreamReadRequest extends UserRequest {
 		}
 	}
 	
+	/**
+	 * Writes the results as an Avro object container file. Each record is the
+	 * point's meta-data followed by the point's data, which is copied exactly
+	 * as it was stored without being decoded.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param httpResponse The HTTP response.
+	 */
+	private void respondAvro(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+		
+		// Set the content type to Avro.
+		httpResponse.setContentType(AVRO_CONTENT_TYPE);
+		
+		// Connect a stream to the response.
+		OutputStream outputStream;
+		try {
+			outputStream = getOutputStream(httpRequest, httpResponse);
+		}
+		catch(IOException e) {
+			LOGGER.warn("Could not connect to the output stream.", e);
+			return;
+		}
+		
+		// The writer is only used to write the schema, so it is not shared
+		// with the stream.
+		DataFileWriter<GenericContainer> writer = 
+			new DataFileWriter<GenericContainer>(
+				new GenericDatumWriter<GenericContainer>());
+		try {
+			writer.setMeta(AVRO_META_COUNT, results.size());
+			String previousUrl = buildPreviousUrl();
+			if(previousUrl != null) {
+				writer.setMeta(AVRO_META_PREVIOUS, previousUrl);
+			}
+			String nextUrl = buildNextUrl();
+			if(nextUrl != null) {
+				writer.setMeta(AVRO_META_NEXT, nextUrl);
+			}
+			
+			writer.create(
+				buildAvroSchema(
+					(stream == null) ? 
+						Schema.create(Type.NULL) : 
+						stream.getSchema()),
+				outputStream);
+			
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			BinaryEncoder encoder = null;
+			for(DataStream dataStream : results) {
+				// Encode the meta-data.
+				record.reset();
+				encoder = ENCODER_FACTORY.directBinaryEncoder(record, encoder);
+				writeAvroMetaData(encoder, dataStream.getMetaData());
+				encoder.flush();
+				
+				// The data is already encoded, so it is simply appended.
+				record.write(dataStream.getBinaryData());
+				writer.appendEncoded(ByteBuffer.wrap(record.toByteArray()));
+			}
+		}
+		catch(IOException e) {
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		catch(DomainException e) {
+			LOGGER.error("Could not read one of the objects.", e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		finally {
+			// Flush and close the writer, which closes the output stream.
+			try {
+				writer.close();
+			}
+			catch(IOException e) {
+				LOGGER.info("Could not close the writer.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Builds the schema for the records in an Avro response, which are the
+	 * point's meta-data followed by the point's data:
+	 * 
+	 * <pre>
+	 * record OhmageDataPoint {
+	 *   union { null, string } id;
+	 *   union { null, long } timestamp;
+	 *   union { null, string } timezone;
+	 *   union { null, OhmageLocation } location;
+	 *   &lt;stream schema&gt; data;
+	 * }
+	 * 
+	 * record OhmageLocation {
+	 *   union { null, long } timestamp;
+	 *   union { null, string } timezone;
+	 *   double latitude;
+	 *   double longitude;
+	 *   double accuracy;
+	 *   union { null, string } provider;
+	 * }
+	 * </pre>
+	 * 
+	 * The order of these fields must match 
+	 * {@link #writeAvroMetaData(BinaryEncoder, DataStream.MetaData)}.
+	 * 
+	 * @param dataSchema The stream's schema.
+	 * 
+	 * @return The schema for the records.
+	 */
+	private static Schema buildAvroSchema(final Schema dataSchema) {
+		List<Schema.Field> locationFields = new ArrayList<Schema.Field>(6);
+		locationFields.add(
+			new Schema.Field("timestamp", optional(Type.LONG), null, null));
+		locationFields.add(
+			new Schema.Field("timezone", optional(Type.STRING), null, null));
+		locationFields.add(
+			new Schema.Field(
+				"latitude", 
+				Schema.create(Type.DOUBLE), 
+				null, 
+				null));
+		locationFields.add(
+			new Schema.Field(
+				"longitude", 
+				Schema.create(Type.DOUBLE), 
+				null, 
+				null));
+		locationFields.add(
+			new Schema.Field(
+				"accuracy", 
+				Schema.create(Type.DOUBLE), 
+				null, 
+				null));
+		locationFields.add(
+			new Schema.Field("provider", optional(Type.STRING), null, null));
+		Schema location = 
+			Schema.createRecord("OhmageLocation", null, null, false);
+		location.setFields(locationFields);
+		
+		List<Schema.Field> fields = new ArrayList<Schema.Field>(5);
+		fields.add(new Schema.Field("id", optional(Type.STRING), null, null));
+		fields.add(
+			new Schema.Field("timestamp", optional(Type.LONG), null, null));
+		fields.add(
+			new Schema.Field("timezone", optional(Type.STRING), null, null));
+		fields.add(
+			new Schema.Field(
+				"location", 
+				Schema.createUnion(
+					Arrays.asList(Schema.create(Type.NULL), location)), 
+				null, 
+				null));
+		fields.add(new Schema.Field("data", dataSchema, null, null));
+		Schema result = 
+			Schema.createRecord("OhmageDataPoint", null, null, false);
+		result.setFields(fields);
+		
+		return result;
+	}
+	
+	/**
+	 * Creates a union of null and a primitive type.
+	 * 
+	 * @param type The primitive type.
+	 * 
+	 * @return The union.
+	 */
+	private static Schema optional(final Type type) {
+		return 
+			Schema.createUnion(
+				Arrays.asList(Schema.create(Type.NULL), Schema.create(type)));
+	}
+	
+	/**
+	 * Encodes a point's meta-data as the leading fields of a record from
+	 * {@link #buildAvroSchema(Schema)}.
+	 * 
+	 * @param encoder The encoder.
+	 * 
+	 * @param metaData The meta-data, which may be null.
+	 * 
+	 * @throws IOException The meta-data could not be encoded.
+	 */
+	private static void writeAvroMetaData(
+			final BinaryEncoder encoder,
+			final DataStream.MetaData metaData)
+			throws IOException {
+		
+		String id = null;
+		DateTime timestamp = null;
+		Location location = null;
+		if(metaData != null) {
+			id = metaData.getId();
+			timestamp = metaData.getTimestamp();
+			location = metaData.getLocation();
+		}
+		
+		writeOptionalString(encoder, id);
+		if(timestamp == null) {
+			encoder.writeIndex(0);
+			encoder.writeIndex(0);
+		}
+		else {
+			encoder.writeIndex(1);
+			encoder.writeLong(timestamp.getMillis());
+			writeOptionalString(encoder, timestamp.getZone().getID());
+		}
+		
+		if(location == null) {
+			encoder.writeIndex(0);
+		}
+		else {
+			encoder.writeIndex(1);
+			
+			Long time = location.getTime();
+			if(time == null) {
+				encoder.writeIndex(0);
+			}
+			else {
+				encoder.writeIndex(1);
+				encoder.writeLong(time);
+			}
+			writeOptionalString(
+				encoder, 
+				(location.getTimeZone() == null) ? 
+					null : 
+					location.getTimeZone().getID());
+			encoder.writeDouble(location.getLatitude());
+			encoder.writeDouble(location.getLongitude());
+			encoder.writeDouble(location.getAccuracy());
+			writeOptionalString(encoder, location.getProvider());
+		}
+	}
+	
+	/**
+	 * Encodes a union of null and a string.
+	 * 
+	 * @param encoder The encoder.
+	 * 
+	 * @param value The string, which may be null.
+	 * 
+	 * @throws IOException The value could not be encoded.
+	 */
+	private static void writeOptionalString(
+			final BinaryEncoder encoder,
+			final String value)
+			throws IOException {
+		
+		if(value == null) {
+			encoder.writeIndex(0);
+		}
+		else {
+			encoder.writeIndex(1);
+			encoder.writeString(value);
+		}
+	}
+	
+	/**
+	 * Generates the URL for the previous set of results. If a continuation
+	 * token was given, it points back from the first of these results. 
+	 * Otherwise, the number of results to skip is reduced.
+	 * 
+	 * @return The URL or null if these are the first results or the URL
+	 * 		   could not be built.
+	 */
+	private String buildPreviousUrl() {
+		DataStream.ContinuationToken prevToken = null;
+		if(continuationToken == null) {
+			// If the number of entries skipped was zero, there is nothing 
+			// before these results.
+			if(numToSkip == 0) {
+				return null;
+			}
+		}
+		else {
+			// Without any results there is nothing to point back from, and
+			// if the results were read backwards but there were fewer than
+			// requested, there is nothing before them.
+			if(
+				results.isEmpty() ||
+				(
+					continuationToken.isBackwards() && 
+					(results.size() != numToReturn))) {
+				
+				return null;
+			}
+			
+			prevToken = results.get(0).getContinuationToken().reverse();
+		}
+		
+		// Get the URL that will be the base for the "previous" URL.
+		StringBuilder prevUrl = buildNextAndPrevUrl();
+		if(prevUrl == null) {
+			return null;
+		}
+		
+		// Add the token and the number of results to return.
+		if(prevToken != null) {
+			prevUrl
+				.append('&')
+				.append(InputKeys.CONTINUATION_TOKEN)
+				.append('=')
+				.append(prevToken.toString());
+			prevUrl
+				.append('&')
+				.append(InputKeys.NUM_TO_RETURN)
+				.append('=')
+				.append(numToReturn);
+			
+			return prevUrl.toString();
+		}
+		
+		// Calculate the number of results to skip and return for the
+		// "previous" URL.
+		long prevNumToSkip = numToSkip - numToReturn - 1;
+		boolean returnNumToSkipAsNumToReturn = false;
+		if(prevNumToSkip < 0) {
+			returnNumToSkipAsNumToReturn = true;
+			prevNumToSkip = 0;
+		}
+		
+		// Add the number of results to skip and return.
+		prevUrl
+			.append('&')
+			.append(InputKeys.NUM_TO_SKIP)
+			.append('=')
+			.append(prevNumToSkip);
+		prevUrl
+			.append('&')
+			.append(InputKeys.NUM_TO_RETURN)
+			.append('=')
+			.append((returnNumToSkipAsNumToReturn) ? numToSkip - 1 : numToReturn);
+		
+		return prevUrl.toString();
+	}
+	
+	/**
+	 * Generates the URL for the next set of results, which continues from the
+	 * last of these results so that the database can seek directly to them.
+	 * 
+	 * @return The URL or null if there are no more results or the URL could 
+	 * 		   not be built.
+	 */
+	private String buildNextUrl() {
+		// There is nothing to continue from without any results.
+		if(results.isEmpty()) {
+			return null;
+		}
+		
+		// If these results were read forwards, there are only more results 
+		// if the number of results is equal to the number requested. The 
+		// only reason it would be less is if there weren't that many to 
+		// return. If they were read backwards, there is always at least the
+		// point that the token pointed back from.
+		if(
+			((continuationToken == null) || 
+				(! continuationToken.isBackwards())) &&
+			(numToReturn != results.size())) {
+			
+			return null;
+		}
+		
+		// Get the URL that will be the base for the "next" URL.
+		StringBuilder nextUrl = buildNextAndPrevUrl();
+		if(nextUrl == null) {
+			return null;
+		}
+		
+		// Add the token and the number of results to return to the "next"
+		// URL.
+		nextUrl
+			.append('&')
+			.append(InputKeys.CONTINUATION_TOKEN)
+			.append('=')
+			.append(
+				results
+					.get(results.size() - 1)
+					.getContinuationToken()
+					.toString());
+		nextUrl
+			.append('&')
+			.append(InputKeys.NUM_TO_RETURN)
+			.append('=')
+			.append(numToReturn);
+		
+		return nextUrl.toString();
+	}
+	
 	/**
 	 * Generates a URL for the "previous" and "next" URLs in the result's 
 	 * meta-data. This includes all of the given parameters except the number 
@@ -971,6 +1518,15 @@ public class StreamReadRequest extends UserRequest {
 				.append(columnsRoot.toListString());
 		}
 		
+		// Add the output format if it isn't the default.
+		if(! OutputFormat.JSON.equals(outputFormat)) {
+			result
+				.append('&')
+				.append(InputKeys.OUTPUT_FORMAT)
+				.append('=')
+				.append(outputFormat.toString());
+		}
+		
 		return result;
 	}
 	
@@ -1,7 +1,6 @@
 package org.ohmage.request.observer;
 
 import java.io.IOException;
-import java.util.Collection;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -10,7 +9,6 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonParser;
 import org.ohmage.annotator.Annotator.ErrorCode;
-import org.ohmage.domain.DataStream;
 import org.ohmage.domain.Observer;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -232,28 +230,24 @@ public class StreamUploadRequest extends UserRequest {
 					observerId, 
 					observerVersion);
 			
-			LOGGER.info("Validating the uploaded data.");
-			Collection<DataStream> dataStreams =
-				ObserverServices.instance().validateData(observer, data);
-			
+			LOGGER.info("Validating and storing the uploaded data.");
 			try {
-				data.close();
+				long numStored =
+					ObserverServices.instance().storeData(
+						getUser().getUsername(), 
+						observer,
+						data);
+				
+				LOGGER.info("Stored " + numStored + " new data points.");
 			}
-			catch(IOException e) {
-				LOGGER.info("Error closing the data.", e);
+			finally {
+				try {
+					data.close();
+				}
+				catch(IOException e) {
+					LOGGER.info("Error closing the data.", e);
+				}
 			}
-			
-			LOGGER.info("Pruning out the duplicates from previous uploads.");
-			ObserverServices.instance().removeDuplicates(
-				getUser().getUsername(), 
-				observerId,
-				dataStreams);
-			
-			LOGGER.info("Storing the uploaded data.");
-			ObserverServices.instance().storeData(
-				getUser().getUsername(), 
-				observer,
-				dataStreams);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -17,6 +17,7 @@ import org.ohmage.request.Request;
 import org.ohmage.request.UserRequest.TokenLocation;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.request.observer.StreamReadRequest.ColumnNode;
+import org.ohmage.request.observer.StreamReadRequest.OutputFormat;
 import org.ohmage.validator.ObserverValidators;
 
 public class OmhReadRequest extends Request {
@@ -211,6 +212,31 @@ public class OmhReadRequest extends Request {
 					numToReturn = ObserverValidators.validateNumToReturn(t[0]);
 				}
 				
+				OutputFormat outputFormat = OutputFormat.JSON;
+				t = getParameterValues(InputKeys.OMH_OUTPUT_FORMAT);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OMH_INVALID_OUTPUT_FORMAT,
+						"Multiple output formats were given: " +
+							InputKeys.OMH_OUTPUT_FORMAT);
+				}
+				else if(t.length == 1) {
+					try {
+						OutputFormat tOutputFormat =
+							ObserverValidators.validateOutputFormat(t[0]);
+						
+						if(tOutputFormat != null) {
+							outputFormat = tOutputFormat;
+						}
+					}
+					catch(ValidationException e) {
+						throw new ValidationException(
+							ErrorCode.OMH_INVALID_OUTPUT_FORMAT,
+							"The output format was invalid.",
+							e);
+					}
+				}
+				
 				tStreamReadRequest = 
 					new StreamReadRequest(
 						httpRequest,
@@ -226,7 +252,9 @@ public class OmhReadRequest extends Request {
 						endDate,
 						columns,
 						numToSkip,
-						numToReturn);
+						numToReturn,
+						null,
+						outputFormat);
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -16,20 +16,16 @@
 package org.ohmage.request.survey;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -38,7 +34,6 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.Function;
 import org.ohmage.domain.campaign.SurveyResponse.FunctionPrivacyStateItem;
-import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
@@ -117,7 +112,7 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 	private final DateTime startDate;
 	private final DateTime endDate;
 	
-	private List<SurveyResponse> surveyResponses;
+	private List<SurveyResponse.PrivacyStateCount> privacyStateCounts;
 	
 	/**
 	 * Creates a new survey response function read request.
@@ -235,7 +230,7 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 		startDate = tStartDate;
 		endDate = tEndDate;
 		
-		surveyResponses = Collections.emptyList();
+		privacyStateCounts = Collections.emptyList();
 	}
 
 	/**
@@ -259,24 +254,14 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 			LOGGER.info("Gathering the campaign.");
 			Campaign campaign = CampaignServices.instance().getCampaign(campaignId);
 			
-			LOGGER.info("Gathering the survey response information.");
-			surveyResponses = new ArrayList<SurveyResponse>();
-			SurveyResponseServices.instance().readSurveyResponseInformation(
-					campaign, 
-					getUser().getUsername(),
-					null,
-					null, 
-					startDate, 
-					endDate, 
-					null, 
-					null, 
-					null, 
-					null,
-					null,
-					null,
-					0,
-					Long.MAX_VALUE,
-					surveyResponses);
+			LOGGER.info("Counting the survey responses.");
+			privacyStateCounts = 
+					SurveyResponseServices.instance().readPrivacyStateCounts(
+							campaign, 
+							getUser().getUsername(),
+							startDate, 
+							endDate, 
+							privacyStateGroupItems);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -304,7 +289,9 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 	}
 	
 	/**
-	 * This responds to a "privacy state" function request.
+	 * This responds to a "privacy state" function request. The counts were
+	 * already made by the database, so each one is simply converted into a
+	 * bucket for its privacy state.
 	 * 
 	 * @param httpRequest The HttpServletRequest
 	 * 
@@ -314,121 +301,46 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 			final HttpServletRequest httpRequest,
 			final HttpServletResponse httpResponse) {
 
-		// This maps each of the privacy states to a collection of collections
-		// of survey responses. The inner collection is all of the survey 
-		// responses that have the same parameters as specified by the 
-		// 'privacyStateGroupItems'. The outer collection is the aggregation of
-		// all of those inner collections associated with this privacy state.
-		// For example, if the 'privacyStateGroupItems' is empty, then the 
-		// outer collection would contain exactly one inner collection which
-		// would be all survey responses with the privacy state for the key.
-		// If the 'privacyStateGroupItems' contains a 'date' item, then for 
-		// each key the outer collection is a collection of all of the survey
-		// responses with the same privacy state and each inner collection is 
-		// all of the survey responses with the same date. If a 'survey ID' 
-		// item was also given, then each of the inner collections would be
-		// those survey responses that share the same date and survey ID.
-		Map<PrivacyState, Collection<Collection<SurveyResponse>>> privacyStateBucket =
-				new HashMap<PrivacyState, Collection<Collection<SurveyResponse>>>(
-						PrivacyState.values().length);
-		
-		// Cycle through all of the survey responses and populate their initial
-		// buckets.
-		for(SurveyResponse surveyResponse : surveyResponses) {
-			// Get this response's privacy state.
-			PrivacyState privacyState = 
-					surveyResponse.getPrivacyState();
-			
-			// Get the outer collection if it exists.
-			Collection<Collection<SurveyResponse>> outerCollection =
-					privacyStateBucket.get(privacyState);
-			
-			// If it doesn't exist, create and add it.
-			if(outerCollection == null) {
-				outerCollection = new LinkedList<Collection<SurveyResponse>>();
-				privacyStateBucket.put(privacyState, outerCollection);
-			}
-			
-			// The outer collection should have exactly zero or one inner 
-			// collections. If it has zero, create the one.
-			Collection<SurveyResponse> innerCollection;
-			if(outerCollection.size() == 0) {
-				innerCollection = new LinkedList<SurveyResponse>();
-				outerCollection.add(innerCollection);
-			}
-			// If it already has one then it should have exactly one and we
-			// retrieve that one.
-			else {
-				innerCollection = outerCollection.iterator().next();
-			}
-			
-			// Add the survey response to the inner collection.
-			innerCollection.add(surveyResponse);
-		}
-		
-		if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.DATE)) {
-			LOGGER.info("Subdividing buckets by date.");
-			subdivideDate(privacyStateBucket);
-		}
-
-		if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.SURVEY)) {
-			LOGGER.info("Subdividing buckets by survey ID.");
-			subdivideSurveyId(privacyStateBucket);
-		}
-		
 		try {
 			// Create the resulting JSONObject and populate it.
 			JSONObject result = new JSONObject();
-			for(PrivacyState privacyState : privacyStateBucket.keySet()) {
-				Collection<Collection<SurveyResponse>> currPrivacyStateBucket =
-						privacyStateBucket.get(privacyState);
+			for(SurveyResponse.PrivacyStateCount privacyStateCount : privacyStateCounts) {
+				String privacyState =
+						privacyStateCount.getPrivacyState().toString();
 				
-				// Create the array of buckets for this privacy state.
-				JSONArray jsonBuckets = new JSONArray();
+				// Get the array of buckets for this privacy state, creating it
+				// if this is its first bucket.
+				JSONArray jsonBuckets = result.optJSONArray(privacyState);
+				if(jsonBuckets == null) {
+					jsonBuckets = new JSONArray();
+					result.put(privacyState, jsonBuckets);
+				}
 				
-				// Cycle through each of the buckets of collections, create a 
-				// JSONObject representing that bucket, and add it to the array for
-				// this privacy state.
-				for(Collection<SurveyResponse> currBucket : currPrivacyStateBucket) {
-					JSONObject jsonBucket = new JSONObject();
-					
-					jsonBucket.put("count", currBucket.size());
-					
-					if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.DATE)) {
-						// Get a representative survey response.
-						SurveyResponse surveyResponse = 
-								currBucket.iterator().next();
-						
-						// Create a calendar with the timezone from the 
-						// response and set its time based on the epoch 
-						// milliseconds.
-						Calendar timezoneAdjustedCalendar =
-								Calendar.getInstance(surveyResponse.getTimezone().toTimeZone());
-						timezoneAdjustedCalendar.setTimeInMillis(
-								surveyResponse.getTime());
-
-						// Create the date string to represent this date based on
-						// the creator's timezone at the time they took it.
-						String dateString = 
-								timezoneAdjustedCalendar.get(Calendar.YEAR) + 
-								"-" +
-								(timezoneAdjustedCalendar.get(Calendar.MONTH) + 1) +
-								"-" +
-								timezoneAdjustedCalendar.get(Calendar.DAY_OF_MONTH);
-						
-						jsonBucket.put("date", dateString);
-					}
-					
-					if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.SURVEY)) {
-						jsonBucket.put(
-								"survey_id", 
-								currBucket.iterator().next().getSurvey().getId());
-					}
+				JSONObject jsonBucket = new JSONObject();
+				
+				jsonBucket.put("count", privacyStateCount.getCount());
+				
+				if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.DATE)) {
+					// The date is based on the creator's timezone at the time
+					// they took it.
+					LocalDate date = privacyStateCount.getDate();
 					
-					jsonBuckets.put(jsonBucket);
+					jsonBucket.put(
+							"date", 
+							date.getYear() + 
+								"-" + 
+								date.getMonthOfYear() + 
+								"-" + 
+								date.getDayOfMonth());
+				}
+				
+				if(privacyStateGroupItems.contains(FunctionPrivacyStateItem.SURVEY)) {
+					jsonBucket.put(
+							"survey_id", 
+							privacyStateCount.getSurveyId());
 				}
 				
-				result.put(privacyState.toString(), jsonBuckets);
+				jsonBuckets.put(jsonBucket);
 			}
 			
 			super.respond(httpRequest, httpResponse, result);
@@ -439,133 +351,4 @@ public class SurveyResponseFunctionReadRequest extends UserRequest {
 			super.respond(httpRequest, httpResponse, null);
 		}
 	}
-	
-	/**
-	 * Subdivides the privacy state buckets into those that occurred on the 
-	 * same date.
-	 * 
-	 * @param privacyStateBucket The map of privacy state to buckets of
-	 * 							 collections of survey responses.
-	 */
-	private void subdivideDate(
-			Map<PrivacyState, Collection<Collection<SurveyResponse>>> privacyStateBucket) {
-		
-		// For each of the privacy state buckets,
-		for(PrivacyState privacyState : privacyStateBucket.keySet()) {
-			// Get the current privacy state bucket.
-			Collection<Collection<SurveyResponse>> currPrivacyStateBucket =
-					privacyStateBucket.get(privacyState);
-			
-			// Create a new, empty privacy state bucket.
-			Collection<Collection<SurveyResponse>> newPrivacyStateBucket =
-					new LinkedList<Collection<SurveyResponse>>();
-			
-			// Subdivide each of the outer buckets by removing their inner 
-			// buckets and replacing them with their subdivided counterparts.
-			for(Collection<SurveyResponse> currBucket : currPrivacyStateBucket) {
-				// Subdivide the inner collections.
-				Map<String, Collection<SurveyResponse>> newInnerBuckets =
-						new HashMap<String, Collection<SurveyResponse>>();
-				
-				// For all of the survey responses in this inner bucket, get
-				// their survey ID and re-bucket them.
-				for(SurveyResponse surveyResponse : currBucket) {
-					// Create a calendar with the timezone from the response 
-					// and set its time based on the epoch milliseconds.
-					Calendar timezoneAdjustedCalendar =
-							Calendar.getInstance(surveyResponse.getTimezone().toTimeZone());
-					timezoneAdjustedCalendar.setTimeInMillis(
-							surveyResponse.getTime());
-					
-					// Create the date string to represent this date based on
-					// the creator's timezone at the time they took it.
-					String dateString = 
-							timezoneAdjustedCalendar.get(Calendar.YEAR) + 
-							"-" +
-							timezoneAdjustedCalendar.get(Calendar.MONTH) +
-							"-" +
-							timezoneAdjustedCalendar.get(Calendar.DAY_OF_MONTH);
-					
-					// Get the other responses on this date.
-					Collection<SurveyResponse> currResponses = 
-							newInnerBuckets.get(dateString);
-					
-					// If no other responses exist for this date, create
-					// the list.
-					if(currResponses == null) {
-						currResponses = new LinkedList<SurveyResponse>();
-						newInnerBuckets.put(dateString, currResponses);
-					}
-					
-					// Add this response to the given date.
-					currResponses.add(surveyResponse);
-				}
-				
-				// Add the inner buckets to the collection of outer buckets.
-				for(String date : newInnerBuckets.keySet()) {
-					newPrivacyStateBucket.add(newInnerBuckets.get(date));
-				}
-			}
-			
-			privacyStateBucket.put(privacyState, newPrivacyStateBucket);
-		}
-	}
-	
-	/**
-	 * Subdivides the privacy state buckets into those survey responses whose
-	 * corresponding survey has the same ID.
-	 * 
-	 * @param privacyStateBucket The map of privacy state to buckets of
-	 * 							 collections of survey responses.
-	 */
-	private void subdivideSurveyId(
-			Map<PrivacyState, Collection<Collection<SurveyResponse>>> privacyStateBucket) {
-		
-		// For each of the privacy state buckets,
-		for(PrivacyState privacyState : privacyStateBucket.keySet()) {
-			// Get the current privacy state bucket.
-			Collection<Collection<SurveyResponse>> currPrivacyStateBucket =
-					privacyStateBucket.get(privacyState);
-			
-			// Create a new, empty privacy state bucket.
-			Collection<Collection<SurveyResponse>> newPrivacyStateBucket =
-					new LinkedList<Collection<SurveyResponse>>();
-			
-			// Subdivide each of the outer buckets by removing their inner 
-			// buckets and replacing them with their subdivided counterparts.
-			for(Collection<SurveyResponse> currBucket : currPrivacyStateBucket) {
-				// Subdivide the inner collections.
-				Map<String, Collection<SurveyResponse>> newInnerBuckets =
-						new HashMap<String, Collection<SurveyResponse>>();
-				
-				// For all of the survey responses in this inner bucket, get
-				// their survey ID and re-bucket them.
-				for(SurveyResponse surveyResponse : currBucket) {
-					// Get the date that this record was created.
-					String surveyId = surveyResponse.getSurvey().getId();
-					
-					// Get the other responses on this date.
-					Collection<SurveyResponse> currResponses = 
-							newInnerBuckets.get(surveyId);
-					
-					// If no other responses exist for this date, create
-					// the list.
-					if(currResponses == null) {
-						currResponses = new LinkedList<SurveyResponse>();
-						newInnerBuckets.put(surveyId, currResponses);
-					}
-					
-					// Add this response to the given date.
-					currResponses.add(surveyResponse);
-				}
-				
-				// Add the inner buckets to the collection of outer buckets.
-				for(String surveyId : newInnerBuckets.keySet()) {
-					newPrivacyStateBucket.add(newInnerBuckets.get(surveyId));
-				}
-			}
-			
-			privacyStateBucket.put(privacyState, newPrivacyStateBucket);
-		}
-	}
 }
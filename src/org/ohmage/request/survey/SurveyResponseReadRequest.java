@@ -17,6 +17,7 @@ package org.ohmage.request.survey;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -35,6 +36,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonGenerator.Feature;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.json.JSONArray;
@@ -65,7 +69,9 @@ import org.ohmage.domain.campaign.response.SingleChoicePromptResponse;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.query.ISurveyResponseQueries.SurveyResponseHandler;
 import org.ohmage.request.InputKeys;
 import org.ohmage.util.TimeUtils;
 import org.ohmage.validator.SurveyResponseValidators;
@@ -188,6 +194,32 @@ import org.ohmage.validator.SurveyResponseValidators;
  *       </td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_SKIP}</td>
+ *     <td>The number of survey responses to skip before returning any. This
+ *       is applied after the continuation token, if given.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_RETURN}</td>
+ *     <td>The maximum number of survey responses to return.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CONTINUATION_TOKEN}</td>
+ *     <td>The 
+ *       {@value org.ohmage.request.Request#JSON_KEY_CONTINUATION_TOKEN} from
+ *       the metadata of a previous response. Only the survey responses that
+ *       come after the previous response are returned, and the 
+ *       {@value org.ohmage.request.Request#JSON_KEY_TOTAL_NUM_RESULTS} is the
+ *       number of survey responses from the token onward. Unlike 
+ *       {@value org.ohmage.request.InputKeys#NUM_TO_SKIP}, the cost of reading
+ *       a page does not grow with the number of pages before it. This cannot
+ *       be combined with 
+ *       {@value org.ohmage.request.InputKeys#SORT_ORDER} or
+ *       {@value org.ohmage.request.InputKeys#COLLAPSE}.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author Joshua Selsky
@@ -245,6 +277,17 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 	 */
 	public static final String JSON_KEY_COUNT = "count";
 	
+	/**
+	 * The factory for the generators that stream the 
+	 * {@link org.ohmage.domain.campaign.SurveyResponse.OutputFormat#JSON_ROWS JSON_ROWS}
+	 * format. If there is an error, the JSON is left incomplete so that it
+	 * cannot be mistaken for a complete response.
+	 */
+	private static final JsonFactory JSON_FACTORY = 
+		(new JsonFactory())
+			.configure(Feature.AUTO_CLOSE_TARGET, true)
+			.configure(Feature.AUTO_CLOSE_JSON_CONTENT, false);
+	
 	final Collection<SurveyResponse.ColumnKey> columns;
 	private final SurveyResponse.OutputFormat outputFormat;
 	private final List<SortParameter> sortOrder;
@@ -254,6 +297,7 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 	private final Boolean returnId;
 	private final Boolean suppressMetadata;
 	
+	final SurveyResponse.ContinuationToken continuationToken;
 	final long surveyResponsesToSkip;
 	final long surveyResponsesToProcess;
 	
@@ -279,6 +323,7 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 		Boolean tReturnId = null;
 		Boolean tSuppressMetadata = null;
 		
+		SurveyResponse.ContinuationToken tContinuationToken = null;
 		long tSurveyResponsesToSkip = 0;
 		long tSurveyResponsesToProcess = -1;
 		try {
@@ -439,6 +484,34 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 								.validateNumSurveyResponsesToSkip(t[0]);
 				}
 				
+				// Continuation token.
+				t = getParameterValues(InputKeys.CONTINUATION_TOKEN);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN, 
+							"Multiple continuation tokens were given: " + 
+								InputKeys.CONTINUATION_TOKEN);
+				}
+				else if(t.length == 1) {
+					tContinuationToken = 
+							SurveyResponseValidators
+								.validateContinuationToken(t[0]);
+				}
+				if(tContinuationToken != null) {
+					if(tSortOrder != null) {
+						throw new ValidationException(
+								ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN, 
+								"A continuation token cannot be given with a sort order: " + 
+									InputKeys.SORT_ORDER);
+					}
+					else if((tCollapse != null) && tCollapse) {
+						throw new ValidationException(
+								ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN, 
+								"A continuation token cannot be given when collapsing the results: " + 
+									InputKeys.COLLAPSE);
+					}
+				}
+				
 				// Number of survey responses to process.
 				t = getParameterValues(InputKeys.NUM_TO_RETURN);
 				if(t.length > 1) {
@@ -470,6 +543,7 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 		returnId = tReturnId;
 		suppressMetadata = tSuppressMetadata;
 		
+		continuationToken = tContinuationToken;
 		surveyResponsesToSkip = tSurveyResponsesToSkip;
 		surveyResponsesToProcess = tSurveyResponsesToProcess;
 	}
@@ -481,10 +555,18 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 	@Override
 	public void service() {
 		LOGGER.info("Servicing a survey response read request.");
+		
+		// Streamed survey responses are read while responding.
+		if(isStreaming()) {
+			super.serviceWithoutReading();
+			return;
+		}
+		
 		super.service(
 				columns, 
 				null, 
 				sortOrder,
+				continuationToken,
 				collapse, 
 				surveyResponsesToSkip, 
 				surveyResponsesToProcess);
@@ -503,6 +585,11 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 			return;
 		}
 		
+		if(isStreaming()) {
+			respondStreaming(httpRequest, httpResponse);
+			return;
+		}
+		
 		// Create a writer for the HTTP response object.
 		Writer writer = null;
 		try {
@@ -534,149 +621,15 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 					JSONObject result = new JSONObject();
 					result.put(JSON_KEY_RESULT, RESULT_SUCCESS);
 					
-					List<String> uniqueSurveyIds = new LinkedList<String>();
-					List<String> uniquePromptIds = new LinkedList<String>();
+					int numPromptResponses = 0;
+					Set<String> uniquePromptIds = new HashSet<String>();
 					JSONArray results = new JSONArray();
 					for(SurveyResponse surveyResponse : getSurveyResponses()) {
-						uniqueSurveyIds.add(surveyResponse.getSurvey().getId());
+						numPromptResponses += 
+								surveyResponse.getPromptIds().size();
 						uniquePromptIds.addAll(surveyResponse.getPromptIds());
 						
-						JSONObject currResult;
-						currResult = surveyResponse.toJson(
-								allColumns || columns.contains(ColumnKey.USER_ID),
-								allColumns || false,
-								allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT),
-								allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE),
-								allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS),
-								allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS),
-								false,
-								allColumns || columns.contains(ColumnKey.SURVEY_ID),
-								allColumns || columns.contains(ColumnKey.SURVEY_TITLE),
-								allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG),
-								allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE),
-								false,
-								(((returnId == null) ? false : returnId) ||
-								 allColumns ||
-								 columns.contains(ColumnKey.SURVEY_RESPONSE_ID)
-								),
-								((collapse != null) && collapse)
-							);
-						
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
-							currResult.put(
-									"date", 
-									TimeUtils.getIso8601DateString(
-											surveyResponse.getDate(),
-											false));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
-							currResult.put(
-									"timestamp", 
-									TimeUtils.getIso8601DateString(
-											surveyResponse.getDate(),
-											true));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
-							Calendar tmpCalendar = 
-									Calendar.getInstance(
-											surveyResponse.getTimezone().toTimeZone());
-							tmpCalendar.setTimeInMillis(
-									surveyResponse.getTime());
-							
-							currResult.put(
-									"utc_timestamp",
-									TimeUtils.getIso8601DateString(
-										new DateTime(
-											surveyResponse.getTime(), 
-											DateTimeZone.UTC),
-										true));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
-							}
-							else {
-								double accuracy = location.getAccuracy();
-								
-								if(Double.isInfinite(accuracy) || Double.isNaN(accuracy)) {
-									currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), accuracy);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
-							}
-							else {
-								double latitude = location.getLatitude();
-								
-								if(Double.isInfinite(latitude) || Double.isNaN(latitude)) {
-									currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), latitude);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
-							}
-							else {
-								double longitude = location.getLongitude();
-								
-								if(Double.isInfinite(longitude) || Double.isNaN(longitude)) {
-									currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), longitude);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), JSONObject.NULL);
-							}
-							else {
-								currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), location.getProvider());
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put("location_timestamp", JSONObject.NULL);
-							}
-							else {
-								currResult.put("location_timestamp", location.getTime());
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put("location_timezone", JSONObject.NULL);
-							}
-							else {
-								currResult.put("location_timezone", location.getTimeZone().getID());
-							}
-						}
-						
-						results.put(currResult);
+						results.put(buildRow(surveyResponse, allColumns));
 					}
 					result.put(JSON_KEY_DATA, results);
 					
@@ -684,45 +637,28 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 					if((suppressMetadata == null) || (! suppressMetadata)) {
 						JSONObject metadata = new JSONObject();
 						
-						metadata.put(JSON_KEY_NUM_SURVEYS, uniqueSurveyIds.size());
-						metadata.put(JSON_KEY_NUM_PROMPTS, uniquePromptIds.size());
-						
-						Collection<String> columnsResult = 
-							new HashSet<String>(columns.size());
-						
-						// If it contains the special 'all' value, add them 
-						// all.
-						if(columns.contains(URN_SPECIAL_ALL)) {
-							ColumnKey[] values = SurveyResponse.ColumnKey.values();
-							for(int i = 0; i < values.length; i++) {
-								columnsResult.add(values[i].toString());
-							}
-						}
-						// Otherwise, add cycle through them 
-						else {
-							for(ColumnKey columnKey : columns) {
-								columnsResult.add(columnKey.toString());
-							}
-						}
-						
-						// Check if prompt responses were requested, and, if 
-						// so, add them to the list of columns.
-						if(columns.contains(SurveyResponse.ColumnKey.PROMPT_RESPONSE) ||
-								columns.contains(URN_SPECIAL_ALL)) {
-							
-							for(String promptId : uniquePromptIds) {
-								columnsResult.add(ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
-							}
-						}
+						metadata.put(
+								JSON_KEY_NUM_SURVEYS, 
+								getSurveyResponses().size());
+						metadata.put(JSON_KEY_NUM_PROMPTS, numPromptResponses);
 						
-						// Add it to the metadata result.
-						metadata.put(JSON_KEY_ITEMS, columnsResult);
+						// Add the columns to the metadata result.
+						metadata.put(
+								JSON_KEY_ITEMS, 
+								getItems(uniquePromptIds));
 						
 						// Add the total count to the metadata.
 						metadata.put(
 								JSON_KEY_TOTAL_NUM_RESULTS, 
 								getSurveyResponseCount());
 						
+						// Add the token for the next page, if any.
+						if(getNextContinuationToken() != null) {
+							metadata.put(
+									JSON_KEY_CONTINUATION_TOKEN, 
+									getNextContinuationToken().toString());
+						}
+						
 						result.put(JSON_KEY_METADATA, metadata);
 					}
 					
@@ -736,284 +672,20 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 				else if(OutputFormat.JSON_COLUMNS.equals(outputFormat) || 
 						OutputFormat.CSV.equals(outputFormat)) {
 					
-					JSONArray usernames = new JSONArray();
-					JSONArray clients = new JSONArray();
-					JSONArray privacyStates = new JSONArray();
-					JSONArray dates = new JSONArray();
-					JSONArray timestamps = new JSONArray();
-					JSONArray utcTimestamps = new JSONArray();
-					JSONArray epochMillisTimestamps = new JSONArray();
-					JSONArray timezones = new JSONArray();
-					JSONArray locationStatuses = new JSONArray();
-					JSONArray locationLongitude = new JSONArray();
-					JSONArray locationLatitude = new JSONArray();
-					JSONArray locationTimestamp = new JSONArray();
-					JSONArray locationTimeZone = new JSONArray();
-					JSONArray locationAccuracy = new JSONArray();
-					JSONArray locationProvider = new JSONArray();
-					JSONArray surveyIds = new JSONArray();
-					JSONArray surveyTitles = new JSONArray();
-					JSONArray surveyDescriptions = new JSONArray();
-					JSONArray launchContexts = new JSONArray();
-					JSONArray surveyResponseIds = new JSONArray();
-					JSONArray counts = new JSONArray();
-					Map<String, JSONObject> prompts = new HashMap<String, JSONObject>();
-					
-					// If the user requested to know information about prompt
-					// responses, populate the prompt contexts with the 
-					// information about each of the prompts that were 
-					// requested.
-					if(allColumns ||
-							columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-						
-						// If the user-supplied list of survey IDs is present,
-						if(getSurveyIds() != null) {
-							Map<String, Survey> campaignSurveys = getCampaign().getSurveys();
-							// If the user asked for all surveys for this
-							// campaign, then populate the prompt information
-							// with all of the data about all of the prompts in
-							// all of the surveys in this campaign.
-							if(getSurveyIds().equals(URN_SPECIAL_ALL_LIST)) {
-								for(Survey currSurvey : campaignSurveys.values()) {
-									populatePrompts(currSurvey.getSurveyItems(), prompts);
-								}
-							}
-							// Otherwise, populate the prompt information only
-							// with the data about the requested surveys.
-							else {
-								for(String surveyId : this.getSurveyIds()) {
-									populatePrompts(campaignSurveys.get(surveyId).getSurveyItems(), prompts);
-								}
-							}
-						}
-						// If the user-supplied list of prompt IDs is present,
-						else if(getPromptIds() != null) {
-							// If the user asked for all prompts for this
-							// campaign, then populate the prompt information
-							// with all of the data about all of the prompts in
-							// this campaign.
-							if(getPromptIds().equals(URN_SPECIAL_ALL_LIST)) {
-								for(Survey currSurvey : getCampaign().getSurveys().values()) {
-									populatePrompts(currSurvey.getSurveyItems(), prompts);
-								}
-							}
-							// Otherwise, populate the prompt information with
-							// the data about only the requested prompts.
-							else {
-								int currNumPrompts = 0;
-								Map<Integer, SurveyItem> tempPromptMap = 
-										new HashMap<Integer, SurveyItem>(getPromptIds().size());
-								
-								for(String promptId : getPromptIds()) {
-									try {
-										tempPromptMap.put(
-												currNumPrompts, 
-												getCampaign().getPrompt(
-														getCampaign().getSurveyIdForPromptId(
-																promptId), 
-														promptId));
-									}
-									catch(DomainException e) {
-										LOGGER.error(
-												"A prompt ID that should have already been validated, appears to no longer exist.",
-												e);
-										setFailed();
-										super.respond(
-												httpRequest, 
-												httpResponse, 
-												null);
-									}
-									currNumPrompts++;
-								}
-								
-								populatePrompts(tempPromptMap, prompts);
-							}
-						}
-					}
+					Map<String, JSONObject> prompts = buildPrompts(allColumns);
 					
 					// Process each of the survey responses and keep track of
 					// the number of prompt responses.
 					int numSurveyResponses = getSurveyResponses().size();
-					int numPromptResponses = 0;
-					for(SurveyResponse surveyResponse : getSurveyResponses()) {
-						try {
-							numPromptResponses += processResponses(allColumns, 
-									surveyResponse, 
-									surveyResponse.getResponses(), 
-									prompts, 
-									usernames, clients, privacyStates, 
-									dates, timestamps, utcTimestamps, 
-									epochMillisTimestamps, timezones, 
-									locationStatuses, locationLongitude, 
-									locationLatitude, locationTimestamp, 
-									locationTimeZone,
-									locationAccuracy, locationProvider,
-									surveyIds, surveyTitles, surveyDescriptions, 
-									launchContexts, surveyResponseIds, counts
-								);
-						} 
-						catch(DomainException e) {
-							LOGGER.error(
-									"There was a problem aggregating the responses.",
-									e);
-							setFailed();
-							super.respond(httpRequest, httpResponse, null);
-						}
-					}
-					
-					// Add all of the applicable output stuff.
 					JSONObject result = new JSONObject();
 					JSONArray keysOrdered = new JSONArray();
-					
-					// For each of the requested columns, add their respective
-					// data to the result in a specific order per Hongsuda's
-					// request.
-					if(allColumns || columns.contains(ColumnKey.SURVEY_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyIds);
-						result.put(ColumnKey.SURVEY_ID.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_ID.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_TITLE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyTitles);
-						result.put(ColumnKey.SURVEY_TITLE.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_TITLE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyDescriptions);
-						result.put(ColumnKey.SURVEY_DESCRIPTION.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_DESCRIPTION.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.USER_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, usernames);
-						result.put(ColumnKey.USER_ID.toString(), values);
-						keysOrdered.put(ColumnKey.USER_ID.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, clients);
-						result.put(ColumnKey.CONTEXT_CLIENT.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_CLIENT.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, utcTimestamps);
-						result.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, epochMillisTimestamps);
-						result.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timestamps);
-						result.put(ColumnKey.CONTEXT_DATE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_DATE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timestamps);
-						result.put(ColumnKey.CONTEXT_TIMESTAMP.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timezones);
-						result.put(ColumnKey.CONTEXT_TIMEZONE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_TIMEZONE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-						List<String> unorderedList = new LinkedList<String>();
-						for(String promptId : prompts.keySet()) {
-							result.put(
-									SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId, 
-									prompts.get(promptId));
-							unorderedList.add(SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
-						}
-						Collections.sort(unorderedList);
-						
-						for(String columnId : unorderedList) {
-							keysOrdered.put(columnId);
-						}
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationStatuses);
-						result.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationLatitude);
-						result.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationLongitude);
-						result.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationProvider);
-						result.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-						JSONObject timeValues = new JSONObject();
-						timeValues.put(JSON_KEY_VALUES, locationTimestamp);
-						result.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString(), timeValues);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMEZONE)) {
-						JSONObject timeZoneValues = new JSONObject();
-						timeZoneValues.put(JSON_KEY_VALUES, locationTimeZone);
-						result.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString(), timeZoneValues);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationAccuracy);
-						result.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, privacyStates);
-						result.put(ColumnKey.SURVEY_PRIVACY_STATE.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_PRIVACY_STATE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, launchContexts);
-						result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString());
-					}
-					if(columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, launchContexts);
-						result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_RESPONSE_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyResponseIds);
-						result.put(ColumnKey.SURVEY_RESPONSE_ID.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_RESPONSE_ID.toString());
-					}
-					if((collapse != null) && collapse) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, counts);
-						result.put("urn:ohmage:context:count", values);
-						keysOrdered.put("urn:ohmage:context:count");
-					}
+					int numPromptResponses = 
+							buildColumns(
+									allColumns, 
+									getSurveyResponses(), 
+									prompts, 
+									result, 
+									keysOrdered);
 					
 					// If metadata is not suppressed, create it.
 					JSONObject metadata = null;
@@ -1028,6 +700,13 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 						metadata.put(
 								JSON_KEY_TOTAL_NUM_RESULTS, 
 								getSurveyResponseCount());
+						
+						// Add the token for the next page, if any.
+						if(getNextContinuationToken() != null) {
+							metadata.put(
+									JSON_KEY_CONTINUATION_TOKEN, 
+									getNextContinuationToken().toString());
+						}
 					}
 					
 					if(OutputFormat.JSON_COLUMNS.equals(outputFormat)) {
@@ -1123,49 +802,10 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 							resultBuilder.append("## begin data\n");
 						}
 
-						// Get the number of keys.
-						int keyLength = keysOrdered.length();
-						
-						// Create a comma-separated list of the header names.
-						for(int i = 0; i < keyLength; i++) {
-							String header = keysOrdered.getString(i);
-							if(header.startsWith("urn:ohmage:")) {
-								header = header.substring(11);
-								
-								if(header.startsWith("prompt:id:")) {
-									header = header.substring(10);
-								}
-							}
-							resultBuilder.append(header);
-							
-							if((i + 1) != keyLength) {
-								resultBuilder.append(',');
-							}
-						}
-						resultBuilder.append('\n');
-						
-						// For each of the responses, 
+						// Add the header and then each of the rows.
+						appendCsvHeader(resultBuilder, keysOrdered);
 						for(int i = 0; i < numSurveyResponses; i++) {
-							for(int j = 0; j < keyLength; j++) {
-								Object currResult = 
-										result
-											.getJSONObject(keysOrdered.getString(j))
-											.getJSONArray(JSON_KEY_VALUES)
-											.get(i);
-								
-								if(JSONObject.NULL.equals(currResult)) {
-									resultBuilder.append("");
-								}
-								else {
-									resultBuilder.append(currResult);
-								}
-								
-								if((j + 1) != keyLength) {
-									resultBuilder.append(',');
-								}
-							}
-
-							resultBuilder.append('\n');
+							appendCsvRow(resultBuilder, result, keysOrdered, i);
 						}
 						
 						if((suppressMetadata == null) || (! suppressMetadata)) {
@@ -1188,6 +828,10 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 				LOGGER.error(e.toString(), e);
 				setFailed();
 			}
+			catch(IOException e) {
+				LOGGER.error(e.toString(), e);
+				setFailed();
+			}
 		}
 		
 		if(isFailed()) {
@@ -1211,6 +855,949 @@ public final class SurveyResponseReadRequest extends SurveyResponseRequest {
 		}
 	}
 	
+	/**
+	 * Returns whether or not the survey responses are written to the
+	 * requester as they are read from the database instead of being read
+	 * during {@link #service()}. The
+	 * {@link OutputFormat#JSON_COLUMNS JSON_COLUMNS} format cannot be
+	 * streamed because every column contains a value from every survey
+	 * response, and the {@link OutputFormat#CSV CSV} format can only be
+	 * streamed when its metadata, which comes before the data, is
+	 * suppressed.
+	 * 
+	 * @return True if the survey responses will be streamed; false,
+	 * 		   otherwise.
+	 */
+	private boolean isStreaming() {
+		return
+			OutputFormat.JSON_ROWS.equals(outputFormat) ||
+			(OutputFormat.CSV.equals(outputFormat) &&
+				(suppressMetadata != null) &&
+				suppressMetadata);
+	}
+	
+	/**
+	 * Reads the survey responses and writes each one to the requester as
+	 * soon as it has been read, so the memory used does not depend on the
+	 * number of survey responses.<br />
+	 * <br />
+	 * For the {@link OutputFormat#JSON_ROWS JSON_ROWS} format, the metadata is
+	 * written after the data because it is not known until all of the data
+	 * has been read. Once the response has begun, an error can no longer be
+	 * reported with a failure message, so the response is left incomplete
+	 * instead.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param httpResponse The HTTP response.
+	 */
+	private void respondStreaming(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+		
+		// Sets the HTTP headers to disable caching.
+		expireResponse(httpResponse);
+		
+		// Set the CORS headers.
+		handleCORS(httpRequest, httpResponse);
+		
+		// Connect a stream to the response.
+		OutputStream outputStream;
+		try {
+			outputStream = getOutputStream(httpRequest, httpResponse);
+		}
+		catch(IOException e) {
+			LOGGER.error("Unable to write response message. Aborting.", e);
+			return;
+		}
+		
+		if(OutputFormat.JSON_ROWS.equals(outputFormat)) {
+			streamJsonRows(httpResponse, outputStream);
+		}
+		else {
+			streamCsv(httpResponse, outputStream);
+		}
+	}
+	
+	/**
+	 * Streams the survey responses in the
+	 * {@link OutputFormat#JSON_ROWS JSON_ROWS} format.
+	 * 
+	 * @param httpResponse The HTTP response.
+	 * 
+	 * @param outputStream The stream to write the survey responses to.
+	 */
+	private void streamJsonRows(
+			final HttpServletResponse httpResponse,
+			final OutputStream outputStream) {
+		
+		httpResponse.setContentType("text/html");
+		
+		// Create the generator that will stream to the requester.
+		final JsonGenerator generator;
+		try {
+			generator = JSON_FACTORY.createJsonGenerator(outputStream);
+		}
+		catch(IOException generatorException) {
+			LOGGER.error(
+				"Could not create the JSON generator.",
+				generatorException);
+			
+			try {
+				outputStream.close();
+			}
+			catch(IOException streamCloseException) {
+				LOGGER.warn(
+					"Could not close the output stream.",
+					streamCloseException);
+			}
+			
+			return;
+		}
+		
+		if((prettyPrint != null) && prettyPrint) {
+			generator.useDefaultPrettyPrinter();
+		}
+		
+		final boolean allColumns = columns.equals(URN_SPECIAL_ALL_LIST);
+		
+		// Only keep what is needed for the metadata.
+		final long[] numSurveyResponses = new long[1];
+		final long[] numPromptResponses = new long[1];
+		final Set<String> uniquePromptIds = new HashSet<String>();
+		
+		try {
+			generator.writeStartObject();
+			generator.writeStringField(JSON_KEY_RESULT, RESULT_SUCCESS);
+			
+			// Write each survey response as soon as it has been read.
+			generator.writeArrayFieldStart(JSON_KEY_DATA);
+			streamSurveyResponses(
+					columns,
+					null,
+					sortOrder,
+					continuationToken,
+					collapse,
+					surveyResponsesToSkip,
+					surveyResponsesToProcess,
+					new SurveyResponseHandler() {
+						/**
+						 * Writes the survey response to the generator.
+						 */
+						@Override
+						public void handleSurveyResponse(
+								final SurveyResponse surveyResponse)
+								throws DomainException {
+							
+							numSurveyResponses[0]++;
+							numPromptResponses[0] +=
+									surveyResponse.getPromptIds().size();
+							uniquePromptIds.addAll(
+									surveyResponse.getPromptIds());
+							
+							try {
+								generator.writeRawValue(
+										buildRow(surveyResponse, allColumns)
+											.toString());
+							}
+							catch(JSONException e) {
+								throw new DomainException(
+										"Could not build the survey response.",
+										e);
+							}
+							catch(IOException e) {
+								throw new DomainException(
+										"Could not write the survey response.",
+										e);
+							}
+						}
+					});
+			generator.writeEndArray();
+			
+			// Metadata
+			if((suppressMetadata == null) || (! suppressMetadata)) {
+				generator.writeObjectFieldStart(JSON_KEY_METADATA);
+				
+				generator.writeNumberField(
+						JSON_KEY_NUM_SURVEYS,
+						numSurveyResponses[0]);
+				generator.writeNumberField(
+						JSON_KEY_NUM_PROMPTS,
+						numPromptResponses[0]);
+				
+				// Add the columns to the metadata.
+				generator.writeArrayFieldStart(JSON_KEY_ITEMS);
+				for(String item : getItems(uniquePromptIds)) {
+					generator.writeString(item);
+				}
+				generator.writeEndArray();
+				
+				// Add the total count to the metadata.
+				generator.writeNumberField(
+						JSON_KEY_TOTAL_NUM_RESULTS,
+						getSurveyResponseCount());
+				
+				// Add the token for the next page, if any.
+				if(getNextContinuationToken() != null) {
+					generator.writeStringField(
+							JSON_KEY_CONTINUATION_TOKEN,
+							getNextContinuationToken().toString());
+				}
+				
+				generator.writeEndObject();
+			}
+			
+			generator.writeEndObject();
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		catch(IOException e) {
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		finally {
+			// Flush and close the generator.
+			try {
+				generator.close();
+			}
+			catch(IOException e) {
+				LOGGER.info("Could not close the generator.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Streams the survey responses in the {@link OutputFormat#CSV CSV} format
+	 * without any metadata. Each survey response is converted to its own set
+	 * of columns and then written as a single row.
+	 * 
+	 * @param httpResponse The HTTP response.
+	 * 
+	 * @param outputStream The stream to write the survey responses to.
+	 */
+	private void streamCsv(
+			final HttpServletResponse httpResponse,
+			final OutputStream outputStream) {
+		
+		// Mark it as an attachment.
+		httpResponse.setContentType("text/csv");
+		httpResponse.setHeader(
+				"Content-Disposition",
+				"attachment; filename=SurveyResponses.csv");
+		
+		final Writer writer =
+				new BufferedWriter(new OutputStreamWriter(outputStream));
+		
+		final boolean allColumns = columns.equals(URN_SPECIAL_ALL_LIST);
+		
+		try {
+			final Map<String, JSONObject> prompts = buildPrompts(allColumns);
+			
+			// The header is the same for every row, so it can be built from
+			// an empty set of columns.
+			JSONArray headerKeys = new JSONArray();
+			buildColumns(
+					allColumns,
+					Collections.<SurveyResponse>emptyList(),
+					prompts,
+					new JSONObject(),
+					headerKeys);
+			appendCsvHeader(writer, headerKeys);
+			
+			streamSurveyResponses(
+					columns,
+					null,
+					sortOrder,
+					continuationToken,
+					collapse,
+					surveyResponsesToSkip,
+					surveyResponsesToProcess,
+					new SurveyResponseHandler() {
+						/**
+						 * Converts the survey response into columns and writes
+						 * them as a row.
+						 */
+						@Override
+						public void handleSurveyResponse(
+								final SurveyResponse surveyResponse)
+								throws DomainException {
+							
+							try {
+								// Clear the previous row's prompt responses.
+								for(JSONObject prompt : prompts.values()) {
+									prompt.put(
+											JSON_KEY_VALUES,
+											new JSONArray());
+								}
+								
+								JSONObject result = new JSONObject();
+								JSONArray keysOrdered = new JSONArray();
+								buildColumns(
+										allColumns,
+										Collections.singletonList(
+												surveyResponse),
+										prompts,
+										result,
+										keysOrdered);
+								
+								appendCsvRow(writer, result, keysOrdered, 0);
+							}
+							catch(JSONException e) {
+								throw new DomainException(
+										"Could not build the survey response.",
+										e);
+							}
+							catch(IOException e) {
+								throw new DomainException(
+										"Could not write the survey response.",
+										e);
+							}
+						}
+					});
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		catch(JSONException e) {
+			LOGGER.error(e.toString(), e);
+			setFailed();
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		catch(DomainException e) {
+			LOGGER.error(e.toString(), e);
+			setFailed();
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		catch(IOException e) {
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		finally {
+			// Flush and close the writer.
+			try {
+				writer.close();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Unable to close the writer.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Builds the {@link OutputFormat#JSON_ROWS JSON_ROWS} representation of a
+	 * single survey response.
+	 * 
+	 * @param surveyResponse The survey response.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @return The survey response's row.
+	 * 
+	 * @throws JSONException There was an error building the JSON.
+	 * 
+	 * @throws DomainException There was an error reading the survey response.
+	 */
+	private JSONObject buildRow(
+			final SurveyResponse surveyResponse,
+			final boolean allColumns)
+			throws JSONException, DomainException {
+		
+		JSONObject currResult;
+		currResult = surveyResponse.toJson(
+				allColumns || columns.contains(ColumnKey.USER_ID),
+				allColumns || false,
+				allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT),
+				allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE),
+				allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS),
+				allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS),
+				false,
+				allColumns || columns.contains(ColumnKey.SURVEY_ID),
+				allColumns || columns.contains(ColumnKey.SURVEY_TITLE),
+				allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG),
+				allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE),
+				false,
+				(((returnId == null) ? false : returnId) ||
+				 allColumns ||
+				 columns.contains(ColumnKey.SURVEY_RESPONSE_ID)
+				),
+				((collapse != null) && collapse)
+			);
+		
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
+			currResult.put(
+					"date", 
+					TimeUtils.getIso8601DateString(
+							surveyResponse.getDate(),
+							false));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
+			currResult.put(
+					"timestamp", 
+					TimeUtils.getIso8601DateString(
+							surveyResponse.getDate(),
+							true));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
+			Calendar tmpCalendar = 
+					Calendar.getInstance(
+							surveyResponse.getTimezone().toTimeZone());
+			tmpCalendar.setTimeInMillis(
+					surveyResponse.getTime());
+			
+			currResult.put(
+					"utc_timestamp",
+					TimeUtils.getIso8601DateString(
+						new DateTime(
+							surveyResponse.getTime(), 
+							DateTimeZone.UTC),
+						true));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
+			}
+			else {
+				double accuracy = location.getAccuracy();
+				
+				if(Double.isInfinite(accuracy) || Double.isNaN(accuracy)) {
+					currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), accuracy);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
+			}
+			else {
+				double latitude = location.getLatitude();
+				
+				if(Double.isInfinite(latitude) || Double.isNaN(latitude)) {
+					currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), latitude);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
+			}
+			else {
+				double longitude = location.getLongitude();
+				
+				if(Double.isInfinite(longitude) || Double.isNaN(longitude)) {
+					currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), longitude);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), JSONObject.NULL);
+			}
+			else {
+				currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), location.getProvider());
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put("location_timestamp", JSONObject.NULL);
+			}
+			else {
+				currResult.put("location_timestamp", location.getTime());
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put("location_timezone", JSONObject.NULL);
+			}
+			else {
+				currResult.put("location_timezone", location.getTimeZone().getID());
+			}
+		}
+		
+		
+		return currResult;
+	}
+	
+	/**
+	 * Returns the items for the {@link OutputFormat#JSON_ROWS JSON_ROWS}
+	 * metadata, which are the requested columns and, if prompt responses were
+	 * requested, the prompts that were responded to.
+	 * 
+	 * @param uniquePromptIds The unique identifiers for all of the prompts
+	 * 						  that were responded to.
+	 * 
+	 * @return The items.
+	 */
+	private Collection<String> getItems(
+			final Collection<String> uniquePromptIds) {
+		
+		Collection<String> columnsResult =
+			new HashSet<String>(columns.size());
+		
+		// If it contains the special 'all' value, add them
+		// all.
+		if(columns.contains(URN_SPECIAL_ALL)) {
+			ColumnKey[] values = SurveyResponse.ColumnKey.values();
+			for(int i = 0; i < values.length; i++) {
+				columnsResult.add(values[i].toString());
+			}
+		}
+		// Otherwise, add cycle through them
+		else {
+			for(ColumnKey columnKey : columns) {
+				columnsResult.add(columnKey.toString());
+			}
+		}
+		
+		// Check if prompt responses were requested, and, if
+		// so, add them to the list of columns.
+		if(columns.contains(SurveyResponse.ColumnKey.PROMPT_RESPONSE) ||
+				columns.contains(URN_SPECIAL_ALL)) {
+			
+			for(String promptId : uniquePromptIds) {
+				columnsResult.add(ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
+			}
+		}
+		
+		return columnsResult;
+	}
+	
+	/**
+	 * Builds the map of prompt IDs to their context and an empty list of
+	 * values for the {@link OutputFormat#JSON_COLUMNS JSON_COLUMNS} and
+	 * {@link OutputFormat#CSV CSV} formats based on the surveys and prompts
+	 * that were requested.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @return The map of prompt IDs to their JSON, which will be empty if
+	 * 		   prompt responses were not requested.
+	 * 
+	 * @throws JSONException There was an error building the JSON.
+	 * 
+	 * @throws DomainException One of the requested prompts no longer exists.
+	 */
+	private Map<String, JSONObject> buildPrompts(
+			final boolean allColumns)
+			throws JSONException, DomainException {
+		
+		Map<String, JSONObject> prompts = new HashMap<String, JSONObject>();
+		
+		// If the user requested to know information about prompt
+		// responses, populate the prompt contexts with the 
+		// information about each of the prompts that were 
+		// requested.
+		if(allColumns ||
+				columns.contains(ColumnKey.PROMPT_RESPONSE)) {
+			
+			// If the user-supplied list of survey IDs is present,
+			if(getSurveyIds() != null) {
+				Map<String, Survey> campaignSurveys = getCampaign().getSurveys();
+				// If the user asked for all surveys for this
+				// campaign, then populate the prompt information
+				// with all of the data about all of the prompts in
+				// all of the surveys in this campaign.
+				if(getSurveyIds().equals(URN_SPECIAL_ALL_LIST)) {
+					for(Survey currSurvey : campaignSurveys.values()) {
+						populatePrompts(currSurvey.getSurveyItems(), prompts);
+					}
+				}
+				// Otherwise, populate the prompt information only
+				// with the data about the requested surveys.
+				else {
+					for(String surveyId : this.getSurveyIds()) {
+						populatePrompts(campaignSurveys.get(surveyId).getSurveyItems(), prompts);
+					}
+				}
+			}
+			// If the user-supplied list of prompt IDs is present,
+			else if(getPromptIds() != null) {
+				// If the user asked for all prompts for this
+				// campaign, then populate the prompt information
+				// with all of the data about all of the prompts in
+				// this campaign.
+				if(getPromptIds().equals(URN_SPECIAL_ALL_LIST)) {
+					for(Survey currSurvey : getCampaign().getSurveys().values()) {
+						populatePrompts(currSurvey.getSurveyItems(), prompts);
+					}
+				}
+				// Otherwise, populate the prompt information with
+				// the data about only the requested prompts.
+				else {
+					int currNumPrompts = 0;
+					Map<Integer, SurveyItem> tempPromptMap = 
+							new HashMap<Integer, SurveyItem>(getPromptIds().size());
+					
+					for(String promptId : getPromptIds()) {
+						try {
+							tempPromptMap.put(
+									currNumPrompts, 
+									getCampaign().getPrompt(
+											getCampaign().getSurveyIdForPromptId(
+													promptId), 
+											promptId));
+						}
+						catch(DomainException e) {
+							LOGGER.error(
+									"A prompt ID that should have already been validated, appears to no longer exist.",
+									e);
+							throw e;
+						}
+						currNumPrompts++;
+					}
+					
+					populatePrompts(tempPromptMap, prompts);
+				}
+			}
+		}
+		
+		return prompts;
+	}
+	
+	/**
+	 * Converts the survey responses into the columns for the
+	 * {@link OutputFormat#JSON_COLUMNS JSON_COLUMNS} and
+	 * {@link OutputFormat#CSV CSV} formats.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param surveyResponses The survey responses.
+	 * 
+	 * @param prompts The map of prompt IDs to their JSON from
+	 * 				  {@link #buildPrompts(boolean)}. The prompt responses are
+	 * 				  added to these.
+	 * 
+	 * @param result The object to which each column is added.
+	 * 
+	 * @param keysOrdered The array to which each column's key is added in the
+	 * 					  order in which they should be output.
+	 * 
+	 * @return The total number of prompt responses that were processed.
+	 * 
+	 * @throws JSONException There was an error building the JSON.
+	 * 
+	 * @throws DomainException There was a problem aggregating the data.
+	 */
+	private int buildColumns(
+			final boolean allColumns,
+			final Collection<SurveyResponse> surveyResponses,
+			final Map<String, JSONObject> prompts,
+			final JSONObject result,
+			final JSONArray keysOrdered)
+			throws JSONException, DomainException {
+		
+		JSONArray usernames = new JSONArray();
+		JSONArray clients = new JSONArray();
+		JSONArray privacyStates = new JSONArray();
+		JSONArray dates = new JSONArray();
+		JSONArray timestamps = new JSONArray();
+		JSONArray utcTimestamps = new JSONArray();
+		JSONArray epochMillisTimestamps = new JSONArray();
+		JSONArray timezones = new JSONArray();
+		JSONArray locationStatuses = new JSONArray();
+		JSONArray locationLongitude = new JSONArray();
+		JSONArray locationLatitude = new JSONArray();
+		JSONArray locationTimestamp = new JSONArray();
+		JSONArray locationTimeZone = new JSONArray();
+		JSONArray locationAccuracy = new JSONArray();
+		JSONArray locationProvider = new JSONArray();
+		JSONArray surveyIds = new JSONArray();
+		JSONArray surveyTitles = new JSONArray();
+		JSONArray surveyDescriptions = new JSONArray();
+		JSONArray launchContexts = new JSONArray();
+		JSONArray surveyResponseIds = new JSONArray();
+		JSONArray counts = new JSONArray();
+		
+		int numPromptResponses = 0;
+		for(SurveyResponse surveyResponse : surveyResponses) {
+			numPromptResponses += processResponses(allColumns,
+					surveyResponse,
+					surveyResponse.getResponses(),
+					prompts,
+					usernames, clients, privacyStates,
+					dates, timestamps, utcTimestamps,
+					epochMillisTimestamps, timezones,
+					locationStatuses, locationLongitude,
+					locationLatitude, locationTimestamp,
+					locationTimeZone,
+					locationAccuracy, locationProvider,
+					surveyIds, surveyTitles, surveyDescriptions,
+					launchContexts, surveyResponseIds, counts
+				);
+		}
+		
+		// For each of the requested columns, add their respective
+		// data to the result in a specific order per Hongsuda's
+		// request.
+		if(allColumns || columns.contains(ColumnKey.SURVEY_ID)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, surveyIds);
+			result.put(ColumnKey.SURVEY_ID.toString(), values);
+			keysOrdered.put(ColumnKey.SURVEY_ID.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_TITLE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, surveyTitles);
+			result.put(ColumnKey.SURVEY_TITLE.toString(), values);
+			keysOrdered.put(ColumnKey.SURVEY_TITLE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, surveyDescriptions);
+			result.put(ColumnKey.SURVEY_DESCRIPTION.toString(), values);
+			keysOrdered.put(ColumnKey.SURVEY_DESCRIPTION.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.USER_ID)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, usernames);
+			result.put(ColumnKey.USER_ID.toString(), values);
+			keysOrdered.put(ColumnKey.USER_ID.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, clients);
+			result.put(ColumnKey.CONTEXT_CLIENT.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_CLIENT.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, utcTimestamps);
+			result.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, epochMillisTimestamps);
+			result.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, timestamps);
+			result.put(ColumnKey.CONTEXT_DATE.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_DATE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, timestamps);
+			result.put(ColumnKey.CONTEXT_TIMESTAMP.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, timezones);
+			result.put(ColumnKey.CONTEXT_TIMEZONE.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_TIMEZONE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
+			List<String> unorderedList = new LinkedList<String>();
+			for(String promptId : prompts.keySet()) {
+				result.put(
+						SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId, 
+						prompts.get(promptId));
+				unorderedList.add(SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
+			}
+			Collections.sort(unorderedList);
+			
+			for(String columnId : unorderedList) {
+				keysOrdered.put(columnId);
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, locationStatuses);
+			result.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, locationLatitude);
+			result.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, locationLongitude);
+			result.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, locationProvider);
+			result.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			JSONObject timeValues = new JSONObject();
+			timeValues.put(JSON_KEY_VALUES, locationTimestamp);
+			result.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString(), timeValues);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMEZONE)) {
+			JSONObject timeZoneValues = new JSONObject();
+			timeZoneValues.put(JSON_KEY_VALUES, locationTimeZone);
+			result.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString(), timeZoneValues);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, locationAccuracy);
+			result.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, privacyStates);
+			result.put(ColumnKey.SURVEY_PRIVACY_STATE.toString(), values);
+			keysOrdered.put(ColumnKey.SURVEY_PRIVACY_STATE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, launchContexts);
+			result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString());
+		}
+		if(columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, launchContexts);
+			result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString(), values);
+			keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_RESPONSE_ID)) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, surveyResponseIds);
+			result.put(ColumnKey.SURVEY_RESPONSE_ID.toString(), values);
+			keysOrdered.put(ColumnKey.SURVEY_RESPONSE_ID.toString());
+		}
+		if((collapse != null) && collapse) {
+			JSONObject values = new JSONObject();
+			values.put(JSON_KEY_VALUES, counts);
+			result.put("urn:ohmage:context:count", values);
+			keysOrdered.put("urn:ohmage:context:count");
+		}
+		
+		
+		return numPromptResponses;
+	}
+	
+	/**
+	 * Appends the comma-separated list of headers to the CSV output.
+	 * 
+	 * @param output The CSV output.
+	 * 
+	 * @param keysOrdered The keys of the columns in order.
+	 * 
+	 * @throws JSONException There was an error reading the keys.
+	 * 
+	 * @throws IOException There was an error writing to the output.
+	 */
+	private static void appendCsvHeader(
+			final Appendable output,
+			final JSONArray keysOrdered)
+			throws JSONException, IOException {
+		
+		// Get the number of keys.
+		int keyLength = keysOrdered.length();
+		
+		// Create a comma-separated list of the header names.
+		for(int i = 0; i < keyLength; i++) {
+			String header = keysOrdered.getString(i);
+			if(header.startsWith("urn:ohmage:")) {
+				header = header.substring(11);
+				
+				if(header.startsWith("prompt:id:")) {
+					header = header.substring(10);
+				}
+			}
+			output.append(header);
+			
+			if((i + 1) != keyLength) {
+				output.append(',');
+			}
+		}
+		output.append('\n');
+	}
+	
+	/**
+	 * Appends one row of the columns to the CSV output.
+	 * 
+	 * @param output The CSV output.
+	 * 
+	 * @param result The columns.
+	 * 
+	 * @param keysOrdered The keys of the columns in order.
+	 * 
+	 * @param index The index of the row in each of the columns.
+	 * 
+	 * @throws JSONException There was an error reading the columns.
+	 * 
+	 * @throws IOException There was an error writing to the output.
+	 */
+	private static void appendCsvRow(
+			final Appendable output,
+			final JSONObject result,
+			final JSONArray keysOrdered,
+			final int index)
+			throws JSONException, IOException {
+		
+		int keyLength = keysOrdered.length();
+		for(int j = 0; j < keyLength; j++) {
+			Object currResult =
+					result
+						.getJSONObject(keysOrdered.getString(j))
+						.getJSONArray(JSON_KEY_VALUES)
+						.get(index);
+			
+			if(! JSONObject.NULL.equals(currResult)) {
+				output.append(String.valueOf(currResult));
+			}
+			
+			if((j + 1) != keyLength) {
+				output.append(',');
+			}
+		}
+		
+		output.append('\n');
+	}
+	
 	/**
 	 * Populates the prompts map with all of the prompts from all of the survey
 	 * items. 
@@ -17,9 +17,11 @@ import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.query.ISurveyResponseQueries.SurveyResponseHandler;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.CampaignServices;
@@ -62,6 +64,7 @@ public abstract class SurveyResponseRequest extends UserRequest {
 	
 	private List<SurveyResponse> surveyResponseList;
 	private long surveyResponseCount;
+	private SurveyResponse.ContinuationToken nextContinuationToken;
 
 	/**
 	 * Gathers all of the possible parameters for a survey response request.
@@ -296,6 +299,7 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		
 		surveyResponseList = new ArrayList<SurveyResponse>();
 		surveyResponseCount = 0;
+		nextContinuationToken = null;
 	}
 
 	/**
@@ -308,6 +312,14 @@ public abstract class SurveyResponseRequest extends UserRequest {
 	 * 					 response may contain other prompt responses, but those
 	 * 					 will _not_ be gathered.
 	 * 
+	 * @param sortOrder The order in which to sort the results or null to use
+	 * 					the default ordering.
+	 * 
+	 * @param continuationToken Only gather survey responses that come after
+	 * 							this token in the default ordering. This must
+	 * 							be null if the sort order is given or the
+	 * 							results are collapsed.
+	 * 
 	 * @param collapse Whether or not to collapse the results.
 	 * 
 	 * @param numSurveyResponsesToSkip The number of survey responses to skip.
@@ -319,6 +331,7 @@ public abstract class SurveyResponseRequest extends UserRequest {
 			final Collection<SurveyResponse.ColumnKey> columns,
 			final String promptType,
 			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
 			final Boolean collapse,
 			final long numSurveyResponsesToSkip,
 			final long numSurveyResponsesToProcess) {
@@ -328,32 +341,10 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		}
 		
 		try {
-			// This is not necessarily the case because the user may no longer
-			// belong to the campaign but still want to see their data. This
-			// should only check that the campaign exists.
-			LOGGER.info("Verifying that requester belongs to the campaign specified by campaign ID.");
-		    UserCampaignServices.instance().campaignExistsAndUserBelongs(campaignId, this.getUser().getUsername());
-			
-		    // The user may want to read survey responses from a user that no
-		    // longer belongs to the campaign.
-		    if(! usernames.equals(URN_SPECIAL_ALL_LIST)) {
-		    	LOGGER.info("Checking the user list to make sure all of the users belong to the campaign ID.");
-		    	UserCampaignServices.instance().verifyUsersExistInCampaign(campaignId, usernames);
-		    }
+			verifyAndRetrieveCampaign();
 		    
-		    LOGGER.info("Retrieving campaign configuration.");
-			campaign = CampaignServices.instance().getCampaign(campaignId);
+			boolean aggregate = isAggregate(columns, collapse);
 			
-			if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
-				LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
-			}
-			
-			if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
-				LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
-			}
-		    
 			LOGGER.info("Dispatching to the data layer.");
 			surveyResponseCount = 
 					SurveyResponseServices.instance().readSurveyResponseInformation(
@@ -367,8 +358,9 @@ public abstract class SurveyResponseRequest extends UserRequest {
 							(URN_SPECIAL_ALL_LIST.equals(surveyIds)) ? null : surveyIds, 
 							(URN_SPECIAL_ALL_LIST.equals(promptIds)) ? null : promptIds, 
 							null,
-							((collapse != null) && collapse && (! columns.equals(URN_SPECIAL_ALL_LIST))) ? columns : null,
+							aggregate ? columns : null,
 							sortOrder,
+							continuationToken,
 							numSurveyResponsesToSkip,
 							numSurveyResponsesToProcess,
 							surveyResponseList
@@ -379,14 +371,16 @@ public abstract class SurveyResponseRequest extends UserRequest {
 				numPromptResponses += surveyResponse.getResponses().size();
 			}
 			
-			LOGGER.info(
-					"Found " + 
-						surveyResponseList.size() + 
-						" results after filtering and paging a total of " + 
-						surveyResponseCount + 
-						" applicable responses, which contains " +
-						numPromptResponses +
-						" prompt responses.");
+			finish(
+					sortOrder, 
+					aggregate, 
+					numSurveyResponsesToSkip, 
+					surveyResponseList.size(), 
+					(surveyResponseList.isEmpty()) ? 
+							null : 
+							surveyResponseList.get(
+									surveyResponseList.size() - 1), 
+					numPromptResponses);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -394,6 +388,134 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		}
 	}
 	
+	/**
+	 * Authenticates the request and verifies the parameters against the 
+	 * campaign the same way {@link #service(Collection, String, List, 
+	 * SurveyResponse.ContinuationToken, Boolean, long, long)} does, but does 
+	 * not read any survey responses. If this request has not failed, the 
+	 * survey responses should then be read with
+	 * {@link #streamSurveyResponses(Collection, String, List, 
+	 * SurveyResponse.ContinuationToken, Boolean, long, long, 
+	 * SurveyResponseHandler)}.
+	 */
+	public void serviceWithoutReading() {
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+		
+		try {
+			verifyAndRetrieveCampaign();
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+	
+	/**
+	 * Reads the survey responses and gives each one to a handler as soon as 
+	 * it has been read instead of keeping them in memory. This must only be
+	 * called after {@link #serviceWithoutReading()} and only if this request
+	 * has not failed. Afterwards, {@link #getSurveyResponses()} will be 
+	 * empty, but the count and the continuation token will be set.<br />
+	 * <br />
+	 * Because the response is usually being written while this is running,
+	 * this does not fail the request if there is an error. Instead, the 
+	 * exception is thrown and the caller must decide what to do with the
+	 * partial response.
+	 * 
+	 * @param columns The columns to gather for each survey response.
+	 * 
+	 * @param promptType Only gather survey responses that contain prompt 
+	 * 					 responses whose prompt type is this.
+	 * 
+	 * @param sortOrder The order in which to sort the results or null to use
+	 * 					the default ordering.
+	 * 
+	 * @param continuationToken Only gather survey responses that come after
+	 * 							this token in the default ordering.
+	 * 
+	 * @param collapse Whether or not to collapse the results.
+	 * 
+	 * @param numSurveyResponsesToSkip The number of survey responses to skip.
+	 * 
+	 * @param numSurveyResponsesToProcess The number of survey responses to	
+	 * 									  process.
+	 * 
+	 * @param handler The handler that is given each survey response.
+	 * 
+	 * @throws ServiceException There was an error reading the survey 
+	 * 							responses or the handler threw an exception.
+	 */
+	public void streamSurveyResponses(
+			final Collection<SurveyResponse.ColumnKey> columns,
+			final String promptType,
+			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
+			final Boolean collapse,
+			final long numSurveyResponsesToSkip,
+			final long numSurveyResponsesToProcess,
+			final SurveyResponseHandler handler)
+			throws ServiceException {
+		
+		boolean aggregate = isAggregate(columns, collapse);
+		
+		// Only keep track of what is needed to build the continuation token
+		// and the log message.
+		final List<SurveyResponse> lastSurveyResponse = 
+				new ArrayList<SurveyResponse>(1);
+		final long[] numProcessed = new long[2];
+		
+		LOGGER.info("Streaming from the data layer.");
+		surveyResponseCount = 
+				SurveyResponseServices.instance().streamSurveyResponseInformation(
+						campaign,
+						getUser().getUsername(),
+						surveyResponseIds,
+						(URN_SPECIAL_ALL_LIST.equals(usernames) ? null : usernames), 
+						startDate, 
+						endDate, 
+						privacyState, 
+						(URN_SPECIAL_ALL_LIST.equals(surveyIds)) ? null : surveyIds, 
+						(URN_SPECIAL_ALL_LIST.equals(promptIds)) ? null : promptIds, 
+						null,
+						aggregate ? columns : null,
+						sortOrder,
+						continuationToken,
+						numSurveyResponsesToSkip,
+						numSurveyResponsesToProcess,
+						new SurveyResponseHandler() {
+							/**
+							 * Records the survey response and passes it on to
+							 * the given handler.
+							 */
+							@Override
+							public void handleSurveyResponse(
+									final SurveyResponse surveyResponse)
+									throws DomainException {
+								
+								lastSurveyResponse.clear();
+								lastSurveyResponse.add(surveyResponse);
+								numProcessed[0]++;
+								numProcessed[1] += 
+										surveyResponse.getResponses().size();
+								
+								handler.handleSurveyResponse(surveyResponse);
+							}
+						}
+					);
+		
+		finish(
+				sortOrder, 
+				aggregate, 
+				numSurveyResponsesToSkip, 
+				numProcessed[0], 
+				(lastSurveyResponse.isEmpty()) ? 
+						null : 
+						lastSurveyResponse.get(0), 
+				numProcessed[1]);
+	}
+	
 	/**
 	 * The campaign's unique identifier as supplied by the requester.
 	 * 
@@ -454,4 +576,123 @@ public abstract class SurveyResponseRequest extends UserRequest {
 	public long getSurveyResponseCount() {
 		return surveyResponseCount;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * The continuation token that may be used to read the survey responses 
+	 * that come after the ones that were returned. This is only available if
+	 * the default ordering was used, the results were not collapsed, and 
+	 * there are more results.
+	 * 
+	 * @return The continuation token or null if there are no more results or
+	 * 		   they cannot be read with a continuation token.
+	 */
+	public SurveyResponse.ContinuationToken getNextContinuationToken() {
+		return nextContinuationToken;
+	}
+	
+	/**
+	 * Verifies that the requester may read survey responses from the campaign
+	 * and that the requested surveys and prompts belong to it and then 
+	 * retrieves the campaign.
+	 * 
+	 * @throws ServiceException The requester may not read the survey 
+	 * 							responses or the parameters are invalid.
+	 */
+	private void verifyAndRetrieveCampaign() throws ServiceException {
+		// This is not necessarily the case because the user may no longer
+		// belong to the campaign but still want to see their data. This
+		// should only check that the campaign exists.
+		LOGGER.info("Verifying that requester belongs to the campaign specified by campaign ID.");
+	    UserCampaignServices.instance().campaignExistsAndUserBelongs(campaignId, this.getUser().getUsername());
+	    
+	    // The user may want to read survey responses from a user that no
+	    // longer belongs to the campaign.
+	    if(! usernames.equals(URN_SPECIAL_ALL_LIST)) {
+	    	LOGGER.info("Checking the user list to make sure all of the users belong to the campaign ID.");
+	    	UserCampaignServices.instance().verifyUsersExistInCampaign(campaignId, usernames);
+	    }
+	    
+	    LOGGER.info("Retrieving campaign configuration.");
+		campaign = CampaignServices.instance().getCampaign(campaignId);
+		
+		if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
+			LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
+			SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
+		}
+		
+		if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
+			LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
+			SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
+		}
+	}
+	
+	/**
+	 * Returns whether or not the results will be aggregated by the database.
+	 * 
+	 * @param columns The columns to gather for each survey response.
+	 * 
+	 * @param collapse Whether or not to collapse the results.
+	 * 
+	 * @return True if the results will be aggregated; false, otherwise.
+	 */
+	private static boolean isAggregate(
+			final Collection<SurveyResponse.ColumnKey> columns,
+			final Boolean collapse) {
+		
+		return
+				(collapse != null) && 
+				collapse && 
+				(! columns.equals(URN_SPECIAL_ALL_LIST));
+	}
+	
+	/**
+	 * Builds the continuation token for the next page, if any, and logs what
+	 * was read.
+	 * 
+	 * @param sortOrder The order in which the results were sorted.
+	 * 
+	 * @param aggregate Whether or not the results were aggregated.
+	 * 
+	 * @param numSurveyResponsesToSkip The number of survey responses that
+	 * 								   were skipped.
+	 * 
+	 * @param numSurveyResponses The number of survey responses that were 
+	 * 							 read.
+	 * 
+	 * @param lastSurveyResponse The last survey response that was read or
+	 * 							 null if none were read.
+	 * 
+	 * @param numPromptResponses The number of prompt responses that were 
+	 * 							 read.
+	 */
+	private void finish(
+			final List<SortParameter> sortOrder,
+			final boolean aggregate,
+			final long numSurveyResponsesToSkip,
+			final long numSurveyResponses,
+			final SurveyResponse lastSurveyResponse,
+			final long numPromptResponses) {
+		
+		// If the results are in the default ordering and there are more
+		// results than were returned, the next page begins after the last
+		// result that was returned.
+		if((sortOrder == null) && 
+				(! aggregate) && 
+				(lastSurveyResponse != null) && 
+				(surveyResponseCount > 
+					numSurveyResponsesToSkip + numSurveyResponses)) {
+			
+			nextContinuationToken = 
+					new SurveyResponse.ContinuationToken(lastSurveyResponse);
+		}
+		
+		LOGGER.info(
+				"Found " + 
+					numSurveyResponses + 
+					" results after filtering and paging a total of " + 
+					surveyResponseCount + 
+					" applicable responses, which contains " +
+					numPromptResponses +
+					" prompt responses.");
+	}
+}
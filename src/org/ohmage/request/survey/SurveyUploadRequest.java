@@ -15,7 +15,7 @@
  ******************************************************************************/
 package org.ohmage.request.survey;
 
-import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,9 +35,12 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.FileStoreAllocator;
+import org.ohmage.cache.PreferenceCache;
 import org.ohmage.domain.Video;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
@@ -110,12 +113,15 @@ import org.ohmage.validator.SurveyResponseValidators;
 public class SurveyUploadRequest extends UserRequest {
 	private static final Logger LOGGER = Logger.getLogger(SurveyUploadRequest.class);
 	
+	// Added to the name of an uploaded video until it has been stored.
+	private static final String VIDEO_UPLOAD_EXTENSION = ".upload";
+	
 	// The campaign creation timestamp is stored as a String because it is 
 	// never used in any kind of calculation.
 	private final String campaignUrn;
 	private final DateTime campaignCreationTimestamp;
 	private List<JSONObject> jsonData;
-	private final Map<String, BufferedImage> imageContentsMap;
+	private final Map<String, byte[]> imageContentsMap;
 	private final Map<String, Video> videoContentsMap;
 	
 	private Collection<UUID> surveyResponseIds;
@@ -139,7 +145,7 @@ public class SurveyUploadRequest extends UserRequest {
 		String tCampaignUrn = null;
 		DateTime tCampaignCreationTimestamp = null;
 		List<JSONObject> tJsonData = null;
-		Map<String, BufferedImage> tImageContentsMap = null;
+		Map<String, byte[]> tImageContentsMap = null;
 		Map<String, Video> tVideoContentsMap = null;
 		
 		if(! isFailed()) {
@@ -192,7 +198,7 @@ public class SurveyUploadRequest extends UserRequest {
 					}
 				}
 				
-				tImageContentsMap = new HashMap<String, BufferedImage>();
+				tImageContentsMap = new HashMap<String, byte[]>();
 				t = getParameterValues(InputKeys.IMAGES);
 				if(t.length > 1) {
 					throw new ValidationException(
@@ -201,7 +207,7 @@ public class SurveyUploadRequest extends UserRequest {
 							InputKeys.IMAGES);
 				}
 				else if(t.length == 1) {
-					Map<String, BufferedImage> images = 
+					Map<String, byte[]> images = 
 							SurveyResponseValidators.validateImages(t[0]);
 					
 					if(images != null) {
@@ -226,12 +232,25 @@ public class SurveyUploadRequest extends UserRequest {
 								imageIds.add(name);
 							}
 							else if(contentType.startsWith("video/")) {
-								tVideoContentsMap.put(
-									name, 
-									new Video(
-										UUID.fromString(name),
-										contentType.split("/")[1],
-										getMultipartValue(httpRequest, name)));
+								// Write the video straight to the video 
+								// directory. It is moved to its final name 
+								// when the survey response is stored.
+								UUID videoId = UUID.fromString(name);
+								String videoType = contentType.split("/")[1];
+								File videoFile = 
+									new File(
+										FileStoreAllocator.instance(
+											PreferenceCache.KEY_VIDEO_DIRECTORY).allocate(),
+										videoId.toString() + 
+											"." + 
+											videoType + 
+											VIDEO_UPLOAD_EXTENSION);
+								
+								if(writeMultipartValue(httpRequest, name, videoFile)) {
+									tVideoContentsMap.put(
+										name, 
+										new Video(videoId, videoType, videoFile));
+								}
 							}
 						}
 						catch (IllegalArgumentException e) {
@@ -247,6 +266,11 @@ public class SurveyUploadRequest extends UserRequest {
 					setFailed();
 					throw new ValidationException(e);
 				}
+				catch(DomainException e) {
+					LOGGER.error("Could not get the video directory.", e);
+					setFailed();
+					throw new ValidationException(e);
+				}
 				
 				Set<String> stringSet = new HashSet<String>(imageIds);
 				
@@ -255,14 +279,14 @@ public class SurveyUploadRequest extends UserRequest {
 				}
 
 				for(String imageId : imageIds) {
-					BufferedImage bufferedImage = ImageValidators.validateImageContents(getMultipartValue(httpRequest, imageId));
-					if(bufferedImage == null) {
+					byte[] imageContents = ImageValidators.validateImageData(getMultipartValue(httpRequest, imageId));
+					if(imageContents == null) {
 						throw new ValidationException(ErrorCode.IMAGE_INVALID_DATA, "The image data is missing: " + imageId);
 					}
-					tImageContentsMap.put(imageId, bufferedImage);
+					tImageContentsMap.put(imageId, imageContents);
 					
 					if(LOGGER.isDebugEnabled()) {
-						LOGGER.debug("succesfully created a BufferedImage for key " + imageId);
+						LOGGER.debug("succesfully validated the image for key " + imageId);
 					}
 				}
 			}
@@ -350,6 +374,21 @@ public class SurveyUploadRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Responding to the survey upload request.");
 		
+		// Remove any uploaded videos that were not stored, e.g. because the
+		// request failed or the survey response was a duplicate.
+		if(videoContentsMap != null) {
+			for(Video video : videoContentsMap.values()) {
+				File videoFile = video.getFile();
+				if((videoFile != null) && videoFile.exists()) {
+					if(! videoFile.delete()) {
+						LOGGER.warn(
+							"Could not delete the uploaded video: " + 
+								videoFile.getAbsolutePath());
+					}
+				}
+			}
+		}
+		
 		super.respond(httpRequest, httpResponse, null);
 	}
 	
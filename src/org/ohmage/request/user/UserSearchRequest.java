@@ -41,7 +41,10 @@ import org.ohmage.validator.UserValidators;
  * <p>Gathers all users and then searches through them removing those that do
  * not match the search criteria. A missing or empty string for a parameter 
  * means that it will not be used to filter the list. If no parameters are 
- * given, information about every user in the system will be returned.</p>
+ * given, information about every user in the system will be returned. The
+ * text parameters are split into words, and a user matches when each word is
+ * contained in one of the words of its corresponding value, regardless of
+ * case.</p>
  * <p>The requester must be an admin.</p>
  * <table border="1">
  *   <tr>
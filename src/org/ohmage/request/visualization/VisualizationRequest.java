@@ -17,6 +17,7 @@ package org.ohmage.request.visualization;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -81,6 +82,8 @@ import org.ohmage.validator.VisualizationValidators;
 public abstract class VisualizationRequest extends UserRequest {
 	private static final Logger LOGGER = Logger.getLogger(VisualizationRequest.class);
 	
+	private static final int CHUNK_SIZE = 4096;
+	
 	private final String campaignId;
 	private final int width;
 	private final int height;
@@ -89,7 +92,7 @@ public abstract class VisualizationRequest extends UserRequest {
 	private final DateTime endDate;
 	private final SurveyResponse.PrivacyState privacyState;
 	
-	private byte[] result;
+	private InputStream result;
 	
 	/**
 	 * Creates a new abstract visualization request.
@@ -173,7 +176,7 @@ public abstract class VisualizationRequest extends UserRequest {
 	}
 
 	/**
-	 * Writes the resulting image to the response's output stream.
+	 * Streams the resulting image to the response's output stream.
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
@@ -188,6 +191,7 @@ public abstract class VisualizationRequest extends UserRequest {
 		}
 		catch(IOException e) {
 			LOGGER.error("Unable to create writer object. Aborting.", e);
+			closeImage();
 			return;
 		}
 		
@@ -212,7 +216,11 @@ public abstract class VisualizationRequest extends UserRequest {
 					}
 				}
 				
-				os.write(result);
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int amountRead;
+				while((amountRead = result.read(chunk)) != -1) {
+					os.write(chunk, 0, amountRead);
+				}
 				os.flush();
 				os.close();
 			}
@@ -220,6 +228,12 @@ public abstract class VisualizationRequest extends UserRequest {
 				LOGGER.error("There was an error writing the image to the output stream.", e);
 				return;
 			}
+			finally {
+				closeImage();
+			}
+		}
+		else {
+			closeImage();
 		}
 		
 		// If the request ever failed, write an error message.
@@ -297,11 +311,28 @@ public abstract class VisualizationRequest extends UserRequest {
 	}
 	
 	/**
-	 * Sets the image result that will be returned to the requester.
+	 * Sets the image result that will be returned to the requester. It is
+	 * closed once the response has been written.
 	 * 
-	 * @param image The image as a byte array.
+	 * @param image The image as a stream.
 	 */
-	protected final void setImage(final byte[] image) {
+	protected final void setImage(final InputStream image) {
 		result = image;
 	}
+	
+	/**
+	 * Closes the image, if any, which returns its connection to the
+	 * visualization server.
+	 */
+	private void closeImage() {
+		if(result != null) {
+			try {
+				result.close();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Unable to close the image.", e);
+			}
+			result = null;
+		}
+	}
 }
@@ -113,7 +113,7 @@ public class VizUserTimeseriesRequest extends VisualizationRequest {
 			parameters.put(VisualizationServices.PARAMETER_KEY_USERNAME, username);
 			
 			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
+			setImage(VisualizationServices.instance().sendVisualizationRequest(REQUEST_PATH, getUser().getUsername(), getUser().getToken(), 
 					getCampaignId(), getWidth(), getHeight(), parameters));
 		}
 		catch(ServiceException e) {
@@ -16,6 +16,7 @@
 package org.ohmage.service;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +28,7 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.jee.servlet.RequestServlet;
 import org.ohmage.jee.servlet.RequestServlet.RequestType;
 import org.ohmage.query.IAuditQueries;
+import org.ohmage.query.IAuditQueries.NewAudit;
 import org.ohmage.validator.AuditValidators.ResponseType;
 
 /**
@@ -124,6 +126,26 @@ public class AuditServices {
 		}
 	}
 	
+	/**
+	 * Creates many audit entries at once.
+	 * 
+	 * @param audits The audits to create.
+	 * 
+	 * @throws ServiceException Thrown if there is an error, in which case
+	 * 							none of the audits were created.
+	 */
+	public void createAudits(
+			final Collection<NewAudit> audits) 
+			throws ServiceException {
+		
+		try {
+			auditQueries.createAudits(audits);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Retrieves the information about all audits that meet the parameterized
 	 * criteria. If all of the parameters are null, except 'request' which 
@@ -589,7 +589,8 @@ public class CampaignServices {
 	 * Begins with all of the campaigns that exist in the system and then 
 	 * removes those that don't match the parameterized criteria. If a  
 	 * parameter is null, it is ignored. Therefore, if all parameters are null,
-	 * then all campaign IDs are returned.
+	 * then all campaign IDs are returned. The partial values are matched word
+	 * by word from an in-memory index, so they do not scan the campaigns.
 	 * 
 	 * @param partialCampaignId Only return campaigns whose ID contains this
 	 * 							value.
@@ -666,6 +667,18 @@ public class CampaignServices {
 				}
 			}
 			
+			if(partialXml != null) {
+				List<String> campaignIds =
+					campaignQueries.getCampaignsFromPartialXml(partialXml);
+				
+				if(result == null) {
+					result = new HashSet<String>(campaignIds);
+				}
+				else {
+					result.retainAll(campaignIds);
+				}
+			}
+			
 			if(partialAuthoredBy != null) {
 				List<String> campaignIds =
 					campaignQueries.getCampaignsFromPartialAuthoredBy(
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
@@ -150,7 +151,14 @@ public final class ImageServices {
 					imageUrlString += ImageQueries.IMAGE_SCALED_EXTENSION;
 				}
 				
-				imageUrl = new URL(imageUrlString);
+				// The scaled image is created in the background after the
+				// upload, so use the original until it exists.
+				URL scaledImageUrl = new URL(imageUrlString);
+				if((! "file".equals(scaledImageUrl.getProtocol())) ||
+						(new File(scaledImageUrl.getFile())).exists()) {
+					
+					imageUrl = scaledImageUrl;
+				}
 			}
 			
 			Map<Image.Size, URL> sizeToUrlMap = new HashMap<Image.Size, URL>();
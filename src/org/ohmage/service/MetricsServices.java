@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+/**
+ * This class is responsible for reporting on the state of the server's
+ * resources, such as the database connection pool.
+ */
+public class MetricsServices {
+	private static MetricsServices instance;
+	
+	// The pool, or null if the data source is not a DBCP pool.
+	private final BasicDataSource pool;
+	
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 * 
+	 * @param dataSource The data source whose pool will be reported on.
+	 * 
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 * 
+	 * @throws IllegalArgumentException if the data source is null
+	 */
+	private MetricsServices(DataSource dataSource) {
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+		
+		if(dataSource == null) {
+			throw new IllegalArgumentException("A DataSource is required.");
+		}
+		
+		if(dataSource instanceof BasicDataSource) {
+			pool = (BasicDataSource) dataSource;
+		}
+		else {
+			pool = null;
+		}
+		
+		instance = this;
+	}
+	
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static MetricsServices instance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns the number of database connections that are currently in use.
+	 * 
+	 * @return The number of active connections or -1 if it is unknown.
+	 */
+	public int getNumActiveConnections() {
+		return (pool == null) ? -1 : pool.getNumActive();
+	}
+	
+	/**
+	 * Returns the number of database connections that are open but not in
+	 * use.
+	 * 
+	 * @return The number of idle connections or -1 if it is unknown.
+	 */
+	public int getNumIdleConnections() {
+		return (pool == null) ? -1 : pool.getNumIdle();
+	}
+	
+	/**
+	 * Returns the maximum number of database connections that may be in use
+	 * at once.
+	 * 
+	 * @return The maximum number of active connections, a negative number if
+	 * 		   there is no limit, or -1 if it is unknown.
+	 */
+	public int getMaxActiveConnections() {
+		return (pool == null) ? -1 : pool.getMaxActive();
+	}
+}
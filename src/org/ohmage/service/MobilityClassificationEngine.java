@@ -0,0 +1,620 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.exception.DomainException;
+import org.ohmage.exception.ServiceException;
+import org.springframework.beans.factory.DisposableBean;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Runs the Mobility classifier over a list of points in parallel.<br />
+ * <br />
+ * The classification of a point depends on the WiFi scans from the ten
+ * minutes before it and, when its WiFi scan is the same as the most recent
+ * previous one, on the WiFi mode of the point before it. The points are
+ * split into windows of consecutive points, and each window carries a copy
+ * of the WiFi scans that precede it. A window is only started at a point
+ * that does not repeat the most recent previous WiFi scan, so no window
+ * needs the result of another. Therefore, the classifications are exactly
+ * the same as classifying the points one at a time.<br />
+ * <br />
+ * The windows are classified by a small, fixed number of threads shared by
+ * all requests. The requesting thread classifies the first window itself
+ * and any windows that do not fit on the queue, so a burst of requests slows
+ * down rather than failing.
+ */
+public final class MobilityClassificationEngine implements DisposableBean {
+	private static final Logger LOGGER =
+		Logger.getLogger(MobilityClassificationEngine.class);
+	
+	/**
+	 * This is the maximum number of milliseconds before a Mobility point that
+	 * we need to get the WiFi data for the classifier.
+	 */
+	public static final long MAX_MILLIS_OF_PREVIOUS_WIFI_DATA =
+		1000 * 60 * 10;
+	
+	// How long to wait for the queued windows when shutting down.
+	private static final long SHUTDOWN_MILLIS = 30000;
+	
+	private static volatile MobilityClassificationEngine instance = null;
+	
+	private final ThreadPoolExecutor executor;
+	private final int windowSize;
+	
+	// The statistics for the engine.
+	private final AtomicLong numPoints = new AtomicLong(0);
+	private final AtomicLong numWindows = new AtomicLong(0);
+	private final AtomicLong numWindowsInline = new AtomicLong(0);
+	
+	/**
+	 * A window of consecutive points and the WiFi scans that precede it.
+	 */
+	private static final class Window implements Callable<Void> {
+		private final List<MobilityPoint> points;
+		private final List<WifiScan> wifiScans;
+		private final List<WifiScan> previousWifiScans;
+		
+		/**
+		 * Creates a window.
+		 * 
+		 * @param points The points to classify.
+		 * 
+		 * @param wifiScans The WiFi scan for each point, which may be null.
+		 * 
+		 * @param previousWifiScans The WiFi scans from before the first point
+		 * 							in time order.
+		 */
+		private Window(
+				final List<MobilityPoint> points,
+				final List<WifiScan> wifiScans,
+				final List<WifiScan> previousWifiScans) {
+			
+			this.points = points;
+			this.wifiScans = wifiScans;
+			this.previousWifiScans = previousWifiScans;
+		}
+		
+		/**
+		 * Classifies the points in this window.
+		 * 
+		 * @throws ServiceException A point could not be classified.
+		 */
+		@Override
+		public Void call() throws ServiceException {
+			MobilityClassifier classifier = new MobilityClassifier();
+			
+			Deque<WifiScan> previousWifiScans =
+				new ArrayDeque<WifiScan>(this.previousWifiScans);
+			String previousWifiMode = null;
+			
+			int numPoints = points.size();
+			for(int i = 0; i < numPoints; i++) {
+				MobilityPoint mobilityPoint = points.get(i);
+				WifiScan wifiScan = wifiScans.get(i);
+				
+				// Get the Samples from this new point.
+				List<Sample> samples;
+				try {
+					samples = mobilityPoint.getSamples();
+				}
+				catch(DomainException e) {
+					throw new ServiceException(
+						"There was a problem retrieving the samples.",
+						e);
+				}
+				
+				// Prune out the old WifiScans.
+				pruneWifiScans(previousWifiScans, mobilityPoint.getTime());
+				
+				// Classify the data. The classifier only looks at the
+				// previous scans when there is a new one.
+				Classification classification =
+					classifier.classify(
+						samples,
+						mobilityPoint.getSensorData().getSpeed(),
+						wifiScan,
+						(wifiScan == null) ?
+							Collections.<WifiScan>emptyList() :
+							new ArrayList<WifiScan>(previousWifiScans),
+						previousWifiMode);
+				
+				// Update the place holders for the previous data.
+				if(wifiScan != null) {
+					previousWifiScans.addLast(wifiScan);
+				}
+				previousWifiMode = classification.getWifiMode();
+				
+				setClassification(mobilityPoint, classification);
+			}
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates the engine and starts its threads.
+	 * 
+	 * @param queueCapacity The maximum number of windows that may be waiting
+	 * 						to be classified.
+	 * 
+	 * @param numThreads The number of threads classifying windows.
+	 * 
+	 * @param windowSize The minimum number of points in each window.
+	 * 
+	 * @throws IllegalStateException An instance of this class already
+	 * 								 exists.
+	 * 
+	 * @throws IllegalArgumentException Any of the parameters are invalid.
+	 */
+	private MobilityClassificationEngine(
+			final int queueCapacity,
+			final int numThreads,
+			final int windowSize) {
+		
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+		
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException(
+				"The queue capacity must be positive.");
+		}
+		else if(numThreads < 1) {
+			throw new IllegalArgumentException(
+				"The number of threads must be positive.");
+		}
+		else if(windowSize < 1) {
+			throw new IllegalArgumentException(
+				"The window size must be positive.");
+		}
+		
+		this.windowSize = windowSize;
+		executor =
+			new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				0,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(0);
+					
+					/**
+					 * Creates daemon threads so that they cannot keep the JVM
+					 * alive.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"MobilityClassificationEngine - " +
+									count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		
+		LOGGER.info(
+			"Mobility points will be classified in windows of " +
+				windowSize + " by " + numThreads +
+				" threads from a queue of " + queueCapacity + ".");
+		
+		instance = this;
+	}
+	
+	/**
+	 * Returns the instance of this class.
+	 * 
+	 * @return The instance of this class or null if it has not been created
+	 * 		   or has been shut down.
+	 */
+	public static MobilityClassificationEngine instance() {
+		return instance;
+	}
+	
+	/**
+	 * Classifies the points using this engine's threads.
+	 * 
+	 * @param mobilityPoints The points in time order.
+	 * 
+	 * @throws ServiceException A point could not be classified.
+	 */
+	public void classify(
+			final List<MobilityPoint> mobilityPoints)
+			throws ServiceException {
+		
+		List<Window> windows = split(mobilityPoints, windowSize);
+		
+		numPoints.addAndGet(mobilityPoints.size());
+		numWindows.addAndGet(windows.size());
+		numWindowsInline.addAndGet(run(windows, executor));
+	}
+	
+	/**
+	 * Classifies the points, splitting them into windows that are submitted
+	 * to an executor. The first window, and any windows that the executor
+	 * rejects, are classified by the calling thread.
+	 * 
+	 * @param mobilityPoints The points in time order. Points that are not
+	 * 						 sensor data or whose mode is error are skipped.
+	 * 
+	 * @param executor The executor for the windows. If this is null, all of
+	 * 				   the windows are classified by the calling thread.
+	 * 
+	 * @param windowSize The minimum number of points in each window.
+	 * 
+	 * @return The number of windows that were classified by the calling
+	 * 		   thread.
+	 * 
+	 * @throws ServiceException A point could not be classified.
+	 */
+	public static int classify(
+			final List<MobilityPoint> mobilityPoints,
+			final ExecutorService executor,
+			final int windowSize)
+			throws ServiceException {
+		
+		return run(split(mobilityPoints, windowSize), executor);
+	}
+	
+	/**
+	 * Classifies windows of points, submitting all but the first one to an
+	 * executor. The first window, and any windows that the executor rejects,
+	 * are classified by the calling thread.
+	 * 
+	 * @param windows The windows to classify.
+	 * 
+	 * @param executor The executor for the windows. If this is null, all of
+	 * 				   the windows are classified by the calling thread.
+	 * 
+	 * @return The number of windows that were classified by the calling
+	 * 		   thread.
+	 * 
+	 * @throws ServiceException A point could not be classified.
+	 */
+	private static int run(
+			final List<Window> windows,
+			final ExecutorService executor)
+			throws ServiceException {
+		
+		if(windows.isEmpty()) {
+			return 0;
+		}
+		
+		// Submit all but the first window.
+		int numInline = 1;
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		List<Window> inline = new LinkedList<Window>();
+		inline.add(windows.get(0));
+		for(Window window : windows.subList(1, windows.size())) {
+			if(executor == null) {
+				inline.add(window);
+				numInline++;
+				continue;
+			}
+			
+			try {
+				futures.add(executor.submit(window));
+			}
+			catch(RejectedExecutionException e) {
+				inline.add(window);
+				numInline++;
+			}
+		}
+		
+		try {
+			// Classify the remaining windows on this thread.
+			for(Window window : inline) {
+				window.call();
+			}
+			
+			// Wait for the others.
+			for(Future<Void> future : futures) {
+				try {
+					future.get();
+				}
+				catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof ServiceException) {
+						throw (ServiceException) cause;
+					}
+					else if(cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					else if(cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new ServiceException(
+						"The points could not be classified.",
+						cause);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ServiceException(
+						"Interrupted while classifying the points.",
+						e);
+				}
+			}
+		}
+		finally {
+			// If anything failed, there is no reason to finish the others.
+			for(Future<Void> future : futures) {
+				future.cancel(false);
+			}
+		}
+		
+		return numInline;
+	}
+	
+	/**
+	 * Stops accepting new windows and waits for the queued windows to be
+	 * classified.
+	 */
+	@Override
+	public void destroy() {
+		instance = null;
+		
+		executor.shutdown();
+		try {
+			if(! executor.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+				LOGGER.error(
+					"The classification engine did not finish; " +
+						executor.getQueue().size() +
+						" windows were not classified.");
+				executor.shutdownNow();
+			}
+		}
+		catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		
+		LOGGER.info(
+			"Classification engine stopped. Points: " + numPoints.get() +
+				", windows: " + numWindows.get() +
+				", windows classified inline: " + numWindowsInline.get());
+	}
+	
+	/**
+	 * Returns the number of windows currently waiting to be classified.
+	 * 
+	 * @return The number of windows on the queue.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of points that have been given to this engine.
+	 * 
+	 * @return The number of points.
+	 */
+	public long getPointCount() {
+		return numPoints.get();
+	}
+	
+	/**
+	 * Returns the number of windows that have been classified.
+	 * 
+	 * @return The number of windows.
+	 */
+	public long getWindowCount() {
+		return numWindows.get();
+	}
+	
+	/**
+	 * Returns the number of windows that were classified by the thread that
+	 * requested them.
+	 * 
+	 * @return The number of windows classified inline.
+	 */
+	public long getWindowInlineCount() {
+		return numWindowsInline.get();
+	}
+	
+	/**
+	 * Splits the points that can be classified into windows. This only reads
+	 * the WiFi scans; the samples are read and classified by the windows.
+	 * 
+	 * @param mobilityPoints The points in time order.
+	 * 
+	 * @param windowSize The minimum number of points in each window.
+	 * 
+	 * @return The windows in time order.
+	 * 
+	 * @throws ServiceException A point's WiFi scan could not be read.
+	 */
+	private static List<Window> split(
+			final List<MobilityPoint> mobilityPoints,
+			final int windowSize)
+			throws ServiceException {
+		
+		List<Window> result = new ArrayList<Window>();
+		if(mobilityPoints == null) {
+			return result;
+		}
+		
+		Deque<WifiScan> previousWifiScans = new ArrayDeque<WifiScan>();
+		
+		List<WifiScan> windowPreviousWifiScans =
+			new ArrayList<WifiScan>(0);
+		List<MobilityPoint> windowPoints = new ArrayList<MobilityPoint>();
+		List<WifiScan> windowWifiScans = new ArrayList<WifiScan>();
+		for(MobilityPoint mobilityPoint : mobilityPoints) {
+			// If the data point is of type error, don't attempt to classify
+			// it.
+			if(mobilityPoint.getMode().equals(Mode.ERROR)) {
+				continue;
+			}
+			// Only sensor data is classified.
+			if(! MobilityPoint.SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
+				continue;
+			}
+			
+			// Get the new WifiScan from this new point.
+			WifiScan wifiScan;
+			if(mobilityPoint.getSensorData().getWifiData() == null) {
+				wifiScan = null;
+			}
+			else {
+				try {
+					wifiScan = mobilityPoint.getWifiScan();
+				}
+				catch(DomainException e) {
+					throw new ServiceException(
+						"The Mobility point does not contain WiFi data.",
+						e);
+				}
+			}
+			
+			pruneWifiScans(previousWifiScans, mobilityPoint.getTime());
+			
+			// Start a new window once this one is full, but only if this
+			// point does not depend on the WiFi mode of the previous point.
+			if(
+				(windowPoints.size() >= windowSize) &&
+				(
+					(wifiScan == null) ||
+					previousWifiScans.isEmpty() ||
+					(! previousWifiScans.getLast().getTime().equals(
+						wifiScan.getTime())))) {
+				
+				result.add(
+					new Window(
+						windowPoints,
+						windowWifiScans,
+						windowPreviousWifiScans));
+				
+				windowPreviousWifiScans =
+					new ArrayList<WifiScan>(previousWifiScans);
+				windowPoints = new ArrayList<MobilityPoint>();
+				windowWifiScans = new ArrayList<WifiScan>();
+			}
+			
+			windowPoints.add(mobilityPoint);
+			windowWifiScans.add(wifiScan);
+			if(wifiScan != null) {
+				previousWifiScans.addLast(wifiScan);
+			}
+		}
+		
+		if(! windowPoints.isEmpty()) {
+			result.add(
+				new Window(
+					windowPoints,
+					windowWifiScans,
+					windowPreviousWifiScans));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Removes the WiFi scans that are more than
+	 * {@value #MAX_MILLIS_OF_PREVIOUS_WIFI_DATA} milliseconds before a time.
+	 * The scans are in time order, so this stops at the first one that is
+	 * recent enough.
+	 * 
+	 * @param wifiScans The WiFi scans in time order.
+	 * 
+	 * @param time The time of the point being classified.
+	 */
+	private static void pruneWifiScans(
+			final Deque<WifiScan> wifiScans,
+			final long time) {
+		
+		long minPreviousTime = time - MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
+		while(
+			(! wifiScans.isEmpty()) &&
+			(wifiScans.getFirst().getTime() < minPreviousTime)) {
+			
+			wifiScans.removeFirst();
+		}
+	}
+	
+	/**
+	 * Stores a classification in a Mobility point.
+	 * 
+	 * @param mobilityPoint The point.
+	 * 
+	 * @param classification The point's classification.
+	 * 
+	 * @throws ServiceException The classification could not be stored.
+	 */
+	private static void setClassification(
+			final MobilityPoint mobilityPoint,
+			final Classification classification)
+			throws ServiceException {
+		
+		// If the classification generated some results, pull them out and
+		// store them in the Mobility point.
+		if(classification.hasFeatures()) {
+			try {
+				mobilityPoint.setClassifierData(
+					classification.getFft(),
+					classification.getVariance(),
+					classification.getAverage(),
+					MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
+			}
+			catch(DomainException e) {
+				throw new ServiceException(
+					"There was a problem reading the classification's information.",
+					e);
+			}
+		}
+		// If the features don't exist, then create the classifier data with
+		// only the mode.
+		else {
+			try {
+				mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
+			}
+			catch(DomainException e) {
+				throw new ServiceException(
+					"There was a problem reading the classification's mode.",
+					e);
+			}
+		}
+	}
+}
@@ -15,9 +15,8 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
@@ -27,18 +26,15 @@ import org.ohmage.domain.MobilityAggregatePoint;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
 import org.ohmage.domain.MobilityPoint.Mode;
-import org.ohmage.domain.MobilityPoint.SensorData;
+import org.ohmage.domain.MobilityRollup;
+import org.ohmage.domain.Observer.Stream;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IObserverQueries;
 import org.ohmage.query.IUserMobilityQueries;
 import org.ohmage.query.IUserQueries;
 
-import edu.ucla.cens.mobilityclassifier.Classification;
-import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
-import edu.ucla.cens.mobilityclassifier.Sample;
-import edu.ucla.cens.mobilityclassifier.WifiScan;
-
 /**
  * This class is responsible for all services pertaining to Mobility points.
  * 
@@ -46,15 +42,24 @@ import edu.ucla.cens.mobilityclassifier.WifiScan;
  */
 public final class MobilityServices {
 	/**
-	 * This is the maximum number of milliseconds before a Mobility point that
-	 * we need to get the WiFi data for the classifier.
+	 * The observer to which Mobility points are uploaded. The rollups are
+	 * rebuilt whenever data is stored for it. This and the streams must
+	 * match the values in MobilityUploadRequest.
 	 */
-	private static final long MAX_MILLIS_OF_PREVIOUS_WIFI_DATA = 
-			1000 * 60 * 10;
+	public static final String MOBILITY_OBSERVER_ID = "edu.ucla.cens.Mobility";
+	
+	// The streams to which Mobility points are uploaded.
+	private static final String STREAM_ID_MODE_ONLY = "mode_only";
+	private static final long STREAM_VERSION_MODE_ONLY = 2012050700;
+	private static final String STREAM_ID_EXTENDED = "extended";
+	private static final long STREAM_VERSION_EXTENDED = 2012050700;
+	private static final String STREAM_ID_ERROR = "error";
+	private static final long STREAM_VERSION_ERROR = 2012061300;
 	
 	private static MobilityServices instance;
 	private IUserQueries userQueries;
 	private IUserMobilityQueries userMobilityQueries;
+	private IObserverQueries observerQueries;
 	
 	/**
 	 * Default constructor. Privately instantiated via dependency injection
@@ -63,11 +68,13 @@ public final class MobilityServices {
 	 * @throws IllegalStateException if an instance of this class already
 	 * exists
 	 * 
-	 * @throws IllegalArgumentException if iUserMobilityQueries is null
+	 * @throws IllegalArgumentException if iUserQueries, iUserMobilityQueries,
+	 * or iObserverQueries is null
 	 */
 	private MobilityServices(
 			final IUserQueries iUserQueries,
-			final IUserMobilityQueries iUserMobilityQueries) {
+			final IUserMobilityQueries iUserMobilityQueries,
+			final IObserverQueries iObserverQueries) {
 		
 		if(instance != null) {
 			throw new IllegalStateException("An instance of this class already exists.");
@@ -81,8 +88,13 @@ public final class MobilityServices {
 			throw new IllegalArgumentException("An instance of IUserMobilityQueries is required.");
 		}
 		
+		if(iObserverQueries == null) {
+			throw new IllegalArgumentException("An instance of IObserverQueries is required.");
+		}
+		
 		userQueries = iUserQueries;
 		userMobilityQueries = iUserMobilityQueries;
+		observerQueries = iObserverQueries;
 		instance = this;
 	}
 	
@@ -141,153 +153,18 @@ public final class MobilityServices {
 			return;
 		}
 		
-		// Create a new classifier.
-		MobilityClassifier classifier = new MobilityClassifier();
-				
-		// Create place holders for the previous data.
-		String previousWifiMode = null;
-		List<WifiScan> previousWifiScans = new LinkedList<WifiScan>();
-		
-		// This is a bit more involved now that we are doing everything through
-		// the observers.
-		/*
-		if(mobilityPoints.size() > 0) {
-			try {
-				MobilityPoint firstPoint = mobilityPoints.get(0);
-				DateTime startDate = new DateTime();
-
-				startDate = 
-						new DateTime(
-							firstPoint.getTime() -
-							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA);
-
-				List<MobilityPoint> previousPoints = 
-						userMobilityQueries.getMobilityInformation(
-							uploadersUsername, 
-							startDate, 
-							new DateTime(firstPoint.getTime()), 
-							null, 
-							null, 
-							null);
-
-				for(MobilityPoint previousPoint : previousPoints) {
-					try {
-						previousWifiScans.add(previousPoint.getWifiScan());
-					}
-					catch(DomainException e) {
-						// This point does not have a WifiScan, so we will skip
-						// it.
-					}
-				}
-			}
-			catch(DataAccessException e) {
-				throw new ServiceException(e);
-			}
+		// Classify the points in parallel if the engine is running.
+		// Otherwise, classify them all on this thread.
+		MobilityClassificationEngine engine = 
+			MobilityClassificationEngine.instance();
+		if(engine == null) {
+			MobilityClassificationEngine.classify(
+				mobilityPoints, 
+				null, 
+				Integer.MAX_VALUE);
 		}
-		*/
-
-		// For each of the Mobility points,
-		for(MobilityPoint mobilityPoint : mobilityPoints) {
-			// If the data point is of type error, don't attempt to classify 
-			// it.
-			if(mobilityPoint.getMode().equals(Mode.ERROR)) {
-				continue;
-			}
-			
-			// If the SubType is sensor data,
-			if(MobilityPoint.SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
-				SensorData currSensorData = mobilityPoint.getSensorData();
-				
-				// Get the Samples from this new point.
-				List<Sample> samples;
-				try {
-					samples = mobilityPoint.getSamples();
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-							"There was a problem retrieving the samples.",
-							e);
-				}
-				
-				// Get the new WifiScan from this new point.
-				WifiScan wifiScan;
-				if(mobilityPoint.getSensorData().getWifiData() == null) {
-					wifiScan = null;
-				}
-				else {
-					try {
-						wifiScan = mobilityPoint.getWifiScan();
-					} 
-					catch(DomainException e) {
-						throw new ServiceException(
-								"The Mobility point does not contain WiFi data.",
-								e);
-					}
-				}
-				
-				// Prune out the old WifiScans that are more than 10 minutes 
-				// old.
-				long minPreviousTime = 
-						mobilityPoint.getTime() - 
-							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
-				Iterator<WifiScan> previousWifiScansIter = 
-						previousWifiScans.iterator();
-				while(previousWifiScansIter.hasNext()) {
-					if(previousWifiScansIter.next().getTime() < minPreviousTime) {
-						previousWifiScansIter.remove();
-					}
-					else {
-						// Given the fact that the list is ordered, we can now
-						// be assured that all of the remaining WiFi scans are
-						// invalid.
-						break;
-					}
-				}
-
-				// Classify the data.
-				Classification classification =
-						classifier.classify(
-								samples,
-								currSensorData.getSpeed(),
-								wifiScan,
-								previousWifiScans,
-								previousWifiMode);
-				
-				// Update the place holders for the previous data.
-				if(wifiScan != null) {
-					previousWifiScans.add(wifiScan);
-				}
-				previousWifiMode = classification.getWifiMode();
-				
-				// If the classification generated some results, pull them out
-				// and store them in the Mobility point.
-				if(classification.hasFeatures()) {
-					try {
-						mobilityPoint.setClassifierData(
-								classification.getFft(), 
-								classification.getVariance(),
-								classification.getAverage(), 
-								MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's information.", 
-								e);
-					}
-				}
-				// If the features don't exist, then create the classifier data
-				// with only the mode.
-				else {
-					try {
-						mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's mode.", 
-								e);
-					}
-				}
-			}
+		else {
+			engine.classify(mobilityPoints);
 		}
 	}
 	
@@ -381,6 +258,116 @@ public final class MobilityServices {
 		}
 	}
 	
+	/**
+	 * Retrieves the Mobility rollups for a user within a range.
+	 * 
+	 * @param username The user's username. Required.
+	 * 
+	 * @param startDate Limits the results to only those whose minute begins
+	 * 					on or after this date. Required.
+	 * 
+	 * @param endDate Limits the results to only those whose minute begins on
+	 * 				  or before this date. Required.
+	 * 
+	 * @return The rollups in the order of their first points.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public List<MobilityRollup> retrieveMobilityRollups(
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate)
+			throws ServiceException {
+		
+		try {
+			return userMobilityQueries.getRollups(
+					username,
+					startDate.getMillis(),
+					endDate.getMillis());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Recomputes a user's Mobility rollups after points were uploaded. The
+	 * rollups are rebuilt from the stored points, both the legacy ones and
+	 * those in the Mobility streams, so points that were uploaded before are
+	 * not counted again. Because a new point can change
+	 * the duration credited to the point after it, the rollups are rebuilt
+	 * through the latest point's time plus 
+	 * {@value org.ohmage.domain.MobilityRollup#MAX_MILLIS_BETWEEN_POINTS}
+	 * milliseconds.
+	 * 
+	 * @param username The user's username. Required.
+	 * 
+	 * @param startTime The time of the earliest uploaded point in 
+	 * 					milliseconds since the epoch.
+	 * 
+	 * @param endTime The time of the latest uploaded point in milliseconds
+	 * 				  since the epoch.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public void updateMobilityRollups(
+			final String username,
+			final long startTime,
+			final long endTime)
+			throws ServiceException {
+		
+		long rangeStart = MobilityRollup.getRollupTime(startTime);
+		long rangeEnd =
+			MobilityRollup.getRollupTime(
+				endTime + MobilityRollup.MAX_MILLIS_BETWEEN_POINTS) +
+			MobilityRollup.MILLIS_PER_ROLLUP;
+		
+		try {
+			List<Stream> streams = new ArrayList<Stream>(3);
+			addStream(STREAM_ID_MODE_ONLY, STREAM_VERSION_MODE_ONLY, streams);
+			addStream(STREAM_ID_EXTENDED, STREAM_VERSION_EXTENDED, streams);
+			addStream(STREAM_ID_ERROR, STREAM_VERSION_ERROR, streams);
+			
+			userMobilityQueries.rebuildRollups(
+				username, 
+				MOBILITY_OBSERVER_ID, 
+				streams, 
+				rangeStart, 
+				rangeEnd);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Adds one of the streams to which Mobility points are uploaded to a
+	 * list if it exists.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param streamVersion The stream's version.
+	 * 
+	 * @param result The list to which the stream is added.
+	 * 
+	 * @throws DataAccessException There was an error reading the stream.
+	 */
+	private void addStream(
+			final String streamId,
+			final long streamVersion,
+			final List<Stream> result)
+			throws DataAccessException {
+		
+		Stream stream = 
+			observerQueries.getStream(
+				MOBILITY_OBSERVER_ID, 
+				streamId, 
+				streamVersion);
+		if(stream != null) {
+			result.add(stream);
+		}
+	}
+	
 	/**
 	 * Retrieves all of the dates on which the user has created a Mobility 
 	 * point within the date range.
@@ -10,11 +10,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ObserverCache;
+import org.ohmage.cache.StreamIdIndex;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Observer;
@@ -23,11 +25,155 @@ import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.query.IObserverQueries;
+import org.ohmage.query.IObserverQueries.DataStreamSource;
 
 public class ObserverServices {
+	// The number of uploaded data points that are validated, checked for
+	// duplicates, and stored at once.
+	private static final int DATA_CHUNK_SIZE = 1000;
+	
 	private static ObserverServices instance;
 	private IObserverQueries observerQueries;
 	
+	/**
+	 * Reads uploaded data points a chunk at a time from a JSON array and
+	 * removes those that have already been stored. A duplicate is a point 
+	 * with an ID that already exists for the given user and the associated
+	 * stream. This will not remove duplicates in a single upload.
+	 */
+	private final class UploadedData implements DataStreamSource {
+		private final String username;
+		private final Observer observer;
+		private final JsonParser parser;
+		private final StreamIdIndex index;
+		private final long writer;
+		
+		private boolean finished = false;
+		
+		// The times of the earliest and latest points that were read,
+		// including the duplicates, or null if none had a time.
+		private Long earliestTime = null;
+		private Long latestTime = null;
+		
+		/**
+		 * Creates the source of uploaded data.
+		 * 
+		 * @param username The user who is uploading the data.
+		 * 
+		 * @param observer The observer to which the data belong.
+		 * 
+		 * @param parser The parser, which must have already read the start
+		 * 				 of the array.
+		 * 
+		 * @param index The index of the stored IDs or null if every ID 
+		 * 				must be checked against the database.
+		 * 
+		 * @param writer This upload's sequence number in the index.
+		 */
+		private UploadedData(
+				final String username,
+				final Observer observer,
+				final JsonParser parser,
+				final StreamIdIndex index,
+				final long writer) {
+			
+			this.username = username;
+			this.observer = observer;
+			this.parser = parser;
+			this.index = index;
+			this.writer = writer;
+		}
+		
+		/**
+		 * Reads the next chunk of data points and removes the duplicates.
+		 * 
+		 * @return The data points that have not already been stored or null
+		 * 		   if there are no more.
+		 * 
+		 * @throws DataAccessException The data was invalid or there was an
+		 * 							   error checking for duplicates.
+		 */
+		@Override
+		public Collection<DataStream> nextChunk() throws DataAccessException {
+			if(finished) {
+				return null;
+			}
+			
+			List<DataStream> result = 
+				new ArrayList<DataStream>(DATA_CHUNK_SIZE);
+			try {
+				while(result.size() < DATA_CHUNK_SIZE) {
+					JsonToken token = parser.nextToken();
+					if(token == JsonToken.END_ARRAY) {
+						finished = true;
+						break;
+					}
+					else if(token == null) {
+						throw invalidData(
+							"The data ended before the array was closed.", 
+							null);
+					}
+					
+					// Only this point is read into a tree.
+					DataStream dataStream = 
+						observer.getDataStream(parser.readValueAsTree());
+					result.add(dataStream);
+					
+					MetaData metaData = dataStream.getMetaData();
+					if((metaData != null) && 
+						(metaData.getTimestamp() != null)) {
+						
+						long time = metaData.getTimestamp().getMillis();
+						if((earliestTime == null) || (time < earliestTime)) {
+							earliestTime = time;
+						}
+						if((latestTime == null) || (time > latestTime)) {
+							latestTime = time;
+						}
+					}
+				}
+			}
+			catch(JsonProcessingException e) {
+				throw invalidData("The data was not well-formed JSON.", e);
+			}
+			catch(IOException e) {
+				throw invalidData(
+					"Could not read the data from the parser.", 
+					e);
+			}
+			catch(DomainException e) {
+				throw invalidData(
+					"The data was malformed: " + e.getMessage(), 
+					e);
+			}
+			
+			removeDuplicates(username, observer.getId(), result, index, writer);
+			return result;
+		}
+		
+		/**
+		 * Creates an exception that will fail the request because the data
+		 * was invalid.
+		 * 
+		 * @param errorText The text to return to the user.
+		 * 
+		 * @param cause The cause or null.
+		 * 
+		 * @return The exception to throw.
+		 */
+		private DataAccessException invalidData(
+				final String errorText, 
+				final Throwable cause) {
+			
+			return 
+				new DataAccessException(
+					new DomainException(
+						ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+						errorText,
+						cause));
+		}
+	}
+	
 	/**
 	 * Default constructor. Privately instantiated via dependency injection
 	 * (reflection).
@@ -79,6 +225,9 @@ public class ObserverServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		finally {
+			ObserverCache.invalidate(observer.getId());
+		}
 	}
 	
 	/**
@@ -242,9 +391,14 @@ public class ObserverServices {
 			final Long observerVersion) 
 			throws ServiceException {
 		
+		Observer result = 
+			ObserverCache.getObserver(observerId, observerVersion);
+		if(result != null) {
+			return result;
+		}
+		
 		try {
-			Observer result = 
-				observerQueries.getObserver(observerId, observerVersion);
+			result = observerQueries.getObserver(observerId, observerVersion);
 			
 			if(result == null) {
 				throw new ServiceException(
@@ -254,6 +408,7 @@ public class ObserverServices {
 						"Version: " + observerVersion);
 			}
 			
+			ObserverCache.putObserver(result, observerVersion == null);
 			return result;
 		}
 		catch(DataAccessException e) {
@@ -281,9 +436,23 @@ public class ObserverServices {
 			final Long streamVersion)
 			throws ServiceException {
 		
+		// Only a specific version is cached because it never changes.
+		if(streamVersion != null) {
+			Observer.Stream result = 
+				ObserverCache.getStream(observerId, streamId, streamVersion);
+			if(result != null) {
+				return result;
+			}
+		}
+		
 		try {
-			return 
+			Observer.Stream result =
 				observerQueries.getStream(observerId, streamId, streamVersion);
+			
+			if((result != null) && (streamVersion != null)) {
+				ObserverCache.putStream(observerId, result);
+			}
+			return result;
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -309,26 +478,41 @@ public class ObserverServices {
 	}
 	
 	/**
-	 * Validates that the uploaded data is valid by comparing it to its stream
-	 * schema and creating DataStream objects.
+	 * Validates and stores uploaded data. The data is parsed incrementally
+	 * and each chunk of {@value #DATA_CHUNK_SIZE} points is validated
+	 * against its stream's schema, pruned of points that were stored by
+	 * previous uploads, and stored before the next chunk is read. This keeps
+	 * the memory used constant regardless of how many points were uploaded.
+	 * If any point is invalid, none of the data is stored.<br />
+	 * <br />
+	 * If the data belong to the Mobility observer, the Mobility rollups
+	 * around every uploaded point, including the duplicates, are rebuilt
+	 * once the data is stored. If that fails, the upload fails, and the
+	 * rollups are rebuilt when the client retries it.
 	 * 
-	 * @param observer The observer that contains the streams.
+	 * @param username The user who is uploading the data.
 	 * 
-	 * @param data The data to validate.
+	 * @param observer The observer to which the data belong.
 	 * 
-	 * @return A collection of DataStreams where each stream represents a 
-	 * 		   different piece of data.
+	 * @param data A parser positioned before a JSON array of data points.
 	 * 
-	 * @throws ServiceException The data was invalid.
+	 * @return The number of data points that were stored.
+	 * 
+	 * @throws ServiceException The data was invalid or there was an error
+	 * 							storing it.
 	 */
-	public Collection<DataStream> validateData(
+	public long storeData(
+			final String username,
 			final Observer observer,
-			final JsonParser data)
+			final JsonParser data) 
 			throws ServiceException {
 		
-		JsonNode nodes;
 		try {
-			nodes = data.readValueAsTree();
+			if(data.nextToken() != JsonToken.START_ARRAY) {
+				throw new ServiceException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+					"The data was not a JSON array.");
+			}
 		}
 		catch(JsonProcessingException e) {
 			throw new ServiceException(
@@ -342,30 +526,43 @@ public class ObserverServices {
 				"Could not read the data from the parser.",
 				e);
 		}
-		int numNodes = nodes.size();
 		
-		Collection<DataStream> result = new ArrayList<DataStream>(numNodes);
-		for(int i = 0; i < numNodes; i++) {
-			try {
-				result.add(observer.getDataStream(nodes.get(i)));
-			}
-			catch(DomainException e) {
-				throw new ServiceException(
-					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-					"The data was malformed: " + e.getMessage(),
-					e);
+		StreamIdIndex index = StreamIdIndex.instance();
+		long writer = (index == null) ? 0 : index.beginWrite();
+		UploadedData uploadedData = 
+			new UploadedData(username, observer, data, index, writer);
+		long numStored;
+		try {
+			numStored = 
+				observerQueries.storeData(username, observer, uploadedData);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+		finally {
+			if(index != null) {
+				index.endWrite(writer);
 			}
 		}
 		
+		if(MobilityServices.MOBILITY_OBSERVER_ID.equals(observer.getId()) &&
+			(uploadedData.earliestTime != null)) {
+			
+			MobilityServices.instance().updateMobilityRollups(
+				username, 
+				uploadedData.earliestTime, 
+				uploadedData.latestTime);
+		}
 		
-		return result;
+		return numStored;
 	}
 	
 	/**
-	 * Prunes the duplicates from the collection of data elements. A duplicate
-	 * is defined as a point with an ID whose ID already exists for the given
-	 * user and for the associated stream. This will not remove duplicates in
-	 * a single upload.
+	 * Prunes the duplicates from a collection of data points. A duplicate is
+	 * a point with an ID that already exists for the given user and for the
+	 * associated stream. If there is an index of the stored IDs, only the 
+	 * probable duplicates are checked against the database, and the IDs of 
+	 * the points that remain are added to it.
 	 *  
 	 * @param username The username of the user that will own these points.
 	 * 
@@ -373,51 +570,92 @@ public class ObserverServices {
 	 * 
 	 * @param data The data that has been uploaded.
 	 * 
-	 * @throws ServiceException There was an error.
+	 * @param index The index of the stored IDs or null.
+	 * 
+	 * @param writer The upload's sequence number in the index.
+	 * 
+	 * @throws DataAccessException There was an error.
 	 */
-	public void removeDuplicates(
+	private void removeDuplicates(
 			final String username,
 			final String observerId,
-			final Collection<DataStream> data)
-			throws ServiceException {
+			final Collection<DataStream> data,
+			final StreamIdIndex index,
+			final long writer)
+			throws DataAccessException {
 		
-		try {
-			// Get the IDs for each stream from this upload's data.
-			Map<String, Collection<String>> uploadIds = 
-				new HashMap<String, Collection<String>>();
-			for(DataStream dataStream : data) {
-				MetaData dataStreamMetaData = dataStream.getMetaData();
-				
-				if(dataStreamMetaData != null) {
-					String id = dataStreamMetaData.getId();
+		// Get the IDs for each stream from this upload's data.
+		Map<String, Collection<String>> uploadIds = 
+			new HashMap<String, Collection<String>>();
+		for(DataStream dataStream : data) {
+			MetaData dataStreamMetaData = dataStream.getMetaData();
+			
+			if(dataStreamMetaData != null) {
+				String id = dataStreamMetaData.getId();
 				
-					if(id != null) {
-						Stream stream = dataStream.getStream();
-						
-						Collection<String> streamIds = 
-							uploadIds.get(stream.getId());
-						if(streamIds == null) {
-							streamIds = new LinkedList<String>();
-							uploadIds.put(stream.getId(), streamIds);
-						}
-						streamIds.add(id);
+				if(id != null) {
+					Stream stream = dataStream.getStream();
+					
+					Collection<String> streamIds = 
+						uploadIds.get(stream.getId());
+					if(streamIds == null) {
+						streamIds = new LinkedList<String>();
+						uploadIds.put(stream.getId(), streamIds);
 					}
+					streamIds.add(id);
 				}
 			}
+		}
+		
+		// Get the existing IDs for each stream that are also in this 
+		// upload's IDs.
+		Collection<String> duplicateIds = new HashSet<String>();
+		for(String streamId : uploadIds.keySet()) {
+			Collection<String> streamIds = uploadIds.get(streamId);
+			
+			// Only the probable duplicates need to be checked if the index
+			// has a filter for the stream.
+			Collection<String> probableIds = null;
+			if(index != null) {
+				probableIds = 
+					index.getProbableDuplicates(
+						writer, 
+						username, 
+						observerId, 
+						streamId, 
+						streamIds);
+			}
+			Collection<String> idsToCheck = 
+				(probableIds == null) ? streamIds : probableIds;
 			
-			// Get the existing IDs for each stream that are also in this 
-			// upload's IDs.
-			Collection<String> duplicateIds = new HashSet<String>();
-			for(String streamId : uploadIds.keySet()) {
-				duplicateIds.addAll( 
+			Collection<String> streamDuplicateIds = 
+				new HashSet<String>(
 					observerQueries.getDuplicateIds(
 						username,
 						observerId,
 						streamId,
-						uploadIds.get(streamId)));
-			}
+						idsToCheck));
+			duplicateIds.addAll(streamDuplicateIds);
 			
-			// Remove any of this upload's IDs that already exist.
+			if(index != null) {
+				if(probableIds != null) {
+					index.recordFalsePositives(
+						new HashSet<String>(probableIds).size() - 
+							streamDuplicateIds.size());
+				}
+				
+				Collection<String> newIds = new LinkedList<String>();
+				for(String id : streamIds) {
+					if(! streamDuplicateIds.contains(id)) {
+						newIds.add(id);
+					}
+				}
+				index.add(writer, username, observerId, streamId, newIds);
+			}
+		}
+		
+		// Remove any of this upload's IDs that already exist.
+		if(! duplicateIds.isEmpty()) {
 			Iterator<DataStream> dataIter = data.iterator();
 			while(dataIter.hasNext()) {
 				DataStream dataStream = dataIter.next();
@@ -432,36 +670,8 @@ public class ObserverServices {
 				}
 			}
 		}
-		catch(DataAccessException e) {
-			throw new ServiceException(e);
-		}
 	}
 	
-	/**
-	 * Stores the data stream data.
-	 * 
-	 * @param username The user who is uploading the data.
-	 * 
-	 * @param observer The observer to which the data belong.
-	 * 
-	 * @param data The data to be stored.
-	 * 
-	 * @throws ServiceException There was an error.
-	 */
-	public void storeData(
-			final String username,
-			final Observer observer,
-			final Collection<DataStream> data) 
-			throws ServiceException {
-		
-		try {
-			observerQueries.storeData(username, observer, data);
-		}
-		catch(DataAccessException e) {
-			throw new ServiceException(e);
-		}
-	}
-
 	/**
 	 * Retrieves the data for a stream.
 	 * 
@@ -479,6 +689,10 @@ public class ObserverServices {
 	 * 
 	 * @param endDate The latest point data point to return. Optional.
 	 * 
+	 * @param continuationToken Limits the results to only those that come
+	 * 							after, or before if it points backwards, this
+	 * 							token. Optional.
+	 * 
 	 * @param numToSkip The number of data points to skip. Optional.
 	 * 
 	 * @param numToReturn The number of data points to return. Optional.
@@ -495,6 +709,7 @@ public class ObserverServices {
 			final Long observerVersion,
 			final DateTime startDate,
 			final DateTime endDate,
+			final DataStream.ContinuationToken continuationToken,
 			final long numToSkip,
 			final long numToReturn) 
 			throws ServiceException {
@@ -508,6 +723,7 @@ public class ObserverServices {
 					observerVersion,
 					startDate,
 					endDate,
+					continuationToken,
 					numToSkip,
 					numToReturn);
 		}
@@ -543,5 +759,8 @@ public class ObserverServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		finally {
+			ObserverCache.invalidate(observer.getId());
+		}
 	}
 }
\ No newline at end of file
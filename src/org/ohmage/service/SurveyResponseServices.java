@@ -15,7 +15,6 @@
  ******************************************************************************/
 package org.ohmage.service;
 
-import java.awt.image.BufferedImage;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +28,7 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Response;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
+import org.ohmage.domain.campaign.SurveyResponse.FunctionPrivacyStateItem;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
 import org.ohmage.domain.campaign.response.PhotoPromptResponse;
 import org.ohmage.domain.campaign.response.VideoPromptResponse;
@@ -37,6 +37,7 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.query.IImageQueries;
 import org.ohmage.query.ISurveyResponseImageQueries;
 import org.ohmage.query.ISurveyResponseQueries;
+import org.ohmage.query.ISurveyResponseQueries.SurveyResponseHandler;
 import org.ohmage.query.ISurveyUploadQuery;
 
 /**
@@ -116,9 +117,9 @@ public final class SurveyResponseServices {
 	 * @param surveyUploadList The list of survey responses to add to the
 	 * 						   database.
 	 * 
-	 * @param bufferedImageMap The map of image unique identifiers to 
-	 * 						   BufferedImage objects to use when creating the
-	 * 						   database entry.
+	 * @param imageContentsMap The map of image unique identifiers to the
+	 * 						   images' contents, which are stored as they
+	 * 						   are.
 	 * 
 	 * @param videoContentsMap The map of the video unique identifiers to their
 	 * 						   byte array contents.
@@ -131,7 +132,7 @@ public final class SurveyResponseServices {
 	public List<Integer> createSurveyResponses(final String user, 
 			final String client, final String campaignUrn,
             final List<SurveyResponse> surveyUploadList,
-            final Map<String, BufferedImage> bufferedImageMap,
+            final Map<String, byte[]> imageContentsMap,
             final Map<String, Video> videoContentsMap) 
             throws ServiceException {
 		
@@ -141,7 +142,7 @@ public final class SurveyResponseServices {
 				client, 
 				campaignUrn, 
 				surveyUploadList, 
-				bufferedImageMap,
+				imageContentsMap,
 				videoContentsMap);
 		}
 		catch(DataAccessException e) {
@@ -180,7 +181,7 @@ public final class SurveyResponseServices {
 	 */
 	public void verifyImagesExistForPhotoPromptResponses(
 			final Collection<SurveyResponse> surveyResponses,
-			final Map<String, BufferedImage> images) 
+			final Map<String, byte[]> images) 
 			throws ServiceException {
 		
 		for(SurveyResponse surveyResponse : surveyResponses) {
@@ -288,6 +289,11 @@ public final class SurveyResponseServices {
 	 * 
 	 * @param sortOrder The order in which to sort the responses.
 	 * 
+	 * @param continuationToken Limits the results to only those that come 
+	 * 							after this token in the default ordering. 
+	 * 							This should only be given if the sort order 
+	 * 							and columns are null. Optional.
+	 * 
 	 * @param surveyResponsesToSkip The number of survey responses to skip once
 	 * 								the result has been aggregated from the 
 	 * 								server.
@@ -318,6 +324,7 @@ public final class SurveyResponseServices {
 			final String promptType,
 			final Collection<ColumnKey> columns, 
 			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
 			final long surveyResponsesToSkip,
 			final long surveyResponsesToProcess,
 			List<SurveyResponse> result) 
@@ -337,6 +344,7 @@ public final class SurveyResponseServices {
 					promptType,
 					columns,
 					sortOrder,
+					continuationToken,
 					surveyResponsesToSkip,
 					surveyResponsesToProcess,
 					result);
@@ -346,6 +354,110 @@ public final class SurveyResponseServices {
 		}
 	}
 	
+	/**
+	 * Reads the survey responses that match the given criteria and gives each
+	 * of them to a handler as soon as it has been read. The parameters are 
+	 * the same as
+	 * {@link #readSurveyResponseInformation(Campaign, String, Set, Collection, DateTime, DateTime, SurveyResponse.PrivacyState, Collection, Collection, String, Collection, List, SurveyResponse.ContinuationToken, long, long, List)},
+	 * except that the results are given to the handler instead of being
+	 * added to a list. This should be used when the number of results may be
+	 * too large to keep in memory.
+	 * 
+	 * @param handler The handler that is given each survey response, in 
+	 * 				  order.
+	 * 
+	 * @return The total number of results that matched the given criteria, 
+	 * 		   not the number that were given to the handler.
+	 * 
+	 * @throws ServiceException Thrown if there is an error reading the survey
+	 * 							responses or if the handler threw an exception.
+	 */
+	public int streamSurveyResponseInformation(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState, 
+			final Collection<String> surveyIds, 
+			final Collection<String> promptIds, 
+			final String promptType,
+			final Collection<ColumnKey> columns, 
+			final List<SortParameter> sortOrder,
+			final SurveyResponse.ContinuationToken continuationToken,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseHandler handler) 
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.streamSurveyResponses(
+					campaign, 
+					username,
+					surveyResponseIds,
+					usernames, 
+					startDate, 
+					endDate, 
+					privacyState, 
+					surveyIds, 
+					promptIds, 
+					promptType,
+					columns,
+					sortOrder,
+					continuationToken,
+					surveyResponsesToSkip,
+					surveyResponsesToProcess,
+					handler);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Counts the survey responses in a campaign that the requesting user may
+	 * see by their privacy state and, optionally, by their survey and/or the
+	 * date on which they were taken. No prompt responses are read.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 
+	 * @param startDate A date which limits the responses to those generated
+	 * 					on or after. Optional.
+	 * 
+	 * @param endDate An date which limits the responses to those generated on
+	 * 				  or before. Optional.
+	 * 
+	 * @param groupItems The items, in addition to the privacy state, by which
+	 * 					 the survey responses are counted.
+	 * 
+	 * @return The number of survey responses in each non-empty group.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<SurveyResponse.PrivacyStateCount> readPrivacyStateCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<FunctionPrivacyStateItem> groupItems)
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.retrievePrivacyStateCounts(
+					campaign,
+					username,
+					startDate,
+					endDate,
+					groupItems);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Updates the privacy state on a survey.
 	 * 
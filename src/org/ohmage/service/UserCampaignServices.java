@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -154,8 +155,25 @@ public class UserCampaignServices {
 			final List<String> campaignIds, final String username) 
 			throws ServiceException {
 		
-		for(String campaignId : campaignIds) {
-			campaignExistsAndUserBelongs(campaignId, username);
+		CampaignServices.instance().checkCampaignsExistence(campaignIds, true);
+		
+		try {
+			Map<String, List<Campaign.Role>> roles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignIds);
+			
+			for(String campaignId : campaignIds) {
+				if(roles.get(campaignId).isEmpty()) {
+					throw new ServiceException(
+							ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
+							"The user does not belong to the campaign: " + 
+								campaignId);
+				}
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
 		}
 	}
 	
@@ -203,12 +221,11 @@ public class UserCampaignServices {
 			throws ServiceException  {
 		
 		try {
-			if(! userCampaignQueries.getUserCampaignRoles(username, campaignId).contains(Campaign.Role.SUPERVISOR)) {
-				throw new ServiceException(
-						ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
-						"The user is not allowed to read the personal information of the users in the following campaign: " + 
-							campaignId);
-			}
+			verifyRolesCanReadUsersInfo(
+					campaignId, 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignId));
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -231,8 +248,43 @@ public class UserCampaignServices {
 			final String username, final Collection<String> campaignIds) 
 			throws ServiceException {
 		
-		for(String campaignId : campaignIds) {
-			verifyUserCanReadUsersInfoInCampaign(username, campaignId);
+		try {
+			Map<String, List<Campaign.Role>> roles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignIds);
+			
+			for(String campaignId : campaignIds) {
+				verifyRolesCanReadUsersInfo(campaignId, roles.get(campaignId));
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Verifies that a user with the given roles in a campaign is allowed to 
+	 * read the personal information of all of the users in the campaign.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param roles The user's roles in the campaign.
+	 * 
+	 * @throws ServiceException Thrown if the user isn't allowed to view the
+	 * 							personal information about all of the users in
+	 * 							the campaign.
+	 */
+	private void verifyRolesCanReadUsersInfo(
+			final String campaignId, 
+			final Collection<Campaign.Role> roles) 
+			throws ServiceException {
+		
+		if(! roles.contains(Campaign.Role.SUPERVISOR)) {
+			throw new ServiceException(
+					ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
+					"The user is not allowed to read the personal information of the users in the following campaign: " + 
+						campaignId);
 		}
 	}
 	
@@ -433,11 +485,19 @@ public class UserCampaignServices {
 	public Set<String> getUsersInCampaigns(
 			final Collection<String> campaignIds) throws ServiceException {
 		
-		Set<String> usernames = new HashSet<String>();
-		for(String campaignId : campaignIds) {
-			usernames.addAll(getUsersInCampaign(campaignId));
+		try {
+			Set<String> usernames = new HashSet<String>();
+			for(Map<String, Collection<Campaign.Role>> users : 
+					userCampaignQueries.getUsersAndRolesForCampaigns(
+							campaignIds).values()) {
+				
+				usernames.addAll(users.keySet());
+			}
+			return usernames;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
 		}
-		return usernames;
 	}
 	
 	/**
@@ -728,19 +788,44 @@ public class UserCampaignServices {
 		try {
 			Map<Campaign, List<Campaign.Role>> result = new HashMap<Campaign, List<Campaign.Role>>();
 			
+			// Read the campaigns, the user's roles, and, if requested, the 
+			// extra information for all of the campaigns at once.
+			Map<String, Campaign> campaigns = 
+					campaignQueries.getCampaignInformation(campaignIds);
+			Map<String, List<Campaign.Role>> userRoles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignIds);
+			
+			Map<String, List<String>> classes = null;
+			Map<String, Map<String, Collection<Campaign.Role>>> usersAndRoles =
+					null;
+			if(withExtras) {
+				classes = 
+						campaignClassQueries.getClassesAssociatedWithCampaigns(
+								campaignIds);
+				usersAndRoles = 
+						userCampaignQueries.getUsersAndRolesForCampaigns(
+								campaignIds);
+			}
+			
 			for(String campaignId : campaignIds) {
-				// Create the Campaign object with the campaign's ID.
-				Campaign campaign = campaignQueries.getCampaignInformation(campaignId);
+				// Get the Campaign object with the campaign's ID. If the 
+				// campaign was deleted since it was checked, skip it.
+				Campaign campaign = campaigns.get(campaignId);
+				if(campaign == null) {
+					continue;
+				}
 				
 				// Get the user's roles.
-				List<Campaign.Role> roles = userCampaignQueries.getUserCampaignRoles(username, campaignId);
+				List<Campaign.Role> roles = userRoles.get(campaignId);
 				
 				// If we are supposed to get the extra information as well.
 				if(withExtras) {
 					
 					// Add the classes that are associated with the campaign.
 					try {
-						campaign.addClasses(campaignClassQueries.getClassesAssociatedWithCampaign(campaignId));
+						campaign.addClasses(classes.get(campaignId));
 					} 
 					catch(DomainException e) {
 						throw new ServiceException(
@@ -749,7 +834,7 @@ public class UserCampaignServices {
 					}
 					
 					// Add the users and their roles to the campaign.
-					campaign.addUsers(userCampaignQueries.getUsersAndRolesForCampaign(campaignId));
+					campaign.addUsers(usersAndRoles.get(campaignId));
 				}
 
 				// Add the user's roles.
@@ -803,27 +888,9 @@ public class UserCampaignServices {
 			}
 			
 			if(withUsers) {
-				List<String> campaignUsernames = 
-					userCampaignQueries.getUsersInCampaign(campaignId);
-				
-				for(String campaignUsername : campaignUsernames) {
-					List<Campaign.Role> userRoles = 
-						userCampaignQueries.getUserCampaignRoles(
-								campaignUsername, 
-								campaignId
-							);
-					
-					for(Campaign.Role userRole : userRoles) {
-						try {
-							result.addUser(campaignUsername, userRole);
-						}
-						catch(DomainException e) {
-							throw new ServiceException(
-									"There was a problem adding a user.",
-									e);
-						}
-					}
-				}
+				result.addUsers(
+						userCampaignQueries.getUsersAndRolesForCampaign(
+								campaignId));
 			}
 			
 			return result;
@@ -920,18 +987,40 @@ public class UserCampaignServices {
 					new HashMap<Campaign, Collection<Campaign.Role>>(
 							campaignResults.size());
 			
+			// Read the user's roles and, if requested, the classes and users
+			// for all of the campaigns at once.
+			List<String> resultIds = 
+					new ArrayList<String>(campaignResults.size());
+			for(Campaign campaign : campaignResults) {
+				resultIds.add(campaign.getId());
+			}
+			
+			Map<String, List<Campaign.Role>> userRoles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							resultIds);
+			
+			Map<String, List<String>> classes = null;
+			if(withClasses) {
+				classes = 
+						campaignClassQueries.getClassesAssociatedWithCampaigns(
+								resultIds);
+			}
+			
+			Map<String, Map<String, Collection<Campaign.Role>>> usersAndRoles =
+					null;
+			if(withUsers) {
+				usersAndRoles = 
+						userCampaignQueries.getUsersAndRolesForCampaigns(
+								resultIds);
+			}
+			
 			for(Campaign campaign : campaignResults) {
-				result.put(
-						campaign, 
-						userCampaignQueries.getUserCampaignRoles(
-								username, 
-								campaign.getId()));
+				result.put(campaign, userRoles.get(campaign.getId()));
 				
 				if(withClasses) {
 					try {
-						campaign.addClasses(
-								campaignClassQueries.getClassesAssociatedWithCampaign(
-										campaign.getId()));
+						campaign.addClasses(classes.get(campaign.getId()));
 					}
 					catch(DomainException e) {
 						throw new ServiceException(
@@ -942,9 +1031,7 @@ public class UserCampaignServices {
 				
 				if(withUsers) {
 					// Add the users and their roles to the campaign.
-					campaign.addUsers(
-							userCampaignQueries.getUsersAndRolesForCampaign(
-									campaign.getId()));
+					campaign.addUsers(usersAndRoles.get(campaign.getId()));
 				}
 			}
 			
@@ -972,17 +1059,11 @@ public class UserCampaignServices {
 			final String campaignId) throws ServiceException {
 		
 		try {
-			List<Campaign.Role> roles = userCampaignQueries.getUserCampaignRoles(username, campaignId);
-			
-			if(roles.contains(Campaign.Role.SUPERVISOR) || 
-					roles.contains(Campaign.Role.AUTHOR)) {
-				return;
-			}
-			
-			throw new ServiceException(
-					ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
-					"The user doesn't have sufficient permissions to read the users and their roles for a campaign: " + 
-						campaignId);
+			verifyRolesCanReadUsers(
+					campaignId, 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignId));
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -1005,11 +1086,49 @@ public class UserCampaignServices {
 	public void verifyUserCanReadUsersInCampaigns(final String username,
 			final Collection<String> campaignIds) throws ServiceException {
 		
-		for(String campaignId : campaignIds) {
-			verifyUserCanReadUsersInCampaign(username, campaignId);
+		try {
+			Map<String, List<Campaign.Role>> roles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignIds);
+			
+			for(String campaignId : campaignIds) {
+				verifyRolesCanReadUsers(campaignId, roles.get(campaignId));
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
 		}
 	}
 	
+	/**
+	 * Verifies that a user with the given roles in a campaign is allowed to 
+	 * read the list of users in the campaign, which is also required to read
+	 * the list of classes associated with the campaign.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param roles The user's roles in the campaign.
+	 * 
+	 * @throws ServiceException Thrown if the user doesn't have permissions to
+	 * 							read the users of the campaign and their roles.
+	 */
+	private void verifyRolesCanReadUsers(
+			final String campaignId, 
+			final Collection<Campaign.Role> roles) 
+			throws ServiceException {
+		
+		if(roles.contains(Campaign.Role.SUPERVISOR) || 
+				roles.contains(Campaign.Role.AUTHOR)) {
+			return;
+		}
+		
+		throw new ServiceException(
+				ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
+				"The user doesn't have sufficient permissions to read the users and their roles for a campaign: " + 
+					campaignId);
+	}
+	
 	/**
 	 * Verifies that a user is allowed to read the list of classes associated 
 	 * with a campaign.
@@ -1028,17 +1147,11 @@ public class UserCampaignServices {
 			throws ServiceException {
 		
 		try {
-			List<Campaign.Role> roles = userCampaignQueries.getUserCampaignRoles(username, campaignId);
-			
-			if(roles.contains(Campaign.Role.SUPERVISOR) || 
-					roles.contains(Campaign.Role.AUTHOR)) {
-				return;
-			}
-			
-			throw new ServiceException(
-					ErrorCode.CAMPAIGN_INSUFFICIENT_PERMISSIONS, 
-					"The user doesn't have sufficient permissions to read the users and their roles for a campaign: " + 
-						campaignId);
+			verifyRolesCanReadUsers(
+					campaignId, 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignId));
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
@@ -1062,8 +1175,18 @@ public class UserCampaignServices {
 			final String username, final Collection<String> campaignIds) 
 			throws ServiceException {
 		
-		for(String campaignId : campaignIds) {
-			verifyUserCanReadClassesAssociatedWithCampaign(username, campaignId);
+		try {
+			Map<String, List<Campaign.Role>> roles = 
+					userCampaignQueries.getUserCampaignRoles(
+							username, 
+							campaignIds);
+			
+			for(String campaignId : campaignIds) {
+				verifyRolesCanReadUsers(campaignId, roles.get(campaignId));
+			}
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
 		}
 	}
 	
@@ -935,7 +935,8 @@ public final class UserServices {
 	 * Searches through all of the users in the system and returns those that
 	 * match the criteria. All Object parameters are optional except 
 	 * 'requesterUsername'; by passing a null value, it will be omitted from 
-	 * the search. 
+	 * the search. The partial values are matched word by word, regardless of
+	 * case, against the user search index.
 	 * 
 	 * @param requesterUsername The username of the user making this request.
 	 * 
@@ -1006,56 +1007,66 @@ public final class UserServices {
 			throws ServiceException {
 		
 		try {
-			Set<String> usernameTokens = null;
+			// Each of the partial values is answered from the search index,
+			// and the users that match all of them are passed to the query
+			// as the only usernames to consider.
+			Set<String> usernames = null;
 			if(partialUsername != null) {
-				usernameTokens = new HashSet<String>();
-				usernameTokens.add(partialUsername);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialUsername(partialUsername));
 			}
 			
-			Set<String> emailAddressTokens = null;
 			if(partialEmailAddress != null) {
-				emailAddressTokens = new HashSet<String>();
-				emailAddressTokens.add(partialEmailAddress);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialEmailAddress(partialEmailAddress));
 			}
 			
-			Set<String> firstNameTokens = null;
 			if(partialFirstName != null) {
-				firstNameTokens = new HashSet<String>();
-				firstNameTokens.add(partialFirstName);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialFirstName(partialFirstName));
 			}
 			
-			Set<String> lastNameTokens = null;
 			if(partialLastName != null) {
-				lastNameTokens = new HashSet<String>();
-				lastNameTokens.add(partialLastName);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialLastName(partialLastName));
 			}
 			
-			Set<String> organizationTokens = null;
 			if(partialOrganization != null) {
-				organizationTokens = new HashSet<String>();
-				organizationTokens.add(partialOrganization);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialOrganization(partialOrganization));
 			}
 			
-			Set<String> personalIdTokens = null;
 			if(partialPersonalId != null) {
-				personalIdTokens = new HashSet<String>();
-				personalIdTokens.add(partialPersonalId);
+				usernames = 
+					intersect(
+						usernames, 
+						userQueries.getUsernamesFromPartialPersonalId(partialPersonalId));
 			}
 			
 			QueryResultsList<UserInformation> result =
 					userQueries.getUserInformation(
 							requesterUsername,
+							usernames, 
+							null, 
 							null, 
-							usernameTokens, 
-							emailAddressTokens, 
 							admin, 
 							enabled, 
 							newAccount, 
 							campaignCreationPrivilege, 
-							firstNameTokens, 
-							lastNameTokens, 
-							organizationTokens, 
-							personalIdTokens, 
+							null, 
+							null, 
+							null, 
+							null, 
 							null,
 							null,
 							numToSkip, 
@@ -1630,4 +1641,27 @@ public final class UserServices {
 					e);
 		}
 	}
+	
+	/**
+	 * Narrows the usernames that have matched the search criteria so far to
+	 * those that also match another criterion.
+	 * 
+	 * @param usernames The usernames that have matched so far or null if
+	 * 					this is the first criterion.
+	 * 
+	 * @param matches The usernames that match the other criterion.
+	 * 
+	 * @return The usernames that match all of the criteria.
+	 */
+	private static Set<String> intersect(
+			final Set<String> usernames,
+			final Collection<String> matches) {
+		
+		if(usernames == null) {
+			return new HashSet<String>(matches);
+		}
+		
+		usernames.retainAll(matches);
+		return usernames;
+	}
 }
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.ServiceException;
+
+/**
+ * Sends requests to the visualization server over a pool of kept-alive
+ * connections and remembers the images that it returns.<br />
+ * <br />
+ * At most a fixed number of requests are sent to the visualization server at
+ * once. Any others wait for a connection to be returned to the pool.<br />
+ * <br />
+ * The images are given to the caller as a stream as they arrive. When an
+ * image has been read to its end, and it is not too large, it is added to
+ * the cache under the key given with the request. The cache keeps a fixed
+ * number of the most recently used images for a fixed amount of time, so the
+ * key must change whenever the image would.
+ */
+public final class VisualizationClient {
+	private static final String CONTENT_TYPE =
+		"application/x-www-form-urlencoded";
+	private static final String ENCODING = "UTF-8";
+	
+	// How long to wait to connect to the visualization server and for a
+	// connection from the pool.
+	private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+	private static final long POOL_TIMEOUT_MILLIS = 60000;
+	
+	// The parameter for how long to wait for a connection from the pool. The
+	// only constant for it in this version of HttpClient is the deprecated
+	// ConnManagerPNames.TIMEOUT. Later versions name it
+	// ClientPNames.CONN_MANAGER_TIMEOUT and set it with
+	// HttpClientParams.setConnectionManagerTimeout().
+	private static final String CONN_MANAGER_TIMEOUT =
+		"http.conn-manager.timeout";
+	
+	// How long to wait for the next data from the visualization server. This
+	// includes the time it takes to draw the image, but a server that hangs
+	// must not hold a pooled connection forever.
+	private static final int READ_TIMEOUT_MILLIS = 120000;
+	
+	private static final int CHUNK_SIZE = 4096;
+	
+	private final DefaultHttpClient httpClient;
+	
+	private final Map<String, CachedImage> cache;
+	private final int maxCachedImageBytes;
+	private final long cacheLifetimeMillis;
+	
+	// The statistics for the client.
+	private final AtomicLong numRequests = new AtomicLong(0);
+	private final AtomicLong numCacheHits = new AtomicLong(0);
+	
+	/**
+	 * An image in the cache.
+	 */
+	private static final class CachedImage {
+		private final byte[] image;
+		private final long expirationMillis;
+		
+		/**
+		 * Creates a cached image.
+		 * 
+		 * @param image The image.
+		 * 
+		 * @param expirationMillis The time after which the image may no
+		 * 						   longer be used.
+		 */
+		private CachedImage(final byte[] image, final long expirationMillis) {
+			this.image = image;
+			this.expirationMillis = expirationMillis;
+		}
+	}
+	
+	/**
+	 * Copies an image into a buffer as it is read and adds it to the cache
+	 * once it has been read to its end. Closing it returns the connection to
+	 * the pool.
+	 */
+	private final class CachingInputStream extends FilterInputStream {
+		private final String key;
+		private ByteArrayOutputStream buffer;
+		
+		/**
+		 * Creates a stream that caches the image under the given key.
+		 * 
+		 * @param image The image from the visualization server.
+		 * 
+		 * @param key The key for the image.
+		 */
+		private CachingInputStream(final InputStream image, final String key) {
+			super(image);
+			
+			this.key = key;
+			buffer = new ByteArrayOutputStream();
+		}
+		
+		/**
+		 * Reads one byte.
+		 */
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if(result == -1) {
+				finish();
+			}
+			else if(buffer != null) {
+				buffer.write(result);
+				checkSize();
+			}
+			return result;
+		}
+		
+		/**
+		 * Reads up to the given number of bytes.
+		 */
+		@Override
+		public int read(
+				final byte[] bytes,
+				final int offset,
+				final int length)
+				throws IOException {
+			
+			int result = super.read(bytes, offset, length);
+			if(result == -1) {
+				finish();
+			}
+			else if(buffer != null) {
+				buffer.write(bytes, offset, result);
+				checkSize();
+			}
+			return result;
+		}
+		
+		/**
+		 * Skipping would leave a gap in the image, so it is never cached.
+		 */
+		@Override
+		public long skip(final long n) throws IOException {
+			buffer = null;
+			return super.skip(n);
+		}
+		
+		/**
+		 * Marks are not supported.
+		 */
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		/**
+		 * Stops buffering the image once it is too large to be cached.
+		 */
+		private void checkSize() {
+			if(buffer.size() > maxCachedImageBytes) {
+				buffer = null;
+			}
+		}
+		
+		/**
+		 * Caches the image, if it is still being buffered.
+		 */
+		private void finish() {
+			if(buffer != null) {
+				put(key, buffer.toByteArray());
+				buffer = null;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a client for the visualization server.
+	 * 
+	 * @param maxConnections The maximum number of requests that may be sent
+	 * 						 to the visualization server at once.
+	 * 
+	 * @param maxCachedImages The maximum number of images to cache.
+	 * 
+	 * @param maxCachedImageBytes The size, in bytes, of the largest image
+	 * 							  that may be cached.
+	 * 
+	 * @param cacheLifetimeMillis The number of milliseconds an image may be
+	 * 							  used from the cache.
+	 * 
+	 * @throws IllegalArgumentException Any of the parameters are invalid.
+	 */
+	public VisualizationClient(
+			final int maxConnections,
+			final int maxCachedImages,
+			final int maxCachedImageBytes,
+			final long cacheLifetimeMillis) {
+		
+		if(maxConnections < 1) {
+			throw new IllegalArgumentException(
+				"The maximum number of connections must be positive.");
+		}
+		else if(maxCachedImages < 0) {
+			throw new IllegalArgumentException(
+				"The maximum number of cached images cannot be negative.");
+		}
+		else if(maxCachedImageBytes < 0) {
+			throw new IllegalArgumentException(
+				"The maximum size of a cached image cannot be negative.");
+		}
+		else if(cacheLifetimeMillis < 0) {
+			throw new IllegalArgumentException(
+				"The cache lifetime cannot be negative.");
+		}
+		
+		ThreadSafeClientConnManager connectionManager =
+			new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		
+		HttpParams parameters = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(
+			parameters,
+			CONNECT_TIMEOUT_MILLIS);
+		HttpConnectionParams.setSoTimeout(parameters, READ_TIMEOUT_MILLIS);
+		parameters.setLongParameter(
+			CONN_MANAGER_TIMEOUT,
+			POOL_TIMEOUT_MILLIS);
+		
+		httpClient = new DefaultHttpClient(connectionManager, parameters);
+		
+		cache = new LinkedHashMap<String, CachedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * Removes the least recently used image once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, CachedImage> eldest) {
+				
+				return size() > maxCachedImages;
+			}
+		};
+		this.maxCachedImageBytes = maxCachedImageBytes;
+		this.cacheLifetimeMillis = cacheLifetimeMillis;
+	}
+	
+	/**
+	 * Returns an image from the cache or, if it is not in the cache, POSTs a
+	 * request for it to the visualization server. The caller must close the
+	 * stream, even if it is not read, to return the connection to the pool.
+	 * 
+	 * @param url The URL of the visualization.
+	 * 
+	 * @param form The URL-encoded form parameters for the visualization
+	 * 			   server.
+	 * 
+	 * @param key The key for the image in the cache. This must include
+	 * 			  everything on which the image depends.
+	 * 
+	 * @return The image.
+	 * 
+	 * @throws ServiceException The visualization server could not be reached
+	 * 							or returned an error.
+	 */
+	public InputStream request(
+			final String url,
+			final String form,
+			final String key)
+			throws ServiceException {
+		
+		numRequests.incrementAndGet();
+		
+		byte[] cachedImage = get(key);
+		if(cachedImage != null) {
+			numCacheHits.incrementAndGet();
+			return new ByteArrayInputStream(cachedImage);
+		}
+		
+		HttpPost post = new HttpPost(url);
+		try {
+			post.setEntity(new StringEntity(form, CONTENT_TYPE, ENCODING));
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new ServiceException("UTF-8 encoding is unknown.", e);
+		}
+		
+		try {
+			HttpResponse response = httpClient.execute(post);
+			HttpEntity entity = response.getEntity();
+			
+			// If a non-200 response was returned, get the text from the
+			// response.
+			int statusCode = response.getStatusLine().getStatusCode();
+			if(statusCode != 200) {
+				String error =
+					(entity == null) ? "" : EntityUtils.toString(entity);
+				
+				// Echo the error.
+				throw new ServiceException(
+						ErrorCode.VISUALIZATION_GENERAL_ERROR,
+						"There was an error. Please, try again later.",
+						"The server returned the HTTP error code '" +
+							statusCode +
+							"' with the error '" +
+							error +
+							"': " +
+							url);
+			}
+			else if(entity == null) {
+				throw new ServiceException(
+						ErrorCode.VISUALIZATION_GENERAL_ERROR,
+						"There was an error. Please, try again later.",
+						"The server returned no image: " + url);
+			}
+			
+			return new CachingInputStream(entity.getContent(), key);
+		}
+		catch(IOException e) {
+			post.abort();
+			throw new ServiceException(
+					ErrorCode.VISUALIZATION_GENERAL_ERROR,
+					"Error while communicating with the visualization server.",
+					e);
+		}
+	}
+	
+	/**
+	 * Reads an image to its end and returns it. The stream is closed.
+	 * 
+	 * @param image The image.
+	 * 
+	 * @return The image's bytes.
+	 * 
+	 * @throws IOException There was an error reading the image.
+	 */
+	public static byte[] read(final InputStream image) throws IOException {
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] chunk = new byte[CHUNK_SIZE];
+			int amountRead;
+			while((amountRead = image.read(chunk)) != -1) {
+				result.write(chunk, 0, amountRead);
+			}
+			return result.toByteArray();
+		}
+		finally {
+			image.close();
+		}
+	}
+	
+	/**
+	 * Returns the number of images that have been requested.
+	 * 
+	 * @return The number of images that have been requested.
+	 */
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+	
+	/**
+	 * Returns the number of requested images that were in the cache.
+	 * 
+	 * @return The number of requested images that were in the cache.
+	 */
+	public long getNumCacheHits() {
+		return numCacheHits.get();
+	}
+	
+	/**
+	 * Closes all of the connections to the visualization server.
+	 */
+	public void shutdown() {
+		httpClient.getConnectionManager().shutdown();
+	}
+	
+	/**
+	 * Returns an image from the cache.
+	 * 
+	 * @param key The image's key.
+	 * 
+	 * @return The image or null if it is not in the cache or has expired.
+	 */
+	private byte[] get(final String key) {
+		synchronized(cache) {
+			CachedImage cachedImage = cache.get(key);
+			if(cachedImage == null) {
+				return null;
+			}
+			else if(cachedImage.expirationMillis < System.currentTimeMillis()) {
+				cache.remove(key);
+				return null;
+			}
+			
+			return cachedImage.image;
+		}
+	}
+	
+	/**
+	 * Adds an image to the cache.
+	 * 
+	 * @param key The image's key.
+	 * 
+	 * @param image The image.
+	 */
+	private void put(final String key, final byte[] image) {
+		CachedImage cachedImage =
+			new CachedImage(
+				image,
+				System.currentTimeMillis() + cacheLifetimeMillis);
+		
+		synchronized(cache) {
+			cache.put(key, cachedImage);
+		}
+	}
+}
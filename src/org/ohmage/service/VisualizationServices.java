@@ -15,31 +15,35 @@
  ******************************************************************************/
 package org.ohmage.service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.util.Map;
+import java.util.TreeMap;
 
-import org.ohmage.annotator.Annotator.ErrorCode;
+import org.apache.log4j.Logger;
 import org.ohmage.cache.PreferenceCache;
 import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.query.ICampaignSurveyResponseQueries;
 import org.ohmage.request.RequestBuilder;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
- * This class contains the services for visualization requests.
+ * This class contains the services for visualization requests. The images
+ * are requested through a {@link VisualizationClient}, which reuses its
+ * connections to the visualization server and caches the images for each
+ * user until the campaign's survey responses change.
  * 
  * @author John Jenkins
  */
-public class VisualizationServices {
+public final class VisualizationServices implements DisposableBean {
+	private static final Logger LOGGER =
+		Logger.getLogger(VisualizationServices.class);
+	
 	/**
 	 * The token parameter key for the visualization server.
 	 */
@@ -98,14 +102,73 @@ public class VisualizationServices {
 	
 	private static final String ENCODING = "UTF-8";
 	
+	private static VisualizationServices instance;
+	
+	private final ICampaignSurveyResponseQueries campaignSurveyResponseQueries;
+	private final VisualizationClient client;
+	
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 * 
+	 * @param iCampaignSurveyResponseQueries The queries for the campaigns'
+	 * 										 survey responses.
+	 * 
+	 * @param maxConnections The maximum number of requests that may be sent
+	 * 						 to the visualization server at once.
+	 * 
+	 * @param maxCachedImages The maximum number of images to cache.
+	 * 
+	 * @param maxCachedImageBytes The size, in bytes, of the largest image
+	 * 							  that may be cached.
+	 * 
+	 * @param cacheLifetimeMillis The number of milliseconds an image may be
+	 * 							  used from the cache.
+	 * 
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 * 
+	 * @throws IllegalArgumentException if iCampaignSurveyResponseQueries is
+	 * null or any of the other parameters are invalid
+	 */
+	private VisualizationServices(
+			final ICampaignSurveyResponseQueries iCampaignSurveyResponseQueries,
+			final int maxConnections,
+			final int maxCachedImages,
+			final int maxCachedImageBytes,
+			final long cacheLifetimeMillis) {
+		
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+		if(iCampaignSurveyResponseQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignSurveyResponseQueries is required.");
+		}
+		
+		campaignSurveyResponseQueries = iCampaignSurveyResponseQueries;
+		client =
+			new VisualizationClient(
+				maxConnections,
+				maxCachedImages,
+				maxCachedImageBytes,
+				cacheLifetimeMillis);
+		
+		instance = this;
+	}
+	
 	/**
-	 * Default constructor. Made private so that it cannot be instantiated.
+	 * @return  Returns the singleton instance of this class.
 	 */
-	private VisualizationServices() {}
+	public static VisualizationServices instance() {
+		return instance;
+	}
 
 	/**
-	 * Sends a request to the visualization server and returns the image as a
-	 * byte array that was returned by the visualization server.
+	 * Returns the image from the visualization server for the given request.
+	 * If the same user has already requested the same image, and the
+	 * campaign's survey responses have not changed since, the image is
+	 * returned from the cache. Otherwise, the image is streamed from the
+	 * visualization server as it arrives.
 	 * 
 	 * @param requestPath The additional path beyond the base URI that is 
 	 * 					  stored in the database. An example would be, if the
@@ -115,6 +178,10 @@ public class VisualizationServices {
 	 * 					  would result in a URL of
 	 * 					  "https://viz.server/com/R/visualizations/survey_response_count?param1=...".
 	 * 
+	 * @param username The username of the requesting user. The visualization
+	 * 				   server reads only the data that this user may see, so
+	 * 				   the images are cached for each user.
+	 * 
 	 * @param userToken The authentication token for the requesting user that
 	 * 					will be passed on to the visualization server to 
 	 * 					perform subsequent requests on our behalf.
@@ -132,13 +199,14 @@ public class VisualizationServices {
 	 * 					 the key in the HTTP parameter and their actual value
 	 * 					 will be their single-quoted HTTP parameter value.
 	 * 
-	 * @return Returns a byte[] representation of the visualization image.
+	 * @return Returns the visualization image. The caller must close it.
 	 * 
 	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static byte[] sendVisualizationRequest(final String requestPath, 
-			final String userToken, final String campaignId, final int width, 
-			final int height, final Map<String, String> parameters) 
+	public InputStream sendVisualizationRequest(final String requestPath, 
+			final String username, final String userToken, 
+			final String campaignId, final int width, final int height, 
+			final Map<String, String> parameters) 
 			throws ServiceException {
 		
 		// Build the request URL.
@@ -254,76 +322,44 @@ public class VisualizationServices {
 					e);
 		}
 		
+		// Build the key for the image in the cache. The token may change
+		// between requests, so it is left out of the key, but everything
+		// else that the image depends on is included.
+		StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder
+			.append(urlString).append('\n')
+			.append(username).append('\n')
+			.append(campaignId).append('\n')
+			.append(width).append('x').append(height).append('\n')
+			.append(new TreeMap<String, String>(parameters)).append('\n');
 		try {
-			// Connect to the visualization server.
-			URL url = new URL(urlString);
-			HttpURLConnection urlConnection = 
-					(HttpURLConnection) url.openConnection();
-			
-			urlConnection.setDoOutput(true);
-			urlConnection.setDoInput(true);
-			urlConnection.setInstanceFollowRedirects(true);
-			urlConnection.setRequestMethod("POST");
-			urlConnection.setRequestProperty(
-					"Content-Length", 
-					Integer.toString(parameterBuilder.length()));
-			
-			DataOutputStream output = 
-					new DataOutputStream(urlConnection.getOutputStream());
-			output.writeBytes(parameterBuilder.toString());
-			output.flush();
-			output.close();
-			
-			// If a non-200 response was returned, get the text from the 
-			// response.
-			if(urlConnection.getResponseCode() != 200) {
-				// Get the error text.
-				ByteArrayOutputStream errorByteStream = new ByteArrayOutputStream();
-				InputStream errorStream = urlConnection.getErrorStream();
-				byte[] chunk = new byte[4096];
-				int amountRead;
-				while((amountRead = errorStream.read(chunk)) != -1) {
-					errorByteStream.write(chunk, 0, amountRead);
-				}
-				errorStream.close();
-				
-				// Echo the error.
-				throw new ServiceException(
-						ErrorCode.VISUALIZATION_GENERAL_ERROR,
-						"There was an error. Please, try again later.",
-						"The server returned the HTTP error code '" + 
-							urlConnection.getResponseCode() + 
-							"' with the error '" + 
-							errorByteStream.toString() + 
-							"': " + 
-							urlString);
-			}
-			
-			// Build the response.
-			InputStream reader = urlConnection.getInputStream();
-			
-			// Generate the byte array.
-			ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-			byte[] chunk = new byte[4096];
-			int amountRead = 0;
-			while((amountRead = reader.read(chunk)) != -1) {
-				byteArrayStream.write(chunk, 0, amountRead);
-			}
-			reader.close();
-			
-			return byteArrayStream.toByteArray();
-		}
-		catch(MalformedURLException e) {
-			throw new ServiceException(
-					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
-					"Built a malformed URL: " + urlString, 
-					e);
+			keyBuilder.append(
+				campaignSurveyResponseQueries
+					.getSurveyResponsesVersionForCampaign(campaignId));
 		}
-		catch(IOException e) {
-			throw new ServiceException(
-					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
-					"Error while communicating with the visualization server.",
-					e);
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
 		}
+		
+		return client.request(
+			urlString,
+			parameterBuilder.toString(),
+			keyBuilder.toString());
+	}
+	
+	/**
+	 * Closes the connections to the visualization server.
+	 */
+	@Override
+	public void destroy() {
+		instance = null;
+		
+		client.shutdown();
+		
+		LOGGER.info(
+			"Visualization client stopped. Requests: " + 
+				client.getNumRequests() +
+				", cache hits: " + 
+				client.getNumCacheHits());
 	}
 }
@@ -489,4 +489,89 @@ public final class CampaignValidators {
 
 		return result;
 	}
+	
+	/**
+	 * Validates that a number of campaigns to skip is a non-negative number.
+	 * 
+	 * @param value The value to be validated.
+	 * 
+	 * @return The number of campaigns to skip, which is 0 if the value is
+	 * 		   null or whitespace only.
+	 * 
+	 * @throws ValidationException The number was not valid.
+	 */
+	public static int validateNumToSkip(final String value) 
+			throws ValidationException {
+		
+		LOGGER.info("Validating that a number of campaigns to skip is valid.");
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return 0;
+		}
+		
+		try {
+			int numToSkip = Integer.decode(value);
+			
+			if(numToSkip < 0) {
+				throw new ValidationException(
+						ErrorCode.SERVER_INVALID_NUM_TO_SKIP,
+						"The number of campaigns to skip is negative: " +
+							value);
+			}
+			
+			return numToSkip;
+		}
+		catch(NumberFormatException e) {
+			throw new ValidationException(
+					ErrorCode.SERVER_INVALID_NUM_TO_SKIP,
+					"The number of campaigns to skip is not a number: " +
+						value);
+		}
+	}
+	
+	/**
+	 * Validates that a number of campaigns to return is a non-negative number
+	 * less than or equal to the maximum allowed number of campaigns to 
+	 * return.
+	 * 
+	 * @param value The value to be validated.
+	 * 
+	 * @return A number between 0 and {@link Campaign#MAX_NUM_TO_RETURN}.
+	 * 
+	 * @throws ValidationException The number was not valid.
+	 */
+	public static int validateNumToReturn(final String value) 
+			throws ValidationException {
+		
+		LOGGER.info("Validating that a number of campaigns to return is valid.");
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return Campaign.MAX_NUM_TO_RETURN;
+		}
+		
+		try {
+			int numToReturn = Integer.decode(value);
+			
+			if(numToReturn < 0) {
+				throw new ValidationException(
+						ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+						"The number of campaigns to return cannot be negative: " +
+							value);
+			}
+			else if(numToReturn > Campaign.MAX_NUM_TO_RETURN) {
+				throw new ValidationException(
+						ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+						"The number of campaigns to return is greater than the max allowed: " +
+							Campaign.MAX_NUM_TO_RETURN);
+			}
+			
+			return numToReturn;
+		}
+		catch(NumberFormatException e) {
+			throw new ValidationException(
+					ErrorCode.SERVER_INVALID_NUM_TO_RETURN,
+					"The number of campaigns to return is not a number: " +
+						value);
+		}
+	}
 }
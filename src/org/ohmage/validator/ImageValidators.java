@@ -18,9 +18,12 @@ package org.ohmage.validator;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.apache.log4j.Logger;
 import org.ohmage.annotator.Annotator.ErrorCode;
@@ -154,4 +157,79 @@ public final class ImageValidators {
 					e);
 		}
 	}
+	
+	/**
+	 * Validates that an image's contents as a byte array are an image in a
+	 * known format. Unlike {@link #validateImageContents(byte[])}, only the
+	 * image's header is read; the image itself is not decoded.
+	 *  
+	 * @param imageContents The image's contents as a byte array.
+	 * 
+	 * @return Returns null if the image's contents are null or have a length 
+	 * 		   of zero; otherwise, the image's contents are returned.
+	 * 
+	 * @throws ValidationException Thrown if the image is not null, has a 
+	 * 							   length greater than 0, and isn't in any
+	 * 							   known image format or its header cannot be
+	 * 							   read.
+	 */
+	public static byte[] validateImageData(
+			final byte[] imageContents) throws ValidationException {
+		
+		if((imageContents == null) || (imageContents.length == 0)) {
+			return null;
+		}
+		
+		ImageInputStream imageStream = null;
+		ImageReader reader = null;
+		try {
+			imageStream = 
+				ImageIO.createImageInputStream(
+					new ByteArrayInputStream(imageContents));
+			
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+			if(! readers.hasNext()) {
+				throw new ValidationException(
+						ErrorCode.IMAGE_INVALID_DATA,
+						"The image data was not valid image data.");
+			}
+			
+			// Reading the dimensions requires a valid header.
+			reader = readers.next();
+			reader.setInput(imageStream, true, true);
+			if((reader.getWidth(0) <= 0) || (reader.getHeight(0) <= 0)) {
+				throw new ValidationException(
+						ErrorCode.IMAGE_INVALID_DATA,
+						"The image has no width or height.");
+			}
+			
+			return imageContents;
+		}
+		catch(IOException e) {
+			throw new ValidationException(
+					ErrorCode.IMAGE_INVALID_DATA, 
+					"There was an error while reading the image's contents.", 
+					e);
+		}
+		catch(IndexOutOfBoundsException e) {
+			throw new ValidationException(
+					ErrorCode.IMAGE_INVALID_DATA,
+					"There was an error reading the contents of the image. " +
+						"This particular error suggests that the '+'s in the image's BASE64 representation are not being properly URL encoded.",
+					e);
+		}
+		finally {
+			if(reader != null) {
+				reader.dispose();
+			}
+			if(imageStream != null) {
+				try {
+					imageStream.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn("Could not close the image stream.", e);
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
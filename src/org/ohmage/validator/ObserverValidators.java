@@ -11,12 +11,14 @@ import org.codehaus.jackson.map.MappingJsonFactory;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.DataStream;
 import org.ohmage.domain.Observer;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.request.observer.StreamReadRequest.ColumnNode;
+import org.ohmage.request.observer.StreamReadRequest.OutputFormat;
 import org.ohmage.util.StringUtils;
 
 /**
@@ -443,4 +445,64 @@ public class ObserverValidators {
 				e);
 		}
 	}
+	
+	/**
+	 * Validates that the output format is one of the known formats.
+	 * 
+	 * @param value The value to be validated.
+	 * 
+	 * @return The output format or null if the value was null or only
+	 * 		   whitespace.
+	 * 
+	 * @throws ValidationException The value is not a known format.
+	 */
+	public static final OutputFormat validateOutputFormat(
+			final String value)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		try {
+			return OutputFormat.valueOf(value.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+				ErrorCode.OBSERVER_INVALID_OUTPUT_FORMAT,
+				"The output format is unknown: " + value,
+				e);
+		}
+	}
+	
+	/**
+	 * Validates a continuation token for a stream's data.
+	 * 
+	 * @param continuationToken The value to be validated.
+	 * 
+	 * @return The continuation token or null if the value was null or 
+	 * 		   whitespace only.
+	 * 
+	 * @throws ValidationException Thrown if the value is not a valid 
+	 * 							   continuation token.
+	 */
+	public static DataStream.ContinuationToken validateContinuationToken(
+			final String continuationToken)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(continuationToken)) {
+			return null;
+		}
+		
+		try {
+			return DataStream.ContinuationToken.getValue(
+				continuationToken.trim());
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+				ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN,
+				"The continuation token is invalid: " + continuationToken,
+				e);
+		}
+	}
 }
\ No newline at end of file
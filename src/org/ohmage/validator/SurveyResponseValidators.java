@@ -15,7 +15,6 @@
  ******************************************************************************/
 package org.ohmage.validator;
 
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -624,6 +623,38 @@ public final class SurveyResponseValidators {
 		}
 	}
 
+	/**
+	 * Validates a continuation token.
+	 * 
+	 * @param continuationToken The value to be validated.
+	 * 
+	 * @return The continuation token or null if the value was null or 
+	 * 		   whitespace only.
+	 * 
+	 * @throws ValidationException Thrown if the value is not a valid 
+	 * 							   continuation token.
+	 */
+	public static SurveyResponse.ContinuationToken validateContinuationToken(
+			final String continuationToken)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(continuationToken)) {
+			return null;
+		}
+		
+		try {
+			return SurveyResponse.ContinuationToken.getValue(
+					continuationToken.trim());
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+					ErrorCode.SERVER_INVALID_CONTINUATION_TOKEN,
+					"The continuation token is invalid: " + 
+						continuationToken,
+					e);
+		}
+	}
+	
 	/**
 	 * Validates the number of survey responses to process.
 	 * 
@@ -701,17 +732,17 @@ public final class SurveyResponseValidators {
 	/**
 	 * Validates that a "images" value was a valid JSON object whose keys were
 	 * the image IDs (UUIDs) and values were BASE64-encoded images. It then 
-	 * returns the map of the IDs to BufferedImages.
+	 * returns the map of the IDs to the images' decoded bytes.
 	 * 
 	 * @param value The value to be validated.
 	 * 
-	 * @return The map of image IDs to BufferedImages.
+	 * @return The map of image IDs to their contents.
 	 * 
 	 * @throws ValidationException The value was not valid JSON, an image's ID
 	 * 							   was not a valid UUID, or an image's contents
 	 * 							   was not a valid BASE64-encoded image.
 	 */
-	public static Map<String, BufferedImage> validateImages(
+	public static Map<String, byte[]> validateImages(
 			final String value) 
 			throws ValidationException {
 		
@@ -730,8 +761,8 @@ public final class SurveyResponseValidators {
 				e);
 		}
 
-		Map<String, BufferedImage> results = 
-			new HashMap<String, BufferedImage>();
+		Map<String, byte[]> results = 
+			new HashMap<String, byte[]>();
 		
 		Iterator<?> imageIds = imagesJson.keys();
 		int numImageIds = imagesJson.length();
@@ -748,10 +779,10 @@ public final class SurveyResponseValidators {
 					e);
 			}
 			
-			BufferedImage image;
+			byte[] image;
 			try {
 				image = 
-					ImageValidators.validateImageContents(
+					ImageValidators.validateImageData(
 						DatatypeConverter.parseBase64Binary(
 							imagesJson.getString(imageId)));
 			}
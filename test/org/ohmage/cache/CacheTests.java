@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.log4j.BasicConfigurator;
+
+/**
+ * This class contains the test suite that tests the classes in the cache
+ * package.
+ */
+public class CacheTests {
+	/**
+	 * Sets up the system and then runs each of the tests.
+	 * 
+	 * @return A TestSuite that contains all of the sub-TestSuites.
+	 */
+	public static Test suite() {
+		BasicConfigurator.configure();
+		
+		TestSuite suite = new TestSuite(CacheTests.class.getName());
+		
+		suite.addTestSuite(FileStoreAllocatorTest.class);
+		suite.addTestSuite(StreamIdIndexTest.class);
+		
+		return suite;
+	}
+}
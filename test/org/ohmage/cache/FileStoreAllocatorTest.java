@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests the allocation of the directories to which files are written.
+ */
+public class FileStoreAllocatorTest extends TestCase {
+	private File root;
+	
+	/**
+	 * Creates an empty root directory.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		root = File.createTempFile("FileStoreAllocatorTest", "");
+		if((! root.delete()) || (! root.mkdir())) {
+			throw new IOException(
+				"The root directory could not be created: " + root);
+		}
+	}
+	
+	/**
+	 * Deletes the root directory and everything in it.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		delete(root);
+	}
+	
+	/**
+	 * The number of files must be positive.
+	 */
+	@Test
+	public void testAllocateInvalid() {
+		FileStoreAllocator allocator = new FileStoreAllocator(root, 2, 3);
+		try {
+			allocator.allocate(0);
+			fail("No files were allocated.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * The leaf directories are filled in order until every directory is
+	 * full.
+	 */
+	@Test
+	public void testAllocate() throws DomainException, IOException {
+		FileStoreAllocator allocator = new FileStoreAllocator(root, 2, 3);
+		
+		for(int parent = 0; parent < 3; parent++) {
+			for(int leaf = 0; leaf < 3; leaf++) {
+				File expected = new File(new File(root, "" + parent), "" + leaf);
+				for(int i = 0; i < 3; i++) {
+					assertEquals(expected, writeFile(allocator));
+				}
+			}
+		}
+		
+		try {
+			allocator.allocate();
+			fail("The directory structure was full.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * The newest leaf directory and the files already in it are found when
+	 * the allocator starts.
+	 */
+	@Test
+	public void testExistingFiles() throws DomainException, IOException {
+		File existing = new File(new File(root, "0"), "1");
+		assertTrue(existing.mkdirs());
+		assertTrue(new File(root, "0/0").mkdir());
+		assertTrue(new File(existing, "a").createNewFile());
+		assertTrue(new File(existing, "b").createNewFile());
+		
+		FileStoreAllocator allocator = new FileStoreAllocator(root, 2, 3);
+		assertEquals(existing, writeFile(allocator));
+		assertEquals(new File(root, "0/2"), writeFile(allocator));
+	}
+	
+	/**
+	 * Files that are allocated together are written to the same directory,
+	 * even if there are more of them than fit in a directory.
+	 */
+	@Test
+	public void testAllocateMultiple() throws DomainException {
+		FileStoreAllocator allocator = new FileStoreAllocator(root, 1, 3);
+		
+		assertEquals(new File(root, "0"), allocator.allocate(2));
+		assertEquals(new File(root, "1"), allocator.allocate(2));
+		assertEquals(new File(root, "2"), allocator.allocate(5));
+		
+		try {
+			allocator.allocate();
+			fail("The directory structure was full.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * When several servers write to the same directories, a server whose
+	 * leaf directory is full moves to the leaf directory that another server
+	 * has already created.
+	 */
+	@Test
+	public void testSharedDirectories() throws DomainException, IOException {
+		FileStoreAllocator first = new FileStoreAllocator(root, 2, 3);
+		for(int i = 0; i < 3; i++) {
+			assertEquals(new File(root, "0/0"), writeFile(first));
+		}
+		
+		// This server starts when the first leaf directory is full.
+		FileStoreAllocator second = new FileStoreAllocator(root, 2, 3);
+		assertEquals(new File(root, "0/1"), writeFile(second));
+		
+		// The first server finds the directory the second server created.
+		assertEquals(new File(root, "0/1"), writeFile(first));
+		assertEquals(new File(root, "0/1"), writeFile(first));
+		
+		assertEquals(new File(root, "0/2"), writeFile(first));
+		
+		// The second server only counts its own files, so it overfills its
+		// leaf directory.
+		assertEquals(new File(root, "0/1"), writeFile(second));
+		assertEquals(new File(root, "0/1"), writeFile(second));
+		assertEquals(5, new File(root, "0/1").list().length);
+		
+		// It then moves to the directory the first server created.
+		assertEquals(new File(root, "0/2"), writeFile(second));
+		assertEquals(2, new File(root, "0/2").list().length);
+	}
+	
+	/**
+	 * Concurrent callers fill every leaf directory exactly.
+	 */
+	@Test
+	public void testConcurrentAllocations() throws Exception {
+		final int numThreads = 8;
+		final int numAllocations = 40;
+		final int numFilesPerDirectory = 20;
+		
+		final FileStoreAllocator allocator = 
+			new FileStoreAllocator(root, 2, numFilesPerDirectory);
+		final List<File> directories = 
+			Collections.synchronizedList(new ArrayList<File>());
+		final List<Throwable> errors = 
+			Collections.synchronizedList(new ArrayList<Throwable>());
+		
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>(numThreads);
+		for(int i = 0; i < numThreads; i++) {
+			Thread thread = 
+				new Thread() {
+					/**
+					 * Allocates one file at a time.
+					 */
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int j = 0; j < numAllocations; j++) {
+								directories.add(allocator.allocate());
+							}
+						}
+						catch(Throwable e) {
+							errors.add(e);
+						}
+					}
+				};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(numThreads * numAllocations, directories.size());
+		
+		Map<File, Integer> counts = new HashMap<File, Integer>();
+		for(File directory : directories) {
+			Integer count = counts.get(directory);
+			counts.put(directory, (count == null) ? 1 : (count + 1));
+		}
+		assertEquals(
+			(numThreads * numAllocations) / numFilesPerDirectory, 
+			counts.size());
+		for(Integer count : counts.values()) {
+			assertEquals(numFilesPerDirectory, (int) count);
+		}
+	}
+	
+	/**
+	 * Allocates a file and creates it.
+	 * 
+	 * @param allocator The allocator.
+	 * 
+	 * @return The directory to which the file was written.
+	 */
+	private static File writeFile(
+			final FileStoreAllocator allocator)
+			throws DomainException, IOException {
+		
+		File directory = allocator.allocate();
+		File.createTempFile("file", "", directory);
+		return directory;
+	}
+	
+	/**
+	 * Deletes a file or a directory and everything in it.
+	 * 
+	 * @param file The file or directory.
+	 */
+	private static void delete(final File file) throws IOException {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		
+		if(! file.delete()) {
+			throw new IOException("The file could not be deleted: " + file);
+		}
+	}
+}
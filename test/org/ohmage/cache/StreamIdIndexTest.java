@@ -0,0 +1,512 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.test.StubDataSource;
+
+/**
+ * Tests the index of the stored observer stream data IDs.
+ */
+public class StreamIdIndexTest extends TestCase {
+	private static final String USERNAME = "user";
+	private static final String OBSERVER_ID = "org.ohmage.observer";
+	private static final String STREAM_ID = "stream";
+	
+	// The IDs that the database has stored for every stream.
+	private final List<String> storedIds = 
+		Collections.synchronizedList(new ArrayList<String>());
+	
+	private StubDataSource database;
+	
+	/**
+	 * Creates a database that has stored the IDs in {@link #storedIds}.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		storedIds.clear();
+		
+		database = 
+			new StubDataSource(
+				new StubDataSource.Responder() {
+					/**
+					 * Returns the number of IDs or the IDs themselves.
+					 */
+					@Override
+					public List<Object[]> execute(
+							final String sql, 
+							final List<Object> parameters) {
+						
+						List<Object[]> result = new ArrayList<Object[]>();
+						synchronized(storedIds) {
+							if(sql.startsWith("SELECT COUNT")) {
+								result.add(new Object[] { storedIds.size() });
+							}
+							else {
+								for(String id : storedIds) {
+									result.add(new Object[] { id });
+								}
+							}
+						}
+						return result;
+					}
+				});
+		
+		resetInstance();
+	}
+	
+	/**
+	 * Lets the next test create its own index.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		resetInstance();
+	}
+	
+	/**
+	 * The constructor's parameters.
+	 */
+	@Test
+	public void testConstructor() throws Exception {
+		try {
+			newIndex(null, 1024, 0.01);
+			fail("The data source was null.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			newIndex(database.getDataSource(), 0, 0.01);
+			fail("The maximum number of bytes was zero.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			newIndex(database.getDataSource(), 1024, 0);
+			fail("The false-positive rate was zero.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			newIndex(database.getDataSource(), 1024, 1);
+			fail("The false-positive rate was one.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		StreamIdIndex index = newIndex(database.getDataSource(), 1024, 0.01);
+		assertSame(index, StreamIdIndex.instance());
+		
+		try {
+			newIndex(database.getDataSource(), 1024, 0.01);
+			fail("An instance already existed.");
+		}
+		catch(IllegalStateException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * The stored IDs are probable duplicates and the filter is only built
+	 * once.
+	 */
+	@Test
+	public void testStoredIdsAreProbableDuplicates() throws Exception {
+		storedIds.addAll(Arrays.asList("a", "b", "c"));
+		StreamIdIndex index = newIndex();
+		
+		long writer = index.beginWrite();
+		Collection<String> duplicates = check(index, writer, "a", "b", "x");
+		assertNotNull(duplicates);
+		assertTrue(duplicates.contains("a"));
+		assertTrue(duplicates.contains("b"));
+		assertEquals(1, index.getLoadCount());
+		
+		int numStatements = database.getStatementCount();
+		duplicates = check(index, writer, "c", "y");
+		assertNotNull(duplicates);
+		assertTrue(duplicates.contains("c"));
+		assertEquals(numStatements, database.getStatementCount());
+		assertEquals(1, index.getLoadCount());
+		index.endWrite(writer);
+		
+		assertEquals(5, index.getCheckedCount());
+		assertEquals(
+			index.getCheckedCount(), 
+			index.getAbsentCount() + index.getProbableCount());
+		assertEquals(0, index.getUnavailableCount());
+		assertEquals(1, index.getFilterCount());
+		assertTrue(index.getSizeInBytes() > 0);
+	}
+	
+	/**
+	 * The IDs added by an upload are probable duplicates afterwards.
+	 */
+	@Test
+	public void testAddedIdsAreProbableDuplicates() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		long writer = index.beginWrite();
+		assertNotNull(check(index, writer, "a"));
+		index.add(writer, USERNAME, OBSERVER_ID, STREAM_ID, Arrays.asList("a"));
+		index.endWrite(writer);
+		
+		writer = index.beginWrite();
+		Collection<String> duplicates = check(index, writer, "a");
+		assertNotNull(duplicates);
+		assertTrue(duplicates.contains("a"));
+		index.endWrite(writer);
+		
+		assertEquals(1, index.getLoadCount());
+	}
+	
+	/**
+	 * Unseen IDs are probable duplicates at about the intended rate.
+	 */
+	@Test
+	public void testFalsePositiveRate() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		// The filter for an empty stream holds 1,024 IDs.
+		List<String> ids = new ArrayList<String>();
+		for(int i = 0; i < 1000; i++) {
+			ids.add("stored-" + i);
+		}
+		long writer = index.beginWrite();
+		assertNotNull(check(index, writer));
+		index.add(writer, USERNAME, OBSERVER_ID, STREAM_ID, ids);
+		
+		List<String> unseenIds = new ArrayList<String>();
+		for(int i = 0; i < 10000; i++) {
+			unseenIds.add("unseen-" + i);
+		}
+		Collection<String> duplicates = 
+			index.getProbableDuplicates(
+				writer, 
+				USERNAME, 
+				OBSERVER_ID, 
+				STREAM_ID, 
+				unseenIds);
+		index.recordFalsePositives(duplicates.size());
+		index.endWrite(writer);
+		
+		assertTrue(
+			"The false-positive rate was " + index.getFalsePositiveRate(), 
+			index.getFalsePositiveRate() < 0.03);
+	}
+	
+	/**
+	 * A filter is not built while an upload that began earlier could still
+	 * commit points that the filter would not see.
+	 */
+	@Test
+	public void testNoFilterWhileEarlierUploadInProgress() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		long earlier = index.beginWrite();
+		long later = index.beginWrite();
+		assertNull(check(index, later, "a"));
+		assertEquals(1, index.getUnavailableCount());
+		assertEquals(0, index.getFilterCount());
+		
+		index.endWrite(earlier);
+		assertNotNull(check(index, later, "a"));
+		index.endWrite(later);
+	}
+	
+	/**
+	 * A filter is not built by an upload that has already stored points for
+	 * the stream, because they have not been committed.
+	 */
+	@Test
+	public void testNoFilterAfterOwnUncommittedPoints() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		long writer = index.beginWrite();
+		index.add(writer, USERNAME, OBSERVER_ID, STREAM_ID, Arrays.asList("a"));
+		assertNull(check(index, writer, "a"));
+		index.endWrite(writer);
+		
+		// Once committed, the database has the point.
+		storedIds.add("a");
+		writer = index.beginWrite();
+		Collection<String> duplicates = check(index, writer, "a");
+		assertNotNull(duplicates);
+		assertTrue(duplicates.contains("a"));
+		index.endWrite(writer);
+	}
+	
+	/**
+	 * Every ID must be checked when the database cannot be read.
+	 */
+	@Test
+	public void testDatabaseFailure() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		database.setAvailable(false);
+		long writer = index.beginWrite();
+		assertNull(check(index, writer, "a", "b"));
+		assertEquals(2, index.getUnavailableCount());
+		assertEquals(0, index.getFilterCount());
+		assertEquals(0, index.getSizeInBytes());
+		
+		database.setAvailable(true);
+		assertNotNull(check(index, writer, "a", "b"));
+		index.endWrite(writer);
+	}
+	
+	/**
+	 * The least recently used filters are dropped to stay within the memory
+	 * limit.
+	 */
+	@Test
+	public void testLeastRecentlyUsedFiltersAreDropped() throws Exception {
+		// A filter for 1,024 IDs at 1% is 1,232 bytes, so only one fits.
+		StreamIdIndex index = newIndex(database.getDataSource(), 2000, 0.01);
+		
+		long writer = index.beginWrite();
+		assertNotNull(check(index, writer, "a"));
+		assertNotNull(
+			index.getProbableDuplicates(
+				writer, 
+				USERNAME, 
+				OBSERVER_ID, 
+				"other", 
+				Arrays.asList("a")));
+		assertEquals(1, index.getFilterCount());
+		assertTrue(index.getSizeInBytes() <= 2000);
+		
+		assertNotNull(check(index, writer, "a"));
+		index.endWrite(writer);
+		assertEquals(3, index.getLoadCount());
+	}
+	
+	/**
+	 * A filter that doesn't fit in the memory limit is not used.
+	 */
+	@Test
+	public void testFilterLargerThanLimit() throws Exception {
+		StreamIdIndex index = newIndex(database.getDataSource(), 100, 0.01);
+		
+		long writer = index.beginWrite();
+		assertNull(check(index, writer, "a"));
+		index.endWrite(writer);
+		
+		assertEquals(0, index.getFilterCount());
+		assertEquals(0, index.getSizeInBytes());
+	}
+	
+	/**
+	 * A filter that holds more than its capacity is dropped and rebuilt
+	 * larger.
+	 */
+	@Test
+	public void testFullFilterIsRebuilt() throws Exception {
+		StreamIdIndex index = newIndex();
+		
+		long writer = index.beginWrite();
+		assertNotNull(check(index, writer));
+		long smallBytes = index.getSizeInBytes();
+		
+		List<String> ids = new ArrayList<String>();
+		for(int i = 0; i < 1025; i++) {
+			ids.add(Integer.toString(i));
+		}
+		index.add(writer, USERNAME, OBSERVER_ID, STREAM_ID, ids);
+		assertEquals(0, index.getFilterCount());
+		index.endWrite(writer);
+		
+		storedIds.addAll(ids);
+		writer = index.beginWrite();
+		assertNotNull(check(index, writer));
+		index.endWrite(writer);
+		
+		assertEquals(2, index.getLoadCount());
+		assertTrue(index.getSizeInBytes() > smallBytes);
+	}
+	
+	/**
+	 * Concurrent uploads' IDs are all added to the filter.
+	 */
+	@Test
+	public void testConcurrentUploads() throws Exception {
+		final StreamIdIndex index = newIndex();
+		
+		long writer = index.beginWrite();
+		assertNotNull(check(index, writer));
+		index.endWrite(writer);
+		
+		final int numThreads = 4;
+		final int numIdsPerThread = 200;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < numThreads; i++) {
+			final int thread = i;
+			threads.add(
+				new Thread() {
+					/**
+					 * Adds this thread's IDs one at a time.
+					 */
+					@Override
+					public void run() {
+						try {
+							start.await();
+						}
+						catch(InterruptedException e) {
+							return;
+						}
+						
+						long writer = index.beginWrite();
+						for(int j = 0; j < numIdsPerThread; j++) {
+							index.add(
+								writer, 
+								USERNAME, 
+								OBSERVER_ID, 
+								STREAM_ID, 
+								Arrays.asList(thread + "-" + j));
+						}
+						index.endWrite(writer);
+					}
+				});
+		}
+		for(Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		List<String> ids = new ArrayList<String>();
+		for(int i = 0; i < numThreads; i++) {
+			for(int j = 0; j < numIdsPerThread; j++) {
+				ids.add(i + "-" + j);
+			}
+		}
+		
+		writer = index.beginWrite();
+		Collection<String> duplicates = 
+			index.getProbableDuplicates(
+				writer, 
+				USERNAME, 
+				OBSERVER_ID, 
+				STREAM_ID, 
+				ids);
+		index.endWrite(writer);
+		
+		assertNotNull(duplicates);
+		assertEquals(ids.size(), duplicates.size());
+		assertEquals(1, index.getLoadCount());
+	}
+	
+	/**
+	 * Returns the probable duplicates among some IDs for the test stream.
+	 * 
+	 * @param index The index.
+	 * 
+	 * @param writer The upload's sequence number.
+	 * 
+	 * @param ids The IDs.
+	 * 
+	 * @return The probable duplicates or null if the filter is unavailable.
+	 */
+	private static Collection<String> check(
+			final StreamIdIndex index, 
+			final long writer, 
+			final String... ids) {
+		
+		return 
+			index.getProbableDuplicates(
+				writer, 
+				USERNAME, 
+				OBSERVER_ID, 
+				STREAM_ID, 
+				Arrays.asList(ids));
+	}
+	
+	/**
+	 * Creates an index on the test database with plenty of memory.
+	 * 
+	 * @return The index.
+	 */
+	private StreamIdIndex newIndex() throws Exception {
+		return newIndex(database.getDataSource(), 1024 * 1024, 0.01);
+	}
+	
+	/**
+	 * Creates an index the way Spring does.
+	 * 
+	 * @return The index.
+	 * 
+	 * @throws IllegalArgumentException The constructor rejected the 
+	 * 									parameters.
+	 * 
+	 * @throws IllegalStateException An index already exists.
+	 */
+	private static StreamIdIndex newIndex(
+			final DataSource dataSource, 
+			final long maxBytes, 
+			final double falsePositiveRate) 
+			throws Exception {
+		
+		Constructor<StreamIdIndex> constructor = 
+			StreamIdIndex.class.getDeclaredConstructor(
+				DataSource.class, 
+				long.class, 
+				double.class);
+		constructor.setAccessible(true);
+		try {
+			return constructor.newInstance(
+				dataSource, 
+				maxBytes, 
+				falsePositiveRate);
+		}
+		catch(java.lang.reflect.InvocationTargetException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Forgets the current index.
+	 */
+	private static void resetInstance() throws Exception {
+		Field instance = StreamIdIndex.class.getDeclaredField("instance");
+		instance.setAccessible(true);
+		instance.set(null, null);
+	}
+}
@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.ohmage.domain.MobilityPoint.LocationStatus;
+import org.ohmage.domain.MobilityPoint.Mode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests the Mobility rollups and the durations calculated from them.
+ */
+public class MobilityRollupTest extends TestCase {
+	private static final long MINUTE = 1000 * 60;
+	private static final long HOUR = MINUTE * 60;
+	private static final long DAY = HOUR * 24;
+	
+	private static final DateTimeZone LOS_ANGELES = 
+		DateTimeZone.forID("America/Los_Angeles");
+	
+	// UTC+14 and UTC-11, which are on different dates for most of the day.
+	private static final DateTimeZone KIRITIMATI = 
+		DateTimeZone.forID("Pacific/Kiritimati");
+	private static final DateTimeZone PAGO_PAGO = 
+		DateTimeZone.forID("Pacific/Pago_Pago");
+	
+	private static final long START = 
+		new DateTime(2012, 6, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis();
+	
+	/**
+	 * The start of a time's minute.
+	 */
+	@Test
+	public void testGetRollupTime() {
+		assertEquals(0, MobilityRollup.getRollupTime(0));
+		assertEquals(0, MobilityRollup.getRollupTime(MINUTE - 1));
+		assertEquals(MINUTE, MobilityRollup.getRollupTime(MINUTE));
+		assertEquals(START, MobilityRollup.getRollupTime(START + 59999));
+		assertEquals(-MINUTE, MobilityRollup.getRollupTime(-1));
+		assertEquals(-MINUTE, MobilityRollup.getRollupTime(-MINUTE));
+		assertEquals(
+			-2 * MINUTE, 
+			MobilityRollup.getRollupTime(-MINUTE - 1));
+	}
+	
+	/**
+	 * The duration credited to a point.
+	 */
+	@Test
+	public void testGetDuration() {
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT, 
+			MobilityRollup.getDuration(START, null));
+		assertEquals(0, MobilityRollup.getDuration(START, START));
+		assertEquals(
+			5000, 
+			MobilityRollup.getDuration(START + 5000, START));
+		assertEquals(
+			HOUR, 
+			MobilityRollup.getDuration(START + HOUR, START));
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT, 
+			MobilityRollup.getDuration(START + HOUR + 1, START));
+	}
+	
+	/**
+	 * The stored values are validated.
+	 */
+	@Test
+	public void testConstructor() throws DomainException {
+		try {
+			new MobilityRollup(null, 0);
+			fail("The point was null.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+		
+		try {
+			new MobilityRollup.Point(
+				START, 
+				null, 
+				Mode.WALK, 
+				LocationStatus.UNAVAILABLE, 
+				null);
+			fail("The time zone was null.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+		
+		try {
+			newStored(START, START + 1000, START + MINUTE);
+			fail("The last point was in the next minute.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+		
+		try {
+			newStored(START, START + 2000, START + 1000);
+			fail("The last point was before the first point.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+		
+		try {
+			newStored(START, START + MINUTE, START + MINUTE);
+			fail("The first point was in the next minute.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+		
+		MobilityRollup rollup = newStored(START, START + 1000, START + 2000);
+		assertEquals(START, rollup.getTime());
+		assertEquals(START + 1000, rollup.getFirstTime());
+		assertEquals(START + 2000, rollup.getLastTime());
+	}
+	
+	/**
+	 * Points are summarized by minute, time zone, and mode.
+	 */
+	@Test
+	public void testRollUp() throws DomainException {
+		List<MobilityRollup.Point> points = 
+			Arrays.asList(
+				newPoint(START + 10000, DateTimeZone.UTC, Mode.WALK),
+				newPoint(START + 20000, DateTimeZone.UTC, Mode.STILL),
+				newPoint(START + 30000, DateTimeZone.UTC, Mode.WALK),
+				newPoint(START + 40000, LOS_ANGELES, Mode.WALK),
+				newPoint(START + MINUTE + 5000, LOS_ANGELES, Mode.WALK),
+				newPoint(START + 3 * HOUR, LOS_ANGELES, Mode.DRIVE));
+		
+		List<MobilityRollup> rollups = MobilityRollup.rollUp(points, START);
+		assertEquals(5, rollups.size());
+		
+		MobilityRollup walk = rollups.get(0);
+		assertEquals(START, walk.getTime());
+		assertEquals(DateTimeZone.UTC, walk.getTimezone());
+		assertEquals(Mode.WALK, walk.getMode());
+		assertEquals(2, walk.getCount());
+		assertEquals(START + 10000, walk.getFirstTime());
+		assertEquals(START + 30000, walk.getLastTime());
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT, 
+			walk.getFirstDuration());
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT + 10000, 
+			walk.getDuration());
+		assertEquals(LocationStatus.UNAVAILABLE, walk.getFirstLocationStatus());
+		assertNull(walk.getFirstLocation());
+		
+		MobilityRollup still = rollups.get(1);
+		assertEquals(Mode.STILL, still.getMode());
+		assertEquals(1, still.getCount());
+		assertEquals(10000, still.getDuration());
+		
+		MobilityRollup losAngeles = rollups.get(2);
+		assertEquals(LOS_ANGELES, losAngeles.getTimezone());
+		assertEquals(Mode.WALK, losAngeles.getMode());
+		assertEquals(10000, losAngeles.getDuration());
+		
+		MobilityRollup nextMinute = rollups.get(3);
+		assertEquals(START + MINUTE, nextMinute.getTime());
+		assertEquals(25000, nextMinute.getDuration());
+		
+		MobilityRollup drive = rollups.get(4);
+		assertEquals(Mode.DRIVE, drive.getMode());
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT, 
+			drive.getDuration());
+	}
+	
+	/**
+	 * The points before the start only determine the durations of the
+	 * points after them.
+	 */
+	@Test
+	public void testRollUpStartTime() throws DomainException {
+		List<MobilityRollup.Point> points = 
+			Arrays.asList(
+				newPoint(START - 30000, DateTimeZone.UTC, Mode.WALK),
+				newPoint(START + 15000, DateTimeZone.UTC, Mode.WALK));
+		
+		List<MobilityRollup> rollups = MobilityRollup.rollUp(points, START);
+		assertEquals(1, rollups.size());
+		assertEquals(1, rollups.get(0).getCount());
+		assertEquals(45000, rollups.get(0).getFirstDuration());
+		assertEquals(45000, rollups.get(0).getDuration());
+		
+		assertTrue(
+			MobilityRollup
+				.rollUp(
+					new ArrayList<MobilityRollup.Point>(), 
+					START)
+				.isEmpty());
+	}
+	
+	/**
+	 * The first point of the rollups is credited with the default duration
+	 * and the modes are in the order they first appear.
+	 */
+	@Test
+	public void testGetModeDurations() throws DomainException {
+		List<MobilityRollup.Point> points = 
+			Arrays.asList(
+				newPoint(START - 10000, DateTimeZone.UTC, Mode.RUN),
+				newPoint(START + 10000, DateTimeZone.UTC, Mode.WALK),
+				newPoint(START + 20000, DateTimeZone.UTC, Mode.STILL),
+				newPoint(START + 30000, DateTimeZone.UTC, Mode.WALK),
+				newPoint(START + 40000, DateTimeZone.UTC, Mode.STILL),
+				newPoint(START + MINUTE + 40000, DateTimeZone.UTC, Mode.WALK));
+		
+		Map<Mode, Long> durations = 
+			MobilityRollup.getModeDurations(
+				MobilityRollup.rollUp(points, START));
+		
+		assertEquals(
+			Arrays.asList(Mode.WALK, Mode.STILL), 
+			new ArrayList<Mode>(durations.keySet()));
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT + 10000 + MINUTE, 
+			(long) durations.get(Mode.WALK));
+		assertEquals(20000, (long) durations.get(Mode.STILL));
+		
+		assertTrue(
+			MobilityRollup
+				.getModeDurations(new ArrayList<MobilityRollup>())
+				.isEmpty());
+	}
+	
+	/**
+	 * When the user's time zone moves back to an earlier date and then
+	 * returns, the first point after the return is credited with the time
+	 * since the last point on its date, not the time since the point on the
+	 * earlier date.
+	 */
+	@Test
+	public void testTimeZoneMovesToEarlierDate() throws DomainException {
+		// 23:00 on June 1st in Kiritimati is 22:00 on May 31st in Pago
+		// Pago.
+		long time = START + 9 * HOUR;
+		List<MobilityRollup.Point> points = 
+			Arrays.asList(
+				newPoint(time, KIRITIMATI, Mode.WALK),
+				newPoint(time + 5 * MINUTE, KIRITIMATI, Mode.WALK),
+				newPoint(time + 10 * MINUTE, PAGO_PAGO, Mode.STILL),
+				newPoint(time + 15 * MINUTE, PAGO_PAGO, Mode.STILL),
+				newPoint(time + 20 * MINUTE, KIRITIMATI, Mode.DRIVE),
+				newPoint(time + 25 * MINUTE, KIRITIMATI, Mode.DRIVE));
+		
+		Map<Long, List<MobilityRollup>> buckets = 
+			bucket(MobilityRollup.rollUp(points, START), 1);
+		assertEquals(2, buckets.size());
+		
+		Map<Mode, Long> june = 
+			MobilityRollup.getModeDurations(
+				buckets.get(getBucket(time, KIRITIMATI, 1)));
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT + 5 * MINUTE, 
+			(long) june.get(Mode.WALK));
+		assertEquals(15 * MINUTE + 5 * MINUTE, (long) june.get(Mode.DRIVE));
+		
+		Map<Mode, Long> may = 
+			MobilityRollup.getModeDurations(
+				buckets.get(getBucket(time, PAGO_PAGO, 1)));
+		assertEquals(
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT + 5 * MINUTE, 
+			(long) may.get(Mode.STILL));
+		
+		assertEquals(bucketPoints(points, 1), getBucketDurations(buckets));
+	}
+	
+	/**
+	 * The durations from the rollups match the durations from the points
+	 * when the points are split into buckets of one or more local dates, 
+	 * even when the time zone changes.
+	 */
+	@Test
+	public void testGetModeDurationsMatchesPoints() throws DomainException {
+		DateTimeZone[] timezones = 
+			new DateTimeZone[] { 
+				DateTimeZone.UTC, 
+				LOS_ANGELES, 
+				KIRITIMATI, 
+				PAGO_PAGO 
+			};
+		Mode[] modes = Mode.values();
+		
+		Random random = new Random(42);
+		for(int run = 0; run < 20; run++) {
+			List<MobilityRollup.Point> points = 
+				new ArrayList<MobilityRollup.Point>();
+			
+			long time = START + random.nextInt((int) DAY);
+			DateTimeZone timezone = timezones[0];
+			long lastTimezoneChange = time;
+			Mode mode = modes[0];
+			for(int i = 0; i < 2000; i++) {
+				// Mostly frequent points, sometimes a long gap.
+				if(random.nextInt(50) == 0) {
+					time += HOUR + random.nextInt((int) HOUR);
+				}
+				else {
+					time += 1000 + random.nextInt((int) (3 * MINUTE));
+				}
+				
+				// The time zone can't change twice within a minute.
+				if((random.nextInt(40) == 0) && 
+					(time - lastTimezoneChange > 2 * MINUTE)) {
+					
+					timezone = timezones[random.nextInt(timezones.length)];
+					lastTimezoneChange = time;
+				}
+				if(random.nextInt(4) == 0) {
+					mode = modes[random.nextInt(modes.length)];
+				}
+				
+				points.add(newPoint(time, timezone, mode));
+			}
+			
+			List<MobilityRollup> rollups = 
+				MobilityRollup.rollUp(points, points.get(0).getTime());
+			for(int days = 1; days <= 3; days++) {
+				assertEquals(
+					"Run " + run + " with " + days + " day buckets.",
+					bucketPoints(points, days), 
+					getBucketDurations(bucket(rollups, days)));
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the time spent in each mode for each bucket from the points
+	 * the way the aggregate read did before there were rollups.
+	 * 
+	 * @param points The points in time order.
+	 * 
+	 * @param days The number of days in each bucket.
+	 * 
+	 * @return The time spent in each mode, in the order of the modes' first
+	 * 		   points, by bucket.
+	 */
+	private static Map<Long, Map<Mode, Long>> bucketPoints(
+			final List<MobilityRollup.Point> points,
+			final int days) {
+		
+		Map<Long, List<MobilityRollup.Point>> buckets = 
+			new TreeMap<Long, List<MobilityRollup.Point>>();
+		for(MobilityRollup.Point point : points) {
+			long bucketNum = 
+				getBucket(point.getTime(), point.getTimezone(), days);
+			
+			List<MobilityRollup.Point> bucket = buckets.get(bucketNum);
+			if(bucket == null) {
+				bucket = new ArrayList<MobilityRollup.Point>();
+				buckets.put(bucketNum, bucket);
+			}
+			bucket.add(point);
+		}
+		
+		Map<Long, Map<Mode, Long>> result = 
+			new TreeMap<Long, Map<Mode, Long>>();
+		for(Long bucketNum : buckets.keySet()) {
+			Map<Mode, Long> durations = new LinkedHashMap<Mode, Long>();
+			
+			MobilityRollup.Point previousPoint = null;
+			for(MobilityRollup.Point point : buckets.get(bucketNum)) {
+				long duration = 
+					MobilityRollup.getDuration(
+						point.getTime(), 
+						(previousPoint == null) ? 
+							null : 
+							previousPoint.getTime());
+				
+				Long modeDuration = durations.get(point.getMode());
+				durations.put(
+					point.getMode(), 
+					((modeDuration == null) ? 0 : modeDuration) + duration);
+				
+				previousPoint = point;
+			}
+			
+			result.put(bucketNum, durations);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Splits rollups into buckets the way the aggregate read does.
+	 * 
+	 * @param rollups The rollups in the order of their first points.
+	 * 
+	 * @param days The number of days in each bucket.
+	 * 
+	 * @return The rollups, in the order of their first points, by bucket.
+	 */
+	private static Map<Long, List<MobilityRollup>> bucket(
+			final List<MobilityRollup> rollups,
+			final int days) {
+		
+		Map<Long, List<MobilityRollup>> result = 
+			new TreeMap<Long, List<MobilityRollup>>();
+		for(MobilityRollup rollup : rollups) {
+			long bucketNum = 
+				getBucket(rollup.getTime(), rollup.getTimezone(), days);
+			
+			List<MobilityRollup> bucket = result.get(bucketNum);
+			if(bucket == null) {
+				bucket = new ArrayList<MobilityRollup>();
+				result.put(bucketNum, bucket);
+			}
+			bucket.add(rollup);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Calculates the time spent in each mode for each bucket of rollups.
+	 * 
+	 * @param buckets The rollups by bucket.
+	 * 
+	 * @return The time spent in each mode by bucket.
+	 */
+	private static Map<Long, Map<Mode, Long>> getBucketDurations(
+			final Map<Long, List<MobilityRollup>> buckets) {
+		
+		Map<Long, Map<Mode, Long>> result = 
+			new TreeMap<Long, Map<Mode, Long>>();
+		for(Long bucketNum : buckets.keySet()) {
+			result.put(
+				bucketNum, 
+				MobilityRollup.getModeDurations(buckets.get(bucketNum)));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the bucket of a time's local date.
+	 * 
+	 * @param time The time in milliseconds since the epoch.
+	 * 
+	 * @param timezone The time zone.
+	 * 
+	 * @param days The number of days in each bucket.
+	 * 
+	 * @return The number of buckets from the start to the local date.
+	 */
+	private static long getBucket(
+			final long time, 
+			final DateTimeZone timezone,
+			final int days) {
+		
+		long localTime = time + timezone.getOffset(time);
+		long bucketMillis = days * DAY;
+		
+		// Round down for the dates before the start.
+		long bucket = (localTime - START) / bucketMillis;
+		if(localTime < START + (bucket * bucketMillis)) {
+			bucket--;
+		}
+		return bucket;
+	}
+	
+	/**
+	 * Creates a point without a location.
+	 * 
+	 * @param time The point's time.
+	 * 
+	 * @param timezone The point's time zone.
+	 * 
+	 * @param mode The point's mode.
+	 * 
+	 * @return The point.
+	 */
+	private static MobilityRollup.Point newPoint(
+			final long time,
+			final DateTimeZone timezone,
+			final Mode mode) 
+			throws DomainException {
+		
+		return new MobilityRollup.Point(
+			time, 
+			timezone, 
+			mode, 
+			LocationStatus.UNAVAILABLE, 
+			null);
+	}
+	
+	/**
+	 * Creates a rollup of walking points in UTC from its stored values.
+	 * 
+	 * @param time The start of the rollup's minute.
+	 * 
+	 * @param firstTime The time of the first point.
+	 * 
+	 * @param lastTime The time of the last point.
+	 * 
+	 * @return The rollup.
+	 */
+	private static MobilityRollup newStored(
+			final long time,
+			final long firstTime,
+			final long lastTime) 
+			throws DomainException {
+		
+		return new MobilityRollup(
+			time, 
+			DateTimeZone.UTC, 
+			Mode.WALK, 
+			2, 
+			MINUTE, 
+			firstTime, 
+			MobilityRollup.DEFAULT_MILLIS_PER_POINT, 
+			LocationStatus.UNAVAILABLE, 
+			null, 
+			lastTime);
+	}
+}
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.exception.DataAccessException;
+
+/**
+ * Tests the in-memory search index.
+ */
+public class TokenIndexTest extends TestCase {
+	private static final int FIELD_NAME = 0;
+	private static final int FIELD_DESCRIPTION = 1;
+	
+	// The entities in the "database" by ID.
+	private final Map<String, String[]> database = 
+		new LinkedHashMap<String, String[]>();
+	
+	private int numReads;
+	private int numFullReads;
+	private boolean available;
+	
+	// If not null, the next read of the whole database counts this down once
+	// it has copied the database and then waits for the release.
+	private CountDownLatch started;
+	private CountDownLatch release;
+	
+	private final TokenIndex.Source source = 
+		new TokenIndex.Source() {
+			/**
+			 * Adds one or all of the entities in the database.
+			 */
+			@Override
+			public void read(
+					final TokenIndex index, 
+					final String id)
+					throws DataAccessException {
+				
+				List<Map.Entry<String, String[]>> entities;
+				CountDownLatch currStarted = null;
+				synchronized(database) {
+					numReads++;
+					if(! available) {
+						throw new DataAccessException("The database is down.");
+					}
+					
+					entities = 
+						new ArrayList<Map.Entry<String, String[]>>(
+							database.entrySet());
+					
+					if(id == null) {
+						numFullReads++;
+						currStarted = started;
+						started = null;
+					}
+				}
+				
+				if(currStarted != null) {
+					currStarted.countDown();
+					try {
+						release.await();
+					}
+					catch(InterruptedException e) {
+						throw new DataAccessException(e);
+					}
+				}
+				
+				for(Map.Entry<String, String[]> entity : entities) {
+					if((id == null) || id.equals(entity.getKey())) {
+						index.add(entity.getKey(), entity.getValue());
+					}
+				}
+			}
+		};
+	
+	/**
+	 * Fills the database.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		database.clear();
+		database.put(
+			"1", 
+			new String[] { "Mobility Observations", "Where people go." });
+		database.put(
+			"2", 
+			new String[] { "Observing mobile users", null });
+		database.put(
+			"3", 
+			new String[] { "Sleep", "How long people sleep: 8h." });
+		
+		numReads = 0;
+		numFullReads = 0;
+		available = true;
+		started = null;
+		release = null;
+	}
+	
+	/**
+	 * Every word of the search must be contained in a word of the field,
+	 * regardless of case.
+	 */
+	@Test
+	public void testSearch() throws DataAccessException {
+		TokenIndex index = new TokenIndex(2, Long.MAX_VALUE, source);
+		
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "obs mob"));
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "OBSERV"));
+		assertEquals(ids("1"), index.search(FIELD_NAME, "bility"));
+		assertEquals(ids("1"), index.search(FIELD_NAME, "ervat"));
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "b"));
+		assertEquals(ids("1", "2", "3"), index.search(FIELD_NAME, "e"));
+		assertEquals(ids("2"), index.search(FIELD_NAME, "users"));
+		assertEquals(ids(), index.search(FIELD_NAME, "userss"));
+		assertEquals(ids(), index.search(FIELD_NAME, "obs sleep"));
+		assertEquals(ids(), index.search(FIELD_NAME, "vationsx"));
+		
+		// Words are split on anything but letters and digits.
+		assertEquals(ids("3"), index.search(FIELD_DESCRIPTION, "8h"));
+		assertEquals(ids("1", "3"), index.search(FIELD_DESCRIPTION, "people."));
+		
+		// Text without words matches every entity with a value.
+		assertEquals(ids("1", "3"), index.search(FIELD_DESCRIPTION, " :"));
+		assertEquals(1, numReads);
+	}
+	
+	/**
+	 * A refreshed entity's old words are removed and its new words added.
+	 */
+	@Test
+	public void testRefresh() throws DataAccessException {
+		TokenIndex index = new TokenIndex(2, Long.MAX_VALUE, source);
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "mob"));
+		
+		database.put("2", new String[] { "Exercise", "Running" });
+		index.refresh("2");
+		assertEquals(ids("1"), index.search(FIELD_NAME, "mob"));
+		assertEquals(ids("2"), index.search(FIELD_NAME, "ercis"));
+		assertEquals(ids("2"), index.search(FIELD_DESCRIPTION, "run"));
+		
+		database.remove("1");
+		index.refresh("1");
+		assertEquals(ids(), index.search(FIELD_NAME, "mob"));
+		assertEquals(ids("2", "3"), index.search(FIELD_NAME, ""));
+		assertEquals(3, numReads);
+	}
+	
+	/**
+	 * If a refresh fails, the index is read again by the next search.
+	 */
+	@Test
+	public void testRefreshFailure() throws DataAccessException {
+		TokenIndex index = new TokenIndex(2, Long.MAX_VALUE, source);
+		index.search(FIELD_NAME, "mob");
+		
+		database.put("4", new String[] { "Mobile", null });
+		available = false;
+		index.refresh("4");
+		
+		available = true;
+		assertEquals(ids("1", "2", "4"), index.search(FIELD_NAME, "mob"));
+		assertEquals(3, numReads);
+	}
+	
+	/**
+	 * The whole index is read again once its lifetime has passed, but the
+	 * old index is still used if that fails.
+	 */
+	@Test
+	public void testLifetime() throws Exception {
+		TokenIndex index = new TokenIndex(2, 0, source);
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "mob"));
+		
+		// Another server adds an entity.
+		database.put("4", new String[] { "Mobile", null });
+		Thread.sleep(5);
+		assertEquals(ids("1", "2", "4"), index.search(FIELD_NAME, "mob"));
+		
+		database.remove("4");
+		available = false;
+		Thread.sleep(5);
+		assertEquals(ids("1", "2", "4"), index.search(FIELD_NAME, "mob"));
+		assertEquals(3, numReads);
+	}
+	
+	/**
+	 * While one search reads the whole index again, other searches use the
+	 * old index without waiting, and entities refreshed in the meantime are
+	 * also in the new index.
+	 */
+	@Test
+	public void testSlowReload() throws Exception {
+		final TokenIndex index = new TokenIndex(2, 500, source);
+		assertEquals(ids("1", "2"), index.search(FIELD_NAME, "mob"));
+		Thread.sleep(550);
+		
+		CountDownLatch reloadStarted = new CountDownLatch(1);
+		synchronized(database) {
+			started = reloadStarted;
+			release = new CountDownLatch(1);
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Set<String>> reload = 
+				executor.submit(
+					new Callable<Set<String>>() {
+						@Override
+						public Set<String> call() throws DataAccessException {
+							return index.search(FIELD_NAME, "mob");
+						}
+					});
+			assertTrue(reloadStarted.await(5, TimeUnit.SECONDS));
+			
+			// The reload has already copied the database when this entity
+			// is added.
+			synchronized(database) {
+				database.put("4", new String[] { "Mobile", null });
+			}
+			Future<Set<String>> search = 
+				executor.submit(
+					new Callable<Set<String>>() {
+						@Override
+						public Set<String> call() throws DataAccessException {
+							Set<String> result = 
+								index.search(FIELD_NAME, "mob");
+							index.refresh("4");
+							return result;
+						}
+					});
+			assertEquals(ids("1", "2"), search.get(5, TimeUnit.SECONDS));
+			assertFalse(reload.isDone());
+			assertEquals(ids("1", "2", "4"), index.search(FIELD_NAME, "mob"));
+			
+			release.countDown();
+			assertEquals(ids("1", "2", "4"), reload.get(5, TimeUnit.SECONDS));
+			assertEquals(ids("1", "2", "4"), index.search(FIELD_NAME, "mob"));
+			assertEquals(2, numFullReads);
+		}
+		finally {
+			if(release.getCount() > 0) {
+				release.countDown();
+			}
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * The first read must succeed.
+	 */
+	@Test
+	public void testLoadFailure() {
+		available = false;
+		
+		TokenIndex index = new TokenIndex(2, Long.MAX_VALUE, source);
+		try {
+			index.search(FIELD_NAME, "mob");
+			fail("The index could not be read.");
+		}
+		catch(DataAccessException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * Only the source may add entities.
+	 */
+	@Test
+	public void testAdd() {
+		TokenIndex index = new TokenIndex(2, Long.MAX_VALUE, source);
+		try {
+			index.add("4", "Mobile", null);
+			fail("The entity was not added by the source.");
+		}
+		catch(IllegalStateException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * Returns a set of IDs.
+	 * 
+	 * @param ids The IDs.
+	 * 
+	 * @return The set.
+	 */
+	private static Set<String> ids(final String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+}
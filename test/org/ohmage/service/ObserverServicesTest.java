@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.domain.DataStream;
+import org.ohmage.domain.MobilityRollup;
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.Observer.Stream;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IObserverQueries;
+import org.ohmage.query.IObserverQueries.DataStreamSource;
+import org.ohmage.query.IUserMobilityQueries;
+import org.ohmage.query.IUserQueries;
+import org.ohmage.validator.ObserverValidators;
+
+/**
+ * Tests that storing the Mobility observer's data through the stream upload
+ * rebuilds the Mobility rollups, against stub queries.
+ */
+public class ObserverServicesTest extends TestCase {
+	private static final String USERNAME = "user.name";
+	private static final String OTHER_OBSERVER_ID = "org.ohmage.Other";
+	private static final long OBSERVER_VERSION = 2012061300;
+	private static final String STREAM_ID = "mode_only";
+	private static final long STREAM_VERSION = 2012050700;
+	private static final String SCHEMA =
+		"{\"type\":\"record\",\"name\":\"ModeOnly\"," +
+			"\"fields\":[{\"name\":\"mode\",\"type\":\"string\"}]}";
+	
+	private static final long TIME = 1350000000000L;
+	
+	private Stream stream;
+	
+	// The IDs of the points that were stored before, by the stub queries.
+	private final Set<String> storedIds = new HashSet<String>();
+	
+	// The arguments to each rebuild of the rollups.
+	private final List<Object[]> rebuilds = new ArrayList<Object[]>();
+	private boolean rebuildFails;
+	
+	/**
+	 * Creates the services with stub queries.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		resetInstances();
+		storedIds.clear();
+		rebuilds.clear();
+		rebuildFails = false;
+		
+		stream = 
+			new Stream(
+				STREAM_ID, 
+				STREAM_VERSION, 
+				"Mode Only", 
+				"The mode.", 
+				true, 
+				true, 
+				true, 
+				SCHEMA);
+		
+		IObserverQueries observerQueries =
+			stub(
+				IObserverQueries.class,
+				new InvocationHandler() {
+					/**
+					 * Stores the data, finds the duplicates, and returns the
+					 * stream.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy, 
+							final Method method, 
+							final Object[] args)
+							throws Throwable {
+						
+						if("storeData".equals(method.getName())) {
+							DataStreamSource source = 
+								(DataStreamSource) args[2];
+							long numStored = 0;
+							Collection<DataStream> chunk;
+							while((chunk = source.nextChunk()) != null) {
+								for(DataStream dataStream : chunk) {
+									storedIds.add(
+										dataStream.getMetaData().getId());
+									numStored++;
+								}
+							}
+							return numStored;
+						}
+						else if("getDuplicateIds".equals(method.getName())) {
+							List<String> result = new ArrayList<String>();
+							for(Object id : (Collection<?>) args[3]) {
+								if(storedIds.contains(id)) {
+									result.add((String) id);
+								}
+							}
+							return result;
+						}
+						else if("getStream".equals(method.getName())) {
+							if(STREAM_ID.equals(args[1]) && 
+								Long.valueOf(STREAM_VERSION).equals(args[2])) {
+								
+								return stream;
+							}
+							return null;
+						}
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				});
+		
+		IUserMobilityQueries userMobilityQueries =
+			stub(
+				IUserMobilityQueries.class,
+				new InvocationHandler() {
+					/**
+					 * Records the rebuilds of the rollups.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy, 
+							final Method method, 
+							final Object[] args)
+							throws Throwable {
+						
+						if("rebuildRollups".equals(method.getName())) {
+							if(rebuildFails) {
+								throw new DataAccessException(
+									"The database is down.");
+							}
+							rebuilds.add(args);
+							return null;
+						}
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				});
+		
+		IUserQueries userQueries =
+			stub(
+				IUserQueries.class,
+				new InvocationHandler() {
+					/**
+					 * Isn't used.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy, 
+							final Method method, 
+							final Object[] args) {
+						
+						throw new UnsupportedOperationException(
+							method.getName());
+					}
+				});
+		
+		create(
+			ObserverServices.class, 
+			new Class<?>[] { IObserverQueries.class }, 
+			observerQueries);
+		create(
+			MobilityServices.class,
+			new Class<?>[] {
+				IUserQueries.class, 
+				IUserMobilityQueries.class, 
+				IObserverQueries.class },
+			userQueries,
+			userMobilityQueries,
+			observerQueries);
+	}
+	
+	/**
+	 * Forgets the services.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		resetInstances();
+	}
+	
+	/**
+	 * Storing the Mobility observer's data rebuilds the rollups around the
+	 * points.
+	 */
+	@Test
+	public void testMobilityRollups() throws Exception {
+		assertEquals(
+			3,
+			storeData(
+				MobilityServices.MOBILITY_OBSERVER_ID,
+				point("1", TIME),
+				point("2", TIME + 90000),
+				point("3", TIME - 30000)));
+		
+		assertEquals(1, rebuilds.size());
+		assertRebuild(rebuilds.get(0), TIME - 30000, TIME + 90000);
+	}
+	
+	/**
+	 * The rollups are rebuilt even if every point was stored before, so that
+	 * retrying an upload whose rebuild failed rebuilds them.
+	 */
+	@Test
+	public void testMobilityRollupFailure() throws Exception {
+		rebuildFails = true;
+		try {
+			storeData(
+				MobilityServices.MOBILITY_OBSERVER_ID,
+				point("1", TIME),
+				point("2", TIME + 90000));
+			fail("The rollups could not be rebuilt.");
+		}
+		catch(ServiceException e) {
+			// Passed.
+		}
+		assertEquals(2, storedIds.size());
+		
+		rebuildFails = false;
+		assertEquals(
+			0,
+			storeData(
+				MobilityServices.MOBILITY_OBSERVER_ID,
+				point("1", TIME),
+				point("2", TIME + 90000)));
+		
+		assertEquals(1, rebuilds.size());
+		assertRebuild(rebuilds.get(0), TIME, TIME + 90000);
+	}
+	
+	/**
+	 * Other observers' data doesn't change the rollups.
+	 */
+	@Test
+	public void testOtherObserver() throws Exception {
+		assertEquals(
+			1, 
+			storeData(OTHER_OBSERVER_ID, point("1", TIME)));
+		assertTrue(rebuilds.isEmpty());
+	}
+	
+	/**
+	 * Stores points as a stream upload would.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param points The points as JSON.
+	 * 
+	 * @return The number of points that were stored.
+	 */
+	private long storeData(
+			final String observerId,
+			final String... points)
+			throws Exception {
+		
+		Observer observer = 
+			new Observer(
+				observerId,
+				OBSERVER_VERSION,
+				"Observer",
+				"An observer.",
+				"1.0",
+				Collections.singletonList(stream));
+		
+		StringBuilder data = new StringBuilder("[");
+		for(String point : points) {
+			if(data.length() > 1) {
+				data.append(',');
+			}
+			data.append(point);
+		}
+		data.append(']');
+		
+		return 
+			ObserverServices.instance().storeData(
+				USERNAME,
+				observer,
+				ObserverValidators.validateData(data.toString()));
+	}
+	
+	/**
+	 * Checks the arguments to a rebuild of the rollups.
+	 * 
+	 * @param args The arguments.
+	 * 
+	 * @param earliestTime The time of the earliest point.
+	 * 
+	 * @param latestTime The time of the latest point.
+	 */
+	private void assertRebuild(
+			final Object[] args,
+			final long earliestTime,
+			final long latestTime) {
+		
+		assertEquals(USERNAME, args[0]);
+		assertEquals(MobilityServices.MOBILITY_OBSERVER_ID, args[1]);
+		assertEquals(Arrays.asList(stream), args[2]);
+		assertEquals(MobilityRollup.getRollupTime(earliestTime), args[3]);
+		assertEquals(
+			MobilityRollup.getRollupTime(
+				latestTime + MobilityRollup.MAX_MILLIS_BETWEEN_POINTS) +
+				MobilityRollup.MILLIS_PER_ROLLUP,
+			args[4]);
+	}
+	
+	/**
+	 * Returns a point in the mode-only stream as JSON.
+	 * 
+	 * @param id The point's ID.
+	 * 
+	 * @param time The point's time in milliseconds since the epoch.
+	 * 
+	 * @return The point.
+	 */
+	private static String point(final String id, final long time) {
+		return 
+			"{\"stream_id\":\"" + STREAM_ID + "\"," +
+				"\"stream_version\":" + STREAM_VERSION + "," +
+				"\"metadata\":{\"id\":\"" + id + "\",\"time\":" + time + "}," +
+				"\"data\":{\"mode\":\"still\"}}";
+	}
+	
+	/**
+	 * Creates a stub of an interface.
+	 * 
+	 * @param type The interface.
+	 * 
+	 * @param handler Answers the calls to the stub.
+	 * 
+	 * @return The stub.
+	 */
+	private static <T> T stub(
+			final Class<T> type, 
+			final InvocationHandler handler) {
+		
+		return 
+			type.cast(
+				Proxy.newProxyInstance(
+					type.getClassLoader(), 
+					new Class<?>[] { type }, 
+					handler));
+	}
+	
+	/**
+	 * Creates a service with its private constructor, which registers the
+	 * instance.
+	 * 
+	 * @param type The service.
+	 * 
+	 * @param parameterTypes The constructor's parameter types.
+	 * 
+	 * @param args The constructor's arguments.
+	 */
+	private static void create(
+			final Class<?> type,
+			final Class<?>[] parameterTypes,
+			final Object... args)
+			throws Exception {
+		
+		Constructor<?> constructor = 
+			type.getDeclaredConstructor(parameterTypes);
+		constructor.setAccessible(true);
+		constructor.newInstance(args);
+	}
+	
+	/**
+	 * Forgets the services.
+	 */
+	private static void resetInstances() throws Exception {
+		Class<?>[] types = 
+			new Class<?>[] { ObserverServices.class, MobilityServices.class };
+		for(Class<?> type : types) {
+			Field instance = type.getDeclaredField("instance");
+			instance.setAccessible(true);
+			instance.set(null, null);
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.exception.ServiceException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the requests to the visualization server and the cache of the images
+ * it returns against a stub server on a local port.
+ */
+public class VisualizationClientTest extends TestCase {
+	private static final String REQUEST_PATH = "/R/visualizations/test";
+	
+	private static final int MAX_CONNECTIONS = 2;
+	private static final int MAX_CACHED_IMAGES = 2;
+	private static final int MAX_CACHED_IMAGE_BYTES = 1024;
+	private static final long CACHE_LIFETIME_MILLIS = 60000;
+	
+	private HttpServer server;
+	private String url;
+	
+	// The requests the stub server has answered.
+	private final AtomicInteger numRequests = new AtomicInteger(0);
+	private final AtomicInteger numInProgress = new AtomicInteger(0);
+	private final AtomicInteger maxInProgress = new AtomicInteger(0);
+	
+	// How long the stub server takes to draw an image.
+	private volatile int renderMillis;
+	
+	private VisualizationClient client;
+	
+	/**
+	 * Starts a stub visualization server that returns an image made from the
+	 * form parameters or, if they contain "error", an error.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		numRequests.set(0);
+		numInProgress.set(0);
+		maxInProgress.set(0);
+		renderMillis = 0;
+		
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext(
+			REQUEST_PATH, 
+			new HttpHandler() {
+				/**
+				 * Returns the image or the error.
+				 */
+				@Override
+				public void handle(
+						final HttpExchange exchange)
+						throws IOException {
+					
+					numRequests.incrementAndGet();
+					
+					int inProgress = numInProgress.incrementAndGet();
+					int max;
+					while((inProgress > (max = maxInProgress.get())) &&
+						(! maxInProgress.compareAndSet(max, inProgress)));
+					
+					try {
+						String form = 
+							new String(
+								read(exchange.getRequestBody()), 
+								"UTF-8");
+						Thread.sleep(renderMillis);
+						
+						byte[] response;
+						if(form.contains("error")) {
+							response = "Error.".getBytes("UTF-8");
+							exchange.sendResponseHeaders(500, response.length);
+						}
+						else {
+							response = getImage(form);
+							exchange.getResponseHeaders().set(
+								"Content-Type", 
+								"image/png");
+							exchange.sendResponseHeaders(200, response.length);
+						}
+						
+						OutputStream os = exchange.getResponseBody();
+						os.write(response);
+						os.close();
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					finally {
+						numInProgress.decrementAndGet();
+						exchange.close();
+					}
+				}
+			});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		
+		url = 
+			"http://localhost:" + server.getAddress().getPort() + 
+				REQUEST_PATH;
+		
+		client = 
+			new VisualizationClient(
+				MAX_CONNECTIONS, 
+				MAX_CACHED_IMAGES, 
+				MAX_CACHED_IMAGE_BYTES, 
+				CACHE_LIFETIME_MILLIS);
+	}
+	
+	/**
+	 * Stops the client and the stub server.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		client.shutdown();
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+	
+	/**
+	 * The parameters are validated.
+	 */
+	@Test
+	public void testConstructor() {
+		try {
+			new VisualizationClient(0, 1, 1, 1);
+			fail("There were no connections.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			new VisualizationClient(1, -1, 1, 1);
+			fail("The number of cached images was negative.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			new VisualizationClient(1, 1, -1, 1);
+			fail("The size of a cached image was negative.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+		
+		try {
+			new VisualizationClient(1, 1, 1, -1);
+			fail("The cache lifetime was negative.");
+		}
+		catch(IllegalArgumentException e) {
+			// Passed.
+		}
+	}
+	
+	/**
+	 * An image that has been read is returned from the cache until its key
+	 * changes.
+	 */
+	@Test
+	public void testCache() throws Exception {
+		assertImage("width=1", "a");
+		assertEquals(1, numRequests.get());
+		
+		assertImage("width=1", "a");
+		assertEquals(1, numRequests.get());
+		assertEquals(2, client.getNumRequests());
+		assertEquals(1, client.getNumCacheHits());
+		
+		// The key changes when the data changes.
+		assertImage("width=1", "b");
+		assertEquals(2, numRequests.get());
+		assertEquals(1, client.getNumCacheHits());
+		
+		assertImage("width=1", "b");
+		assertEquals(2, numRequests.get());
+		assertEquals(2, client.getNumCacheHits());
+	}
+	
+	/**
+	 * Only the most recently used images are kept.
+	 */
+	@Test
+	public void testLeastRecentlyUsed() throws Exception {
+		assertImage("width=1", "a");
+		assertImage("width=2", "b");
+		assertImage("width=1", "a");
+		assertImage("width=3", "c");
+		assertEquals(3, numRequests.get());
+		
+		assertImage("width=1", "a");
+		assertEquals(3, numRequests.get());
+		
+		assertImage("width=2", "b");
+		assertEquals(4, numRequests.get());
+	}
+	
+	/**
+	 * Images are not used after their lifetime.
+	 */
+	@Test
+	public void testExpiration() throws Exception {
+		client.shutdown();
+		client = 
+			new VisualizationClient(
+				MAX_CONNECTIONS, 
+				MAX_CACHED_IMAGES, 
+				MAX_CACHED_IMAGE_BYTES, 
+				0);
+		
+		assertImage("width=1", "a");
+		Thread.sleep(10);
+		assertImage("width=1", "a");
+		assertEquals(2, numRequests.get());
+		assertEquals(0, client.getNumCacheHits());
+	}
+	
+	/**
+	 * Images that are too large or that are not read to their end are not
+	 * cached.
+	 */
+	@Test
+	public void testNotCached() throws Exception {
+		StringBuilder largeForm = new StringBuilder("width=");
+		for(int i = 0; i < MAX_CACHED_IMAGE_BYTES; i++) {
+			largeForm.append('1');
+		}
+		
+		assertImage(largeForm.toString(), "a");
+		assertImage(largeForm.toString(), "a");
+		assertEquals(2, numRequests.get());
+		
+		client.request(url, "width=1", "b").close();
+		assertImage("width=1", "b");
+		assertEquals(4, numRequests.get());
+		assertEquals(0, client.getNumCacheHits());
+	}
+	
+	/**
+	 * An error from the server is reported and not cached.
+	 */
+	@Test
+	public void testError() throws Exception {
+		for(int i = 0; i < 2; i++) {
+			try {
+				client.request(url, "error=true", "a");
+				fail("The server returned an error.");
+			}
+			catch(ServiceException e) {
+				// Passed.
+			}
+		}
+		assertEquals(2, numRequests.get());
+		
+		// The connection was returned to the pool.
+		for(int i = 0; i <= MAX_CONNECTIONS; i++) {
+			assertImage("width=" + i, "b" + i);
+		}
+	}
+	
+	/**
+	 * No more than the maximum number of requests are sent at once.
+	 */
+	@Test
+	public void testMaxConnections() throws Exception {
+		renderMillis = 20;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for(int i = 0; i < 32; i++) {
+				final String form = "width=" + i;
+				results.add(
+					executor.submit(
+						new Callable<Boolean>() {
+							/**
+							 * Requests an image and checks it.
+							 */
+							@Override
+							public Boolean call() throws Exception {
+								return 
+									Arrays.equals(
+										getImage(form), 
+										VisualizationClient.read(
+											client.request(url, form, form)));
+							}
+						}));
+			}
+			
+			for(Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		
+		assertEquals(32, numRequests.get());
+		assertTrue(
+			"Requests at once: " + maxInProgress.get(), 
+			maxInProgress.get() <= MAX_CONNECTIONS);
+	}
+	
+	/**
+	 * Requests an image, reads it, and checks it.
+	 * 
+	 * @param form The form parameters.
+	 * 
+	 * @param key The image's key.
+	 */
+	private void assertImage(
+			final String form, 
+			final String key) 
+			throws IOException, ServiceException {
+		
+		assertTrue(
+			Arrays.equals(
+				getImage(form), 
+				VisualizationClient.read(client.request(url, form, key))));
+	}
+	
+	/**
+	 * Returns the image the stub server draws for the form parameters.
+	 * 
+	 * @param form The form parameters.
+	 * 
+	 * @return The image.
+	 */
+	private static byte[] getImage(final String form) throws IOException {
+		return ("image:" + form).getBytes("UTF-8");
+	}
+	
+	/**
+	 * Reads a stream to its end.
+	 * 
+	 * @param input The stream.
+	 * 
+	 * @return The stream's bytes.
+	 */
+	private static byte[] read(final InputStream input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int amountRead;
+		while((amountRead = input.read(chunk)) != -1) {
+			result.write(chunk, 0, amountRead);
+		}
+		return result.toByteArray();
+	}
+}
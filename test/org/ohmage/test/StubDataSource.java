@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * A DataSource whose statements are answered by a {@link Responder} instead
+ * of a database, so that the classes that query the database directly can be
+ * tested without one.<br />
+ * <br />
+ * Only prepared statements and the index-based getters of their result sets
+ * are supported. Every other method does nothing and returns null, false, or
+ * zero.
+ */
+public final class StubDataSource {
+	/**
+	 * Answers the statements executed against the stub.
+	 */
+	public static interface Responder {
+		/**
+		 * Returns the rows for a statement.
+		 * 
+		 * @param sql The statement's SQL.
+		 * 
+		 * @param parameters The statement's parameters, in order.
+		 * 
+		 * @return The rows of the result, each with one value per column. 
+		 * 		   For an update, the number of rows is the update count.
+		 * 
+		 * @throws SQLException The statement should fail.
+		 */
+		public List<Object[]> execute(
+				String sql, 
+				List<Object> parameters) 
+				throws SQLException;
+	}
+	
+	private final Responder responder;
+	private final DataSource dataSource;
+	
+	private volatile boolean available = true;
+	
+	private final AtomicInteger numConnections = new AtomicInteger(0);
+	private final AtomicInteger numStatements = new AtomicInteger(0);
+	
+	/**
+	 * Creates the stub.
+	 * 
+	 * @param responder Answers the statements.
+	 */
+	public StubDataSource(final Responder responder) {
+		this.responder = responder;
+		
+		dataSource = 
+			proxy(
+				DataSource.class, 
+				new InvocationHandler() {
+					/**
+					 * Returns a new connection for each request, unless the
+					 * database is unavailable.
+					 */
+					@Override
+					public Object invoke(
+							final Object proxy, 
+							final Method method, 
+							final Object[] args) 
+							throws SQLException {
+						
+						if("getConnection".equals(method.getName())) {
+							if(! available) {
+								throw new SQLException(
+									"The database is unavailable.");
+							}
+							
+							numConnections.incrementAndGet();
+							return proxy(Connection.class, new ConnectionHandler());
+						}
+						
+						return getDefault(method);
+					}
+				});
+	}
+	
+	/**
+	 * Returns the stub as a DataSource.
+	 * 
+	 * @return The DataSource.
+	 */
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+	
+	/**
+	 * Sets whether or not connections can be opened.
+	 * 
+	 * @param available False to make every request for a connection fail.
+	 */
+	public void setAvailable(final boolean available) {
+		this.available = available;
+	}
+	
+	/**
+	 * Returns the number of connections that have been opened.
+	 * 
+	 * @return The number of connections.
+	 */
+	public int getConnectionCount() {
+		return numConnections.get();
+	}
+	
+	/**
+	 * Returns the number of statements that have been executed.
+	 * 
+	 * @return The number of statements.
+	 */
+	public int getStatementCount() {
+		return numStatements.get();
+	}
+	
+	/**
+	 * Creates connections' statements.
+	 */
+	private final class ConnectionHandler implements InvocationHandler {
+		/**
+		 * Prepares statements and ignores everything else.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy, 
+				final Method method, 
+				final Object[] args) {
+			
+			if("prepareStatement".equals(method.getName())) {
+				return 
+					proxy(
+						PreparedStatement.class, 
+						new StatementHandler((String) args[0]));
+			}
+			
+			return getDefault(method);
+		}
+	}
+	
+	/**
+	 * Collects a statement's parameters and executes it with the responder.
+	 */
+	private final class StatementHandler implements InvocationHandler {
+		private final String sql;
+		private final List<Object> parameters = new ArrayList<Object>();
+		
+		/**
+		 * Creates a handler for a statement.
+		 * 
+		 * @param sql The statement's SQL.
+		 */
+		private StatementHandler(final String sql) {
+			this.sql = sql;
+		}
+		
+		/**
+		 * Sets the parameters and executes the statement.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy, 
+				final Method method, 
+				final Object[] args) 
+				throws SQLException {
+			
+			String name = method.getName();
+			if(name.startsWith("set") && 
+				(args != null) && 
+				(args.length >= 2) && 
+				(args[0] instanceof Integer)) {
+				
+				int index = (Integer) args[0];
+				while(parameters.size() < index) {
+					parameters.add(null);
+				}
+				parameters.set(
+					index - 1, 
+					"setNull".equals(name) ? null : args[1]);
+				return null;
+			}
+			else if("executeQuery".equals(name)) {
+				return 
+					proxy(
+						ResultSet.class, 
+						new ResultSetHandler(execute(), (Statement) proxy));
+			}
+			else if("executeUpdate".equals(name)) {
+				return execute().size();
+			}
+			else if("execute".equals(name)) {
+				execute();
+				return false;
+			}
+			
+			return getDefault(method);
+		}
+		
+		/**
+		 * Executes the statement with the responder.
+		 * 
+		 * @return The rows.
+		 * 
+		 * @throws SQLException The responder failed the statement.
+		 */
+		private List<Object[]> execute() throws SQLException {
+			numStatements.incrementAndGet();
+			
+			List<Object[]> result = 
+				responder.execute(
+					sql, 
+					Collections.unmodifiableList(
+						new ArrayList<Object>(parameters)));
+			if(result == null) {
+				return Collections.emptyList();
+			}
+			
+			return result;
+		}
+	}
+	
+	/**
+	 * Iterates over a statement's rows.
+	 */
+	private static final class ResultSetHandler implements InvocationHandler {
+		private final List<Object[]> rows;
+		private final Statement statement;
+		private int row = -1;
+		private boolean wasNull = false;
+		
+		/**
+		 * Creates a result set over some rows.
+		 * 
+		 * @param rows The rows.
+		 * 
+		 * @param statement The statement that created the result set.
+		 */
+		private ResultSetHandler(
+				final List<Object[]> rows, 
+				final Statement statement) {
+			
+			this.rows = rows;
+			this.statement = statement;
+		}
+		
+		/**
+		 * Moves through the rows and returns their values.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy, 
+				final Method method, 
+				final Object[] args) 
+				throws SQLException {
+			
+			String name = method.getName();
+			if("next".equals(name)) {
+				row++;
+				return (row < rows.size());
+			}
+			else if("wasNull".equals(name)) {
+				return wasNull;
+			}
+			else if("getStatement".equals(name)) {
+				return statement;
+			}
+			else if("getMetaData".equals(name)) {
+				final int numColumns = 
+					rows.isEmpty() ? 1 : rows.get(0).length;
+				return 
+					proxy(
+						ResultSetMetaData.class, 
+						new InvocationHandler() {
+							/**
+							 * Only knows the number of columns.
+							 */
+							@Override
+							public Object invoke(
+									final Object proxy, 
+									final Method method, 
+									final Object[] args) {
+								
+								if("getColumnCount".equals(method.getName())) {
+									return numColumns;
+								}
+								
+								return getDefault(method);
+							}
+						});
+			}
+			else if(name.startsWith("get") && 
+				(args != null) && 
+				(args.length >= 1) && 
+				(args[0] instanceof Integer)) {
+				
+				if((row < 0) || (row >= rows.size())) {
+					throw new SQLException("There is no current row.");
+				}
+				
+				Object value = rows.get(row)[((Integer) args[0]) - 1];
+				wasNull = (value == null);
+				return convert(value, method);
+			}
+			else if(name.startsWith("get") && 
+				(args != null) && 
+				(args.length >= 1) && 
+				(args[0] instanceof String)) {
+				
+				throw new SQLException("Columns must be read by index.");
+			}
+			
+			return getDefault(method);
+		}
+		
+		/**
+		 * Converts a value to the getter's return type.
+		 * 
+		 * @param value The value.
+		 * 
+		 * @param method The getter.
+		 * 
+		 * @return The converted value.
+		 */
+		private static Object convert(final Object value, final Method method) {
+			Class<?> type = method.getReturnType();
+			if(value == null) {
+				return getDefault(method);
+			}
+			else if(type.equals(String.class)) {
+				return value.toString();
+			}
+			else if((value instanceof Number) && type.equals(long.class)) {
+				return ((Number) value).longValue();
+			}
+			else if((value instanceof Number) && type.equals(int.class)) {
+				return ((Number) value).intValue();
+			}
+			else if((value instanceof Number) && type.equals(double.class)) {
+				return ((Number) value).doubleValue();
+			}
+			
+			return value;
+		}
+	}
+	
+	/**
+	 * Creates a proxy for an interface.
+	 * 
+	 * @param type The interface.
+	 * 
+	 * @param handler The handler for the proxy's methods.
+	 * 
+	 * @return The proxy.
+	 */
+	private static <T> T proxy(
+			final Class<T> type, 
+			final InvocationHandler handler) {
+		
+		return 
+			type.cast(
+				Proxy.newProxyInstance(
+					StubDataSource.class.getClassLoader(), 
+					new Class<?>[] { type }, 
+					new InvocationHandler() {
+						/**
+						 * Answers the Object methods itself and hands the
+						 * rest to the handler.
+						 */
+						@Override
+						public Object invoke(
+								final Object proxy, 
+								final Method method, 
+								final Object[] args) 
+								throws Throwable {
+							
+							String name = method.getName();
+							if("equals".equals(name) && 
+								(args != null) && 
+								(args.length == 1)) {
+								
+								return (proxy == args[0]);
+							}
+							else if("hashCode".equals(name) && 
+								(args == null)) {
+								
+								return System.identityHashCode(proxy);
+							}
+							else if("toString".equals(name) && 
+								(args == null)) {
+								
+								return type.getSimpleName() + " stub";
+							}
+							
+							return handler.invoke(proxy, method, args);
+						}
+					}));
+	}
+	
+	/**
+	 * Returns the value a method returns when the stub doesn't support it.
+	 * 
+	 * @param method The method.
+	 * 
+	 * @return Null, false, or zero depending on the return type.
+	 */
+	private static Object getDefault(final Method method) {
+		Class<?> type = method.getReturnType();
+		if(! type.isPrimitive() || type.equals(void.class)) {
+			return null;
+		}
+		else if(type.equals(boolean.class)) {
+			return false;
+		}
+		else if(type.equals(char.class)) {
+			return (char) 0;
+		}
+		else if(type.equals(byte.class)) {
+			return (byte) 0;
+		}
+		else if(type.equals(short.class)) {
+			return (short) 0;
+		}
+		else if(type.equals(int.class)) {
+			return 0;
+		}
+		else if(type.equals(long.class)) {
+			return 0L;
+		}
+		else if(type.equals(float.class)) {
+			return 0F;
+		}
+		
+		return 0D;
+	}
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.test.mobility;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.ohmage.domain.MobilityPoint;
+import org.ohmage.domain.MobilityPoint.ClassifierData;
+import org.ohmage.domain.MobilityPoint.PrivacyState;
+import org.ohmage.service.MobilityClassificationEngine;
+
+/**
+ * Measures the rate at which Mobility points can be classified one at a time,
+ * which is how uploads used to be classified, versus in windows on a pool of
+ * threads, which is how they are classified now, and checks that both give
+ * the same modes. The points are read from a file containing the JSON array
+ * of a recorded Mobility upload. There is no constructor and this is meant to
+ * be called from the command line or an IDE.
+ */
+public class MobilityClassificationBenchmark {
+	private static final int DEFAULT_NUM_THREADS = 4;
+	private static final int DEFAULT_WINDOW_SIZE = 250;
+	
+	private static final int NUM_WARM_UP_RUNS = 3;
+	private static final int NUM_RUNS = 10;
+	
+	/**
+	 * Default constructor made private to prevent instantiation.
+	 */
+	private MobilityClassificationBenchmark() {}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The arguments as defined in {@link #printUsage()}.
+	 */
+	public static void main(final String[] args) throws Exception {
+		if((args.length < 1) || (args.length > 3)) {
+			printUsage();
+			return;
+		}
+		
+		int numThreads = DEFAULT_NUM_THREADS;
+		if(args.length > 1) {
+			numThreads = Integer.decode(args[1]);
+		}
+		int windowSize = DEFAULT_WINDOW_SIZE;
+		if(args.length > 2) {
+			windowSize = Integer.decode(args[2]);
+		}
+		
+		JSONArray upload = readUpload(args[0]);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			// Warm up both paths so that the first measurement isn't
+			// penalized for loading classes and compiling the classifier.
+			for(int i = 0; i < NUM_WARM_UP_RUNS; i++) {
+				MobilityClassificationEngine.classify(
+					parse(upload),
+					null,
+					Integer.MAX_VALUE);
+				MobilityClassificationEngine.classify(
+					parse(upload),
+					executor,
+					windowSize);
+			}
+			
+			List<MobilityPoint> sequential = null;
+			long sequentialMillis = 0;
+			for(int i = 0; i < NUM_RUNS; i++) {
+				sequential = parse(upload);
+				long start = System.currentTimeMillis();
+				MobilityClassificationEngine.classify(
+					sequential,
+					null,
+					Integer.MAX_VALUE);
+				sequentialMillis += System.currentTimeMillis() - start;
+			}
+			
+			List<MobilityPoint> windowed = null;
+			long windowedMillis = 0;
+			int numInline = 0;
+			for(int i = 0; i < NUM_RUNS; i++) {
+				windowed = parse(upload);
+				long start = System.currentTimeMillis();
+				numInline +=
+					MobilityClassificationEngine.classify(
+						windowed,
+						executor,
+						windowSize);
+				windowedMillis += System.currentTimeMillis() - start;
+			}
+			
+			long numPoints = ((long) upload.length()) * NUM_RUNS;
+			System.out.println(
+				"Classified " + upload.length() + " points " +
+					NUM_RUNS + " times.");
+			printResult("One at a time:", numPoints, sequentialMillis);
+			printResult(
+				"Windows of " + windowSize + " on " + numThreads +
+					" threads:",
+				numPoints,
+				windowedMillis);
+			System.out.println(
+				"Windows classified by the calling thread: " + numInline);
+			
+			int numMismatched = countMismatched(sequential, windowed);
+			if(numMismatched == 0) {
+				System.out.println("The classifications are the same.");
+			}
+			else {
+				System.out.println(
+					"The classifications differ for " + numMismatched +
+						" points.");
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Prints the usage for this benchmark.
+	 */
+	private static void printUsage() {
+		System.out.println(
+			"Usage: MobilityClassificationBenchmark <upload JSON file> " +
+				"[<number of threads> [<window size>]]");
+		System.out.println(
+			"The defaults are " + DEFAULT_NUM_THREADS + " threads and " +
+				"windows of " + DEFAULT_WINDOW_SIZE + " points.");
+	}
+	
+	/**
+	 * Prints the time and rate of one path.
+	 * 
+	 * @param label The name of the path.
+	 * 
+	 * @param numPoints The number of points classified.
+	 * 
+	 * @param millis The number of milliseconds the path took.
+	 */
+	private static void printResult(
+			final String label,
+			final long numPoints,
+			final long millis) {
+		
+		System.out.println(
+			label + " " + millis + "ms, " +
+				((numPoints * 1000) / Math.max(millis, 1)) + " points/sec");
+	}
+	
+	/**
+	 * Reads the recorded upload.
+	 * 
+	 * @param filename The name of the file containing the upload's JSON
+	 * 				   array.
+	 * 
+	 * @return The upload.
+	 */
+	private static JSONArray readUpload(
+			final String filename)
+			throws Exception {
+		
+		BufferedReader reader =
+			new BufferedReader(
+				new InputStreamReader(
+					new FileInputStream(filename),
+					"UTF-8"));
+		try {
+			StringBuilder builder = new StringBuilder();
+			char[] buffer = new char[4096];
+			int read;
+			while((read = reader.read(buffer)) != -1) {
+				builder.append(buffer, 0, read);
+			}
+			return new JSONArray(builder.toString());
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Parses a fresh copy of the upload's points.
+	 * 
+	 * @param upload The upload.
+	 * 
+	 * @return The points.
+	 */
+	private static List<MobilityPoint> parse(
+			final JSONArray upload)
+			throws Exception {
+		
+		int numPoints = upload.length();
+		List<MobilityPoint> result = new ArrayList<MobilityPoint>(numPoints);
+		for(int i = 0; i < numPoints; i++) {
+			result.add(
+				new MobilityPoint(
+					upload.getJSONObject(i),
+					PrivacyState.PRIVATE));
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts the points whose classifications differ.
+	 * 
+	 * @param expected The points classified one at a time.
+	 * 
+	 * @param actual The points classified in windows.
+	 * 
+	 * @return The number of points whose classifications differ.
+	 */
+	private static int countMismatched(
+			final List<MobilityPoint> expected,
+			final List<MobilityPoint> actual) {
+		
+		int result = 0;
+		for(int i = 0; i < expected.size(); i++) {
+			ClassifierData expectedData = expected.get(i).getClassifierData();
+			ClassifierData actualData = actual.get(i).getClassifierData();
+			
+			if(expectedData == null) {
+				if(actualData != null) {
+					result++;
+				}
+			}
+			else if(
+					(actualData == null) ||
+					(! expectedData.getMode().equals(actualData.getMode()))) {
+				
+				result++;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.test.observer;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.ohmage.domain.DataStream;
+import org.ohmage.domain.DataStream.MetaData;
+import org.ohmage.domain.Location;
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.Observer.Stream;
+import org.ohmage.query.IObserverQueries.DataStreamSource;
+import org.ohmage.query.impl.ObserverQueries;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures the rate at which ObserverQueries stores the data of a stream
+ * upload. Changes to how the data is stored are compared by running it
+ * against a build from before and after the change. An observer with one stream is created for the benchmark and
+ * deleted, with its data, afterwards, but it should still be run against a
+ * test database. There is no constructor and this is meant to be called
+ * from the command line or an IDE.
+ */
+public class StreamUploadBenchmark {
+	private static final String STREAM_ID = "benchmark";
+	private static final long VERSION = 1;
+	private static final String SCHEMA =
+		"{\"type\":\"record\",\"name\":\"Benchmark\"," +
+			"\"fields\":[{\"name\":\"value\",\"type\":\"string\"}]}";
+	
+	// The number of characters in each point's value.
+	private static final int DATA_SIZE = 64;
+	
+	// This must match the value in ObserverServices.
+	private static final int DATA_CHUNK_SIZE = 1000;
+	
+	private static final String SQL_DELETE_DATA =
+		"DELETE osd " +
+		"FROM observer o, observer_stream_link osl, " +
+			"observer_stream_data osd " +
+		"WHERE o.observer_id = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND osl.id = osd.observer_stream_link_id";
+	
+	private static final String SQL_DELETE_STREAMS =
+		"DELETE os " +
+		"FROM observer o, observer_stream_link osl, observer_stream os " +
+		"WHERE o.observer_id = ? " +
+		"AND o.id = osl.observer_id " +
+		"AND os.id = osl.observer_stream_id";
+	
+	private static final String SQL_DELETE_OBSERVER =
+		"DELETE FROM observer WHERE observer_id = ?";
+	
+	private static final int DEFAULT_NUM_POINTS = 10000;
+	
+	private static final int NUM_WARM_UP_POINTS = 1000;
+	private static final int NUM_RUNS = 3;
+	
+	/**
+	 * Default constructor made private to prevent instantiation.
+	 */
+	private StreamUploadBenchmark() {}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The arguments as defined in {@link #printUsage()}.
+	 */
+	public static void main(final String[] args) throws Exception {
+		if((args.length != 4) && (args.length != 5)) {
+			printUsage();
+			return;
+		}
+		
+		String username = args[3];
+		int numPoints = DEFAULT_NUM_POINTS;
+		if(args.length == 5) {
+			numPoints = Integer.decode(args[4]);
+		}
+		
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+		dataSource.setUrl(args[0]);
+		dataSource.setUsername(args[1]);
+		dataSource.setPassword(args[2]);
+		try {
+			ObserverQueries observerQueries = createQuery(dataSource);
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+			
+			Stream stream = 
+				new Stream(
+					STREAM_ID, 
+					VERSION, 
+					"Benchmark", 
+					"A stream for the benchmark.", 
+					true, 
+					true, 
+					true, 
+					SCHEMA);
+			Observer observer =
+				new Observer(
+					"org.ohmage.benchmark.b" + System.currentTimeMillis(),
+					VERSION,
+					"Benchmark",
+					"An observer for the benchmark.",
+					"1.0",
+					Collections.singletonList(stream));
+			observerQueries.createObserver(username, observer);
+			try {
+				// Warm up so that the first measurement isn't penalized for
+				// loading classes and preparing statements.
+				store(
+					observerQueries, 
+					username, 
+					observer, 
+					createData(stream, NUM_WARM_UP_POINTS));
+				jdbcTemplate.update(
+					SQL_DELETE_DATA, 
+					new Object[] { observer.getId() });
+				
+				long millis = 0;
+				for(int i = 0; i < NUM_RUNS; i++) {
+					millis += 
+						store(
+							observerQueries, 
+							username, 
+							observer, 
+							createData(stream, numPoints));
+					jdbcTemplate.update(
+						SQL_DELETE_DATA, 
+						new Object[] { observer.getId() });
+				}
+				
+				System.out.println(
+					"Stored " + numPoints + " points " + NUM_RUNS + 
+						" times.");
+				printResult(
+					"ObserverQueries.storeData:", 
+					((long) numPoints) * NUM_RUNS, 
+					millis);
+			}
+			finally {
+				jdbcTemplate.update(
+					SQL_DELETE_STREAMS, 
+					new Object[] { observer.getId() });
+				jdbcTemplate.update(
+					SQL_DELETE_OBSERVER, 
+					new Object[] { observer.getId() });
+			}
+		}
+		finally {
+			dataSource.close();
+		}
+	}
+	
+	/**
+	 * Prints the usage for this benchmark.
+	 */
+	private static void printUsage() {
+		System.out.println(
+			"Usage: StreamUploadBenchmark <JDBC URL> <username> <password> " +
+				"<ohmage username> [<number of points>]");
+		System.out.println(
+			"The default is " + DEFAULT_NUM_POINTS + " points.");
+	}
+	
+	/**
+	 * Prints the time and rate of the runs.
+	 * 
+	 * @param label The name of the runs.
+	 * 
+	 * @param numRows The number of rows inserted.
+	 * 
+	 * @param millis The number of milliseconds the runs took.
+	 */
+	private static void printResult(
+			final String label,
+			final long numRows,
+			final long millis) {
+		
+		System.out.println(
+			label + " " + millis + "ms, " +
+				((numRows * 1000) / Math.max(millis, 1)) + " rows/sec");
+	}
+	
+	/**
+	 * Creates new data points with an ID, a time, a location, and a value.
+	 * 
+	 * @param stream The stream to which they belong.
+	 * 
+	 * @param numPoints The number of points.
+	 * 
+	 * @return The points.
+	 */
+	private static List<DataStream> createData(
+			final Stream stream,
+			final int numPoints)
+			throws Exception {
+		
+		StringBuilder value = new StringBuilder(DATA_SIZE);
+		while(value.length() < DATA_SIZE) {
+			value.append('x');
+		}
+		String data = "{\"value\":\"" + value + "\"}";
+		
+		long time = System.currentTimeMillis();
+		List<DataStream> result = new ArrayList<DataStream>(numPoints);
+		for(int i = 0; i < numPoints; i++) {
+			DateTime timestamp = 
+				new DateTime(time - (numPoints - i) * 1000L, DateTimeZone.UTC);
+			
+			MetaData.Builder metaData = new MetaData.Builder();
+			metaData.setId(UUID.randomUUID().toString());
+			metaData.setTimestamp(timestamp);
+			metaData.setLocation(
+				new Location(timestamp, 34.0689, -118.4452, 10.0, "gps"));
+			
+			result.add(new DataStream(stream, metaData.build(), data));
+		}
+		return result;
+	}
+	
+	/**
+	 * Stores data points in chunks, as a stream upload does.
+	 * 
+	 * @param observerQueries The query that stores them.
+	 * 
+	 * @param username The user who uploads them.
+	 * 
+	 * @param observer The observer to which they belong.
+	 * 
+	 * @param data The points.
+	 * 
+	 * @return The number of milliseconds storing them took.
+	 */
+	private static long store(
+			final ObserverQueries observerQueries,
+			final String username,
+			final Observer observer,
+			final List<DataStream> data)
+			throws Exception {
+		
+		DataStreamSource source = 
+			new DataStreamSource() {
+				private int start = 0;
+				
+				/**
+				 * Returns the next chunk of the points.
+				 */
+				@Override
+				public Collection<DataStream> nextChunk() {
+					if(start >= data.size()) {
+						return null;
+					}
+					
+					int end = Math.min(start + DATA_CHUNK_SIZE, data.size());
+					Collection<DataStream> result = 
+						new ArrayList<DataStream>(data.subList(start, end));
+					start = end;
+					return result;
+				}
+			};
+		
+		long start = System.currentTimeMillis();
+		observerQueries.storeData(username, observer, source);
+		return System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Creates the observer query.
+	 * 
+	 * @param dataSource The database.
+	 * 
+	 * @return The query.
+	 */
+	private static ObserverQueries createQuery(
+			final DataSource dataSource)
+			throws Exception {
+		
+		Constructor<ObserverQueries> constructor =
+			ObserverQueries.class.getDeclaredConstructor(DataSource.class);
+		constructor.setAccessible(true);
+		return constructor.newInstance(dataSource);
+	}
+}
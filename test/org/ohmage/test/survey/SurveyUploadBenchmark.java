@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.test.survey;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.Video;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.query.impl.SurveyUploadQuery;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures the rate at which SurveyUploadQuery stores prompt responses when
+ * it inserts each one with its own statement, which is how survey uploads
+ * used to be stored, versus the multi-row statements that are used now. The
+ * surveys are uploaded to a campaign that is created for the benchmark and
+ * deleted, with its responses, afterwards, but it should still be run 
+ * against a test database. There is no constructor and this is meant to be
+ * called from the command line or an IDE.
+ */
+public class SurveyUploadBenchmark {
+	private static final String CLIENT = "benchmark";
+	private static final String SURVEY_ID = "benchmarkSurvey";
+	
+	private static final String SQL_INSERT_CAMPAIGN =
+		"INSERT INTO campaign(" +
+			"urn, name, xml, running_state_id, privacy_state_id, " +
+			"creation_timestamp) " +
+		"VALUES (" +
+			"?, ?, ?, " +
+			"(SELECT id FROM campaign_running_state " +
+				"WHERE running_state = 'running'), " +
+			"(SELECT id FROM campaign_privacy_state " +
+				"WHERE privacy_state = 'private'), " +
+			"now())";
+	
+	private static final String SQL_DELETE_SURVEY_RESPONSES =
+		"DELETE FROM survey_response " +
+		"WHERE campaign_id = (SELECT id FROM campaign WHERE urn = ?)";
+	
+	private static final String SQL_DELETE_CAMPAIGN =
+		"DELETE FROM campaign WHERE urn = ?";
+	
+	// This must match the value in SurveyUploadQuery.
+	private static final int MAX_PROMPT_RESPONSES_PER_INSERT = 500;
+	
+	private static final int DEFAULT_NUM_SURVEYS = 500;
+	private static final int DEFAULT_NUM_PROMPTS = 30;
+	
+	private static final int NUM_WARM_UP_SURVEYS = 20;
+	
+	private static final long PREFERENCE_LIFETIME_MILLIS = 1000 * 60 * 60;
+	
+	/**
+	 * Default constructor made private to prevent instantiation.
+	 */
+	private SurveyUploadBenchmark() {}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The arguments as defined in {@link #printUsage()}.
+	 */
+	public static void main(final String[] args) throws Exception {
+		if((args.length != 4) && (args.length != 6)) {
+			printUsage();
+			return;
+		}
+		
+		String username = args[3];
+		int numSurveys = DEFAULT_NUM_SURVEYS;
+		int numPrompts = DEFAULT_NUM_PROMPTS;
+		if(args.length == 6) {
+			numSurveys = Integer.decode(args[4]);
+			numPrompts = Integer.decode(args[5]);
+		}
+		
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+		dataSource.setUrl(args[0]);
+		dataSource.setUsername(args[1]);
+		dataSource.setPassword(args[2]);
+		
+		File webappRoot = createWebappRoot();
+		try {
+			createPreferenceCache(dataSource);
+			
+			SurveyUploadQuery singleRows = 
+				createQuery(dataSource, 1);
+			SurveyUploadQuery multipleRows = 
+				createQuery(dataSource, MAX_PROMPT_RESPONSES_PER_INSERT);
+			
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+			String campaignId = 
+				"urn:campaign:benchmark:" + System.currentTimeMillis();
+			String xml = getCampaignXml(campaignId, numPrompts);
+			Campaign campaign = 
+				new Campaign(
+					null, 
+					Campaign.RunningState.RUNNING, 
+					Campaign.PrivacyState.PRIVATE, 
+					new Date(), 
+					xml);
+			jdbcTemplate.update(
+				SQL_INSERT_CAMPAIGN, 
+				new Object[] { campaignId, campaign.getName(), xml });
+			try {
+				// Warm up both paths so that the first measurement isn't
+				// penalized for loading classes and preparing statements.
+				upload(
+					singleRows, 
+					username, 
+					campaign, 
+					NUM_WARM_UP_SURVEYS, 
+					numPrompts);
+				upload(
+					multipleRows, 
+					username, 
+					campaign, 
+					NUM_WARM_UP_SURVEYS, 
+					numPrompts);
+				jdbcTemplate.update(
+					SQL_DELETE_SURVEY_RESPONSES, 
+					new Object[] { campaignId });
+				
+				long numRows = ((long) numSurveys) * numPrompts;
+				
+				long singleMillis =
+					upload(
+						singleRows, 
+						username, 
+						campaign, 
+						numSurveys, 
+						numPrompts);
+				jdbcTemplate.update(
+					SQL_DELETE_SURVEY_RESPONSES, 
+					new Object[] { campaignId });
+				
+				long multipleMillis = 
+					upload(
+						multipleRows, 
+						username, 
+						campaign, 
+						numSurveys, 
+						numPrompts);
+				
+				System.out.println(
+					"Uploaded " + numRows + " prompt responses for " +
+						numSurveys + " surveys.");
+				printResult("One row per statement:", numRows, singleMillis);
+				printResult(
+					"Up to " + MAX_PROMPT_RESPONSES_PER_INSERT + 
+						" rows per statement:", 
+					numRows, 
+					multipleMillis);
+			}
+			finally {
+				jdbcTemplate.update(
+					SQL_DELETE_CAMPAIGN, 
+					new Object[] { campaignId });
+			}
+		}
+		finally {
+			dataSource.close();
+			new File(webappRoot, "WEB-INF/properties/system.properties")
+				.delete();
+			new File(webappRoot, "WEB-INF/properties").delete();
+			new File(webappRoot, "WEB-INF").delete();
+			webappRoot.delete();
+		}
+	}
+	
+	/**
+	 * Prints the usage for this benchmark.
+	 */
+	private static void printUsage() {
+		System.out.println(
+			"Usage: SurveyUploadBenchmark <JDBC URL> <username> <password> " +
+				"<ohmage username> " +
+				"[<number of surveys> <number of prompts per survey>]");
+		System.out.println(
+			"The defaults are " + DEFAULT_NUM_SURVEYS + " surveys with " +
+				DEFAULT_NUM_PROMPTS + " prompts each.");
+	}
+	
+	/**
+	 * Prints the time and rate of one run.
+	 * 
+	 * @param label The name of the run.
+	 * 
+	 * @param numRows The number of rows inserted.
+	 * 
+	 * @param millis The number of milliseconds the run took.
+	 */
+	private static void printResult(
+			final String label,
+			final long numRows,
+			final long millis) {
+		
+		System.out.println(
+			label + " " + millis + "ms, " +
+				((numRows * 1000) / Math.max(millis, 1)) + " rows/sec");
+	}
+	
+	/**
+	 * Uploads new survey responses in one call, as a survey upload does.
+	 * 
+	 * @param query The query that stores them.
+	 * 
+	 * @param username The user who uploads them.
+	 * 
+	 * @param campaign The campaign.
+	 * 
+	 * @param numSurveys The number of survey responses.
+	 * 
+	 * @param numPrompts The number of prompt responses in each survey 
+	 * 					 response.
+	 * 
+	 * @return The number of milliseconds the upload took.
+	 */
+	private static long upload(
+			final SurveyUploadQuery query,
+			final String username,
+			final Campaign campaign,
+			final int numSurveys,
+			final int numPrompts)
+			throws Exception {
+		
+		long time = System.currentTimeMillis();
+		List<SurveyResponse> surveyResponses = 
+			new ArrayList<SurveyResponse>(numSurveys);
+		for(int survey = 0; survey < numSurveys; survey++) {
+			JSONArray responses = new JSONArray();
+			for(int prompt = 0; prompt < numPrompts; prompt++) {
+				JSONObject response = new JSONObject();
+				response.put("prompt_id", "prompt" + prompt);
+				response.put("value", prompt);
+				responses.put(response);
+			}
+			
+			JSONObject launchContext = new JSONObject();
+			launchContext.put("launch_time", time);
+			launchContext.put("launch_timezone", "UTC");
+			launchContext.put("active_triggers", new JSONArray());
+			
+			JSONObject surveyResponse = new JSONObject();
+			surveyResponse.put("survey_key", UUID.randomUUID().toString());
+			surveyResponse.put("time", time - survey);
+			surveyResponse.put("timezone", "UTC");
+			surveyResponse.put("location_status", "unavailable");
+			surveyResponse.put("survey_id", SURVEY_ID);
+			surveyResponse.put("survey_launch_context", launchContext);
+			surveyResponse.put("responses", responses);
+			
+			surveyResponses.add(
+				new SurveyResponse(
+					username, 
+					campaign.getId(), 
+					CLIENT, 
+					campaign, 
+					surveyResponse));
+		}
+		
+		long start = System.currentTimeMillis();
+		query.insertSurveys(
+			username, 
+			CLIENT, 
+			campaign.getId(), 
+			surveyResponses, 
+			Collections.<String, byte[]>emptyMap(), 
+			Collections.<String, Video>emptyMap());
+		return System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Returns the XML of a campaign with one survey of number prompts.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param numPrompts The number of prompts.
+	 * 
+	 * @return The XML.
+	 */
+	private static String getCampaignXml(
+			final String campaignId,
+			final int numPrompts) {
+		
+		StringBuilder xml = new StringBuilder();
+		xml.append("<campaign>");
+		xml.append("<campaignUrn>").append(campaignId).append("</campaignUrn>");
+		xml.append("<campaignName>").append(campaignId).append("</campaignName>");
+		xml.append("<surveys><survey>");
+		xml.append("<id>").append(SURVEY_ID).append("</id>");
+		xml.append("<title>Benchmark</title>");
+		xml.append("<submitText>Done.</submitText>");
+		xml.append("<showSummary>false</showSummary>");
+		xml.append("<anytime>true</anytime>");
+		xml.append("<contentList>");
+		for(int prompt = 0; prompt < numPrompts; prompt++) {
+			xml.append("<prompt>");
+			xml.append("<id>prompt").append(prompt).append("</id>");
+			xml.append("<displayType>count</displayType>");
+			xml.append("<displayLabel>Prompt ").append(prompt).append("</displayLabel>");
+			xml.append("<promptText>How many?</promptText>");
+			xml.append("<promptType>number</promptType>");
+			xml.append("<properties>");
+			xml.append("<property><key>min</key><label>0</label></property>");
+			xml.append("<property><key>max</key><label>1000</label></property>");
+			xml.append("</properties>");
+			xml.append("<skippable>false</skippable>");
+			xml.append("</prompt>");
+		}
+		xml.append("</contentList>");
+		xml.append("</survey></surveys>");
+		xml.append("</campaign>");
+		return xml.toString();
+	}
+	
+	/**
+	 * Creates a directory that stands in for the web application's root,
+	 * which only needs an empty system properties file, and makes it the
+	 * root.
+	 * 
+	 * @return The directory.
+	 */
+	private static File createWebappRoot() throws Exception {
+		File root = File.createTempFile("ohmage", "");
+		root.delete();
+		
+		File properties = new File(root, "WEB-INF/properties");
+		properties.mkdirs();
+		new FileOutputStream(new File(properties, "system.properties"))
+			.close();
+		
+		System.setProperty("webapp.root", root.getAbsolutePath());
+		return root;
+	}
+	
+	/**
+	 * Creates the preference cache, from which the survey responses' default
+	 * privacy state is read.
+	 * 
+	 * @param dataSource The database.
+	 */
+	private static void createPreferenceCache(
+			final DataSource dataSource)
+			throws Exception {
+		
+		Constructor<PreferenceCache> constructor =
+			PreferenceCache.class.getDeclaredConstructor(
+				DataSource.class, 
+				long.class);
+		constructor.setAccessible(true);
+		constructor.newInstance(dataSource, PREFERENCE_LIFETIME_MILLIS);
+	}
+	
+	/**
+	 * Creates a survey upload query.
+	 * 
+	 * @param dataSource The database.
+	 * 
+	 * @param maxPromptResponsesPerInsert The maximum number of prompt 
+	 * 									  responses it inserts with one 
+	 * 									  statement.
+	 * 
+	 * @return The query.
+	 */
+	private static SurveyUploadQuery createQuery(
+			final DataSource dataSource,
+			final int maxPromptResponsesPerInsert)
+			throws Exception {
+		
+		Constructor<SurveyUploadQuery> constructor =
+			SurveyUploadQuery.class.getDeclaredConstructor(
+				DataSource.class, 
+				int.class);
+		constructor.setAccessible(true);
+		return constructor.newInstance(
+			dataSource, 
+			maxPromptResponsesPerInsert);
+	}
+}
@@ -381,4 +381,72 @@ public class CampaignValidatorsTest extends TestCase {
 			fail("A validation exception was thrown: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Test the number of campaigns to skip validator.
+	 */
+	@Test
+	public void testValidateNumToSkip() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertEquals(0, CampaignValidators.validateNumToSkip(emptyValue));
+			}
+			
+			try {
+				CampaignValidators.validateNumToSkip("Invalid value.");
+				fail("The number to skip was not a number.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			try {
+				CampaignValidators.validateNumToSkip("-1");
+				fail("The number to skip was negative.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			Assert.assertEquals(0, CampaignValidators.validateNumToSkip("0"));
+			Assert.assertEquals(10, CampaignValidators.validateNumToSkip("10"));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Test the number of campaigns to return validator.
+	 */
+	@Test
+	public void testValidateNumToReturn() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertEquals(Campaign.MAX_NUM_TO_RETURN, CampaignValidators.validateNumToReturn(emptyValue));
+			}
+			
+			try {
+				CampaignValidators.validateNumToReturn("Invalid value.");
+				fail("The number to return was not a number.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			try {
+				CampaignValidators.validateNumToReturn("-1");
+				fail("The number to return was negative.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			Assert.assertEquals(0, CampaignValidators.validateNumToReturn("0"));
+			Assert.assertEquals(10, CampaignValidators.validateNumToReturn("10"));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
 }
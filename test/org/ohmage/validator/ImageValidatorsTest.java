@@ -15,8 +15,13 @@
  ******************************************************************************/
 package org.ohmage.validator;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.UUID;
 
+import javax.imageio.ImageIO;
+
 import junit.framework.TestCase;
 
 import org.junit.Assert;
@@ -110,4 +115,47 @@ public class ImageValidatorsTest extends TestCase {
 			fail("A validation exception was thrown: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Tests the image data validator.
+	 */
+	@Test
+	public void testValidateImageData() {
+		try {
+			Assert.assertNull(ImageValidators.validateImageData(null));
+			Assert.assertNull(ImageValidators.validateImageData(new byte[0]));
+			
+			try {
+				ImageValidators.validateImageData("Invalid value.".getBytes());
+				fail("The image data was invalid.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+			ImageIO.write(
+					new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB), 
+					"png", 
+					imageBytes);
+			byte[] image = imageBytes.toByteArray();
+			Assert.assertSame(image, ImageValidators.validateImageData(image));
+			
+			try {
+				byte[] truncated = new byte[16];
+				System.arraycopy(image, 0, truncated, 0, truncated.length);
+				ImageValidators.validateImageData(truncated);
+				fail("The image data was truncated.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+		catch(IOException e) {
+			fail("The test image could not be created: " + e.getMessage());
+		}
+	}
 }
@@ -565,6 +565,50 @@ public class SurveyResponseValidatorsTest extends TestCase {
 		}
 	}
 	
+	/**
+	 * Tests the continuation token validator.
+	 */
+	@Test
+	public void testValidateContinuationToken() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(SurveyResponseValidators.validateContinuationToken(emptyValue));
+			}
+			
+			String[] invalidTokens = 
+					new String[] { 
+						"Invalid value.", 
+						"12345", 
+						"zz." + "not-a-uuid", 
+						"." + UUID.randomUUID().toString(),
+						"!!." + UUID.randomUUID().toString() };
+			for(String invalidToken : invalidTokens) {
+				try {
+					SurveyResponseValidators.validateContinuationToken(invalidToken);
+					fail("The continuation token was invalid: " + invalidToken);
+				}
+				catch(ValidationException e) {
+					// Passed.
+				}
+			}
+			
+			UUID uuid = UUID.randomUUID();
+			long time = System.currentTimeMillis();
+			SurveyResponse.ContinuationToken token = 
+					SurveyResponseValidators.validateContinuationToken(
+							Long.toString(time, 36) + "." + uuid.toString());
+			Assert.assertEquals(time, token.getTime());
+			Assert.assertEquals(uuid, token.getSurveyResponseId());
+			Assert.assertEquals(
+					token.toString(), 
+					SurveyResponseValidators.validateContinuationToken(
+							token.toString()).toString());
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Generates all of the permutations of the given list of SortParameter
 	 * parameters.